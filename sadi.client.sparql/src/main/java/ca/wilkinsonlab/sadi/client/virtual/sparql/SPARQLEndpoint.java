@@ -2,24 +2,35 @@ package ca.wilkinsonlab.sadi.client.virtual.sparql;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.rmi.AccessException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpResponse;
 import org.apache.log4j.Logger;
 
+import ca.wilkinsonlab.sadi.client.Config;
 import ca.wilkinsonlab.sadi.utils.FileUtils;
-import ca.wilkinsonlab.sadi.utils.JsonUtils;
-import ca.wilkinsonlab.sadi.utils.RdfUtils;
+import ca.wilkinsonlab.sadi.utils.SPARQLResultsJSONUtils;
+import ca.wilkinsonlab.sadi.utils.SPARQLResultsReader;
 import ca.wilkinsonlab.sadi.utils.SPARQLResultsXMLUtils;
 import ca.wilkinsonlab.sadi.utils.SPARQLStringUtils;
 import ca.wilkinsonlab.sadi.utils.http.HttpClient;
@@ -72,6 +83,16 @@ public class SPARQLEndpoint
 	protected final static String RESULTS_LIMIT_KEY = "sadi.sparqlResultsLimit";
 	public final static long NO_RESULTS_LIMIT = -1;
 
+	protected final static String PREFETCH_PAGES_CONFIG_KEY = "sadi.sparql.prefetchPages";
+	public final static int DEFAULT_PREFETCH_PAGES = 1;
+
+	/* fetches pages of results in the background while the caller
+	 * consumes the current one...
+	 */
+	private final static ExecutorService pageExecutor = Executors.newCachedThreadPool(new PageThreadFactory());
+
+	protected int prefetchPages;
+
 	protected boolean writable;
 
 	public SPARQLEndpoint(String uri)
@@ -91,6 +112,7 @@ public class SPARQLEndpoint
 		setConstructResultsFormat(constructFormat);
 		setWritable(false);
 		setResultsLimit(NO_RESULTS_LIMIT);
+		setPrefetchPages(Config.getConfiguration().getInt(PREFETCH_PAGES_CONFIG_KEY, DEFAULT_PREFETCH_PAGES));
 		httpClient = new HttpClient();
 	}
 
@@ -151,6 +173,19 @@ public class SPARQLEndpoint
 		this.resultsLimit = resultsLimit;
 	}
 
+	public int getPrefetchPages() {
+		return prefetchPages;
+	}
+
+	/**
+	 * Set the number of pages of results that are requested ahead of the
+	 * page the caller is consuming when the endpoint has a results limit.
+	 * 0 fetches one page at a time; n fetches up to n+1 pages concurrently.
+	 */
+	public void setPrefetchPages(int prefetchPages) {
+		this.prefetchPages = Math.max(prefetchPages, 0);
+	}
+
 	public boolean ping()
 	{
 		try {
@@ -193,84 +228,56 @@ public class SPARQLEndpoint
 
 	public List<Map<String,String>> selectQuery(String query) throws IOException
 	{
-		/* We must use syntaxARQ here so that COUNT(*) queries are allowed. */
-
-		Query jenaQuery = QueryFactory.create(query, Syntax.syntaxARQ);
-		long queryLimit = (jenaQuery.getLimit() == Query.NOLIMIT) ? NO_RESULTS_LIMIT : jenaQuery.getLimit();
-
-		/*
-		 * If the result set for the query is larger than the endpoint
-		 * results limit, issue multiple queries to get the full
-		 * result set.
-		 */
-
-		String origQuery = query;
 		List<Map<String, String>> aggregateResults = new ArrayList<Map<String, String>>();
+		BindingIterator i = selectQueryIterator(query);
+		try {
+			while(i.hasNext())
+				aggregateResults.add(i.next());
+		} catch(IOException e) {
 
-		while(true) {
-
-			InputStream is = null;
-
-			try {
-
-				// We should use GET here so that the HTTP client knows that it is okay to retry on failure
-				HttpResponse response = httpClient.GET(new URL(getURI()), getParamsForSelectQuery(query));
-
-				int statusCode = response.getStatusLine().getStatusCode();
-				if (HttpUtils.isHttpError(statusCode))
-					throw new HttpStatusException(statusCode);
-
-				is = response.getEntity().getContent();
-				List<Map<String,String>> results = convertSelectResponseToBindings(is);
-
-				aggregateResults.addAll(results);
-
-				/*
-				 * If we get a result set size that is exactly the size of the
-				 * endpoint results limit, it probably means that the results
-				 * were truncated.  We can't be 100% sure, but we must issue another
-				 * query to be safe.
-				 */
-
-				if(aggregateResults.size() == queryLimit || getResultsLimit() == NO_RESULTS_LIMIT || results.size() < getResultsLimit()) {
-					break;
-				}
-
-				query = getQueryForNextChunk(origQuery, aggregateResults.size());
-				log.trace(String.format("query results may have been truncated by endpoint limit, issuing additional query: %s", query));
-
-			} catch(IOException e) {
-
-				/*
-				 * TODO: If we get at least some results for the query,
-				 * we want to return them, and just issue a warning about
-				 * the IOException.  In the future, it may be useful for
-				 * the client to have a way of determining if only partial
-				 * results were retrieved.  We could achieve this by
-				 * returning a SPARQLQueryResult object, instead of
-				 * List<Map<String,String>>.
-				 */
-
-				if(aggregateResults.size() > 0) {
-					log.error(String.format("error occurred during query, returning only partial results for: %s", query), e);
-					break;
-				} else {
-					throw e;
-				}
-
-			} finally {
-
-				if(is != null) {
-					FileUtils.simpleClose(is);
-				}
-
+			/*
+			 * TODO: If we get at least some results for the query,
+			 * we want to return them, and just issue a warning about
+			 * the IOException.  In the future, it may be useful for
+			 * the client to have a way of determining if only partial
+			 * results were retrieved.  We could achieve this by
+			 * returning a SPARQLQueryResult object, instead of
+			 * List<Map<String,String>>.
+			 */
+
+			if(aggregateResults.size() > 0) {
+				log.error(String.format("error occurred during query, returning only partial results for: %s", query), e);
+			} else {
+				throw e;
 			}
 
+		} finally {
+			i.close();
 		}
 
 		return aggregateResults;
 	}
 
+	/**
+	 * Returns an iterator over the results of the specified SELECT query.
+	 * If the endpoint has no results limit, the response is parsed as the
+	 * bindings are consumed; otherwise the query is issued one page of
+	 * results at a time, and the next pages are fetched in the background
+	 * (see {@link #setPrefetchPages(int)}) while the caller consumes the
+	 * current one. Either way, the iterator should be closed when the
+	 * caller is done with it.
+	 * @param query the SELECT query
+	 * @return an iterator over the results of the query
+	 * @throws IOException if the first request fails
+	 */
+	public BindingIterator selectQueryIterator(String query) throws IOException
+	{
+		if(getResultsLimit() == NO_RESULTS_LIMIT)
+			return new StreamingBindingIterator(query);
+		else
+			return new PagedBindingIterator(query);
+	}
+
 	public List<Map<String,String>> selectQueryBestEffort(String query) throws IOException
 	{
 		try {
@@ -288,99 +295,67 @@ public class SPARQLEndpoint
 
 	public Model constructQuery(String query, Model accum) throws IOException
 	{
-		/* We must use syntaxARQ here so that COUNT(*) queries are allowed. */
-
-		Query jenaQuery = QueryFactory.create(query, Syntax.syntaxARQ);
-		long queryLimit = (jenaQuery.getLimit() == Query.NOLIMIT) ? NO_RESULTS_LIMIT : jenaQuery.getLimit();
-
-		String origQuery = query;
-//		List<Triple> aggregateResults = new ArrayList<Triple>();
 		Model aggregateResults = accum;
-
-		while(true) {
-
-			InputStream is = null;
-
-			try {
-
-				// We must use GET here so that the HTTP client knows that it is okay to retry on failure
-				HttpResponse response = httpClient.GET(new URL(getURI()), getParamsForConstructQuery(query));
-
-				int statusCode = response.getStatusLine().getStatusCode();
-				if (HttpUtils.isHttpError(statusCode))
-					throw new HttpStatusException(statusCode);
-
-				is = response.getEntity().getContent();
-				Model results = ModelFactory.createDefaultModel();
-				convertConstructResponseToTriples(is, results);
-
-				aggregateResults.add(results);
-
-				/*
-				 * If we get a result set size that is exactly the size of the
-				 * endpoint results limit, it probably means that the results
-				 * were truncated.  We can't be 100% sure, but we must issue another
-				 * query to be safe.
-				 */
-
-				if(aggregateResults.size() == queryLimit || getResultsLimit() == NO_RESULTS_LIMIT || results.size() < getResultsLimit()) {
-					break;
+		Pager<Model> pager = new Pager<Model>(query) {
+			protected Model fetchPage(String query) throws IOException {
+				InputStream is = openQuery(query, getParamsForConstructQuery(query));
+				try {
+					return convertConstructResponseToTriples(is, ModelFactory.createDefaultModel());
+				} finally {
+					FileUtils.simpleClose(is);
 				}
+			}
+			protected long pageSize(Model page) {
+				return page.size();
+			}
+		};
 
-				query = getQueryForNextChunk(origQuery, aggregateResults.size());
-				log.trace(String.format("query results may have been truncated by endpoint limit, issuing additional query: %s", query));
-
+		try {
+			for(Model results = pager.nextPage(); results != null; results = pager.nextPage()) {
+				aggregateResults.add(results);
 				results.close();
+			}
+		} catch(IOException e) {
 
-			} catch(IOException e) {
-
-				/*
-				 * TODO: If we get at least some results for the query,
-				 * we want to return them, and just issue a warning about
-				 * the IOException.  In the future, it may be useful for
-				 * the client to have a way of determining if only partial
-				 * results were retrieved.  We could achieve this by
-				 * returning a SPARQLQueryResult object, instead of
-				 * Collection<Triple>.
-				 */
-
-				if(aggregateResults.size() > 0) {
-					log.error(String.format("error occurred during query, returning only partial results for: %s", query), e);
-					break;
-				} else {
-					throw e;
-				}
-
-			} finally {
-
-				if(is != null) {
-					FileUtils.simpleClose(is);
-				}
-
+			/*
+			 * TODO: If we get at least some results for the query,
+			 * we want to return them, and just issue a warning about
+			 * the IOException.  In the future, it may be useful for
+			 * the client to have a way of determining if only partial
+			 * results were retrieved.  We could achieve this by
+			 * returning a SPARQLQueryResult object, instead of
+			 * Collection<Triple>.
+			 */
+
+			if(aggregateResults.size() > 0) {
+				log.error(String.format("error occurred during query, returning only partial results for: %s", query), e);
+			} else {
+				throw e;
 			}
 
+		} finally {
+			pager.close();
 		}
 
 		return aggregateResults;
 	}
 
-	protected String getQueryForNextChunk(String origQuery, long numResultsRetrieved)
+	/**
+	 * Issue the specified query and return the body of the response.
+	 */
+	protected InputStream openQuery(String query, Map<String,String> params) throws IOException
 	{
-		Query jenaQuery = QueryFactory.create(origQuery);
-
-		jenaQuery.setOffset(numResultsRetrieved);
-
-		/* We must use syntaxARQ here so that COUNT(*) queries are allowed. */
-		long origLimit = QueryFactory.create(origQuery, Syntax.syntaxARQ).getLimit();
-		long newLimit = origLimit - numResultsRetrieved;
+		// We must use GET here so that the HTTP client knows that it is okay to retry on failure
+		HttpResponse response = httpClient.GET(new URL(getURI()), params);
 
-		if(origLimit == Query.NOLIMIT || (newLimit > getResultsLimit())) {
-			jenaQuery.setLimit(Query.NOLIMIT);
-		} else {
-			jenaQuery.setLimit(newLimit);
+		int statusCode = response.getStatusLine().getStatusCode();
+		if (HttpUtils.isHttpError(statusCode)) {
+			if (response.getEntity() != null)
+				FileUtils.simpleClose(response.getEntity().getContent());
+			throw new HttpStatusException(statusCode);
 		}
 
-		return jenaQuery.serialize();
+		return response.getEntity().getContent();
 	}
 
 	protected static String getJenaRDFLangString(ConstructQueryResultsFormat format) {
@@ -623,14 +598,26 @@ public class SPARQLEndpoint
 	}
 
 	protected List<Map<String,String>> convertSelectResponseToBindings(InputStream response) throws IOException
+	{
+		List<Map<String,String>> results = new ArrayList<Map<String,String>>();
+		SPARQLResultsReader reader = getSelectResultsReader(response);
+		try {
+			for(Map<String,String> binding = reader.nextBinding(); binding != null; binding = reader.nextBinding())
+				results.add(binding);
+		} finally {
+			reader.close();
+		}
+		return results;
+	}
+
+	protected SPARQLResultsReader getSelectResultsReader(InputStream response) throws IOException
 	{
 		switch(getSelectResultsFormat()) {
 		case JSON:
-			String responseAsString = IOUtils.toString(response);
-			return JsonUtils.convertJSONToResults(JsonUtils.read(responseAsString));
+			return SPARQLResultsJSONUtils.getResultsReader(response);
 		default:
 		case SPARQL_RESULTS_XML:
-			return SPARQLResultsXMLUtils.getResultsFromSPARQLXML(response);
+			return SPARQLResultsXMLUtils.getResultsReader(response);
 		}
 	}
 
@@ -668,16 +655,255 @@ public class SPARQLEndpoint
 		public AmbiguousPropertyTypeException(String message) { super(message); }
 	}
 
+	/**
+	 * Iterates over the results of a SELECT query.  Like TripleIterator, this can't
+	 * implement the real Iterator interface, because next() and hasNext() fetch
+	 * results from the endpoint.
+	 */
+	public interface BindingIterator
+	{
+		public boolean hasNext() throws IOException;
+		public Map<String,String> next() throws IOException;
+		public void close();
+	}
+
+	/**
+	 * Parses the bindings out of a single response as they are requested.
+	 */
+	private class StreamingBindingIterator implements BindingIterator
+	{
+		private SPARQLResultsReader reader;
+		private Map<String,String> nextBinding;
+
+		public StreamingBindingIterator(String query) throws IOException
+		{
+			reader = getSelectResultsReader(openQuery(query, getParamsForSelectQuery(query)));
+			nextBinding = null;
+		}
+
+		public boolean hasNext() throws IOException
+		{
+			if(nextBinding == null && reader != null) {
+				nextBinding = reader.nextBinding();
+				if(nextBinding == null)
+					close();
+			}
+			return nextBinding != null;
+		}
+
+		public Map<String,String> next() throws IOException
+		{
+			if(!hasNext())
+				throw new NoSuchElementException();
+			Map<String,String> binding = nextBinding;
+			nextBinding = null;
+			return binding;
+		}
+
+		public void close()
+		{
+			if(reader != null) {
+				reader.close();
+				reader = null;
+			}
+		}
+	}
+
+	/**
+	 * Returns the bindings from one page of results at a time.
+	 */
+	private class PagedBindingIterator implements BindingIterator
+	{
+		private Pager<List<Map<String,String>>> pager;
+		private Iterator<Map<String,String>> page;
+
+		public PagedBindingIterator(String query)
+		{
+			pager = new Pager<List<Map<String,String>>>(query) {
+				protected List<Map<String,String>> fetchPage(String query) throws IOException {
+					return convertSelectResponseToBindings(openQuery(query, getParamsForSelectQuery(query)));
+				}
+				protected long pageSize(List<Map<String,String>> page) {
+					return page.size();
+				}
+			};
+			page = null;
+		}
+
+		public boolean hasNext() throws IOException
+		{
+			while(page == null || !page.hasNext()) {
+				List<Map<String,String>> results = pager.nextPage();
+				if(results == null)
+					return false;
+				page = results.iterator();
+			}
+			return true;
+		}
+
+		public Map<String,String> next() throws IOException
+		{
+			if(!hasNext())
+				throw new NoSuchElementException();
+			return page.next();
+		}
+
+		public void close()
+		{
+			pager.close();
+		}
+	}
+
+	/**
+	 * <p>Issues a query one page of results at a time, where a page is as many
+	 * results as the endpoint will return for one request.</p>
+	 *
+	 * <p>Each page is requested with an explicit OFFSET and LIMIT (within the
+	 * OFFSET and LIMIT of the original query, if any), so the requests for the
+	 * following pages can be sent before the current page has been consumed.
+	 * A page with fewer results than were asked for is the last one; any
+	 * requests for later pages are then cancelled.  If the endpoint has no
+	 * results limit, the original query is issued once.</p>
+	 */
+	private abstract class Pager<T>
+	{
+		private final String origQuery;
+		private final Query jenaQuery;
+		private final long pageSize;
+		private long nextOffset;
+		private long remaining;
+		private boolean exhausted;
+		private final LinkedList<Future<T>> pending;
+		private final LinkedList<Long> pendingLimits;
+
+		public Pager(String query)
+		{
+			/* We must use syntaxARQ here so that COUNT(*) queries are allowed. */
+			origQuery = query;
+			jenaQuery = QueryFactory.create(query, Syntax.syntaxARQ);
+			pageSize = getResultsLimit();
+			nextOffset = (jenaQuery.getOffset() == Query.NOLIMIT) ? 0 : jenaQuery.getOffset();
+			remaining = (jenaQuery.getLimit() == Query.NOLIMIT) ? NO_RESULTS_LIMIT : jenaQuery.getLimit();
+			exhausted = false;
+			pending = new LinkedList<Future<T>>();
+			pendingLimits = new LinkedList<Long>();
+		}
+
+		protected abstract T fetchPage(String query) throws IOException;
+
+		protected abstract long pageSize(T page);
+
+		/**
+		 * Returns the next page of results, or null if there are no more.
+		 */
+		public T nextPage() throws IOException
+		{
+			requestPages();
+			if(pending.isEmpty())
+				return null;
+
+			long limit = pendingLimits.removeFirst();
+			T page = waitFor(pending.removeFirst());
+
+			/*
+			 * If we get a result set size that is exactly the size of the
+			 * endpoint results limit, it probably means that the results
+			 * were truncated.  We can't be 100% sure, but we must issue another
+			 * query to be safe.
+			 */
+			if(limit == NO_RESULTS_LIMIT || pageSize(page) < limit)
+				close();
+
+			return page;
+		}
+
+		public void close()
+		{
+			exhausted = true;
+			for(Future<T> future : pending)
+				future.cancel(true);
+			pending.clear();
+			pendingLimits.clear();
+		}
+
+		private void requestPages()
+		{
+			while(!exhausted && pending.size() <= getPrefetchPages()) {
+				final String query;
+				long limit;
+				if(pageSize == NO_RESULTS_LIMIT) {
+					query = origQuery;
+					limit = NO_RESULTS_LIMIT;
+					exhausted = true;
+				} else {
+					limit = (remaining == NO_RESULTS_LIMIT) ? pageSize : Math.min(pageSize, remaining);
+					Query pageQuery = jenaQuery.cloneQuery();
+					pageQuery.setOffset(nextOffset);
+					pageQuery.setLimit(limit);
+					query = pageQuery.serialize();
+					nextOffset += limit;
+					if(remaining != NO_RESULTS_LIMIT) {
+						remaining -= limit;
+						exhausted = (remaining <= 0);
+					}
+					if(pending.size() > 0)
+						log.trace(String.format("query results may have been truncated by endpoint limit, prefetching: %s", query));
+				}
+
+				FutureTask<T> task = new FutureTask<T>(new Callable<T>() {
+					public T call() throws IOException {
+						return fetchPage(query);
+					}
+				});
+				pending.add(task);
+				pendingLimits.add(limit);
+
+				/* nothing to overlap the only request with...
+				 */
+				if(pageSize == NO_RESULTS_LIMIT)
+					task.run();
+				else
+					pageExecutor.execute(task);
+			}
+		}
+	}
+
+	private static <T> T waitFor(Future<T> future) throws IOException
+	{
+		try {
+			return future.get();
+		} catch(InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for query results");
+		} catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException)
+				throw (IOException)cause;
+			else if(cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			else if(cause instanceof Error)
+				throw (Error)cause;
+			IOException e2 = new IOException(cause.getMessage());
+			e2.initCause(cause);
+			throw e2;
+		}
+	}
+
 	/**
 	 * This class iterates over all the triples in a given endpoint.  I couldn't implement the real Iterator
 	 * interface here, because I need to be able to throw an IOException from next() and hasNext().
+	 * The next block of triples is retrieved in the background while the current block is consumed,
+	 * so at most two blocks are held in memory at a time.
 	 */
 	public static class TripleIterator
 	{
 		private final static long  DEFAULT_BLOCK_SIZE = 50000; // triples
-		private List<Triple> tripleCache = null;
-		private int cacheIndex = 0;
-		private int cacheOffset = 0;
+		private Model block = null;
+		private Iterator<Triple> blockIterator = null;
+		private Future<Model> nextBlock = null;
+		private long nextOffset = 0;
+		private boolean finished = false;
 		private SPARQLEndpoint endpoint;
 		private long blockSize;
 
@@ -694,41 +920,81 @@ public class SPARQLEndpoint
 
 		public boolean hasNext() throws IOException
 		{
-			if(tripleCache == null) {
-				return retrieveNextBlock();
-			} else if(cacheIndex >= tripleCache.size()) {
-				// if current block is not the full size, then it is the last one
-				if(tripleCache.size() < blockSize) {
+			while(blockIterator == null || !blockIterator.hasNext()) {
+				if(block != null) {
+					// if current block is not the full size, then it is the last one
+					finished = block.size() < blockSize;
+					block.close();
+					block = null;
+					blockIterator = null;
+				}
+				if(finished) {
+					close();
 					return false;
 				}
-				return retrieveNextBlock();
-			} else {
-				return true;
+				retrieveNextBlock();
 			}
+			return true;
 		}
 
 		public Triple next() throws IOException
 		{
 			if(!hasNext())
 				throw new NoSuchElementException();
-			return tripleCache.get(cacheIndex++);
+			return blockIterator.next();
 		}
 
-		private boolean retrieveNextBlock() throws IOException
+		/**
+		 * Stop iterating and discard any block that is being retrieved.
+		 */
+		public void close()
 		{
-			log.debug("retrieving triples " + cacheOffset + " through " + (cacheOffset + blockSize - 1) + " from " + endpoint.getURI());
-
-			String query = "CONSTRUCT { ?s ?p ?o } WHERE { ?s ?p ?o } LIMIT " + blockSize + " OFFSET " + cacheOffset;
-			tripleCache = new ArrayList<Triple>();
-//			tripleCache.addAll(endpoint.constructQuery(query));
-			Model model = endpoint.constructQuery(query, ModelFactory.createDefaultModel());
-			tripleCache.addAll(RdfUtils.modelToTriples(model));
-			cacheOffset += blockSize;
-			cacheIndex = 0;
-			if(tripleCache.size() > 0)
-				return true;
-			else
-				return false;
+			finished = true;
+			if(nextBlock != null) {
+				nextBlock.cancel(true);
+				nextBlock = null;
+			}
+			if(block != null) {
+				block.close();
+				block = null;
+				blockIterator = null;
+			}
+		}
+
+		private void retrieveNextBlock() throws IOException
+		{
+			if(nextBlock == null)
+				nextBlock = requestBlock();
+			block = waitFor(nextBlock);
+			nextBlock = (block.size() < blockSize) ? null : requestBlock();
+			blockIterator = block.getGraph().find(Node.ANY, Node.ANY, Node.ANY);
+		}
+
+		private Future<Model> requestBlock()
+		{
+			final long offset = nextOffset;
+			nextOffset += blockSize;
+			FutureTask<Model> task = new FutureTask<Model>(new Callable<Model>() {
+				public Model call() throws IOException {
+					log.debug("retrieving triples " + offset + " through " + (offset + blockSize - 1) + " from " + endpoint.getURI());
+					String query = "CONSTRUCT { ?s ?p ?o } WHERE { ?s ?p ?o } LIMIT " + blockSize + " OFFSET " + offset;
+					return endpoint.constructQuery(query, ModelFactory.createDefaultModel());
+				}
+			});
+			pageExecutor.execute(task);
+			return task;
+		}
+	}
+
+	private static class PageThreadFactory implements ThreadFactory
+	{
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, String.format("%s-%d", SPARQLEndpoint.class.getSimpleName(), threadNumber.getAndIncrement()));
+			t.setDaemon(true);
+			return t;
 		}
 	}
 }
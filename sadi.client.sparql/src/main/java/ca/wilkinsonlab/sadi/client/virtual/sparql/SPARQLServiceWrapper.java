@@ -5,6 +5,18 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
@@ -22,10 +34,22 @@ import com.hp.hpl.jena.graph.Triple;
 import com.hp.hpl.jena.graph.test.NodeCreateUtils;
 import com.hp.hpl.jena.ontology.OntClass;
 import com.hp.hpl.jena.ontology.Restriction;
+import com.hp.hpl.jena.query.Query;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.ModelFactory;
 import com.hp.hpl.jena.rdf.model.RDFNode;
 import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.sparql.core.Var;
+import com.hp.hpl.jena.sparql.expr.E_LogicalOr;
+import com.hp.hpl.jena.sparql.expr.E_SameTerm;
+import com.hp.hpl.jena.sparql.expr.Expr;
+import com.hp.hpl.jena.sparql.expr.ExprVar;
+import com.hp.hpl.jena.sparql.expr.NodeValue;
+import com.hp.hpl.jena.sparql.syntax.ElementFilter;
+import com.hp.hpl.jena.sparql.syntax.ElementGroup;
+import com.hp.hpl.jena.sparql.syntax.ElementTriplesBlock;
+import com.hp.hpl.jena.sparql.syntax.ElementUnion;
+import com.hp.hpl.jena.sparql.syntax.TemplateGroup;
 
 /**
  * A proxy object which exposes a SPARQL endpoint as a Service.
@@ -37,8 +61,31 @@ public class SPARQLServiceWrapper implements Service
 
 	protected static final String RESULTS_LIMIT_CONFIG_KEY = "sadi.sparql.resultsLimit";
 	protected static final String BATCH_QUERIES_CONFIG_KEY = "share.sparql.batchQueries";
+	protected static final String BATCH_SIZE_CONFIG_KEY = "sadi.sparql.batchSize";
+	protected static final String BATCH_SYNTAX_CONFIG_KEY = "sadi.sparql.batchSyntax";
+	protected static final String MAX_CONCURRENT_QUERIES_CONFIG_KEY = "sadi.sparql.maxConcurrentQueries";
+	protected static final String TARGET_QUERY_TIME_CONFIG_KEY = "sadi.sparql.targetQueryTime";
+	public static final int DEFAULT_BATCH_SIZE = 50;
+	public static final int DEFAULT_MAX_CONCURRENT_QUERIES = 4;
+	public static final long DEFAULT_TARGET_QUERY_TIME = 10000; // ten seconds
+	
+	/**
+	 * How a block of inputs is combined into one query.
+	 * UNION matches each input with its own triple pattern; FILTER matches
+	 * a single triple pattern and keeps the solutions whose input is one
+	 * of the block. Both are valid SPARQL 1.0.
+	 */
+	public enum BatchSyntax { UNION, FILTER };
+	
+	/* runs the batched queries; the number of concurrent queries against
+	 * each endpoint is limited separately...
+	 */
+	private static final ExecutorService queryExecutor = Executors.newCachedThreadPool(new QueryThreadFactory());
+	private static final ConcurrentMap<String, EndpointState> endpointStates = new ConcurrentHashMap<String, EndpointState>();
+	
 	protected long resultsLimit;
 	protected boolean batchQueries;
+	protected BatchSyntax batchSyntax;
 	
 	protected SPARQLEndpoint endpoint;
 	protected SPARQLRegistry registry;
@@ -56,6 +103,12 @@ public class SPARQLServiceWrapper implements Service
 
 		setResultsLimit(Config.getConfiguration().getLong(RESULTS_LIMIT_CONFIG_KEY, SPARQLEndpoint.NO_RESULTS_LIMIT));
 		setBatchQueries(Config.getConfiguration().getBoolean(BATCH_QUERIES_CONFIG_KEY, true));
+		try {
+			setBatchSyntax(BatchSyntax.valueOf(Config.getConfiguration().getString(BATCH_SYNTAX_CONFIG_KEY, BatchSyntax.UNION.toString()).toUpperCase()));
+		} catch (IllegalArgumentException e) {
+			log.warn(String.format("unknown value for %s; using %s", BATCH_SYNTAX_CONFIG_KEY, BatchSyntax.UNION));
+			setBatchSyntax(BatchSyntax.UNION);
+		}
 	}
 	
 	@Override
@@ -188,6 +241,9 @@ public class SPARQLServiceWrapper implements Service
 	public boolean getBatchQueries() { return batchQueries; }
 	public void setBatchQueries(boolean batchQueries) { this.batchQueries = batchQueries; }
 	
+	public BatchSyntax getBatchSyntax() { return batchSyntax; }
+	public void setBatchSyntax(BatchSyntax batchSyntax) { this.batchSyntax = batchSyntax; }
+	
 	public SPARQLEndpoint getEndpoint() { return endpoint; }
 	public void setEndpoint(SPARQLEndpoint endpoint) {	this.endpoint = endpoint;	}
 
@@ -227,6 +283,10 @@ public class SPARQLServiceWrapper implements Service
 
 	public Model invokeServiceOnRDFNodes(Iterator<? extends RDFNode> inputNodes, Model accum) throws ServiceInvocationException 
 	{
+		if(getBatchQueries()) {
+			return invokeServiceOnRDFNodesInBatches(inputNodes, null, accum);
+		}
+		
 		if(!getEndpoint().ping()) {
 			throw new ServiceInvocationException("SPARQL endpoint not responding: " + getEndpoint());
 		}
@@ -241,6 +301,10 @@ public class SPARQLServiceWrapper implements Service
 
 	public Model invokeServiceOnRDFNodes(Collection<? extends RDFNode> inputNodes, String predicate, Model accum) throws ServiceInvocationException 
 	{
+		if(getBatchQueries()) {
+			return invokeServiceOnRDFNodesInBatches(inputNodes.iterator(), predicate, accum);
+		}
+		
 		if(inputNodes.size() > 1 && !getEndpoint().ping()) {
 			throw new ServiceInvocationException("SPARQL endpoint not responding: " + getEndpoint());
 		}
@@ -253,6 +317,151 @@ public class SPARQLServiceWrapper implements Service
 		return accum;
 	}
 	
+	/**
+	 * Resolve the input nodes in blocks, one query per block, with several
+	 * blocks in flight at once.  The block size starts at sadi.sparql.batchSize
+	 * and adapts to the endpoint: it shrinks when a block takes longer than
+	 * sadi.sparql.targetQueryTime or fills the endpoint's results limit, and
+	 * grows back when blocks come back quickly.  At most
+	 * sadi.sparql.maxConcurrentQueries queries run against one endpoint at a time.
+	 * @param inputNodes the input nodes
+	 * @param predicate the predicate to resolve, or null for all predicates
+	 * @param accum the model that the results are added to
+	 * @return accum
+	 * @throws ServiceInvocationException if any of the queries fails
+	 */
+	protected Model invokeServiceOnRDFNodesInBatches(Iterator<? extends RDFNode> inputNodes, String predicate, Model accum) throws ServiceInvocationException
+	{
+		EndpointState state = getEndpointState();
+		List<Future<Model>> futures = new ArrayList<Future<Model>>();
+		try {
+			while (inputNodes.hasNext()) {
+				/* wait for a free slot before building the next block, so that
+				 * it's sized according to what we've learned so far...
+				 */
+				state.permits.acquire();
+				boolean submitted = false;
+				try {
+					int blockSize = state.getBlockSize();
+					final List<RDFNode> block = new ArrayList<RDFNode>(blockSize);
+					while (inputNodes.hasNext() && block.size() < blockSize)
+						block.add(inputNodes.next());
+					final String query = getBatchConstructQuery(block, predicate);
+					final EndpointState blockState = state;
+					/* once the block is submitted, release the permit in done()
+					 * rather than in call(), so that it's released even if the
+					 * block is cancelled before it runs...
+					 */
+					FutureTask<Model> future = new FutureTask<Model>(new Callable<Model>() {
+						public Model call() throws Exception {
+							long start = System.currentTimeMillis();
+							Model results = getEndpoint().constructQuery(query, ModelFactory.createDefaultModel());
+							blockState.recordBlock(block.size(), results.size(), System.currentTimeMillis() - start, getEndpoint().getResultsLimit());
+							return results;
+						}
+					}) {
+						@Override
+						protected void done() {
+							blockState.permits.release();
+						}
+					};
+					queryExecutor.execute(future);
+					submitted = true;
+					futures.add(future);
+				} finally {
+					if (!submitted)
+						state.permits.release();
+				}
+			}
+			
+			for (Future<Model> future: futures) {
+				Model results = future.get();
+				accum.add(results);
+				results.close();
+			}
+			return accum;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServiceInvocationException(String.format("interrupted while querying %s", getEndpoint()), e);
+		} catch (ExecutionException e) {
+			throw new ServiceInvocationException(e.getCause().getMessage(), e.getCause());
+		} finally {
+			for (Future<Model> future: futures)
+				future.cancel(true);
+		}
+	}
+	
+	protected String getBatchConstructQuery(List<RDFNode> inputNodes, String predicate)
+	{
+		Query query = new Query();
+		query.setQueryConstructType();
+		TemplateGroup template = new TemplateGroup();
+		ElementGroup where = new ElementGroup();
+		
+		switch (getBatchSyntax()) {
+		case FILTER:
+			Node input = Var.alloc("input");
+			Triple pattern = getTriplePatternRepresentingServiceInvocation(input, predicate, 0);
+			template.addTriple(pattern);
+			ElementTriplesBlock triples = new ElementTriplesBlock();
+			triples.addTriple(pattern);
+			where.addElement(triples);
+			Expr filter = null;
+			for (RDFNode inputNode: inputNodes) {
+				Expr sameTerm = new E_SameTerm(new ExprVar(input), NodeValue.makeNode(inputNode.asNode()));
+				filter = (filter == null) ? sameTerm : new E_LogicalOr(filter, sameTerm);
+			}
+			where.addElementFilter(new ElementFilter(filter));
+			break;
+		default:
+		case UNION:
+			ElementUnion union = new ElementUnion();
+			int i = 0;
+			for (RDFNode inputNode: inputNodes) {
+				Triple inputPattern = getTriplePatternRepresentingServiceInvocation(inputNode.asNode(), predicate, i++);
+				template.addTriple(inputPattern);
+				ElementTriplesBlock inputTriples = new ElementTriplesBlock();
+				inputTriples.addTriple(inputPattern);
+				union.addElement(inputTriples);
+			}
+			where.addElement(union);
+		}
+		
+		query.setConstructTemplate(template);
+		query.setQueryPattern(where);
+		return query.serialize();
+	}
+	
+	/* as getTriplePatternRepresentingServiceInvocation, but with variables
+	 * numbered so that the patterns for several inputs can be combined...
+	 */
+	private Triple getTriplePatternRepresentingServiceInvocation(Node input, String predicate, int index)
+	{
+		Node p = (predicate != null) ? NodeCreateUtils.create(predicate) : Var.alloc("p" + index);
+		Node var = Var.alloc("o" + index);
+		if(mapInputsToObjectPosition()) {
+			return new Triple(var, p, input);
+		} else {
+			if(input.isLiteral()) {
+				throw new RuntimeException("used a triple pattern where the subject is a literal.");
+			}
+			return new Triple(input, p, var);
+		}
+	}
+	
+	private EndpointState getEndpointState()
+	{
+		EndpointState state = endpointStates.get(getURI());
+		if (state == null) {
+			endpointStates.putIfAbsent(getURI(), new EndpointState(
+					Config.getConfiguration().getInt(BATCH_SIZE_CONFIG_KEY, DEFAULT_BATCH_SIZE),
+					Config.getConfiguration().getInt(MAX_CONCURRENT_QUERIES_CONFIG_KEY, DEFAULT_MAX_CONCURRENT_QUERIES),
+					Config.getConfiguration().getLong(TARGET_QUERY_TIME_CONFIG_KEY, DEFAULT_TARGET_QUERY_TIME)));
+			state = endpointStates.get(getURI());
+		}
+		return state;
+	}
+	
 	@Override
 	public String toString()
 	{
@@ -428,4 +637,56 @@ public class SPARQLServiceWrapper implements Service
 	{
 		return Collections.emptyList();
 	}
+	
+	/* what we've learned about an endpoint, shared by every service that
+	 * wraps it...
+	 */
+	private static class EndpointState
+	{
+		final Semaphore permits;
+		final int maxBlockSize;
+		final long targetQueryTime;
+		volatile int blockSize;
+		
+		EndpointState(int maxBlockSize, int maxConcurrentQueries, long targetQueryTime)
+		{
+			this.permits = new Semaphore(Math.max(1, maxConcurrentQueries));
+			this.maxBlockSize = Math.max(1, maxBlockSize);
+			this.targetQueryTime = targetQueryTime;
+			this.blockSize = this.maxBlockSize;
+		}
+		
+		int getBlockSize()
+		{
+			return blockSize;
+		}
+		
+		synchronized void recordBlock(int inputs, long results, long time, long resultsLimit)
+		{
+			/* if a block filled the results limit, the endpoint had to page
+			 * through the results; if it was slow, we risk a timeout; either
+			 * way, make the next block smaller...
+			 */
+			boolean truncated = resultsLimit != SPARQLEndpoint.NO_RESULTS_LIMIT && results >= resultsLimit;
+			if (truncated || time > targetQueryTime) {
+				blockSize = Math.max(1, inputs / 2);
+				log.debug(String.format("reducing block size to %d (%d results in %dms)", blockSize, results, time));
+			} else if (time < targetQueryTime / 4 && inputs >= blockSize && blockSize < maxBlockSize) {
+				blockSize = Math.min(maxBlockSize, Math.max(blockSize + 1, blockSize * 3 / 2));
+				log.trace(String.format("increasing block size to %d (%d results in %dms)", blockSize, results, time));
+			}
+		}
+	}
+	
+	private static class QueryThreadFactory implements ThreadFactory
+	{
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+		
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, String.format("%s-%d", SPARQLServiceWrapper.class.getSimpleName(), threadNumber.getAndIncrement()));
+			t.setDaemon(true);
+			return t;
+		}
+	}
 }
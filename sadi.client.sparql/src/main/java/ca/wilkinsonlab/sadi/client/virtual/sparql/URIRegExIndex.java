@@ -0,0 +1,218 @@
+package ca.wilkinsonlab.sadi.client.virtual.sparql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * <p>An immutable index of the regular expressions that describe the subject
+ * or object URIs of each endpoint in a SPARQL registry.</p>
+ *
+ * <p>Each regular expression is compiled once.  The registry's regular
+ * expressions are alternations of anchored URI prefixes (e.g.
+ * <code>^http://a/|^http://b/</code>), so the literal prefix of each
+ * alternative is stored in a trie; a URI is routed through the trie to the
+ * endpoints with a matching prefix, and only their compiled patterns are run
+ * against it.  Alternatives that don't start with a literal prefix are
+ * always checked with the compiled pattern.</p>
+ */
+public class URIRegExIndex
+{
+	public final static Logger log = Logger.getLogger(URIRegExIndex.class);
+
+	private final static String META_CHARS = "\\^$.|?*+()[]{}";
+
+	private final Map<String, String> regexes;
+	private final Map<String, Pattern> patterns;
+	private final TrieNode root;
+	private final Set<String> unroutable;
+
+	/**
+	 * Build an index from a map of endpoint URIs to regular expressions.
+	 * @param regexes the regular expression for each endpoint
+	 */
+	public URIRegExIndex(Map<String, String> regexes)
+	{
+		this.regexes = Collections.unmodifiableMap(new HashMap<String, String>(regexes));
+		patterns = new HashMap<String, Pattern>();
+		root = new TrieNode();
+		unroutable = new HashSet<String>();
+
+		for(Map.Entry<String, String> entry : this.regexes.entrySet()) {
+			String endpointURI = entry.getKey();
+			String regex = entry.getValue();
+			try {
+				patterns.put(endpointURI, Pattern.compile(regex));
+			} catch(PatternSyntaxException e) {
+				log.warn(String.format("invalid regex for %s, assuming it matches all URIs: %s", endpointURI, regex), e);
+				unroutable.add(endpointURI);
+				continue;
+			}
+			for(String branch : splitAlternatives(regex)) {
+				String prefix = getLiteralPrefix(branch);
+				if(prefix == null || prefix.length() == 0)
+					unroutable.add(endpointURI);
+				else
+					root.add(prefix, endpointURI);
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the index has a regular expression for the specified endpoint.
+	 */
+	public boolean containsEndpoint(String endpointURI)
+	{
+		return regexes.containsKey(endpointURI);
+	}
+
+	/**
+	 * Returns the regular expression for the specified endpoint, or null if there is none.
+	 */
+	public String getRegEx(String endpointURI)
+	{
+		return regexes.get(endpointURI);
+	}
+
+	/**
+	 * Returns true if the specified URI matches the regular expression for the
+	 * specified endpoint.  Endpoints without a (valid) regular expression match
+	 * every URI.
+	 */
+	public boolean matches(String endpointURI, String uri)
+	{
+		Pattern pattern = patterns.get(endpointURI);
+		return pattern == null || pattern.matcher(uri).find();
+	}
+
+	/**
+	 * Returns the endpoints whose regular expression matches the specified URI.
+	 * Endpoints that aren't in the index aren't included.
+	 */
+	public Set<String> getMatchingEndpoints(String uri)
+	{
+		Set<String> candidates = new HashSet<String>(unroutable);
+		root.collect(uri, candidates);
+
+		Set<String> matches = new HashSet<String>();
+		for(String endpointURI : candidates) {
+			if(matches(endpointURI, uri))
+				matches.add(endpointURI);
+		}
+		return matches;
+	}
+
+	/**
+	 * Split a regular expression into its top-level alternatives.
+	 */
+	protected static List<String> splitAlternatives(String regex)
+	{
+		List<String> branches = new ArrayList<String>();
+		int depth = 0;
+		boolean inClass = false;
+		int start = 0;
+		for(int i = 0; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			if(c == '\\') {
+				i++;
+			} else if(inClass) {
+				if(c == ']')
+					inClass = false;
+			} else if(c == '[') {
+				inClass = true;
+			} else if(c == '(') {
+				depth++;
+			} else if(c == ')') {
+				depth--;
+			} else if(c == '|' && depth == 0) {
+				branches.add(regex.substring(start, i));
+				start = i + 1;
+			}
+		}
+		branches.add(regex.substring(start));
+		return branches;
+	}
+
+	/**
+	 * Returns the literal string that every match of an anchored alternative
+	 * must start with, or null if the alternative isn't anchored.
+	 */
+	protected static String getLiteralPrefix(String branch)
+	{
+		if(!branch.startsWith("^"))
+			return null;
+
+		StringBuilder prefix = new StringBuilder();
+		int i = 1;
+		while(i < branch.length()) {
+			char c = branch.charAt(i);
+			char literal;
+			int next;
+			if(c == '\\') {
+				// escaped letters and digits are character classes, back references, etc.
+				if(i + 1 >= branch.length() || Character.isLetterOrDigit(branch.charAt(i + 1)))
+					break;
+				literal = branch.charAt(i + 1);
+				next = i + 2;
+			} else if(META_CHARS.indexOf(c) >= 0) {
+				break;
+			} else {
+				literal = c;
+				next = i + 1;
+			}
+			// a quantified character is optional (or repeated), so it can't be part of the prefix
+			if(next < branch.length() && "?*+{".indexOf(branch.charAt(next)) >= 0)
+				break;
+			prefix.append(literal);
+			i = next;
+		}
+		return prefix.toString();
+	}
+
+	private static class TrieNode
+	{
+		private Map<Character, TrieNode> children;
+		private Set<String> endpoints;
+
+		public void add(String prefix, String endpointURI)
+		{
+			TrieNode node = this;
+			for(int i = 0; i < prefix.length(); i++) {
+				if(node.children == null)
+					node.children = new HashMap<Character, TrieNode>();
+				TrieNode child = node.children.get(prefix.charAt(i));
+				if(child == null) {
+					child = new TrieNode();
+					node.children.put(prefix.charAt(i), child);
+				}
+				node = child;
+			}
+			if(node.endpoints == null)
+				node.endpoints = new HashSet<String>();
+			node.endpoints.add(endpointURI);
+		}
+
+		/**
+		 * Add the endpoints with a prefix of the specified URI to the specified set.
+		 */
+		public void collect(String uri, Set<String> accum)
+		{
+			TrieNode node = this;
+			for(int i = 0; node != null; i++) {
+				if(node.endpoints != null)
+					accum.addAll(node.endpoints);
+				if(i >= uri.length() || node.children == null)
+					break;
+				node = node.children.get(uri.charAt(i));
+			}
+		}
+	}
+}
@@ -4,14 +4,17 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.lang.StringUtils;
@@ -50,11 +53,24 @@ public class VirtuosoSPARQLRegistry extends VirtuosoSPARQLEndpoint implements SP
 	protected static final String INDEX_GRAPH_CONFIG_KEY = "indexGraph";
 	protected static final String USERNAME_CONFIG_KEY = "username";
 	protected static final String PASSWORD_CONFIG_KEY = "password";
+	protected static final String REGEX_REFRESH_INTERVAL_CONFIG_KEY = "regexRefreshInterval";
+	public static final long NO_REGEX_REFRESH = 0;
+
+	/* refreshes the regex indexes in the background, so that lookups can
+	 * keep using the old indexes in the meantime...
+	 */
+	private static final ExecutorService refreshExecutor = Executors.newSingleThreadExecutor(new RefreshThreadFactory());
 
 	private String indexGraphURI;
 
-	private Map<String, String> subjectRegExMap;
-	private Map<String, String> objectRegExMap;
+	/* each index is immutable and is replaced as a whole when it is
+	 * refreshed, so readers never need to lock...
+	 */
+	private volatile URIRegExIndex subjectRegExIndex;
+	private volatile URIRegExIndex objectRegExIndex;
+	private volatile long regExIndexTimestamp;
+	private long regExRefreshInterval;
+	private final AtomicBoolean refreshPending = new AtomicBoolean(false);
 
 	public VirtuosoSPARQLRegistry(Configuration config) throws IOException
 	{
@@ -68,6 +84,7 @@ public class VirtuosoSPARQLRegistry extends VirtuosoSPARQLEndpoint implements SP
 			config.getString(INDEX_GRAPH_CONFIG_KEY),
 			config.getString(USERNAME_CONFIG_KEY),
 			config.getString(PASSWORD_CONFIG_KEY));
+		setRegExRefreshInterval(config.getLong(REGEX_REFRESH_INTERVAL_CONFIG_KEY, NO_REGEX_REFRESH));
 	}
 	
 	public VirtuosoSPARQLRegistry(String URI, String indexGraphURI) throws IOException
@@ -79,7 +96,8 @@ public class VirtuosoSPARQLRegistry extends VirtuosoSPARQLEndpoint implements SP
 	{
 		super(URI, username, password);
 		this.indexGraphURI = indexGraphURI;
-		initRegExMaps();
+		this.regExRefreshInterval = NO_REGEX_REFRESH;
+		refreshRegExIndexes();
 	}
 
 	public String getIndexGraphURI() 
@@ -89,6 +107,21 @@ public class VirtuosoSPARQLRegistry extends VirtuosoSPARQLEndpoint implements SP
 
 	public String getRegistryURI() { return this.getURI(); }
 
+	public long getRegExRefreshInterval()
+	{
+		return regExRefreshInterval;
+	}
+
+	/**
+	 * Set how often (in milliseconds) the subject/object regular expressions are
+	 * reloaded from the index graph, or NO_REGEX_REFRESH to load them only once.
+	 * The reload happens in the background when a lookup finds the indexes are stale.
+	 */
+	public void setRegExRefreshInterval(long regExRefreshInterval)
+	{
+		this.regExRefreshInterval = regExRefreshInterval;
+	}
+
 	public Collection<String> getAllPredicates() throws IOException 
 	{
 		log.trace("retrieving list of all predicates from SPARQL registry");
@@ -104,14 +137,21 @@ public class VirtuosoSPARQLRegistry extends VirtuosoSPARQLEndpoint implements SP
 		return predicates;
 	}
 
-	private void initRegExMaps() throws IOException
+	/**
+	 * Reload the regular expressions for subject/object URIs from the index graph.
+	 * Lookups continue to use the previous indexes until the new ones are built.
+	 */
+	public void refreshRegExIndexes() throws IOException
 	{
 		log.trace("loading regular expressions for subject/object URIs");
-		initRegExMap(true);
-		initRegExMap(false);
+		URIRegExIndex subjectIndex = new URIRegExIndex(loadRegExMap(true));
+		URIRegExIndex objectIndex = new URIRegExIndex(loadRegExMap(false));
+		subjectRegExIndex = subjectIndex;
+		objectRegExIndex = objectIndex;
+		regExIndexTimestamp = System.currentTimeMillis();
 	}
-	
-	private void initRegExMap(boolean mapIsForSubject) throws IOException
+
+	private Map<String, String> loadRegExMap(boolean mapIsForSubject) throws IOException
 	{
 		String queryTemplate = 
 				"SELECT * FROM %u% WHERE {\n" +
@@ -120,17 +160,13 @@ public class VirtuosoSPARQLRegistry extends VirtuosoSPARQLEndpoint implements SP
 				"}";
 
 		String regexPredicate, regexIsCompletePredicate;
-		Map<String,String> regexMap;
+		Map<String,String> regexMap = new HashMap<String,String>();
 		
 		if(mapIsForSubject) {
-			subjectRegExMap = new Hashtable<String,String>();
-			regexMap = subjectRegExMap;
 			regexPredicate = SPARQLRegistryOntology.SUBJECT_REGEX;
 			regexIsCompletePredicate = SPARQLRegistryOntology.SUBJECT_REGEX_IS_COMPLETE;
 		}
 		else {
-			objectRegExMap = new Hashtable<String,String>();
-			regexMap = objectRegExMap;
 			regexPredicate = SPARQLRegistryOntology.OBJECT_REGEX;
 			regexIsCompletePredicate = SPARQLRegistryOntology.OBJECT_REGEX_IS_COMPLETE;
 		}
@@ -156,6 +192,29 @@ public class VirtuosoSPARQLRegistry extends VirtuosoSPARQLEndpoint implements SP
 			regexMap.put(endpointURI, regex);
 		}
 		
+		return regexMap;
+	}
+	
+	private URIRegExIndex getRegExIndex(boolean positionIsSubject)
+	{
+		if(regExRefreshInterval > NO_REGEX_REFRESH && 
+				System.currentTimeMillis() - regExIndexTimestamp > regExRefreshInterval &&
+				refreshPending.compareAndSet(false, true)) {
+			refreshExecutor.execute(new Runnable() {
+				public void run() {
+					try {
+						refreshRegExIndexes();
+					} catch(Exception e) {
+						// keep the old indexes until the next interval rather than retrying on every lookup
+						log.error("failed to refresh regular expressions for subject/object URIs", e);
+						regExIndexTimestamp = System.currentTimeMillis();
+					} finally {
+						refreshPending.set(false);
+					}
+				}
+			});
+		}
+		return positionIsSubject ? subjectRegExIndex : objectRegExIndex;
 	}
 	
 	public Collection<SPARQLEndpoint> findSPARQLEndpointsByTriplePattern(Triple triplePattern) throws SADIException
@@ -171,9 +230,16 @@ public class VirtuosoSPARQLRegistry extends VirtuosoSPARQLEndpoint implements SP
 		Collection<SPARQLEndpoint> unfiltered = p.isVariable() ? getAllSPARQLEndpoints() : findEndpointsByPredicate(p.getURI());
 		Collection<SPARQLEndpoint> matches = new ArrayList<SPARQLEndpoint>();  
 		
+		// route each URI through the index once, rather than testing it against every endpoint's regex
+		URIRegExIndex subjectIndex = getRegExIndex(true);
+		URIRegExIndex objectIndex = getRegExIndex(false);
+		Set<String> subjectMatchesEndpoints = s.isURI() ? subjectIndex.getMatchingEndpoints(s.getURI()) : null;
+		Set<String> objectMatchesEndpoints = o.isURI() ? objectIndex.getMatchingEndpoints(o.getURI()) : null;
+		
 		for(SPARQLEndpoint endpoint : unfiltered) {
-			boolean subjectMatches = (s.isVariable() || (s.isURI() && subjectMatchesRegEx(endpoint.getURI(), s.getURI())));
-			boolean objectMatches = (o.isVariable() || (o.isURI() && objectMatchesRegEx(endpoint.getURI(), o.getURI())));
+			String endpointURI = endpoint.getURI();
+			boolean subjectMatches = (s.isVariable() || (s.isURI() && (!subjectIndex.containsEndpoint(endpointURI) || subjectMatchesEndpoints.contains(endpointURI))));
+			boolean objectMatches = (o.isVariable() || (o.isURI() && (!objectIndex.containsEndpoint(endpointURI) || objectMatchesEndpoints.contains(endpointURI))));
 			if(subjectMatches && objectMatches) {
 				matches.add(endpoint);
 			}
@@ -491,11 +557,7 @@ public class VirtuosoSPARQLRegistry extends VirtuosoSPARQLEndpoint implements SP
 	
 	public boolean matchesRegEx(String endpointURI, String uri, boolean uriIsSubject)
 	{
-		String regex = getRegEx(endpointURI, uriIsSubject);
-		Pattern pattern = Pattern.compile(regex);
-		Matcher matcher = pattern.matcher(uri);
-		boolean matches = matcher.find();
-		return matches;
+		return getRegExIndex(uriIsSubject).matches(endpointURI, uri);
 	}
 	
 	public String getSubjectRegEx(String endpointURI) throws IOException 
@@ -510,9 +572,9 @@ public class VirtuosoSPARQLRegistry extends VirtuosoSPARQLEndpoint implements SP
 	
 	public String getRegEx(String endpointURI, boolean positionIsSubject) 
 	{
-		Map<String,String> regexMap = positionIsSubject ? subjectRegExMap : objectRegExMap;
-		if(regexMap.containsKey(endpointURI))
-			return regexMap.get(endpointURI);
+		String regex = getRegExIndex(positionIsSubject).getRegEx(endpointURI);
+		if(regex != null)
+			return regex;
 		else
 			return ".*";
 	}
@@ -683,4 +745,16 @@ public class VirtuosoSPARQLRegistry extends VirtuosoSPARQLEndpoint implements SP
 		// FIXME
 		throw new UnsupportedOperationException();
 	}
+
+	private static class RefreshThreadFactory implements ThreadFactory
+	{
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+		
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, String.format("%s-%d", VirtuosoSPARQLRegistry.class.getSimpleName(), threadNumber.getAndIncrement()));
+			t.setDaemon(true);
+			return t;
+		}
+	}
 }
@@ -0,0 +1,130 @@
+package ca.wilkinsonlab.sadi.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+public class SPARQLResultsJSONUtils
+{
+	public final static Logger log = Logger.getLogger(SPARQLResultsJSONUtils.class);
+	
+	private static final JsonFactory jsonFactory = new JsonFactory();
+	
+	public static List<Map<String, String>> getResultsFromSPARQLJSON(InputStream input) throws IOException
+	{
+		List<Map<String, String>> results = new ArrayList<Map<String, String>>();
+		SPARQLResultsReader reader = getResultsReader(input);
+		try {
+			for (Map<String, String> binding = reader.nextBinding(); binding != null; binding = reader.nextBinding())
+				results.add(binding);
+		} finally {
+			reader.close();
+		}
+		return results;
+	}
+	
+	/**
+	 * Returns a reader that parses SPARQL results JSON from the specified
+	 * stream as the bindings are requested.
+	 * @param input the SPARQL results JSON
+	 * @return a reader over the bindings
+	 * @throws IOException if the stream can't be read
+	 */
+	public static SPARQLResultsReader getResultsReader(InputStream input) throws IOException
+	{
+		return new SPARQLResultsJSONReader(input, jsonFactory.createJsonParser(input));
+	}
+	
+	private static class SPARQLResultsJSONReader implements SPARQLResultsReader
+	{
+		private static final String RESULTS_FIELD = "results";
+		private static final String BINDINGS_FIELD = "bindings";
+		private static final String VALUE_FIELD = "value";
+		
+		private InputStream input;
+		private JsonParser parser;
+		private boolean started;
+		private boolean finished;
+		
+		public SPARQLResultsJSONReader(InputStream input, JsonParser parser)
+		{
+			this.input = input;
+			this.parser = parser;
+			this.started = false;
+			this.finished = false;
+		}
+		
+		public Map<String, String> nextBinding() throws IOException
+		{
+			if (!started) {
+				started = true;
+				finished = !findBindings();
+			}
+			while (!finished) {
+				if (parser.nextToken() != JsonToken.START_OBJECT) {
+					finished = true;
+					break;
+				}
+				/* { "var": { "type": "uri", "value": "..." }, ... }
+				 */
+				Map<String, String> binding = new HashMap<String, String>();
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String variable = parser.getCurrentName();
+					parser.nextToken();
+					while (parser.nextToken() == JsonToken.FIELD_NAME) {
+						String field = parser.getCurrentName();
+						parser.nextToken();
+						if (field.equals(VALUE_FIELD))
+							binding.put(variable, parser.getText());
+						else
+							parser.skipChildren();
+					}
+				}
+				// see the note about empty result rows in SPARQLResultsXMLUtils...
+				if (binding.size() > 0)
+					return binding;
+			}
+			return null;
+		}
+		
+		public void close()
+		{
+			try {
+				parser.close();
+			} catch (IOException e) {
+				log.warn("error closing SPARQL results JSON parser", e);
+			}
+			IOUtils.closeQuietly(input);
+		}
+		
+		/* advance to the start of the results.bindings array...
+		 */
+		private boolean findBindings() throws IOException
+		{
+			if (parser.nextToken() != JsonToken.START_OBJECT)
+				throw new IOException("error parsing SPARQL results JSON: expected an object");
+			return findField(RESULTS_FIELD) && findField(BINDINGS_FIELD) && parser.getCurrentToken() == JsonToken.START_ARRAY;
+		}
+		
+		private boolean findField(String name) throws IOException
+		{
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				parser.nextToken();
+				if (field.equals(name))
+					return true;
+				parser.skipChildren();
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package ca.wilkinsonlab.sadi.utils;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Reads the bindings in a SPARQL SELECT result one at a time, so that the
+ * whole result never has to be held in memory.
+ */
+public interface SPARQLResultsReader
+{
+	/**
+	 * Returns the next set of bindings, or null if there are no more.
+	 * @return the next set of bindings, or null if there are no more
+	 * @throws IOException if the result can't be read or parsed
+	 */
+	public Map<String, String> nextBinding() throws IOException;
+
+	/**
+	 * Stop reading and release the underlying stream.
+	 */
+	public void close();
+}
@@ -7,20 +7,24 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.log4j.Logger;
-import org.xml.sax.Attributes;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-import org.xml.sax.XMLReader;
-import org.xml.sax.helpers.DefaultHandler;
-import org.xml.sax.helpers.XMLReaderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
 
 public class SPARQLResultsXMLUtils
 {
 	public final static Logger log = Logger.getLogger(SPARQLResultsXMLUtils.class);
 	
+	private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+	static {
+		xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+	
 	public static List<Map<String, String>> getResultsFromSPARQLXML(String input) throws IOException
 	{
 		InputStream inputStream = IOUtils.toInputStream(input);
@@ -29,35 +33,42 @@ public class SPARQLResultsXMLUtils
 
 	public static List<Map<String, String>> getResultsFromSPARQLXML(InputStream input) throws IOException
 	{
-		/*
-		String resultsXML = IOUtils.toString(input);
-		log.debug("resultsXML:" + resultsXML);
-		input = IOUtils.toInputStream(resultsXML);
-		*/
-		
-		SPARQLResultsXMLHandler handler = new SPARQLResultsXMLHandler();
+		List<Map<String, String>> results = new ArrayList<Map<String, String>>();
+		SPARQLResultsReader reader = getResultsReader(input);
 		try {
-			XMLReader parser = XMLReaderFactory.createXMLReader();
-			parser.setContentHandler(handler);
-			parser.parse(new InputSource(input));
+			for (Map<String, String> binding = reader.nextBinding(); binding != null; binding = reader.nextBinding())
+				results.add(binding);
+		} finally {
+			reader.close();
 		}
-		catch(SAXException e) {
-			IOException e2 = new IOException("error parsing SPARQL results XML");
-			e2.initCause(e);
-			throw e2;
+		return results;
+	}
+	
+	/**
+	 * Returns a reader that parses SPARQL results XML from the specified
+	 * stream as the bindings are requested.
+	 * @param input the SPARQL results XML
+	 * @return a reader over the bindings
+	 * @throws IOException if the stream can't be read
+	 */
+	public static SPARQLResultsReader getResultsReader(InputStream input) throws IOException
+	{
+		try {
+			return new SPARQLResultsXMLReader(input, xmlInputFactory.createXMLStreamReader(input));
+		} catch (XMLStreamException e) {
+			throw parseError(e);
 		}
-		return handler.getResults();
 	}
 	
-	private static class SPARQLResultsXMLHandler extends DefaultHandler
+	private static IOException parseError(XMLStreamException e)
+	{
+		IOException e2 = new IOException("error parsing SPARQL results XML");
+		e2.initCause(e);
+		return e2;
+	}
+	
+	private static class SPARQLResultsXMLReader implements SPARQLResultsReader
 	{
-		List<Map<String,String>> results;
-
-		StringBuffer characterData = null;
-		Map<String,String> currentBindings = null;
-		String currentVariable = null;
-		boolean insideURIorLiteralorBNodeElement = false; 
-		
 		private static final String SPARQL_RESULTS_NS = "http://www.w3.org/2005/sparql-results#";
 
 		private static final String RESULT_TAG = "result";
@@ -68,65 +79,62 @@ public class SPARQLResultsXMLUtils
 		private static final String LITERAL_TAG = "literal";
 		private static final String BNODE_TAG = "bnode";
 		
-		public SPARQLResultsXMLHandler() 
-		{
-			results = new ArrayList<Map<String,String>>();
-		}
+		private InputStream input;
+		private XMLStreamReader parser;
 		
-		public List<Map<String,String>> getResults () 
+		public SPARQLResultsXMLReader(InputStream input, XMLStreamReader parser)
 		{
-			return results;
+			this.input = input;
+			this.parser = parser;
 		}
 		
-		@Override
-		public void startElement(String namespaceURI, String localName, String qName, Attributes attribs)
+		public Map<String, String> nextBinding() throws IOException
 		{
-//			log.debug("start tag: " + namespaceURI + localName);
-			
-			if(namespaceURI.equals(SPARQL_RESULTS_NS)) {
-				if(localName.equals(RESULT_TAG)) {
-					currentBindings = new HashMap<String,String>();
-				}
-				else if(localName.equals(BINDING_TAG)) {
-					currentVariable = attribs.getValue(VARNAME_ATTR);
-				}
-				else if(localName.equals(URI_TAG) || localName.equals(LITERAL_TAG) || localName.equals(BNODE_TAG)) {
-					insideURIorLiteralorBNodeElement = true;
-					characterData = new StringBuffer();
+			try {
+				Map<String, String> currentBindings = null;
+				String currentVariable = null;
+				while (parser.hasNext()) {
+					switch (parser.next()) {
+					case XMLStreamConstants.START_ELEMENT:
+						if (!SPARQL_RESULTS_NS.equals(parser.getNamespaceURI()))
+							break;
+						String startName = parser.getLocalName();
+						if (startName.equals(RESULT_TAG)) {
+							currentBindings = new HashMap<String, String>();
+						} else if (startName.equals(BINDING_TAG)) {
+							currentVariable = parser.getAttributeValue(null, VARNAME_ATTR);
+						} else if (startName.equals(URI_TAG) || startName.equals(LITERAL_TAG) || startName.equals(BNODE_TAG)) {
+							if (currentBindings != null)
+								currentBindings.put(currentVariable, parser.getElementText());
+						}
+						break;
+					case XMLStreamConstants.END_ELEMENT:
+						/* Virtuoso has a bug where (in rare circumstances) it will generate 
+						 * empty result rows (e.g. <result></result>). However, if we add an 
+						 * empty set of bindings to the result set, it will cause problems higher 
+						 * up (null pointers). -- BV */ 
+						if (SPARQL_RESULTS_NS.equals(parser.getNamespaceURI()) && parser.getLocalName().equals(RESULT_TAG)) {
+							if (currentBindings != null && currentBindings.size() > 0)
+								return currentBindings;
+							currentBindings = null;
+						}
+						break;
+					}
 				}
+				return null;
+			} catch (XMLStreamException e) {
+				throw parseError(e);
 			}
 		}
 		
-		@Override
-		public void characters(char[] text, int start, int length)
-		{
-			if(insideURIorLiteralorBNodeElement)
-				characterData.append(text, start, length);
-		}
-		
-		@Override
-		public void endElement(String namespaceURI, String localName, String qName) throws SAXException 
+		public void close()
 		{
-//			log.debug("end tag: " + namespaceURI + localName);
-
-			if(namespaceURI.equals(SPARQL_RESULTS_NS)) {
-				if(localName.equals(RESULT_TAG)) {
-					/* Virtuoso has a bug where (in rare circumstances) it will generate 
-					 * empty result rows (e.g. <result></result>). However, if we add an 
-					 * empty set of bindings to the result set, it will cause problems higher 
-					 * up (null pointers). -- BV */ 
-					if(currentBindings.size() > 0) {
-						results.add(currentBindings);
-					}
-				}
-				else if(localName.equals(BINDING_TAG)) {
-					currentBindings.put(currentVariable, characterData.toString());
-				}
-				else if(localName.equals(URI_TAG) || localName.equals(LITERAL_TAG) || localName.equals(BNODE_TAG)) {
-					insideURIorLiteralorBNodeElement = false;
-				}
+			try {
+				parser.close();
+			} catch (XMLStreamException e) {
+				log.warn("error closing SPARQL results XML parser", e);
 			}
-		
+			IOUtils.closeQuietly(input);
 		}
 	}
 }
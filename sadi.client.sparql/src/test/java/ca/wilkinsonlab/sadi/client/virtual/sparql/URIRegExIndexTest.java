@@ -0,0 +1,65 @@
+package ca.wilkinsonlab.sadi.client.virtual.sparql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class URIRegExIndexTest
+{
+	@Test
+	public void testGetMatchingEndpoints()
+	{
+		Map<String, String> regexes = new HashMap<String, String>();
+		regexes.put("http://a/sparql", "^http://bio2rdf\\.org/geneid:|^http://bio2rdf\\.org/uniprot:");
+		regexes.put("http://b/sparql", "^http://bio2rdf\\.org/");
+		regexes.put("http://c/sparql", "^http://www4\\.wiwiss\\.fu-berlin\\.de/drugbank/");
+		regexes.put("http://d/sparql", "drugbank");
+		regexes.put("http://e/sparql", "");
+		URIRegExIndex index = new URIRegExIndex(regexes);
+
+		assertEquals(new HashSet<String>(Arrays.asList("http://a/sparql", "http://b/sparql", "http://e/sparql")),
+				index.getMatchingEndpoints("http://bio2rdf.org/geneid:1234"));
+		assertEquals(new HashSet<String>(Arrays.asList("http://b/sparql", "http://e/sparql")),
+				index.getMatchingEndpoints("http://bio2rdf.org/pubmed:1234"));
+		assertEquals(new HashSet<String>(Arrays.asList("http://c/sparql", "http://d/sparql", "http://e/sparql")),
+				index.getMatchingEndpoints("http://www4.wiwiss.fu-berlin.de/drugbank/resource/drugs/DB00001"));
+		// the escaped '.' is a literal, so this isn't a match for c...
+		assertEquals(new HashSet<String>(Arrays.asList("http://d/sparql", "http://e/sparql")),
+				index.getMatchingEndpoints("http://www4Xwiwiss.fu-berlin.de/drugbank/"));
+	}
+
+	@Test
+	public void testMatches()
+	{
+		Map<String, String> regexes = new HashMap<String, String>();
+		regexes.put("http://a/sparql", "^http://bio2rdf\\.org/geneid:");
+		regexes.put("http://b/sparql", "^http://bio2rdf\\.org/(");
+		URIRegExIndex index = new URIRegExIndex(regexes);
+
+		assertTrue(index.containsEndpoint("http://a/sparql"));
+		assertTrue(index.matches("http://a/sparql", "http://bio2rdf.org/geneid:1234"));
+		assertFalse(index.matches("http://a/sparql", "http://bio2rdf.org/uniprot:P12345"));
+		assertTrue("endpoints without a regex should match everything", index.matches("http://z/sparql", "http://bio2rdf.org/uniprot:P12345"));
+		assertTrue("endpoints with an invalid regex should match everything", index.getMatchingEndpoints("http://example.com/").contains("http://b/sparql"));
+		assertNull(index.getRegEx("http://z/sparql"));
+	}
+
+	@Test
+	public void testGetLiteralPrefix()
+	{
+		assertEquals("http://bio2rdf.org/", URIRegExIndex.getLiteralPrefix("^http://bio2rdf\\.org/"));
+		assertEquals("http://bio2rdf.org/gene", URIRegExIndex.getLiteralPrefix("^http://bio2rdf\\.org/gene(id|s):"));
+		assertEquals("http://", URIRegExIndex.getLiteralPrefix("^http://w?ww"));
+		assertEquals("http://", URIRegExIndex.getLiteralPrefix("^http://\\w+"));
+		assertNull(URIRegExIndex.getLiteralPrefix("http://bio2rdf\\.org/"));
+		assertEquals(Arrays.asList("^a", "^b(c|d)", "^[|]"), URIRegExIndex.splitAlternatives("^a|^b(c|d)|^[|]"));
+	}
+}
@@ -0,0 +1,53 @@
+package ca.wilkinsonlab.sadi.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+
+public class SPARQLResultsJSONUtilsTest {
+
+	@Test
+	public void testGetResultsFromSPARQLJSON() throws Exception
+	{
+		URL testFile = SPARQLResultsJSONUtilsTest.class.getResource("sparqlresults.example.json");
+		List<Map<String,String>> results = SPARQLResultsJSONUtils.getResultsFromSPARQLJSON(testFile.openStream());
+
+		assertEquals("empty result rows should be skipped", 3, results.size());
+		assertEquals("http://www4.wiwiss.fu-berlin.de/drugbank/resource/drug_interactions/DB00008_DB01223", results.get(0).get("s"));
+		assertEquals("http://www.w3.org/2000/01/rdf-schema#label", results.get(0).get("p"));
+		assertEquals("DB00008 DB01223", results.get(0).get("o"));
+		assertEquals("DB00008 DB00651", results.get(1).get("o"));
+		assertFalse(results.get(2).containsKey("p"));
+		assertEquals("42", results.get(2).get("o"));
+	}
+
+	@Test
+	public void testResultsReader() throws Exception
+	{
+		URL testFile = SPARQLResultsJSONUtilsTest.class.getResource("sparqlresults.example.json");
+		SPARQLResultsReader reader = SPARQLResultsJSONUtils.getResultsReader(testFile.openStream());
+		try {
+			assertTrue(reader.nextBinding().get("o").equals("DB00008 DB01223"));
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testNoResults() throws Exception
+	{
+		SPARQLResultsReader reader = SPARQLResultsJSONUtils.getResultsReader(
+				new ByteArrayInputStream("{ \"head\": { \"vars\": [] }, \"boolean\": true }".getBytes("UTF-8")));
+		assertNull(reader.nextBinding());
+		reader.close();
+	}
+}
@@ -0,0 +1,231 @@
+package org.sadiframework.client;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+import org.sadiframework.utils.ContentType;
+import org.sadiframework.utils.http.HttpClient;
+import org.sadiframework.utils.http.HttpUtils;
+import org.sadiframework.utils.http.HttpUtils.HttpStatusException;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.rdf.model.StmtIterator;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+/**
+ * Fetches the data behind the rdfs:isDefinedBy URLs that asynchronous
+ * services return in place of their output.
+ * Every outstanding URL is polled on a shared scheduler, waiting as long
+ * as each service asks between polls, so no thread sleeps while a service
+ * is still working and the data from different URLs is fetched
+ * concurrently. The size of the scheduler's thread pool can be changed
+ * in sadi.properties:
+ * <pre>
+ * sadi.client.pollThreads = 8
+ * </pre>
+ */
+class AsynchronousDataPoller
+{
+	private static final Logger log = Logger.getLogger(AsynchronousDataPoller.class);
+
+	public static final String POLL_THREADS_CONFIG_KEY = "sadi.client.pollThreads";
+	public static final int DEFAULT_POLL_THREADS = 8;
+	public static final long DEFAULT_POLL_INTERVAL = 10000; // ten seconds
+
+	private static final ScheduledThreadPoolExecutor scheduler = createScheduler();
+	private static final HttpClient client = createClient();
+
+	private static ScheduledThreadPoolExecutor createScheduler()
+	{
+		int threads = Config.getConfiguration().getInt(POLL_THREADS_CONFIG_KEY, DEFAULT_POLL_THREADS);
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(Math.max(1, threads), new PollThreadFactory());
+		scheduler.setKeepAliveTime(60, TimeUnit.SECONDS);
+		scheduler.allowCoreThreadTimeOut(true);
+		return scheduler;
+	}
+
+	/* redirects are how services say "not yet", so we have to see them; the
+	 * connections come from the process-wide pool...
+	 */
+	private static HttpClient createClient()
+	{
+		HttpClient client = new HttpClient(HttpUtils.getConnectionManager());
+		client.getParams().setParameter(ClientPNames.HANDLE_REDIRECTS, false);
+		return client;
+	}
+
+	/**
+	 * Resolve any rdfs:isDefinedBy URLs in the specified model, merging the
+	 * data fetched from them into the model.
+	 * The rdfs:isDefinedBy statements are removed from the model before
+	 * this method returns; the model shouldn't be touched again until the
+	 * returned future completes.
+	 * Failures to fetch data from individual URLs are logged and otherwise
+	 * ignored, as they always have been.
+	 * @param model the model
+	 * @return a future that completes with the model when all of the data has been fetched
+	 */
+	static ModelFuture resolve(Model model)
+	{
+		ModelFuture future = new ModelFuture();
+		resolve(model, future);
+		return future;
+	}
+
+	/**
+	 * Resolve any rdfs:isDefinedBy URLs in the specified model, completing
+	 * the specified future with the model when all of the data has been
+	 * fetched.
+	 * @param model the model
+	 * @param future the future to complete
+	 */
+	static void resolve(Model model, ModelFuture future)
+	{
+		Set<String> urls = new LinkedHashSet<String>();
+		for (StmtIterator i = model.listStatements((Resource)null, RDFS.isDefinedBy, (RDFNode)null); i.hasNext(); ) {
+			Statement statement = i.removeNext();
+			if (statement.getObject().isURIResource())
+				urls.add(statement.getResource().getURI());
+		}
+
+		if (urls.isEmpty()) {
+			future.complete(model);
+			return;
+		}
+
+		log.debug(String.format("polling %d URLs for asynchronous data", urls.size()));
+		AtomicInteger remaining = new AtomicInteger(urls.size());
+		for (String url: urls)
+			scheduler.execute(new PollTask(url, model, future, remaining));
+	}
+
+	/* one GET per run; if the data isn't ready, the task reschedules
+	 * itself instead of sleeping...
+	 */
+	private static class PollTask implements Runnable
+	{
+		private String url;
+		private final String baseURL;
+		private final Model model;
+		private final ModelFuture future;
+		private final AtomicInteger remaining;
+		private final Map<String, String> headers;
+
+		public PollTask(String url, Model model, ModelFuture future, AtomicInteger remaining)
+		{
+			this.url = url;
+			this.baseURL = url;
+			this.model = model;
+			this.future = future;
+			this.remaining = remaining;
+
+			headers = new HashMap<String, String>();
+			headers.put("Accept", ContentType.RDF_XML.getHTTPHeader());
+		}
+
+		public void run()
+		{
+			if (future.isDone()) // cancelled by the caller...
+				return;
+
+			boolean finished = true;
+			try {
+				log.debug("fetching asynchronous data from " + url);
+				HttpResponse response = client.GET(new URL(url), null, headers);
+				int statusCode = response.getStatusLine().getStatusCode();
+				if (statusCode == 202 || (statusCode >= 300 && statusCode < 400)) {
+					EntityUtils.consume(response.getEntity());
+					long delay = getRetryAfter(response);
+					Header newURL = response.getFirstHeader("Location");
+					if (newURL != null)
+						url = newURL.getValue();
+					log.trace(String.format("polling %s again in %dms", url, delay));
+					scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+					finished = false;
+				} else if (statusCode >= 200 && statusCode < 300) {
+					/* parse outside the lock so that results from different
+					 * URLs are parsed concurrently...
+					 */
+					Model data = ModelFactory.createDefaultModel();
+					InputStream is = response.getEntity().getContent();
+					try {
+						data.read(is, baseURL, getJenaLanguage(response));
+					} finally {
+						is.close();
+					}
+					synchronized (model) {
+						model.add(data);
+					}
+					data.close();
+				} else {
+					EntityUtils.consume(response.getEntity());
+					throw new HttpStatusException(statusCode);
+				}
+			} catch (Exception e) {
+				log.error("failed to fetch data from " + baseURL, e);
+			} finally {
+				/* count this URL as done even if something nastier than an
+				 * Exception happened, or the future would never complete...
+				 */
+				if (finished && remaining.decrementAndGet() == 0)
+					future.complete(model);
+			}
+		}
+
+		private static String getJenaLanguage(HttpResponse response)
+		{
+			Header contentType = response.getFirstHeader("Content-Type");
+			if (contentType != null) {
+				ContentType type = ContentType.getContentType(StringUtils.substringBefore(contentType.getValue(), ";").trim());
+				if (type != null)
+					return type.getJenaLanguage();
+			}
+			return null; // RDF/XML
+		}
+
+		private static long getRetryAfter(HttpResponse response)
+		{
+			Header retryAfter = response.getFirstHeader("Retry-After");
+			if (retryAfter != null) {
+				try {
+					return 1000 * Long.valueOf(retryAfter.getValue());
+				} catch (NumberFormatException e) {
+					log.error(String.format("error parsing value of Retry-After header '%s'", retryAfter.getValue()), e);
+				}
+			}
+			// TODO stop looking for for legacy header at some point?
+			// toSleep = (Pragma =~ /sadi-please-wait\s*=\s*(\d+)/)[0]
+			return DEFAULT_POLL_INTERVAL;
+		}
+	}
+
+	private static class PollThreadFactory implements ThreadFactory
+	{
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, String.format("%s-%d", AsynchronousDataPoller.class.getSimpleName(), threadNumber.getAndIncrement()));
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package org.sadiframework.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.log4j.Logger;
+
+import com.hp.hpl.jena.rdf.model.Model;
+
+/**
+ * The pending output of a service call.
+ * Callers can block on {@link #get()} like any other Future, or register
+ * a listener that will be run as soon as the output is available so that
+ * they can get on with other work in the meantime.
+ */
+public class ModelFuture implements Future<Model>
+{
+	private static final Logger log = Logger.getLogger(ModelFuture.class);
+
+	private final CountDownLatch latch;
+	private final List<Runnable> listeners;
+	private boolean done;
+	private boolean cancelled;
+	private Model model;
+	private Throwable error;
+
+	public ModelFuture()
+	{
+		latch = new CountDownLatch(1);
+		listeners = new ArrayList<Runnable>();
+		done = false;
+		cancelled = false;
+	}
+
+	/**
+	 * Returns a future that has already completed with the specified model.
+	 * @param model the model
+	 * @return a completed future
+	 */
+	public static ModelFuture completedFuture(Model model)
+	{
+		ModelFuture future = new ModelFuture();
+		future.complete(model);
+		return future;
+	}
+
+	/**
+	 * Complete this future with the specified model, if it isn't already
+	 * complete.
+	 * @param model the model
+	 * @return true if this call completed the future, false otherwise
+	 */
+	public boolean complete(Model model)
+	{
+		return finish(model, null, false);
+	}
+
+	/**
+	 * Complete this future with the specified error, if it isn't already
+	 * complete.
+	 * @param error the error
+	 * @return true if this call completed the future, false otherwise
+	 */
+	public boolean completeExceptionally(Throwable error)
+	{
+		return finish(null, error, false);
+	}
+
+	/**
+	 * Register a listener that will be run when this future completes.
+	 * If the future is already complete, the listener is run immediately
+	 * on the calling thread; otherwise it is run on the thread that
+	 * completes the future, so it shouldn't block.
+	 * @param listener the listener
+	 */
+	public void addListener(Runnable listener)
+	{
+		synchronized (this) {
+			if (!done) {
+				listeners.add(listener);
+				return;
+			}
+		}
+		runListener(listener);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Future#cancel(boolean)
+	 */
+	public boolean cancel(boolean mayInterruptIfRunning)
+	{
+		return finish(null, null, true);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Future#isCancelled()
+	 */
+	public synchronized boolean isCancelled()
+	{
+		return cancelled;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Future#isDone()
+	 */
+	public synchronized boolean isDone()
+	{
+		return done;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Future#get()
+	 */
+	public Model get() throws InterruptedException, ExecutionException
+	{
+		latch.await();
+		return getResult();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Future#get(long, java.util.concurrent.TimeUnit)
+	 */
+	public Model get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+	{
+		if (!latch.await(timeout, unit))
+			throw new TimeoutException();
+		return getResult();
+	}
+
+	private synchronized Model getResult() throws ExecutionException
+	{
+		if (cancelled)
+			throw new CancellationException();
+		else if (error != null)
+			throw new ExecutionException(error);
+		else
+			return model;
+	}
+
+	private boolean finish(Model model, Throwable error, boolean cancelled)
+	{
+		List<Runnable> toRun;
+		synchronized (this) {
+			if (done)
+				return false;
+			this.done = true;
+			this.model = model;
+			this.error = error;
+			this.cancelled = cancelled;
+			toRun = new ArrayList<Runnable>(listeners);
+			listeners.clear();
+		}
+		latch.countDown();
+		for (Runnable listener: toRun)
+			runListener(listener);
+		return true;
+	}
+
+	private static void runListener(Runnable listener)
+	{
+		try {
+			listener.run();
+		} catch (RuntimeException e) {
+			log.error("error in ModelFuture listener", e);
+		}
+	}
+}
@@ -1,8 +1,20 @@
 package org.sadiframework.client;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.sadiframework.SADIException;
@@ -15,39 +27,80 @@ import com.hp.hpl.jena.rdf.model.Resource;
 /**
  * A class that aggregates results from several Registry objects.
  * This would be so much easier in Python...
+ * The component registries are queried concurrently; a registry that
+ * doesn't answer before the deadline is left out of the results, and a
+ * registry that fails several times in a row isn't queried again until
+ * a cool-down period has passed. These can be changed in sadi.properties:
+ * <pre>
+ * sadi.registryTimeout = 30000
+ * sadi.registryFailureThreshold = 3
+ * sadi.registryCoolDown = 60000
+ * </pre>
  */
 public class MultiRegistry implements Registry
 {
 	public static final Logger log = Logger.getLogger(MultiRegistry.class);
 	
+	public static final String TIMEOUT_CONFIG_KEY = "sadi.registryTimeout";
+	public static final String FAILURE_THRESHOLD_CONFIG_KEY = "sadi.registryFailureThreshold";
+	public static final String COOL_DOWN_CONFIG_KEY = "sadi.registryCoolDown";
+	public static final long DEFAULT_TIMEOUT = 30000; // thirty seconds
+	public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+	public static final long DEFAULT_COOL_DOWN = 60000; // one minute
+	
+	/* runs the queries against the component registries...
+	 */
+	private static final ExecutorService registryExecutor = Executors.newCachedThreadPool(new RegistryThreadFactory());
+	
 	List<Registry> registries;
 	
+	private long timeout;
+	private int failureThreshold;
+	private long coolDown;
+	private ConcurrentMap<Registry, CircuitBreaker> breakers;
+	
 	/**
 	 * Constructs a new Registry that will aggregate results from the
 	 * specified list of component registries.
 	 * @param registries the component registries
 	 */
 	public MultiRegistry(List<Registry> registries)
+	{
+		this(registries, 
+				Config.getConfiguration().getLong(TIMEOUT_CONFIG_KEY, DEFAULT_TIMEOUT),
+				Config.getConfiguration().getInt(FAILURE_THRESHOLD_CONFIG_KEY, DEFAULT_FAILURE_THRESHOLD),
+				Config.getConfiguration().getLong(COOL_DOWN_CONFIG_KEY, DEFAULT_COOL_DOWN));
+	}
+	
+	/**
+	 * Constructs a new Registry that will aggregate results from the
+	 * specified list of component registries.
+	 * @param registries the component registries
+	 * @param timeout how long in ms to wait for the component registries
+	 * @param failureThreshold how many consecutive failures take a registry out of service
+	 * @param coolDown how long in ms a registry is out of service
+	 */
+	public MultiRegistry(List<Registry> registries, long timeout, int failureThreshold, long coolDown)
 	{
 		this.registries = registries;
+		this.timeout = timeout;
+		this.failureThreshold = failureThreshold;
+		this.coolDown = coolDown;
+		
+		breakers = new ConcurrentHashMap<Registry, CircuitBreaker>();
 	}
 
 	/* (non-Javadoc)
      * @see org.sadiframework.registry.Registry#getService(java.lang.String)
      */
 	@Override
-	public Service getService(String serviceURI)
+	public Service getService(final String serviceURI)
 	{
-		for (Registry registry: registries) {
-			try {
-				Service service = registry.getService(serviceURI);
-				if (service != null)
-					return service;
-			} catch (Exception e) {
-				log.error(String.format("error contacting registry %s", registry), e);
+		return first(new Query<Service>() {
+			public Service get(Registry registry) throws Exception {
+				return registry.getService(serviceURI);
 			}
-		}
-		return null;
+		});
 	}
 
 	/* (non-Javadoc)
@@ -93,17 +146,12 @@ public class MultiRegistry implements Registry
 	 * @see org.sadiframework.client.Registry#getServiceStatus(java.lang.String)
 	 */
 	@Override
-	public ServiceStatus getServiceStatus(String serviceURI) throws SADIException {
-		for (Registry registry: registries) {
-			try {
-				ServiceStatus status = registry.getServiceStatus(serviceURI);
-				if (status != null)
-					return status;
-			} catch (Exception e) {
-				log.error(String.format("error contacting registry %s", registry), e);
+	public ServiceStatus getServiceStatus(final String serviceURI) throws SADIException {
+		return first(new Query<ServiceStatus>() {
+			public ServiceStatus get(Registry registry) throws Exception {
+				return registry.getServiceStatus(serviceURI);
 			}
-		}
-		return null;
+		});
 	}
 
 	/* (non-Javadoc)
@@ -249,21 +297,147 @@ public class MultiRegistry implements Registry
 //		});
 //	}
 	
-	private <T> Collection<T> accumulate(Accumulator<T> accum)
+	private <T> Collection<T> accumulate(final Accumulator<T> accum)
 	{
-		Collection<T> results = new HashSet<T>();
-		for (Registry registry: registries) {
-			try {
-				results.addAll(accum.get(registry));
-			} catch (Exception e) {
-				log.error(String.format("error contacting registry %s", registry), e);
+		List<Future<Collection<? extends T>>> futures = submit(new Query<Collection<? extends T>>() {
+			public Collection<? extends T> get(Registry registry) throws Exception {
+				return accum.get(registry);
 			}
+		});
+		
+		Collection<T> results = new HashSet<T>();
+		long deadline = System.currentTimeMillis() + timeout;
+		for (int i = 0; i < futures.size(); ++i) {
+			Collection<? extends T> result = await(registries.get(i), futures.get(i), deadline);
+			if (result != null)
+				results.addAll(result);
 		}
 		return results;
 	}
+	
+	/* returns the first non-null result in priority order...
+	 */
+	private <T> T first(Query<T> query)
+	{
+		List<Future<T>> futures = submit(query);
+		long deadline = System.currentTimeMillis() + timeout;
+		try {
+			for (int i = 0; i < futures.size(); ++i) {
+				T result = await(registries.get(i), futures.get(i), deadline);
+				if (result != null)
+					return result;
+			}
+			return null;
+		} finally {
+			for (Future<T> future: futures) {
+				if (future != null)
+					future.cancel(true);
+			}
+		}
+	}
+	
+	/* dispatch the query to every registry that isn't out of service; the
+	 * returned list has a null future for every registry that is...
+	 */
+	private <T> List<Future<T>> submit(final Query<T> query)
+	{
+		List<Future<T>> futures = new ArrayList<Future<T>>(registries.size());
+		for (final Registry registry: registries) {
+			if (getCircuitBreaker(registry).allowRequest()) {
+				futures.add(registryExecutor.submit(new Callable<T>() {
+					public T call() throws Exception {
+						return query.get(registry);
+					}
+				}));
+			} else {
+				log.debug(String.format("skipping registry %s after repeated failures", registry));
+				futures.add(null);
+			}
+		}
+		return futures;
+	}
+	
+	private <T> T await(Registry registry, Future<T> future, long deadline)
+	{
+		if (future == null)
+			return null;
+		
+		CircuitBreaker breaker = getCircuitBreaker(registry);
+		try {
+			T result = future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+			breaker.recordSuccess();
+			return result;
+		} catch (TimeoutException e) {
+			log.warn(String.format("registry %s did not respond within %dms; results will be incomplete", registry, timeout));
+			future.cancel(true);
+			breaker.recordFailure(registry);
+		} catch (ExecutionException e) {
+			log.error(String.format("error contacting registry %s", registry), e.getCause());
+			breaker.recordFailure(registry);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			future.cancel(true);
+		}
+		return null;
+	}
+	
+	private CircuitBreaker getCircuitBreaker(Registry registry)
+	{
+		CircuitBreaker breaker = breakers.get(registry);
+		if (breaker == null) {
+			breakers.putIfAbsent(registry, new CircuitBreaker());
+			breaker = breakers.get(registry);
+		}
+		return breaker;
+	}
 
 	private interface Accumulator<T>
 	{	
 		public Collection<? extends T> get(Registry registry) throws Exception;
 	}
+	
+	private interface Query<T>
+	{
+		public T get(Registry registry) throws Exception;
+	}
+	
+	/* takes a registry out of service after too many consecutive failures;
+	 * once the cool-down has passed, the registry is tried again and a
+	 * single failure takes it out of service again...
+	 */
+	private class CircuitBreaker
+	{
+		private final AtomicInteger failures = new AtomicInteger();
+		private volatile long openUntil = 0;
+		
+		public boolean allowRequest()
+		{
+			return System.currentTimeMillis() >= openUntil;
+		}
+		
+		public void recordSuccess()
+		{
+			failures.set(0);
+		}
+		
+		public void recordFailure(Registry registry)
+		{
+			if (failures.incrementAndGet() >= failureThreshold) {
+				log.warn(String.format("registry %s failed %d times in a row; not contacting it for %dms", registry, failures.get(), coolDown));
+				openUntil = System.currentTimeMillis() + coolDown;
+			}
+		}
+	}
+	
+	private static class RegistryThreadFactory implements ThreadFactory
+	{
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, String.format("%s-%d", MultiRegistry.class.getSimpleName(), threadNumber.getAndIncrement()));
+			t.setDaemon(true);
+			return t;
+		}
+	}
 }
@@ -3,13 +3,13 @@ package org.sadiframework.client;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.apache.commons.configuration.BaseConfiguration;
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
@@ -29,17 +29,24 @@ import com.hp.hpl.jena.rdf.model.Resource;
  */
 public abstract class RegistryBase implements Registry
 {
+	public static final String CACHE_SUBSET_KEY = "cache";
+	public static final String CACHE_ENABLED_KEY = "enabled";
+	public static final String CACHE_MAX_SIZE_KEY = "maxSize";
+	public static final String CACHE_TTL_KEY = "ttl";
+	
 	protected QueryExecutor backend;
-	protected Map<String, Service> serviceCache;
+	protected ServiceCache serviceCache;
 	
 	/**
 	 * Construct a new SADI registry from the specified configuration.
+	 * The service cache is configured from the "cache" subset of the
+	 * configuration (see {@link ServiceCache}).
 	 * @param config the configuration
 	 * @throws IOException if there is an error contacting the registry
 	 */
 	protected RegistryBase(Configuration config)
 	{
-		this(QueryExecutorFactory.createQueryExecutor(config));
+		this(QueryExecutorFactory.createQueryExecutor(config), config.subset(CACHE_SUBSET_KEY));
 	}
 	
 	/**
@@ -48,10 +55,23 @@ public abstract class RegistryBase implements Registry
 	 * @param backend
 	 */
 	protected RegistryBase(QueryExecutor backend)
+	{
+		this(backend, new BaseConfiguration());
+	}
+	
+	private RegistryBase(QueryExecutor backend, Configuration cacheConfig)
 	{
 		this.backend = backend;
 		
-		serviceCache = new HashMap<String, Service>();
+		if (cacheConfig.getBoolean(CACHE_ENABLED_KEY, true)) {
+			serviceCache = new ServiceCache(new ServiceCache.ServiceLoader() {
+				public Service loadService(String serviceURI) throws SADIException
+				{
+					return createService(serviceURI);
+				}
+			}, cacheConfig.getInt(CACHE_MAX_SIZE_KEY, ServiceCache.DEFAULT_MAX_SIZE),
+			   cacheConfig.getLong(CACHE_TTL_KEY, ServiceCache.DEFAULT_TTL));
+		}
 	}
 	
 	/**
@@ -63,6 +83,16 @@ public abstract class RegistryBase implements Registry
 		return serviceCache != null;
 	}
 	
+	/**
+	 * Returns the cache of service instances by URI, whose statistics
+	 * may be of interest.
+	 * @return the service cache, or null if caching is disabled
+	 */
+	public ServiceCache getServiceCache()
+	{
+		return serviceCache;
+	}
+	
 	/**
 	 * 
 	 * @param template
@@ -113,16 +143,8 @@ public abstract class RegistryBase implements Registry
      */
 	public Service getService(String serviceURI) throws SADIException
 	{
-		/* TODO replace this caching mechanism with something more
-		 * sophisticated (probably ehCache...)
-		 */
 		if (isCacheEnabled()) {
-			Service service = serviceCache.get(serviceURI);
-			if (service == null) {
-				service = createService(serviceURI);
-				serviceCache.put(serviceURI, service);
-			}
-			return service;
+			return serviceCache.get(serviceURI);
 		} else {
 			return createService(serviceURI);
 		}
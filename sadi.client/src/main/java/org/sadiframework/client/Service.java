@@ -69,6 +69,24 @@ public interface Service extends ServiceDescription
 	 */
 	public abstract Model invokeService(Iterator<Resource> inputNodes) throws ServiceInvocationException;
 	
+	/**
+	 * Calls the service with the specified inputs without waiting for the
+	 * output, so that the caller can do other work in the meantime.
+	 * Errors are reported through the returned future.
+	 * @param inputNodes the input RDF root nodes
+	 * @return the pending output from the service
+	 */
+	public abstract ModelFuture invokeServiceAsync(Iterable<Resource> inputNodes);
+	
+	/**
+	 * Calls the service with the specified inputs without waiting for the
+	 * output, so that the caller can do other work in the meantime.
+	 * Errors are reported through the returned future.
+	 * @param inputNodes the input RDF root nodes
+	 * @return the pending output from the service
+	 */
+	public abstract ModelFuture invokeServiceAsync(Iterator<Resource> inputNodes);
+	
 //	/**
 //	 * Calls the service with the specified input and filters the output so
 //	 * that only triples with the specified predicate are returned.
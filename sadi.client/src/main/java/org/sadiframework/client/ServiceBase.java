@@ -73,6 +73,32 @@ public abstract class ServiceBase extends ServiceBean implements Service
 //	{
 //	}
 	
+	/* (non-Javadoc)
+	 * @see org.sadiframework.client.Service#invokeServiceAsync(java.lang.Iterable)
+	 */
+	@Override
+	public ModelFuture invokeServiceAsync(Iterable<Resource> inputNodes)
+	{
+		return invokeServiceAsync(inputNodes.iterator());
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.sadiframework.client.Service#invokeServiceAsync(java.util.Iterator)
+	 * This naive implementation calls the service synchronously and returns
+	 * a future that has already completed.
+	 */
+	@Override
+	public ModelFuture invokeServiceAsync(Iterator<Resource> inputNodes)
+	{
+		ModelFuture future = new ModelFuture();
+		try {
+			future.complete(invokeService(inputNodes));
+		} catch (ServiceInvocationException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+	
 	/* (non-Javadoc)
      * @see org.sadiframework.client.Service#isInputInstance(com.hp.hpl.jena.rdf.model.Resource)
      */
@@ -0,0 +1,360 @@
+package org.sadiframework.client;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.sadiframework.SADIException;
+
+/**
+ * A thread-safe cache of service instances by URI.
+ * The cache holds at most a fixed number of services, evicting the
+ * least-recently used first. Concurrent requests for a service that isn't
+ * cached share a single load. Services older than the time-to-live are
+ * still returned, but are reloaded in the background so that the next
+ * request sees the fresh instance.
+ */
+public class ServiceCache
+{
+	private static final Logger log = Logger.getLogger(ServiceCache.class);
+
+	public static final int DEFAULT_MAX_SIZE = 1000;
+	public static final long DEFAULT_TTL = 3600000; // one hour
+
+	/* runs background reloads of expired services...
+	 */
+	private static final ExecutorService refreshExecutor = Executors.newCachedThreadPool(new RefreshThreadFactory());
+
+	private final ServiceLoader loader;
+	private final long ttl;
+	private final Map<String, Entry> entries;
+
+	private final AtomicLong hits;
+	private final AtomicLong misses;
+	private final AtomicLong loads;
+	private final AtomicLong loadFailures;
+	private final AtomicLong totalLoadTime;
+	private final AtomicLong evictions;
+
+	/**
+	 * Create a new cache with the default size and time-to-live.
+	 * @param loader loads services that aren't in the cache
+	 */
+	public ServiceCache(ServiceLoader loader)
+	{
+		this(loader, DEFAULT_MAX_SIZE, DEFAULT_TTL);
+	}
+
+	/**
+	 * Create a new cache.
+	 * @param loader loads services that aren't in the cache
+	 * @param maxSize the maximum number of services in the cache
+	 * @param ttl how long in ms a service is used before it's reloaded,
+	 *            or a non-positive number to never reload
+	 */
+	public ServiceCache(ServiceLoader loader, final int maxSize, long ttl)
+	{
+		this.loader = loader;
+		this.ttl = ttl;
+
+		hits = new AtomicLong();
+		misses = new AtomicLong();
+		loads = new AtomicLong();
+		loadFailures = new AtomicLong();
+		totalLoadTime = new AtomicLong();
+		evictions = new AtomicLong();
+
+		/* access-ordered, so that the eldest entry is the least-recently used...
+		 */
+		entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, ServiceCache.Entry> eldest)
+			{
+				if (size() > maxSize) {
+					evictions.incrementAndGet();
+					return true;
+				} else {
+					return false;
+				}
+			}
+		};
+	}
+
+	/**
+	 * Returns the service with the specified URI, loading it if it isn't
+	 * in the cache.
+	 * @param serviceURI the service URI
+	 * @return the service
+	 * @throws SADIException if the service isn't cached and can't be loaded
+	 */
+	public Service get(String serviceURI) throws SADIException
+	{
+		Entry entry;
+		boolean owner = false;
+		synchronized (entries) {
+			entry = entries.get(serviceURI);
+			if (entry == null) {
+				entry = new Entry(serviceURI);
+				entries.put(serviceURI, entry);
+				owner = true;
+			}
+		}
+
+		if (owner) {
+			misses.incrementAndGet();
+			entry.initialLoad.run();
+		} else if (entry.initialLoad.isDone()) {
+			hits.incrementAndGet();
+		} else {
+			// someone else is loading it; wait for them...
+			misses.incrementAndGet();
+		}
+
+		Service service = entry.get();
+		if (entry.isExpired() && entry.refreshing.compareAndSet(false, true))
+			refreshExecutor.execute(new Refresh(entry));
+		return service;
+	}
+
+	/**
+	 * Remove the service with the specified URI from the cache.
+	 * @param serviceURI the service URI
+	 */
+	public void remove(String serviceURI)
+	{
+		synchronized (entries) {
+			entries.remove(serviceURI);
+		}
+	}
+
+	/**
+	 * Remove all services from the cache.
+	 */
+	public void clear()
+	{
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Returns the number of services in the cache.
+	 * @return the number of services in the cache
+	 */
+	public int size()
+	{
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * Returns the number of requests answered from the cache.
+	 * @return the number of requests answered from the cache
+	 */
+	public long getHitCount()
+	{
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of requests that had to wait for a service to load.
+	 * @return the number of requests that had to wait for a service to load
+	 */
+	public long getMissCount()
+	{
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of times a service was loaded, including
+	 * background reloads and failed loads.
+	 * @return the number of times a service was loaded
+	 */
+	public long getLoadCount()
+	{
+		return loads.get();
+	}
+
+	/**
+	 * Returns the number of times a service failed to load.
+	 * @return the number of times a service failed to load
+	 */
+	public long getLoadFailureCount()
+	{
+		return loadFailures.get();
+	}
+
+	/**
+	 * Returns the average time in ms taken to load a service.
+	 * @return the average time in ms taken to load a service
+	 */
+	public double getAverageLoadTime()
+	{
+		long n = loads.get();
+		return n > 0 ? (double)totalLoadTime.get() / n : 0;
+	}
+
+	/**
+	 * Returns the number of services evicted to make room for others.
+	 * @return the number of services evicted to make room for others
+	 */
+	public long getEvictionCount()
+	{
+		return evictions.get();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString()
+	{
+		return String.format("size=%d, hits=%d, misses=%d, loads=%d, failures=%d, averageLoadTime=%.1fms, evictions=%d",
+				size(), getHitCount(), getMissCount(), getLoadCount(), getLoadFailureCount(), getAverageLoadTime(), getEvictionCount());
+	}
+
+	private Service load(String serviceURI) throws SADIException
+	{
+		long start = System.currentTimeMillis();
+		try {
+			return loader.loadService(serviceURI);
+		} catch (SADIException e) {
+			loadFailures.incrementAndGet();
+			throw e;
+		} catch (RuntimeException e) {
+			loadFailures.incrementAndGet();
+			throw e;
+		} finally {
+			loads.incrementAndGet();
+			totalLoadTime.addAndGet(System.currentTimeMillis() - start);
+		}
+	}
+
+	/**
+	 * Loads services that aren't in the cache.
+	 */
+	public static interface ServiceLoader
+	{
+		/**
+		 * Load the service with the specified URI.
+		 * @param serviceURI the service URI
+		 * @return the service
+		 * @throws SADIException if the service can't be loaded
+		 */
+		Service loadService(String serviceURI) throws SADIException;
+	}
+
+	private class Entry
+	{
+		final String serviceURI;
+		final FutureTask<Service> initialLoad;
+		final AtomicBoolean refreshing;
+		volatile Service service;
+		volatile long loadTime;
+
+		Entry(final String serviceURI)
+		{
+			this.serviceURI = serviceURI;
+			this.refreshing = new AtomicBoolean(false);
+			this.initialLoad = new FutureTask<Service>(new Callable<Service>() {
+				public Service call() throws Exception
+				{
+					Service service = load(serviceURI);
+					set(service);
+					return service;
+				}
+			});
+		}
+
+		void set(Service service)
+		{
+			this.service = service;
+			this.loadTime = System.currentTimeMillis();
+		}
+
+		boolean isExpired()
+		{
+			return ttl > 0 && System.currentTimeMillis() - loadTime > ttl;
+		}
+
+		Service get() throws SADIException
+		{
+			Service current = service;
+			if (current != null)
+				return current;
+
+			try {
+				return initialLoad.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SADIException(String.format("interrupted while loading service %s", serviceURI), e);
+			} catch (ExecutionException e) {
+				/* don't cache failures; the next request will try again...
+				 */
+				synchronized (entries) {
+					if (entries.get(serviceURI) == this)
+						entries.remove(serviceURI);
+				}
+				Throwable cause = e.getCause();
+				if (cause instanceof SADIException)
+					throw (SADIException)cause;
+				else if (cause instanceof RuntimeException)
+					throw (RuntimeException)cause;
+				else if (cause instanceof Error)
+					throw (Error)cause;
+				else
+					throw new SADIException(cause.toString(), cause);
+			}
+		}
+	}
+
+	/* reloads an expired service; if that fails, the stale service is kept
+	 * and we try again after another time-to-live...
+	 */
+	private class Refresh implements Runnable
+	{
+		private final Entry entry;
+
+		public Refresh(Entry entry)
+		{
+			this.entry = entry;
+		}
+
+		public void run()
+		{
+			try {
+				log.debug(String.format("reloading expired service %s", entry.serviceURI));
+				entry.set(load(entry.serviceURI));
+			} catch (Exception e) {
+				log.warn(String.format("error reloading service %s; keeping the cached instance", entry.serviceURI), e);
+				entry.set(entry.service);
+			} finally {
+				entry.refreshing.set(false);
+			}
+		}
+	}
+
+	private static class RefreshThreadFactory implements ThreadFactory
+	{
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, String.format("%s-%d", ServiceCache.class.getSimpleName(), threadNumber.getAndIncrement()));
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
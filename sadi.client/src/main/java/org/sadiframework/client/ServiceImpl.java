@@ -5,28 +5,22 @@ import java.io.InputStream;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.http.Header;
-import org.apache.http.HttpException;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.params.ClientPNames;
 import org.apache.log4j.Logger;
 import org.sadiframework.SADIException;
 import org.sadiframework.client.testing.TestCase;
 import org.sadiframework.service.ontology.AbstractServiceOntologyHelper;
 import org.sadiframework.service.ontology.MyGridServiceOntologyHelper;
-import org.sadiframework.utils.ContentType;
 import org.sadiframework.utils.OwlUtils;
 import org.sadiframework.utils.QueryableErrorHandler;
 import org.sadiframework.utils.RdfUtils;
-import org.sadiframework.utils.http.HttpClient;
 import org.sadiframework.utils.http.HttpUtils;
-import org.sadiframework.utils.http.HttpUtils.HttpStatusException;
 
 
 import com.hp.hpl.jena.ontology.OntClass;
@@ -36,12 +30,9 @@ import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.ModelFactory;
 import com.hp.hpl.jena.rdf.model.RDFNode;
 import com.hp.hpl.jena.rdf.model.Resource;
-import com.hp.hpl.jena.rdf.model.Statement;
-import com.hp.hpl.jena.rdf.model.StmtIterator;
 import com.hp.hpl.jena.shared.DoesNotExistException;
 import com.hp.hpl.jena.shared.JenaException;
 import com.hp.hpl.jena.vocabulary.RDF;
-import com.hp.hpl.jena.vocabulary.RDFS;
 
 /**
  * The native SADI Service class.
@@ -62,6 +53,10 @@ public class ServiceImpl extends ServiceBase
 	Collection<Restriction> restrictions;
 	Collection<TestCase> tests;
 	
+	/* runs the blocking part of asynchronous invocations...
+	 */
+	private static final ExecutorService invocationExecutor = Executors.newCachedThreadPool(new InvocationThreadFactory());
+	
 	/* Perform initialization common to all constructors. Jena models are
 	 * created here so they can be used as locks for the thread-safe blocks.
 	 */
@@ -222,6 +217,64 @@ public class ServiceImpl extends ServiceBase
 	 * @see org.sadiframework.client.Service#invokeService(java.util.Collection)
 	 */
 	public Model invokeService(Iterator<Resource> inputNodes) throws ServiceInvocationException
+	{
+		return invokeServiceUnparsed(assembleInput(inputNodes));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.sadiframework.client.ServiceBase#invokeServiceAsync(java.util.Iterator)
+	 */
+	@Override
+	public ModelFuture invokeServiceAsync(Iterator<Resource> inputNodes)
+	{
+		/* the input nodes probably live in a model that isn't safe to read
+		 * from another thread, so assemble the input before handing off...
+		 */
+		final Model inputModel;
+		try {
+			inputModel = assembleInput(inputNodes);
+		} catch (ServiceInvocationException e) {
+			ModelFuture future = new ModelFuture();
+			future.completeExceptionally(e);
+			return future;
+		}
+
+		final ModelFuture future = new ModelFuture();
+		invocationExecutor.execute(new Runnable() {
+			public void run()
+			{
+				try {
+					AsynchronousDataPoller.resolve(postInput(inputModel), future);
+				} catch (ServiceInvocationException e) {
+					future.completeExceptionally(e);
+				}
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Call this service using the specified Model as input, without
+	 * any extra parsing/filtering.
+	 * @param inputModel the input data
+	 * @return the service output
+	 * @throws IOException 
+	 */
+	public Model invokeServiceUnparsed(Model inputModel) throws ServiceInvocationException
+	{
+		Model model = postInput(inputModel);
+		
+		/* resolve any rdfs:isDefinedBy URIs to fetch asynchronous data...
+		 */
+		resolveAsynchronousData(model);
+		
+		if (log.isTraceEnabled()) {
+			log.trace(String.format("received output:\n%s", RdfUtils.logModel(model)));
+		}
+		return model;
+	}
+	
+	private Model assembleInput(Iterator<Resource> inputNodes) throws ServiceInvocationException
 	{
 		OntClass inputClass;
 		try {
@@ -238,18 +291,10 @@ public class ServiceImpl extends ServiceBase
 			inputNode.addProperty(RDF.type, inputClass);
 			inputModel.add(OwlUtils.getMinimalModel(inputNode, inputClass));
 		}
-		
-		return invokeServiceUnparsed(inputModel);
+		return inputModel;
 	}
-
-	/**
-	 * Call this service using the specified Model as input, without
-	 * any extra parsing/filtering.
-	 * @param inputModel the input data
-	 * @return the service output
-	 * @throws IOException 
-	 */
-	public Model invokeServiceUnparsed(Model inputModel) throws ServiceInvocationException
+	
+	private Model postInput(Model inputModel) throws ServiceInvocationException
 	{
 		if (log.isTraceEnabled()) {
 			log.trace(String.format("posting RDF to %s:\n%s", getURI(), RdfUtils.logModel(inputModel)));
@@ -258,110 +303,38 @@ public class ServiceImpl extends ServiceBase
 		Model model = ModelFactory.createDefaultModel();
 		try {
 			InputStream is = HttpUtils.postToURL(new URL(getURI()), inputModel);
-			model.read(is, "");
-			is.close();
+			try {
+				model.read(is, "");
+			} finally {
+				is.close();
+			}
 		} catch (IOException e) {
 			throw new ServiceInvocationException(String.format("error communicating with service: %s", e.getMessage()), e);
 		} catch (Exception e) {
 			throw new ServiceInvocationException(String.format("error parsing service response: %s", e.getMessage()), e);
 		}
-		
-		/* resolve any rdfs:isDefinedBy URIs to fetch asynchronous data...
-		 */
-		resolveAsynchronousData(model);
-		
-		if (log.isTraceEnabled()) {
-			log.trace(String.format("received output:\n%s", RdfUtils.logModel(model)));
-		}
 		return model;
 	}
 	
 	/**
 	 * Resolve any rdfs:isDefinedBy URIs in the specified model to fetch 
 	 * asynchronous data.
+	 * All of the URIs are polled concurrently; this method blocks until
+	 * data has been fetched from all of them.
 	 * @param model the model
 	 */
 	static void resolveAsynchronousData(Model model)
 	{
-		Set<String> seen = new HashSet<String>();
-		for (StmtIterator i = model.listStatements((Resource)null, RDFS.isDefinedBy, (RDFNode)null); i.hasNext(); ) {
-			Statement statement = i.removeNext();
-			if (!statement.getObject().isURIResource())
-				continue;
-			
-			String url = statement.getResource().getURI();
-			if (seen.contains(url))
-				continue;
-			else
-				seen.add(url);
-			
-			try {
-				InputStream data = fetchAsyncData(url);
-				model.read(data, url);
-				data.close();
-			} catch (Exception e) {
-				log.error("failed to fetch data for " + statement, e);
-			}
-		}
-	}
-	
-	/**
-	 * Fetch asynchronous data from the specified URL.
-	 * This method will block until the final data is available from the URL, waiting for
-	 * the amount of time suggested by the service between redirects.
-	 * @param url the URL from which to fetch data
-	 * @return an InputStream
-	 * @throws HttpException
-	 * @throws IOException
-	 */
-	static InputStream fetchAsyncData(String url) throws IOException
-	{
-		HttpClient client = new HttpClient();
-		client.getParams().setParameter(ClientPNames.HANDLE_REDIRECTS, false);
-
-		Map<String,String> headers = new HashMap<String,String>();
-		headers.put("Accept", ContentType.RDF_XML.getHTTPHeader());
-		
-		while (true) {
-			log.debug("fetching asynchronous data from " + url);
-			HttpResponse response = client.GET(new URL(url), null, headers);
-			int statusCode = response.getStatusLine().getStatusCode();
-			if (statusCode == 202 || (statusCode >= 300 && statusCode < 400)) {
-				response.getEntity().getContent().close();
-				long toSleep = 10000; // sleep for ten seconds by default
-//				String retryAfter = response.getFirstHeader("Retry-After");
-				Header retryAfter = response.getFirstHeader("Retry-After");
-				if (retryAfter != null) {
-					try {
-						toSleep = 1000 * Long.valueOf(retryAfter.getValue());
-					} catch (NumberFormatException e) {
-						log.error(String.format("error parsing value of Retry-After header '%s'", retryAfter.getValue()), e);
-					}
-				}
-				// TODO stop looking for for legacy header at some point?
-//				String pleaseWait = HttpUtils.getHeaderValue(method, "Pragma", SADI.ASYNC_HEADER);
-				Header pleaseWait = response.getFirstHeader("Pragma");
-				if (pleaseWait != null) {
-					// toSleep = (pleaseWait =~ /sadi-please-wait\s*=\s*(\d+)/)[0]
-				}
-				try {
-					log.trace("sleeping " + toSleep + "ms before following redirect");
-					Thread.sleep(toSleep);
-				} catch (InterruptedException e) {
-					log.warn(e);
-				}
-				// get new location...
-//				String newURL = HttpUtils.getHeaderValue(method, "Location");
-				Header newURL = response.getFirstHeader("Location");
-				if (newURL != null)
-					url = newURL.getValue();
-			} else if (statusCode >= 200 && statusCode < 300) {
-//				return method.getResponseBodyAsStream();
-				return response.getEntity().getContent();
-			} else {
-				response.getEntity().getContent().close();
-				throw new HttpStatusException(statusCode);
-			}
+		ModelFuture future = AsynchronousDataPoller.resolve(model);
+		try {
+			future.get();
+		} catch (InterruptedException e) {
+			log.warn("interrupted while waiting for asynchronous data");
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// errors fetching individual URIs are logged by the poller...
+			log.error("failed to fetch asynchronous data", e.getCause());
 		}
 	}
 
@@ -374,6 +347,18 @@ public class ServiceImpl extends ServiceBase
 		return log;
 	}
 
+	private static class InvocationThreadFactory implements ThreadFactory
+	{
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+		
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, String.format("%s-%d", ServiceImpl.class.getSimpleName(), threadNumber.getAndIncrement()));
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
 //	@Override
 //	public int hashCode()
 //	{
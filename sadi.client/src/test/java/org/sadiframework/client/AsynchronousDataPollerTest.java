@@ -0,0 +1,98 @@
+package org.sadiframework.client;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.vocabulary.RDFS;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class AsynchronousDataPollerTest
+{
+	private static final String NS = "http://sadiframework.org/test/async.owl#";
+	private static final int RETRY_AFTER = 2;
+
+	private HttpServer server;
+	private String baseURL;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", new SlowHandler());
+		server.start();
+		baseURL = String.format("http://localhost:%d/", server.getAddress().getPort());
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		server.stop(0);
+	}
+
+	@Test
+	public void testResolve() throws Exception
+	{
+		Model model = ModelFactory.createDefaultModel();
+		Property value = model.createProperty(NS + "value");
+		for (String name: new String[]{ "a", "b", "c" })
+			model.createResource(NS + name).addProperty(RDFS.isDefinedBy, model.createResource(baseURL + name));
+
+		long start = System.currentTimeMillis();
+		ModelFuture future = AsynchronousDataPoller.resolve(model);
+		assertFalse("rdfs:isDefinedBy statements were not removed", model.contains(null, RDFS.isDefinedBy));
+		future.get(30, TimeUnit.SECONDS);
+		long elapsed = System.currentTimeMillis() - start;
+
+		for (String name: new String[]{ "a", "b", "c" }) {
+			Resource subject = model.getResource(NS + name);
+			assertTrue(String.format("missing asynchronous data for %s", name), subject.hasProperty(value, name));
+		}
+		// polled one after the other, this would take at least three retry intervals...
+		assertTrue(String.format("URLs were not polled concurrently (took %dms)", elapsed), elapsed < 2 * RETRY_AFTER * 1000);
+	}
+
+	/* asks the client to come back later the first time each URL is
+	 * requested, then returns some data...
+	 */
+	private static class SlowHandler implements HttpHandler
+	{
+		private ConcurrentMap<String, AtomicInteger> requests = new ConcurrentHashMap<String, AtomicInteger>();
+
+		public void handle(HttpExchange exchange) throws IOException
+		{
+			String name = exchange.getRequestURI().getPath().substring(1);
+			requests.putIfAbsent(name, new AtomicInteger());
+			if (requests.get(name).getAndIncrement() == 0) {
+				exchange.getResponseHeaders().add("Retry-After", String.valueOf(RETRY_AFTER));
+				exchange.sendResponseHeaders(202, -1);
+			} else {
+				Model data = ModelFactory.createDefaultModel();
+				data.createResource(NS + name).addProperty(data.createProperty(NS + "value"), name);
+				exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=UTF-8");
+				exchange.sendResponseHeaders(200, 0);
+				OutputStream os = exchange.getResponseBody();
+				data.write(os, "N-TRIPLE");
+				os.close();
+			}
+			exchange.close();
+		}
+	}
+}
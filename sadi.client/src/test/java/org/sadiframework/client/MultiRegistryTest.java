@@ -0,0 +1,122 @@
+package org.sadiframework.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.sadiframework.SADIException;
+
+public class MultiRegistryTest
+{
+	private static final String SERVICE_URI = "http://sadiframework.org/test/service";
+
+	@Test
+	public void testDeadline() throws Exception
+	{
+		StubRegistry fast = new StubRegistry("fast", 0, false);
+		StubRegistry slow = new StubRegistry("slow", 5000, false);
+		MultiRegistry registry = new MultiRegistry(Arrays.asList(slow.proxy, fast.proxy), 500, 3, 60000);
+
+		long start = System.currentTimeMillis();
+		Collection<Service> services = registry.getAllServices();
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue(String.format("slow registry held up the results (%dms)", elapsed), elapsed < 2500);
+		assertEquals("missing results from fast registry", 1, services.size());
+		assertSame(fast.service, services.iterator().next());
+	}
+
+	@Test
+	public void testPriority() throws Exception
+	{
+		StubRegistry first = new StubRegistry("first", 200, false);
+		StubRegistry second = new StubRegistry("second", 0, false);
+		MultiRegistry registry = new MultiRegistry(Arrays.asList(first.proxy, second.proxy), 5000, 3, 60000);
+		assertSame("result wasn't from the highest-priority registry", first.service, registry.getService(SERVICE_URI));
+	}
+
+	@Test
+	public void testCircuitBreaker() throws Exception
+	{
+		StubRegistry failing = new StubRegistry("failing", 0, true);
+		StubRegistry working = new StubRegistry("working", 0, false);
+		MultiRegistry registry = new MultiRegistry(Arrays.asList(failing.proxy, working.proxy), 5000, 2, 500);
+
+		for (int i = 0; i < 5; ++i)
+			assertEquals(1, registry.getAllServices().size());
+		assertEquals("failing registry wasn't skipped", 2, failing.calls.get());
+
+		Thread.sleep(600);
+		failing.fail = false;
+		assertEquals("registry wasn't tried again after the cool-down", 2, registry.getAllServices().size());
+		assertEquals(3, failing.calls.get());
+	}
+
+	@Test
+	public void testNoResult() throws Exception
+	{
+		StubRegistry failing = new StubRegistry("failing", 0, true);
+		MultiRegistry registry = new MultiRegistry(Collections.singletonList(failing.proxy), 5000, 3, 60000);
+		assertNull(registry.getService(SERVICE_URI));
+	}
+
+	/* a registry that knows about one service, after a delay...
+	 */
+	private static class StubRegistry implements InvocationHandler
+	{
+		final String name;
+		final long delay;
+		final AtomicInteger calls;
+		final Registry proxy;
+		final Service service;
+		volatile boolean fail;
+
+		StubRegistry(String name, long delay, boolean fail)
+		{
+			this.name = name;
+			this.delay = delay;
+			this.fail = fail;
+			this.calls = new AtomicInteger();
+			this.proxy = (Registry)Proxy.newProxyInstance(Registry.class.getClassLoader(), new Class<?>[]{ Registry.class }, this);
+			this.service = (Service)Proxy.newProxyInstance(Service.class.getClassLoader(), new Class<?>[]{ Service.class }, new InvocationHandler() {
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+				{
+					if (method.getName().equals("equals"))
+						return proxy == args[0];
+					if (method.getName().equals("hashCode"))
+						return System.identityHashCode(proxy);
+					return null;
+				}
+			});
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+		{
+			if (method.getName().equals("equals"))
+				return proxy == args[0];
+			if (method.getName().equals("hashCode"))
+				return System.identityHashCode(proxy);
+			if (method.getName().equals("toString"))
+				return name;
+
+			calls.incrementAndGet();
+			Thread.sleep(delay);
+			if (fail)
+				throw new SADIException(String.format("registry %s is broken", name));
+			if (method.getName().equals("getService"))
+				return service;
+			if (method.getName().equals("getAllServices"))
+				return Collections.singleton(service);
+			return null;
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package org.sadiframework.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.sadiframework.SADIException;
+
+public class ServiceCacheTest
+{
+	private static final String SERVICE_URI = "http://sadiframework.org/test/service";
+
+	@Test
+	public void testSingleFlight() throws Exception
+	{
+		CountingLoader loader = new CountingLoader(500);
+		final ServiceCache cache = new ServiceCache(loader, 10, 0);
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<Service>> futures = new ArrayList<Future<Service>>();
+		for (int i = 0; i < 8; ++i) {
+			futures.add(executor.submit(new Callable<Service>() {
+				public Service call() throws Exception
+				{
+					return cache.get(SERVICE_URI);
+				}
+			}));
+		}
+		Service first = futures.get(0).get();
+		for (Future<Service> future: futures)
+			assertSame("concurrent requests got different instances", first, future.get());
+		executor.shutdown();
+
+		assertEquals("concurrent misses loaded the service more than once", 1, loader.loads.get());
+		assertSame(first, cache.get(SERVICE_URI));
+		assertEquals(1L, cache.getHitCount());
+		assertEquals(8L, cache.getMissCount());
+	}
+
+	@Test
+	public void testEviction() throws Exception
+	{
+		CountingLoader loader = new CountingLoader(0);
+		ServiceCache cache = new ServiceCache(loader, 2, 0);
+		cache.get(SERVICE_URI + 1);
+		cache.get(SERVICE_URI + 2);
+		cache.get(SERVICE_URI + 1);
+		cache.get(SERVICE_URI + 3); // evicts 2, the least-recently used
+		assertEquals(2, cache.size());
+		assertEquals(1L, cache.getEvictionCount());
+		cache.get(SERVICE_URI + 1);
+		assertEquals("least-recently used service wasn't kept", 3, loader.loads.get());
+		cache.get(SERVICE_URI + 2);
+		assertEquals("evicted service wasn't reloaded", 4, loader.loads.get());
+	}
+
+	@Test
+	public void testRefresh() throws Exception
+	{
+		CountingLoader loader = new CountingLoader(0);
+		ServiceCache cache = new ServiceCache(loader, 10, 100);
+		Service first = cache.get(SERVICE_URI);
+		Thread.sleep(200);
+		assertSame("expired service wasn't returned while it was reloaded", first, cache.get(SERVICE_URI));
+		for (int i = 0; i < 50 && loader.loads.get() < 2; ++i)
+			Thread.sleep(100);
+		assertNotSame("expired service wasn't reloaded", first, cache.get(SERVICE_URI));
+	}
+
+	@Test
+	public void testFailureNotCached() throws Exception
+	{
+		CountingLoader loader = new CountingLoader(0);
+		loader.fail = true;
+		ServiceCache cache = new ServiceCache(loader, 10, 0);
+		try {
+			cache.get(SERVICE_URI);
+			fail("failed load didn't throw an exception");
+		} catch (SADIException e) {
+			// expected...
+		}
+		assertEquals(0, cache.size());
+		assertEquals(1L, cache.getLoadFailureCount());
+
+		loader.fail = false;
+		cache.get(SERVICE_URI);
+		assertEquals("failed load was cached", 2, loader.loads.get());
+	}
+
+	private static class CountingLoader implements ServiceCache.ServiceLoader
+	{
+		final AtomicInteger loads = new AtomicInteger();
+		final long delay;
+		volatile boolean fail;
+
+		CountingLoader(long delay)
+		{
+			this.delay = delay;
+		}
+
+		public Service loadService(final String serviceURI) throws SADIException
+		{
+			loads.incrementAndGet();
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				throw new SADIException(e.toString());
+			}
+			if (fail)
+				throw new SADIException(String.format("no such service %s", serviceURI));
+			return (Service)Proxy.newProxyInstance(Service.class.getClassLoader(), new Class<?>[]{ Service.class }, new InvocationHandler() {
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+				{
+					if (method.getName().equals("getURI"))
+						return serviceURI;
+					if (method.getName().equals("equals"))
+						return proxy == args[0];
+					if (method.getName().equals("hashCode"))
+						return System.identityHashCode(proxy);
+					return null;
+				}
+			});
+		}
+	}
+}
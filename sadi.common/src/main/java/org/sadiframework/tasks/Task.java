@@ -19,6 +19,11 @@ public abstract class Task implements Runnable
 	protected Collection<String> warnings;
 	protected Date completed;
 	
+	/* guarded by this task; see TaskManager.cancelTask...
+	 */
+	boolean running;
+	boolean cancelled;
+	
 	protected Task()
 	{
 		status = "";
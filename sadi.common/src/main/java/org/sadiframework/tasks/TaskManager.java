@@ -1,44 +1,115 @@
 package org.sadiframework.tasks;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Iterator;
 import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.commons.configuration.Configuration;
 import org.apache.log4j.Logger;
+import org.sadiframework.Config;
 
 /**
  * A class that simplifies spawning, tracking and cleaning up background
  * tasks.
- * 
+ *
+ * Tasks are run on a bounded thread pool configured by the following
+ * properties (shown with their default values):
+ * <pre>
+ * sadi.tasks.maxPoolSize = 16
+ * sadi.tasks.queueSize = 1000
+ * sadi.tasks.retryAfter = 30
+ * sadi.tasks.lifespan = 28800000
+ * sadi.tasks.store.directory =
+ * sadi.tasks.store.maxSize = 1073741824
+ * </pre>
+ * Up to maxPoolSize tasks run at once, and idle threads exit after a
+ * minute. When the pool and its queue are full, new tasks are rejected with a
+ * {@link TaskRejectedException}. If a store directory is configured,
+ * finished tasks can persist their output to a {@link TaskStore} so that it
+ * survives a restart.
+ *
  * @author Luke McCarthy
  */
 public class TaskManager implements UncaughtExceptionHandler
 {
 	private static final Logger log = Logger.getLogger(TaskManager.class);
-	
+
+	public static final String ROOT_CONFIG_KEY = "sadi.tasks";
+	public static final String MAX_POOL_SIZE_CONFIG_KEY = "maxPoolSize";
+	public static final String QUEUE_SIZE_CONFIG_KEY = "queueSize";
+	public static final String RETRY_AFTER_CONFIG_KEY = "retryAfter";
+	public static final String LIFESPAN_CONFIG_KEY = "lifespan";
+	public static final String STORE_DIRECTORY_CONFIG_KEY = "store.directory";
+	public static final String STORE_MAX_SIZE_CONFIG_KEY = "store.maxSize";
+
 	private static final TaskManager theInstance = new TaskManager();
-	
-	private long taskCounter;
-	private Map<String, Task> idToTask;
-	private Map<Thread, Task> threadToTask;
+
+	private AtomicLong taskCounter;
+	private ConcurrentMap<String, Task> idToTask;
+	private ConcurrentMap<Thread, Task> threadToTask;
+	private ExecutorService executor;
+	private TaskStore taskStore;
+	private int retryAfter;
+	private long taskLifespan;
 	private TaskSweeper taskSweeper;
-	
+
 	private TaskManager()
 	{
 		log.debug("New TaskManager instantiated");
-		
-		taskCounter = 0;
-		idToTask = new HashMap<String, Task>();
-		threadToTask = new HashMap<Thread, Task>();
-		
+
+		Configuration config = Config.getConfiguration().subset(ROOT_CONFIG_KEY);
+
+		/* seed the counter with the current time so that ids are unique
+		 * across restarts (which matters if task output is persisted...)
+		 */
+		taskCounter = new AtomicLong(System.currentTimeMillis());
+		idToTask = new ConcurrentHashMap<String, Task>();
+		threadToTask = new ConcurrentHashMap<Thread, Task>();
+
+		executor = createExecutor(config.getInt(MAX_POOL_SIZE_CONFIG_KEY, 16), config.getInt(QUEUE_SIZE_CONFIG_KEY, 1000));
+		retryAfter = config.getInt(RETRY_AFTER_CONFIG_KEY, 30);
+		taskLifespan = config.getLong(LIFESPAN_CONFIG_KEY, 8 * 60 * 60 * 1000);
+
+		String storeDirectory = config.getString(STORE_DIRECTORY_CONFIG_KEY);
+		if (storeDirectory != null && storeDirectory.length() > 0) {
+			try {
+				taskStore = new TaskStore(new File(storeDirectory), config.getLong(STORE_MAX_SIZE_CONFIG_KEY, 1024 * 1024 * 1024));
+			} catch (IOException e) {
+				log.error(String.format("error initializing task store in %s; task output will not be persisted", storeDirectory), e);
+			}
+		}
+
 		taskSweeper = new TaskSweeper();
 		taskSweeper.start();
 	}
-	
+
+	/* a ThreadPoolExecutor only grows past its core size when the queue
+	 * is full, so every thread is a core thread and idle ones time out...
+	 */
+	static ThreadPoolExecutor createExecutor(int maxPoolSize, int queueSize)
+	{
+		maxPoolSize = Math.max(1, maxPoolSize);
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(maxPoolSize, maxPoolSize, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)), new TaskThreadFactory());
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
 	/**
 	 * Returns the singleton instance of the task manager.
 	 * @return the singleton
@@ -47,26 +118,91 @@ public class TaskManager implements UncaughtExceptionHandler
 	{
 		return theInstance;
 	}
-	
+
+	/**
+	 * Replace the executor that runs tasks.
+	 * Tasks already started will continue to run on the old executor.
+	 * @param executor the new executor
+	 */
+	public synchronized void setExecutor(ExecutorService executor)
+	{
+		ExecutorService old = this.executor;
+		this.executor = executor;
+		old.shutdown();
+	}
+
+	/**
+	 * Returns the executor that runs tasks.
+	 * @return the executor that runs tasks
+	 */
+	public synchronized ExecutorService getExecutor()
+	{
+		return executor;
+	}
+
+	/**
+	 * Returns the store that persists task output, or null if no store
+	 * is configured.
+	 * @return the task store, or null
+	 */
+	public TaskStore getTaskStore()
+	{
+		return taskStore;
+	}
+
+	/**
+	 * Set the store that persists task output.
+	 * @param taskStore the new task store, or null to disable persistence
+	 */
+	public void setTaskStore(TaskStore taskStore)
+	{
+		this.taskStore = taskStore;
+	}
+
 	/**
 	 * Start the specified task running.
 	 * @param task the task
 	 * @return a unique identifier for the task
+	 * @throws TaskRejectedException if the task can't be run or queued
 	 */
 	public String startTask(Task task)
 	{
 		String id = getNextUniqueId();
 		task.id = id;
 		idToTask.put(id, task);
-		
-		Thread thread = new Thread(task);
-		thread.setUncaughtExceptionHandler(this);
-		threadToTask.put(thread, task);
-		thread.start();
-		
+
+		try {
+			getExecutor().execute(new TaskRunner(task));
+		} catch (RejectedExecutionException e) {
+			idToTask.remove(id);
+			log.warn(String.format("rejected task %s; too many tasks running", task));
+			throw new TaskRejectedException("too many tasks running", retryAfter);
+		}
+
 		return task.id;
 	}
-	
+
+	/**
+	 * Cancel the specified task. A task that hasn't started yet is
+	 * disposed now and never runs; a task that is running is disposed as
+	 * soon as it finishes, so that output no one will poll for isn't kept.
+	 * @param id the id of the task
+	 */
+	public void cancelTask(String id)
+	{
+		Task task = getTask(id);
+		if (task == null)
+			return;
+
+		boolean dispose;
+		synchronized (task) {
+			task.cancelled = true;
+			dispose = !task.running;
+		}
+		if (dispose)
+			disposeTask(id);
+	}
+
 	/**
 	 * Returns the latest status message from a task.
 	 * @param id the id of the task to poll
@@ -81,7 +217,7 @@ public class TaskManager implements UncaughtExceptionHandler
 			return task.getStatus();
 		}
 	}
-	
+
 	/**
 	 * Returns the task corresponding to an id.
 	 * @param id the id of the task
@@ -91,7 +227,7 @@ public class TaskManager implements UncaughtExceptionHandler
 	{
 		return idToTask.get(id);
 	}
-	
+
 	/**
 	 * Returns the task corresponding to a thread.
 	 * @param thread the thread running the task
@@ -101,32 +237,27 @@ public class TaskManager implements UncaughtExceptionHandler
 	{
 		return threadToTask.get(thread);
 	}
-	
+
 	/**
-	 * Clean up the task corresponding to an id.
+	 * Clean up the task corresponding to an id, including any output
+	 * persisted in the task store.
 	 * @param id the id of the task
 	 */
 	public void disposeTask(String id)
 	{
+		if (taskStore != null)
+			taskStore.removeOutput(id);
+
 		// avoid exceptions if a task is deleted twice...
-		Task task = getTask(id);
+		Task task = idToTask.remove(id);
 		if (task == null)
 			return;
-		
-		idToTask.remove(id);
-		
-		Thread t = null;
-		for (Entry<Thread, Task> entry: threadToTask.entrySet())
-			if (entry.getValue().equals(task))
-				t = entry.getKey();
-		if (t != null)
-			threadToTask.remove(t);
-		
+
+		for (Iterator<Entry<Thread, Task>> i = threadToTask.entrySet().iterator(); i.hasNext(); )
+			if (i.next().getValue().equals(task))
+				i.remove();
+
 		task.dispose();
-		
-		/* TODO actively dispose task?
-		 */
-		System.gc();
 	}
 
 	public void uncaughtException(Thread t, Throwable e)
@@ -139,28 +270,77 @@ public class TaskManager implements UncaughtExceptionHandler
 			log.error( "RuntimeException in unknown task", e );
 		}
 	}
-	
-	private synchronized String getNextUniqueId()
+
+	private String getNextUniqueId()
 	{
-		/* TODO maintain uniqueness through restarts?
-		 */
-		return String.format("%X", ++taskCounter);
+		return String.format("%X", taskCounter.incrementAndGet());
+	}
+
+	/* tracks the task in threadToTask for as long as it's running, so that
+	 * StatusAppender can find the task from the logging thread...
+	 */
+	private class TaskRunner implements Runnable
+	{
+		private Task task;
+
+		public TaskRunner(Task task)
+		{
+			this.task = task;
+		}
+
+		public void run()
+		{
+			synchronized (task) {
+				if (task.cancelled)
+					return;
+				task.running = true;
+			}
+
+			Thread thread = Thread.currentThread();
+			threadToTask.put(thread, task);
+			try {
+				task.run();
+			} catch (Throwable e) {
+				uncaughtException(thread, e);
+			} finally {
+				threadToTask.remove(thread);
+
+				boolean dispose;
+				synchronized (task) {
+					task.running = false;
+					dispose = task.cancelled;
+				}
+				if (dispose)
+					disposeTask(task.id);
+			}
+		}
 	}
-	
+
+	private static class TaskThreadFactory implements ThreadFactory
+	{
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, String.format("%s-%d", TaskManager.class.getSimpleName(), threadNumber.getAndIncrement()));
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
 	private class TaskSweeper extends Thread
 	{
 		private static final long SLEEP_INTERVAL = 15 * 60 * 1000;
-		private static final long TASK_LIFESPAN = 8 * 60 * 60 * 1000;
-		
+
 		boolean done;
-		
+
 		public TaskSweeper()
 		{
 			super(TaskSweeper.class.getCanonicalName());
 			setDaemon(true);
 			done = false;
 		}
-		
+
 		public void run()
 		{
 			while (!done) {
@@ -168,24 +348,29 @@ public class TaskManager implements UncaughtExceptionHandler
 				try {
 					Thread.sleep(SLEEP_INTERVAL);
 				} catch (InterruptedException e) {
-				
+
 				}
 			}
 		}
-		
+
 		private void sweepQueue()
 		{
 			/* shouldn't have to worry about Thread concurrency because I'm just
 			 * cleaning up local references; if anybody else is actually holding a
 			 * reference to a Task, they'll still be able to use it...
 			 */
-			long expiryDate = Calendar.getInstance().getTimeInMillis() - TASK_LIFESPAN;
+			long expiryDate = Calendar.getInstance().getTimeInMillis() - taskLifespan;
 			Collection<Task> tasksToDispose = new ArrayList<Task>();
 			for (Task task: idToTask.values())
 				if (task.isFinished() && task.getCompletionTime().getTime() < expiryDate)
 					tasksToDispose.add(task);
 			for (Task task: tasksToDispose)
 				disposeTask(task.id);
+
+			/* output stored by a previous run doesn't have a task...
+			 */
+			if (taskStore != null)
+				taskStore.removeOutputOlderThan(expiryDate);
 		}
 	}
-}
\ No newline at end of file
+}
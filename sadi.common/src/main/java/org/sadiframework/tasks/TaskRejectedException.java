@@ -0,0 +1,29 @@
+package org.sadiframework.tasks;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown by {@link TaskManager#startTask(Task)} when there is no room to
+ * run or queue a new task.
+ */
+public class TaskRejectedException extends RejectedExecutionException
+{
+	private static final long serialVersionUID = 1L;
+
+	private int retryAfter;
+
+	public TaskRejectedException(String message, int retryAfter)
+	{
+		super(message);
+		this.retryAfter = retryAfter;
+	}
+
+	/**
+	 * Returns the suggested number of seconds to wait before trying again.
+	 * @return the suggested number of seconds to wait before trying again
+	 */
+	public int getRetryAfter()
+	{
+		return retryAfter;
+	}
+}
@@ -0,0 +1,237 @@
+package org.sadiframework.tasks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+
+/**
+ * A disk-backed store for the output of finished tasks.
+ * Each output is kept in its own N-Triples file in the store directory, so
+ * stored output survives a restart. When the total size of the store
+ * exceeds its limit, the least-recently used outputs are evicted.
+ */
+public class TaskStore
+{
+	private static final Logger log = Logger.getLogger(TaskStore.class);
+
+	private static final String FILE_SUFFIX = ".nt";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final String RDF_LANG = "N-TRIPLE";
+
+	private File directory;
+	private long maxSize;
+	private long size;
+	private LinkedHashMap<String, Long> index;
+
+	/**
+	 * Create a new task store in the specified directory.
+	 * Output already present in the directory from a previous run will be
+	 * available from the new store.
+	 * @param directory the directory that will hold the stored output
+	 * @param maxSize the maximum total size of the stored output in bytes,
+	 *                or a non-positive number for no limit
+	 * @throws IOException if the directory can't be created
+	 */
+	public TaskStore(File directory, long maxSize) throws IOException
+	{
+		this.directory = directory;
+		this.maxSize = maxSize;
+
+		FileUtils.forceMkdir(directory);
+
+		/* access-ordered, so that iteration order is the eviction order...
+		 */
+		index = new LinkedHashMap<String, Long>(16, 0.75f, true);
+		size = 0;
+		File[] files = directory.listFiles();
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File f1, File f2)
+			{
+				return f1.lastModified() < f2.lastModified() ? -1 : f1.lastModified() > f2.lastModified() ? 1 : 0;
+			}
+		});
+		for (File file: files) {
+			String name = file.getName();
+			if (name.endsWith(FILE_SUFFIX)) {
+				index.put(name.substring(0, name.length() - FILE_SUFFIX.length()), file.length());
+				size += file.length();
+			} else if (name.endsWith(TEMP_SUFFIX)) {
+				// left over from an interrupted write...
+				FileUtils.deleteQuietly(file);
+			}
+		}
+		log.info(String.format("task store %s contains %d stored outputs (%d bytes)", directory, index.size(), size));
+		evict();
+	}
+
+	/**
+	 * Returns the directory that holds the stored output.
+	 * @return the directory that holds the stored output
+	 */
+	public File getDirectory()
+	{
+		return directory;
+	}
+
+	/**
+	 * Returns the total size of the stored output in bytes.
+	 * @return the total size of the stored output in bytes
+	 */
+	public synchronized long getSize()
+	{
+		return size;
+	}
+
+	/**
+	 * Store the output of the specified task, replacing any output
+	 * previously stored under the same id.
+	 * @param id the task id
+	 * @param output the output
+	 * @throws IOException if there is an error writing the output
+	 */
+	public void putOutput(String id, Model output) throws IOException
+	{
+		/* write to a temporary file first so that readers never see a
+		 * partially-written output...
+		 */
+		File temp = new File(directory, id + TEMP_SUFFIX);
+		OutputStream os = new BufferedOutputStream(new FileOutputStream(temp));
+		try {
+			output.write(os, RDF_LANG);
+		} finally {
+			IOUtils.closeQuietly(os);
+		}
+
+		synchronized (this) {
+			File file = getFile(id);
+			removeFromIndex(id);
+			if (file.exists())
+				FileUtils.forceDelete(file);
+			if (!temp.renameTo(file)) {
+				FileUtils.deleteQuietly(temp);
+				throw new IOException(String.format("failed to move %s to %s", temp, file));
+			}
+			index.put(id, file.length());
+			size += file.length();
+			evict();
+		}
+	}
+
+	/**
+	 * Returns true if there is output stored for the specified task.
+	 * @param id the task id
+	 * @return true if there is output stored for the specified task
+	 */
+	public synchronized boolean containsOutput(String id)
+	{
+		return index.containsKey(id);
+	}
+
+	/**
+	 * Returns the output stored for the specified task, or null if there
+	 * is no such output.
+	 * @param id the task id
+	 * @return the stored output, or null
+	 * @throws IOException if there is an error reading the output
+	 */
+	public Model getOutput(String id) throws IOException
+	{
+		File file;
+		synchronized (this) {
+			if (index.get(id) == null) // get() to update the access order
+				return null;
+			file = getFile(id);
+		}
+
+		Model model = ModelFactory.createDefaultModel();
+		InputStream is;
+		try {
+			is = new BufferedInputStream(new FileInputStream(file));
+		} catch (IOException e) {
+			// evicted between the index check and the read...
+			return null;
+		}
+		try {
+			model.read(is, "", RDF_LANG);
+		} finally {
+			IOUtils.closeQuietly(is);
+		}
+		return model;
+	}
+
+	/**
+	 * Remove the output stored for the specified task.
+	 * @param id the task id
+	 */
+	public synchronized void removeOutput(String id)
+	{
+		if (removeFromIndex(id))
+			FileUtils.deleteQuietly(getFile(id));
+	}
+
+	/**
+	 * Remove all output last written before the specified time.
+	 * @param expiryTime the expiry time in ms since the epoch
+	 */
+	public synchronized void removeOutputOlderThan(long expiryTime)
+	{
+		List<String> expired = new ArrayList<String>();
+		for (String id: index.keySet()) {
+			if (getFile(id).lastModified() < expiryTime)
+				expired.add(id);
+		}
+		for (String id: expired) {
+			log.debug(String.format("removing expired output of task %s", id));
+			removeOutput(id);
+		}
+	}
+
+	private File getFile(String id)
+	{
+		return new File(directory, id + FILE_SUFFIX);
+	}
+
+	private boolean removeFromIndex(String id)
+	{
+		Long fileSize = index.remove(id);
+		if (fileSize != null) {
+			size -= fileSize;
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	private synchronized void evict()
+	{
+		if (maxSize <= 0)
+			return;
+
+		for (Iterator<Map.Entry<String, Long>> i = index.entrySet().iterator(); size > maxSize && i.hasNext(); ) {
+			Map.Entry<String, Long> entry = i.next();
+			log.debug(String.format("evicting output of task %s from task store", entry.getKey()));
+			i.remove();
+			size -= entry.getValue();
+			FileUtils.deleteQuietly(getFile(entry.getKey()));
+		}
+	}
+}
@@ -0,0 +1,312 @@
+package org.sadiframework.utils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.apache.log4j.Logger;
+import org.sadiframework.Config;
+import org.sadiframework.decompose.ClassVisitor;
+import org.sadiframework.decompose.DefaultClassTracker;
+import org.sadiframework.decompose.RestrictionAdapter;
+import org.sadiframework.decompose.VisitingDecomposer;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.ontology.OntClass;
+import com.hp.hpl.jena.ontology.OntModel;
+import com.hp.hpl.jena.ontology.OntProperty;
+import com.hp.hpl.jena.ontology.OntResource;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.vocabulary.OWL;
+import com.hp.hpl.jena.vocabulary.RDF;
+
+/**
+ * The decomposition of a class, compiled into the list of things that
+ * have to be copied from an individual to produce its minimal model.
+ * Applying a plan gives the same RDF as {@link MinimalModelDecomposer},
+ * but the class is only decomposed once instead of once per individual.
+ * Plans are cached per ontology and class; a cached plan is compiled
+ * again if the ontology has changed since it was compiled. The number of
+ * plans cached for each ontology can be changed in sadi.properties:
+ * <pre>
+ * sadi.decompose.planCacheSize = 1000
+ * </pre>
+ */
+public class MinimalModelPlan
+{
+	private static final Logger log = Logger.getLogger(MinimalModelPlan.class);
+
+	public static final String PLAN_CACHE_SIZE_CONFIG_KEY = "sadi.decompose.planCacheSize";
+	public static final int DEFAULT_PLAN_CACHE_SIZE = 1000;
+
+	/* plans only refer to Nodes, so they don't keep their ontology alive
+	 * once nothing else is using it...
+	 */
+	private static final Map<OntModel, Map<Node, MinimalModelPlan>> cache = new WeakHashMap<OntModel, Map<Node, MinimalModelPlan>>();
+	private static final int cacheSize = Config.getConfiguration().getInt(PLAN_CACHE_SIZE_CONFIG_KEY, DEFAULT_PLAN_CACHE_SIZE);
+
+	private final Node classNode;
+	private final List<Node> types;
+	private final Set<Property> properties;
+	private final List<PropertyValue> values;
+	private final List<ValuesFrom> valuesFromRestrictions;
+	private final long version;
+
+	/**
+	 * Return the minimal RDF required for the specified individual to satisfy
+	 * the specified class description, using the cached plan for the class.
+	 * @param individual the individual
+	 * @param asClass the class
+	 * @return a new in-memory model containing the minimal RDF
+	 */
+	public static Model extract(Resource individual, OntClass asClass)
+	{
+		Model model = ModelFactory.createDefaultModel();
+		getPlan(asClass).extract(model, individual, asClass.getOntModel(), new HashSet<String>());
+		return model;
+	}
+
+	/* returns the plan for the specified class, compiling it if there isn't
+	 * an up-to-date plan in the cache...
+	 */
+	private static MinimalModelPlan getPlan(OntClass asClass)
+	{
+		OntModel ontModel = asClass.getOntModel();
+		Node classNode = asClass.asNode();
+		Map<Node, MinimalModelPlan> plans;
+		MinimalModelPlan plan;
+		synchronized (cache) {
+			plans = cache.get(ontModel);
+			if (plans == null) {
+				plans = new PlanCache(cacheSize);
+				cache.put(ontModel, plans);
+			}
+			plan = plans.get(classNode);
+		}
+		if (plan != null && plan.version == getVersion(ontModel))
+			return plan;
+
+		/* compile outside the lock; if two threads compile the same plan at
+		 * once, one of them just does some extra work...
+		 */
+		plan = new MinimalModelPlan(asClass);
+		synchronized (cache) {
+			plans.put(classNode, plan);
+		}
+		return plan;
+	}
+
+	/**
+	 * Remove all cached plans.
+	 */
+	public static void clearCache()
+	{
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+
+	/* a cheap stand-in for the version of an ontology; compiling a plan
+	 * may itself add properties to the ontology, so this has to be read
+	 * after the plan is compiled...
+	 */
+	private static long getVersion(OntModel ontModel)
+	{
+		long version = ontModel.getBaseModel().size();
+		for (Iterator<OntModel> i = ontModel.listSubModels(true); i.hasNext(); )
+			version = 31 * version + i.next().getBaseModel().size();
+		return version;
+	}
+
+	private MinimalModelPlan(OntClass asClass)
+	{
+		classNode = asClass.asNode();
+		types = new ArrayList<Node>();
+		properties = new HashSet<Property>();
+		values = new ArrayList<PropertyValue>();
+		valuesFromRestrictions = new ArrayList<ValuesFrom>();
+
+		if (log.isDebugEnabled())
+			log.debug(String.format("compiling minimal model plan for %s", LabelUtils.getLabel(asClass)));
+
+		PlanCompiler compiler = new PlanCompiler();
+		new VisitingDecomposer(new DefaultClassTracker(), compiler, compiler).decompose(asClass);
+		version = getVersion(asClass.getOntModel());
+	}
+
+	private void extract(Model model, Resource subject, OntModel ontModel, Set<String> visited)
+	{
+		/* remember that we've visited this individual as this class in
+		 * order to prevent cycles where the object of one of our triples
+		 * has us as the object of one of theirs...
+		 */
+		if (!visited.add(getHashKey(subject, classNode)))
+			return;
+
+		Model subjectModel = subject.getModel();
+		for (Node type: types) {
+			Resource c = subjectModel.wrapAsResource(type);
+			if (subject.hasProperty(RDF.type, c))
+				model.add(subject, RDF.type, c);
+		}
+		for (Property p: properties) {
+			model.add(subject.listProperties(p));
+		}
+		for (PropertyValue value: values) {
+			RDFNode o = subjectModel.asRDFNode(value.object);
+			if (subject.hasProperty(value.property, o))
+				model.add(subject, value.property, o);
+		}
+		for (ValuesFrom restriction: valuesFromRestrictions) {
+			/* always add the statement itself; this covers the case where
+			 * valuesFrom is a datatype or data range; if valuesFrom is a
+			 * class and the object of the statement isn't a literal,
+			 * recurse...
+			 * (extract to list to avoid ConcurrentModificationException)
+			 */
+			for (Statement statement: subject.listProperties(restriction.property).toList()) {
+				model.add(statement);
+				if (restriction.valuesFrom != null && statement.getObject().isResource()) {
+					Resource object = statement.getResource();
+					if (!visited.contains(getHashKey(object, restriction.valuesFrom))) {
+						OntClass clazz = ontModel.getOntResource(ontModel.wrapAsResource(restriction.valuesFrom)).asClass();
+						getPlan(clazz).extract(model, object, ontModel, visited);
+					}
+				}
+			}
+		}
+	}
+
+	private static String getHashKey(Resource individual, Node asClass)
+	{
+		return String.format("%s %s", individual, asClass);
+	}
+
+	/* visits the class once, recording what would be copied from each
+	 * individual instead of copying it...
+	 */
+	private class PlanCompiler extends RestrictionAdapter implements ClassVisitor
+	{
+		/* (non-Javadoc)
+		 * @see org.sadiframework.decompose.ClassVisitor#ignore(com.hp.hpl.jena.ontology.OntClass)
+		 */
+		@Override
+		public boolean ignore(OntClass c)
+		{
+			/* bottom out explicitly at owl:Thing, or we'll have problems when
+			 * we enumerate equivalent classes...
+			 */
+			return c.equals( OWL.Thing );
+		}
+
+		/* (non-Javadoc)
+		 * @see org.sadiframework.decompose.ClassVisitor#visitPreDecompose(com.hp.hpl.jena.ontology.OntClass)
+		 */
+		@Override
+		public void visitPreDecompose(OntClass c)
+		{
+			if (c.isURIResource())
+				types.add(c.asNode());
+		}
+
+		/* (non-Javadoc)
+		 * @see org.sadiframework.decompose.ClassVisitor#visitPostDecompose(com.hp.hpl.jena.ontology.OntClass)
+		 */
+		@Override
+		public void visitPostDecompose(OntClass c)
+		{
+		}
+
+		/* (non-Javadoc)
+		 * @see org.sadiframework.decompose.RestrictionAdapter#onProperty(com.hp.hpl.jena.ontology.OntProperty)
+		 */
+		@Override
+		public void onProperty(OntProperty onProperty)
+		{
+			properties.add(getProperty(onProperty));
+		}
+
+		/* (non-Javadoc)
+		 * @see org.sadiframework.decompose.RestrictionAdapter#hasValue(com.hp.hpl.jena.ontology.OntProperty, com.hp.hpl.jena.rdf.model.RDFNode)
+		 */
+		@Override
+		public void hasValue(OntProperty onProperty, RDFNode hasValue)
+		{
+			values.add(new PropertyValue(getProperty(onProperty), hasValue.asNode()));
+		}
+
+		/* (non-Javadoc)
+		 * @see org.sadiframework.decompose.RestrictionAdapter#valuesFrom(com.hp.hpl.jena.ontology.OntProperty, com.hp.hpl.jena.ontology.OntResource)
+		 */
+		@Override
+		public void valuesFrom(OntProperty onProperty, OntResource valuesFrom)
+		{
+			Node classNode = valuesFrom != null && valuesFrom.isClass() ? valuesFrom.asNode() : null;
+			valuesFromRestrictions.add(new ValuesFrom(getProperty(onProperty), classNode));
+		}
+
+		private Property getProperty(OntProperty p)
+		{
+			return ResourceFactory.createProperty(p.getURI());
+		}
+	}
+
+	private static class PropertyValue
+	{
+		final Property property;
+		final Node object;
+
+		PropertyValue(Property property, Node object)
+		{
+			this.property = property;
+			this.object = object;
+		}
+	}
+
+	private static class ValuesFrom
+	{
+		final Property property;
+		final Node valuesFrom;
+
+		ValuesFrom(Property property, Node valuesFrom)
+		{
+			this.property = property;
+			this.valuesFrom = valuesFrom;
+		}
+	}
+
+	/* least-recently used plans are evicted first...
+	 */
+	private static class PlanCache extends LinkedHashMap<Node, MinimalModelPlan>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int maxSize;
+
+		public PlanCache(int maxSize)
+		{
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.LinkedHashMap#removeEldestEntry(java.util.Map.Entry)
+		 */
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Node, MinimalModelPlan> eldest)
+		{
+			return size() > maxSize;
+		}
+	}
+}
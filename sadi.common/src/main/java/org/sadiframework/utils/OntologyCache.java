@@ -0,0 +1,325 @@
+package org.sadiframework.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.sadiframework.Config;
+import org.sadiframework.utils.http.HttpCacheLocator;
+
+import com.hp.hpl.jena.ontology.OntDocumentManager;
+import com.hp.hpl.jena.ontology.OntModel;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.shared.NotFoundException;
+import com.hp.hpl.jena.util.FileManager;
+import com.hp.hpl.jena.util.LocationMapper;
+import com.hp.hpl.jena.util.TypedStream;
+
+/**
+ * A Jena FileManager that keeps the ontologies it reads from the web.
+ * Parsed documents are kept in memory, least-recently used first out,
+ * and the documents themselves are kept on disk by a
+ * {@link HttpCacheLocator}, so that an expired document is only fetched
+ * again if it has changed. The minimal ontologies extracted from each
+ * document by {@link OwlUtils#loadMinimalOntologyForUri} are kept as well.
+ * The shared instance is installed as the global FileManager and as the
+ * FileManager of the default OntDocumentManager, so owl:imports are read
+ * through it too. It is configured in sadi.properties:
+ * <pre>
+ * sadi.ontologyCache.size = 100
+ * sadi.ontologyCache.maxAge = 3600000
+ * sadi.ontologyCache.directory = /var/tmp/sadi/ontologies
+ * </pre>
+ */
+public class OntologyCache extends FileManager
+{
+	private static final Logger log = Logger.getLogger(OntologyCache.class);
+
+	public static final String ROOT_CONFIG_KEY = "sadi.ontologyCache";
+	public static final String SIZE_CONFIG_KEY = "size";
+	public static final String MAX_AGE_CONFIG_KEY = "maxAge";
+	public static final String DIRECTORY_CONFIG_KEY = "directory";
+	public static final int DEFAULT_SIZE = 100;
+	public static final long DEFAULT_MAX_AGE = 3600000; // one hour
+
+	private final Map<String, CachedModel> documents;
+	private final Map<String, CachedModel> minimalOntologies;
+	private final long maxAge;
+
+	/**
+	 * Returns the shared instance, which is also the global FileManager.
+	 * @return the shared instance
+	 */
+	public static OntologyCache getInstance()
+	{
+		return InstanceHolder.theInstance;
+	}
+
+	/* created on first use, so that nothing is installed in Jena unless
+	 * the shared instance is actually used...
+	 */
+	private static class InstanceHolder
+	{
+		static final OntologyCache theInstance = createInstance();
+	}
+
+	private static OntologyCache createInstance()
+	{
+		Configuration config = Config.getConfiguration().subset(ROOT_CONFIG_KEY);
+		String directory = config.getString(DIRECTORY_CONFIG_KEY,
+				new File(System.getProperty("java.io.tmpdir"), "sadi-ontologies").getPath());
+		int size = config.getInt(SIZE_CONFIG_KEY, DEFAULT_SIZE);
+		long maxAge = config.getLong(MAX_AGE_CONFIG_KEY, DEFAULT_MAX_AGE);
+
+		HttpCacheLocator locator;
+		try {
+			locator = new HttpCacheLocator(StringUtils.isBlank(directory) ? null : new File(directory));
+		} catch (IOException e) {
+			log.error(String.format("error creating ontology cache directory %s; ontologies will only be cached in memory", directory), e);
+			try {
+				locator = new HttpCacheLocator(null);
+			} catch (IOException e2) {
+				throw new RuntimeException(e2); // can't happen without a directory...
+			}
+		}
+
+		/* keep whatever alternate locations the document manager already
+		 * knows about...
+		 */
+		OntDocumentManager documentManager = OntDocumentManager.getInstance();
+		OntologyCache cache = new OntologyCache(documentManager.getFileManager().getLocationMapper(), locator, size, maxAge);
+		FileManager.setGlobalFileManager(cache);
+		documentManager.setFileManager(cache);
+		return cache;
+	}
+
+	/**
+	 * Create a new ontology cache.
+	 * @param mapper the LocationMapper used to find alternate locations
+	 * @param locator the locator that fetches documents from the web
+	 * @param size the maximum number of parsed documents to keep in memory
+	 * @param maxAge how long in ms a parsed document is used before it's read again
+	 */
+	public OntologyCache(LocationMapper mapper, HttpCacheLocator locator, int size, long maxAge)
+	{
+		super(mapper != null ? mapper : LocationMapper.get());
+		addLocatorFile();
+		addLocatorClassLoader(OntologyCache.class.getClassLoader());
+		addLocator(locator);
+
+		this.documents = new ModelCache(size);
+		this.minimalOntologies = new ModelCache(size);
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * Returns the parsed document at the specified URI, reading it if it
+	 * isn't already cached. The returned model is shared and must not be
+	 * modified.
+	 * @param uri the document URI
+	 * @return the parsed document
+	 * @throws NotFoundException if the document doesn't exist
+	 */
+	public Model getOntology(String uri)
+	{
+		synchronized (documents) {
+			CachedModel cached = documents.get(uri);
+			if (cached != null && !cached.isExpired())
+				return cached.model;
+		}
+
+		String mappedURI = mapURI(uri);
+		TypedStream in = openNoMapOrNull(mappedURI);
+		if (in == null)
+			throw new NotFoundException(uri);
+		Model model = ModelFactory.createDefaultModel();
+		try {
+			getContentType(in, mappedURI).readModel(model, in.getInput(), uri);
+		} finally {
+			IOUtils.closeQuietly(in.getInput());
+		}
+
+		synchronized (documents) {
+			documents.put(uri, new CachedModel(model));
+		}
+		return model;
+	}
+
+	/**
+	 * Read the document at the specified URI into the specified OntModel,
+	 * as OntModel.read(uri) would, but without reading a cached document
+	 * again.
+	 * @param model the OntModel
+	 * @param uri the document URI
+	 * @throws NotFoundException if the document doesn't exist
+	 */
+	public void readOntology(OntModel model, String uri)
+	{
+		model.addLoadedImport(uri);
+		model.add(getOntology(uri));
+		model.loadImports();
+	}
+
+	/**
+	 * Returns the minimal ontology previously extracted for the specified
+	 * URI from the specified document, or null if there isn't one.
+	 * The returned model is shared and must not be modified.
+	 * @param documentURI the document URI
+	 * @param uri the URI
+	 * @param importIsDefinedBy true if the extraction followed isDefinedBy URIs
+	 * @return the minimal ontology, or null
+	 */
+	public Model getMinimalOntology(String documentURI, String uri, boolean importIsDefinedBy)
+	{
+		synchronized (minimalOntologies) {
+			CachedModel cached = minimalOntologies.get(getMinimalOntologyKey(documentURI, uri, importIsDefinedBy));
+			return cached != null && !cached.isExpired() ? cached.model : null;
+		}
+	}
+
+	/**
+	 * Keep the minimal ontology extracted for the specified URI from the
+	 * specified document.
+	 * @param documentURI the document URI
+	 * @param uri the URI
+	 * @param importIsDefinedBy true if the extraction followed isDefinedBy URIs
+	 * @param minimalOntology the minimal ontology
+	 */
+	public void putMinimalOntology(String documentURI, String uri, boolean importIsDefinedBy, Model minimalOntology)
+	{
+		synchronized (minimalOntologies) {
+			minimalOntologies.put(getMinimalOntologyKey(documentURI, uri, importIsDefinedBy), new CachedModel(minimalOntology));
+		}
+	}
+
+	private static String getMinimalOntologyKey(String documentURI, String uri, boolean importIsDefinedBy)
+	{
+		return String.format("%s %s %s", documentURI, uri, importIsDefinedBy);
+	}
+
+	/**
+	 * Remove all parsed documents and minimal ontologies from memory.
+	 * Documents on disk are kept.
+	 */
+	public void clear()
+	{
+		synchronized (documents) {
+			documents.clear();
+		}
+		synchronized (minimalOntologies) {
+			minimalOntologies.clear();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.hp.hpl.jena.util.FileManager#readModel(com.hp.hpl.jena.rdf.model.Model, java.lang.String)
+	 */
+	@Override
+	public Model readModel(Model model, String filenameOrURI)
+	{
+		return readModel(model, filenameOrURI, null, null);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.hp.hpl.jena.util.FileManager#readModel(com.hp.hpl.jena.rdf.model.Model, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public Model readModel(Model model, String filenameOrURI, String rdfSyntax)
+	{
+		return readModel(model, filenameOrURI, null, rdfSyntax);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.hp.hpl.jena.util.FileManager#readModel(com.hp.hpl.jena.rdf.model.Model, java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public Model readModel(Model model, String filenameOrURI, String baseURI, String syntax)
+	{
+		/* FileManager reads http: URIs directly unless it's given a base URI
+		 * or syntax; read them through the cache instead...
+		 */
+		if (baseURI == null && syntax == null && isWebURI(mapURI(filenameOrURI))) {
+			model.add(getOntology(filenameOrURI));
+			return model;
+		} else {
+			return super.readModel(model, filenameOrURI, baseURI, syntax);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.hp.hpl.jena.util.FileManager#loadModel(java.lang.String)
+	 */
+	@Override
+	public Model loadModel(String filenameOrURI)
+	{
+		if (getCachingModels() && hasCachedModel(filenameOrURI))
+			return getFromCache(filenameOrURI);
+		Model model = readModel(ModelFactory.createDefaultModel(), filenameOrURI);
+		if (getCachingModels())
+			addCacheModel(filenameOrURI, model);
+		return model;
+	}
+
+	private static boolean isWebURI(String uri)
+	{
+		return uri.startsWith("http://") || uri.startsWith("https://");
+	}
+
+	/* servers often send RDF/XML as text/plain, so only trust the content
+	 * type if it's unambiguous...
+	 */
+	private static ContentType getContentType(TypedStream in, String uri)
+	{
+		ContentType type = in.getMimeType() != null ? ContentType.getContentType(in.getMimeType()) : null;
+		if (type == null || type == ContentType.N_TRIPLES)
+			type = ContentType.getContentTypeByFilename(uri);
+		return type;
+	}
+
+	private class CachedModel
+	{
+		final Model model;
+		final long created;
+
+		CachedModel(Model model)
+		{
+			this.model = model;
+			this.created = System.currentTimeMillis();
+		}
+
+		boolean isExpired()
+		{
+			return System.currentTimeMillis() - created > maxAge;
+		}
+	}
+
+	/* least-recently used models are evicted first...
+	 */
+	private static class ModelCache extends LinkedHashMap<String, CachedModel>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int maxSize;
+
+		public ModelCache(int maxSize)
+		{
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.LinkedHashMap#removeEldestEntry(java.util.Map.Entry)
+		 */
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedModel> eldest)
+		{
+			return size() > maxSize;
+		}
+	}
+}
@@ -36,6 +36,7 @@ import com.hp.hpl.jena.rdf.model.Resource;
 import com.hp.hpl.jena.rdf.model.Statement;
 import com.hp.hpl.jena.shared.DoesNotExistException;
 import com.hp.hpl.jena.shared.JenaException;
+import com.hp.hpl.jena.shared.NotFoundException;
 import com.hp.hpl.jena.util.iterator.ExtendedIterator;
 import com.hp.hpl.jena.vocabulary.OWL;
 import com.hp.hpl.jena.vocabulary.RDF;
@@ -384,6 +385,8 @@ public class OwlUtils
 	 * Resolve the specified URI and load the resulting statements into the
 	 * specified OntModel. Optionally import isDefinedBy URIs and/or load only
 	 * the minimal ontology that defines the URI. 
+	 * Ontologies are read through the shared {@link OntologyCache}, so each
+	 * is only fetched and parsed once.
 	 * @param model the OntModel
 	 * @param uri the URI
 	 * @param importIsDefinedBy if true, import isDefinedBy URIs
@@ -402,39 +405,58 @@ public class OwlUtils
 			return;
 		}
 		
-		/* if we're loading a minimal ontology, what we're actually doing is
-		 * loading everything and pruning it before adding to the actual model;
-		 * this is the model that will hold the whole before it's pruned (note
-		 * that it shouldn't need reasoning...)
-		 */
-		OntModel localModel = loadMinimalOntology ?
-				ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM) : model;
-		
+		OntologyCache cache = OntologyCache.getInstance();
+		if (loadMinimalOntology) {
+			/* if we're loading a minimal ontology, what we're actually doing is
+			 * loading everything and pruning it before adding to the actual model;
+			 * the pruned ontology is cached, so this only happens once...
+			 */
+			Model minimalOntology = cache.getMinimalOntology(ontologyURI, uri, importIsDefinedBy);
+			if (minimalOntology == null) {
+				/* this is the model that will hold the whole before it's pruned
+				 * (note that it shouldn't need reasoning...)
+				 */
+				OntModel localModel = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM);
+				readOntology(cache, localModel, ontologyURI, uri);
+				if (importIsDefinedBy)
+					importIsDefinedBy(localModel, uri);
+				minimalOntology = ModelFactory.createDefaultModel();
+				extractMinimalOntology(minimalOntology, localModel, uri);
+				localModel.close();
+				cache.putMinimalOntology(ontologyURI, uri, importIsDefinedBy, minimalOntology);
+			}
+			model.add(minimalOntology);
+		} else {
+			readOntology(cache, model, ontologyURI, uri);
+			if (importIsDefinedBy)
+				importIsDefinedBy(model, uri);
+		}
+	}
+	
+	private static void readOntology(OntologyCache cache, OntModel model, String ontologyURI, String uri) throws SADIException
+	{
 		try {
-			localModel.read(ontologyURI);
+			cache.readOntology(model, ontologyURI);
 		} catch (JenaException e) {
-			if (e instanceof DoesNotExistException) {
+			if (e instanceof DoesNotExistException || e instanceof NotFoundException) {
 				throw new SADIException(String.format("no such ontology %s", uri));
-			} else if (e.getMessage().endsWith("Connection refused")) {
+			} else if (e.getMessage() != null && e.getMessage().endsWith("Connection refused")) {
 				throw new SADIException(String.format("connection refused to %s", uri));
 			}
 		} catch (Exception e) {
 			throw new SADIException(e.toString(), e);
 		}
-
-		if (importIsDefinedBy) {
-			/* extract to a list here to prevent concurrent modification exceptions...
-			 */
-			for (Statement statement: localModel.getResource(uri).listProperties(RDFS.isDefinedBy).toList()) {
-				if (statement.getObject().isURIResource()) {
-					loadOntologyForUri(localModel, statement.getResource().getURI(), false, importIsDefinedBy);
-				}
+	}
+	
+	private static void importIsDefinedBy(OntModel model, String uri) throws SADIException
+	{
+		/* extract to a list here to prevent concurrent modification exceptions...
+		 */
+		for (Statement statement: model.getResource(uri).listProperties(RDFS.isDefinedBy).toList()) {
+			if (statement.getObject().isURIResource()) {
+				loadOntologyForUri(model, statement.getResource().getURI(), false, true);
 			}
 		}
-		
-		if (loadMinimalOntology) {
-			extractMinimalOntology(model, localModel, uri);
-		}
 	}
 	
 	/**
@@ -773,15 +795,15 @@ public class OwlUtils
 	 * the specified class description. Note that the RDF will not be complete
 	 * if the individual is not in the same OntModel as the OntClass or does
 	 * not satisfy the class requirements. 
+	 * The class is only decomposed the first time this is called; see
+	 * {@link MinimalModelPlan}.
 	 * @param individual the individual
 	 * @param asClass the class
 	 * @return a new in-memory model containing the minimal RDF
 	 */
 	public static Model getMinimalModel(final Resource individual, final OntClass asClass)
 	{
-		MinimalModelDecomposer decomposer = new MinimalModelDecomposer(individual, asClass);
-		decomposer.decompose();
-		return decomposer.getModel();
+		return MinimalModelPlan.extract(individual, asClass);
 //		final Model model = ModelFactory.createDefaultModel();
 //		MinimalModelVisitor visitor = new MinimalModelVisitor(model, individual);
 //		new VisitingDecomposer(visitor, visitor, visitor).decompose(asClass);
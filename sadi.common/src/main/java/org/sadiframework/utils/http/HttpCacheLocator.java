@@ -0,0 +1,296 @@
+package org.sadiframework.utils.http;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+import org.sadiframework.utils.http.HttpUtils.HttpStatusException;
+
+import com.hp.hpl.jena.shared.JenaException;
+import com.hp.hpl.jena.util.Locator;
+import com.hp.hpl.jena.util.TypedStream;
+
+/**
+ * A Jena Locator that fetches HTTP URLs through the shared HTTP client,
+ * keeping a copy of each document on disk.
+ * Cached copies are revalidated with the server on every request using
+ * the ETag and Last-Modified headers the server sent with the document,
+ * so an unchanged document is never downloaded twice. If the server
+ * can't be reached, the cached copy is used.
+ */
+public class HttpCacheLocator implements Locator
+{
+	private static final Logger log = Logger.getLogger(HttpCacheLocator.class);
+
+	private static final String DATA_SUFFIX = ".data";
+	private static final String META_SUFFIX = ".properties";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private static final String URI_KEY = "uri";
+	private static final String ETAG_KEY = "etag";
+	private static final String LAST_MODIFIED_KEY = "lastModified";
+	private static final String CONTENT_TYPE_KEY = "contentType";
+
+	private static final String ACCEPT = "application/rdf+xml, application/xml;q=0.8, text/xml;q=0.7, */*;q=0.2";
+
+	private File directory;
+	private HttpClient client;
+
+	/**
+	 * Create a new locator that keeps fetched documents in the specified
+	 * directory.
+	 * @param directory the directory, or null to keep nothing on disk
+	 * @throws IOException if the directory can't be created
+	 */
+	public HttpCacheLocator(File directory) throws IOException
+	{
+		this(directory, HttpUtils.getSharedClient());
+	}
+
+	/**
+	 * Create a new locator that keeps fetched documents in the specified
+	 * directory and fetches them with the specified client.
+	 * @param directory the directory, or null to keep nothing on disk
+	 * @param client the HTTP client
+	 * @throws IOException if the directory can't be created
+	 */
+	public HttpCacheLocator(File directory, HttpClient client) throws IOException
+	{
+		this.directory = directory;
+		this.client = client;
+
+		if (directory != null)
+			FileUtils.forceMkdir(directory);
+	}
+
+	/**
+	 * Returns the directory that holds the fetched documents.
+	 * @return the directory that holds the fetched documents, or null
+	 */
+	public File getDirectory()
+	{
+		return directory;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.hp.hpl.jena.util.Locator#getName()
+	 */
+	public String getName()
+	{
+		return "HttpCacheLocator";
+	}
+
+	/* (non-Javadoc)
+	 * @see com.hp.hpl.jena.util.Locator#open(java.lang.String)
+	 */
+	public TypedStream open(String filenameOrURI)
+	{
+		if (!filenameOrURI.startsWith("http://") && !filenameOrURI.startsWith("https://"))
+			return null;
+
+		try {
+			return fetch(filenameOrURI);
+		} catch (IOException e) {
+			throw new JenaException(e);
+		}
+	}
+
+	private TypedStream fetch(String uri) throws IOException
+	{
+		CachedDocument cached = directory != null ? getCachedDocument(uri) : null;
+
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put("Accept", ACCEPT);
+		if (cached != null) {
+			if (cached.etag != null)
+				headers.put("If-None-Match", cached.etag);
+			if (cached.lastModified != null)
+				headers.put("If-Modified-Since", cached.lastModified);
+		}
+
+		HttpResponse response;
+		try {
+			response = client.GET(new URL(uri), null, headers);
+		} catch (IOException e) {
+			if (cached != null) {
+				log.warn(String.format("error fetching %s, using cached copy: %s", uri, e));
+				return cached.open();
+			}
+			throw e;
+		}
+
+		int statusCode = response.getStatusLine().getStatusCode();
+		if (statusCode == 304 && cached != null) {
+			log.debug(String.format("cached copy of %s is up to date", uri));
+			EntityUtils.consume(response.getEntity());
+			return cached.open();
+		} else if (statusCode >= 200 && statusCode < 300) {
+			log.debug(String.format("fetched %s", uri));
+			String contentType = getHeaderValue(response, "Content-Type");
+			if (contentType != null)
+				contentType = StringUtils.substringBefore(contentType, ";").trim();
+			if (directory == null)
+				return new TypedStream(response.getEntity().getContent(), contentType);
+			return putCachedDocument(uri, response, contentType).open();
+		} else if (statusCode == 404 || statusCode == 410) {
+			EntityUtils.consume(response.getEntity());
+			if (cached != null)
+				cached.delete();
+			return null;
+		} else {
+			EntityUtils.consume(response.getEntity());
+			if (cached != null) {
+				log.warn(String.format("error fetching %s, using cached copy: HTTP status %d", uri, statusCode));
+				return cached.open();
+			}
+			throw new HttpStatusException(statusCode);
+		}
+	}
+
+	private CachedDocument getCachedDocument(String uri)
+	{
+		String key = getKey(uri);
+		File metaFile = new File(directory, key + META_SUFFIX);
+		File dataFile = new File(directory, key + DATA_SUFFIX);
+		if (!metaFile.exists() || !dataFile.exists())
+			return null;
+
+		Properties meta = new Properties();
+		InputStream is = null;
+		try {
+			is = new FileInputStream(metaFile);
+			meta.load(is);
+		} catch (IOException e) {
+			log.warn(String.format("error reading %s: %s", metaFile, e));
+			return null;
+		} finally {
+			IOUtils.closeQuietly(is);
+		}
+		if (!uri.equals(meta.getProperty(URI_KEY)))
+			return null;
+		return new CachedDocument(dataFile, metaFile, meta);
+	}
+
+	private CachedDocument putCachedDocument(String uri, HttpResponse response, String contentType) throws IOException
+	{
+		/* write to temporary files first so that readers never see a
+		 * partially-written document...
+		 */
+		String key = getKey(uri);
+		File tempData = File.createTempFile(key, TEMP_SUFFIX, directory);
+		File tempMeta = File.createTempFile(key, TEMP_SUFFIX, directory);
+		try {
+			InputStream is = response.getEntity().getContent();
+			OutputStream os = new FileOutputStream(tempData);
+			try {
+				IOUtils.copy(is, os);
+			} finally {
+				IOUtils.closeQuietly(is);
+				IOUtils.closeQuietly(os);
+			}
+
+			Properties meta = new Properties();
+			meta.setProperty(URI_KEY, uri);
+			setIfNotNull(meta, ETAG_KEY, getHeaderValue(response, "ETag"));
+			setIfNotNull(meta, LAST_MODIFIED_KEY, getHeaderValue(response, "Last-Modified"));
+			setIfNotNull(meta, CONTENT_TYPE_KEY, contentType);
+			os = new FileOutputStream(tempMeta);
+			try {
+				meta.store(os, null);
+			} finally {
+				IOUtils.closeQuietly(os);
+			}
+
+			File dataFile = new File(directory, key + DATA_SUFFIX);
+			File metaFile = new File(directory, key + META_SUFFIX);
+			synchronized (this) {
+				FileUtils.deleteQuietly(dataFile);
+				FileUtils.deleteQuietly(metaFile);
+				if (!tempData.renameTo(dataFile) || !tempMeta.renameTo(metaFile))
+					throw new IOException(String.format("failed to move cached copy of %s into %s", uri, directory));
+			}
+			return new CachedDocument(dataFile, metaFile, meta);
+		} finally {
+			FileUtils.deleteQuietly(tempData);
+			FileUtils.deleteQuietly(tempMeta);
+		}
+	}
+
+	private static String getHeaderValue(HttpResponse response, String name)
+	{
+		Header header = response.getFirstHeader(name);
+		return header != null ? header.getValue() : null;
+	}
+
+	private static void setIfNotNull(Properties properties, String key, String value)
+	{
+		if (value != null)
+			properties.setProperty(key, value);
+	}
+
+	/* URIs aren't safe file names, so name the files after a hash of the
+	 * URI and check the URI stored in the metadata...
+	 */
+	private static String getKey(String uri)
+	{
+		try {
+			MessageDigest digest = MessageDigest.getInstance("MD5");
+			StringBuilder key = new StringBuilder();
+			for (byte b: digest.digest(uri.getBytes("UTF-8")))
+				key.append(String.format("%02x", b));
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform is required to support MD5...
+			throw new RuntimeException(e);
+		} catch (IOException e) {
+			// every Java platform is required to support UTF-8...
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static class CachedDocument
+	{
+		final File dataFile;
+		final File metaFile;
+		final String etag;
+		final String lastModified;
+		final String contentType;
+
+		CachedDocument(File dataFile, File metaFile, Properties meta)
+		{
+			this.dataFile = dataFile;
+			this.metaFile = metaFile;
+			this.etag = meta.getProperty(ETAG_KEY);
+			this.lastModified = meta.getProperty(LAST_MODIFIED_KEY);
+			this.contentType = meta.getProperty(CONTENT_TYPE_KEY);
+		}
+
+		TypedStream open() throws IOException
+		{
+			return new TypedStream(new BufferedInputStream(new FileInputStream(dataFile)), contentType);
+		}
+
+		void delete()
+		{
+			FileUtils.deleteQuietly(dataFile);
+			FileUtils.deleteQuietly(metaFile);
+		}
+	}
+}
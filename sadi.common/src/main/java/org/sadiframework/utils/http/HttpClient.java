@@ -18,6 +18,8 @@ import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.protocol.RequestAcceptEncoding;
+import org.apache.http.client.protocol.ResponseContentEncoding;
 import org.apache.http.client.utils.URIUtils;
 import org.apache.http.client.utils.URLEncodedUtils;
 import org.apache.http.conn.ClientConnectionManager;
@@ -29,6 +31,9 @@ import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.message.BasicNameValuePair;
 import org.sadiframework.Config;
+import org.sadiframework.utils.ContentType;
+
+import com.hp.hpl.jena.rdf.model.Model;
 
 
 /**
@@ -37,6 +42,7 @@ import org.sadiframework.Config;
  * <ol>
  *    <li>additional convenience methods are provided for making GET/POST requests.</li>
  *    <li>the default connection manager is ThreadSafeClientConnManager, not SingleClientConnManager</li>
+ *    <li>responses are requested gzip-compressed and decompressed transparently (unless sadi.http.gzip is false)</li>
  * </ol>
  * 
  * <p>It is important to close the HTTP connections that are opened 
@@ -58,6 +64,7 @@ public class HttpClient extends DefaultHttpClient
 	protected static final String ENCODING_UTF8 = "UTF-8";
 	protected static final String ROOT_CONFIG_KEY = "http"; 
 	protected static final String CHUNKED_CONFIG_KEY = "sadi.http.useChunked"; 
+	protected static final String GZIP_CONFIG_KEY = "sadi.http.gzip"; 
 
 	protected boolean useChunked;
 
@@ -71,10 +78,23 @@ public class HttpClient extends DefaultHttpClient
 		this(getConnectionsManager(maxConnectionsPerRoute, maxConnectionsTotal));
 	}
 
-	protected HttpClient(ClientConnectionManager connectionManager)
+	/**
+	 * Create a client that uses the specified connection manager.
+	 * Clients that share a connection manager share its pool of
+	 * connections (see {@link HttpUtils#getConnectionManager()}).
+	 * @param connectionManager the connection manager
+	 */
+	public HttpClient(ClientConnectionManager connectionManager)
 	{
 		super(connectionManager);
 		useChunked = Config.getConfiguration().getBoolean(CHUNKED_CONFIG_KEY, false);
+		
+		/* ask for compressed responses and decompress them transparently...
+		 */
+		if (Config.getConfiguration().getBoolean(GZIP_CONFIG_KEY, true)) {
+			addRequestInterceptor(new RequestAcceptEncoding());
+			addResponseInterceptor(new ResponseContentEncoding());
+		}
 	}
 	
 	protected static ClientConnectionManager getConnectionsManager(int maxConnectionsPerRoute, int maxConnectionsTotal)
@@ -148,6 +168,23 @@ public class HttpClient extends DefaultHttpClient
 		return execute(post);
 	}
 
+	public HttpResponse POST(URL url, Model postData, ContentType contentType) throws IOException
+	{
+		return POST(url, postData, contentType, null);
+	}
+	
+	public HttpResponse POST(URL url, Model postData, ContentType contentType, Map<String,String> headers) throws IOException
+	{
+		ModelEntity entity = new ModelEntity(postData, contentType);
+		HttpPost post = new HttpPost(urlToUri(url));
+		post.setEntity(useChunked ? entity : entity.toBufferedEntity());
+		if (headers != null) {
+			for (String header : headers.keySet()) 
+				post.setHeader(header, headers.get(header));
+		}
+		return execute(post);
+	}
+
 	public HttpResponse POST(URL url, Map<String,String> params) throws IOException
 	{
 		return POST(url, params, null);
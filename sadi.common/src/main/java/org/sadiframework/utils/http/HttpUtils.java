@@ -5,15 +5,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.net.URL;
 import java.util.Map;
 
 import javax.xml.ws.http.HTTPException;
 
 import org.apache.http.HttpResponse;
+import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
+import org.sadiframework.Config;
 import org.sadiframework.utils.ContentType;
 import org.sadiframework.utils.JsonUtils;
 import org.sadiframework.utils.SPARQLStringUtils;
@@ -37,33 +37,77 @@ public class HttpUtils
 {
 	private static final Logger log = Logger.getLogger(HttpUtils.class);
 	protected static final String ENCODING_UTF8 = "UTF-8";
+	protected static final String MAX_CONNECTIONS_PER_ROUTE_CONFIG_KEY = "sadi.http.maxConnectionsPerRoute";
+	protected static final String MAX_CONNECTIONS_TOTAL_CONFIG_KEY = "sadi.http.maxConnectionsTotal";
+	protected static final String CONNECTION_REQUEST_TIMEOUT_CONFIG_KEY = "sadi.http.connectionRequestTimeout";
+	
+	/* the parameter HttpClient reads for how long to wait for a pooled
+	 * connection; the same value as ClientPNames.CONN_MANAGER_TIMEOUT,
+	 * which HttpClient 4.1 doesn't have yet...
+	 */
+	private static final String CONN_MANAGER_TIMEOUT = "http.conn-manager.timeout";
+	
+	/* one pool of connections for the whole process, so that connections
+	 * to the same host are kept alive and reused between requests...
+	 */
+	private static final PooledConnectionManager connectionManager = new PooledConnectionManager(
+			Config.getConfiguration().getInt(MAX_CONNECTIONS_PER_ROUTE_CONFIG_KEY, 20),
+			Config.getConfiguration().getInt(MAX_CONNECTIONS_TOTAL_CONFIG_KEY, 100));
+	private static final HttpClient sharedClient = new HttpClient(connectionManager);
+	static {
+		/* fail instead of waiting forever if the pool is exhausted (e.g.
+		 * because some caller didn't release its connection)...
+		 */
+		sharedClient.getParams().setLongParameter(CONN_MANAGER_TIMEOUT,
+				Config.getConfiguration().getLong(CONNECTION_REQUEST_TIMEOUT_CONFIG_KEY, 60000));
+	}
+	
+	/**
+	 * Returns the client used by the static GET/POST methods in this class.
+	 * @return the shared HTTP client
+	 */
+	public static HttpClient getSharedClient()
+	{
+		return sharedClient;
+	}
+	
+	/**
+	 * Returns the connection manager that holds the process-wide pool of
+	 * HTTP connections. Clients created with this connection manager share
+	 * the pool; the connection manager also reports how the pool is used.
+	 * @return the shared connection manager
+	 */
+	public static PooledConnectionManager getConnectionManager()
+	{
+		return connectionManager;
+	}
 	
 	static public HttpResponse GET(URL url) throws IOException	{
-		return new HttpClient().GET(url);
+		return sharedClient.GET(url);
 	}
 
 	static public HttpResponse GET(URL url, Map<String,String> params) throws IOException {
-		return new HttpClient().GET(url, params);
+		return sharedClient.GET(url, params);
 	}
 
 	static public HttpResponse GET(URL url, Map<String,String> params, Map<String,String> headers) throws IOException {
-		return new HttpClient().GET(url, params, headers);
+		return sharedClient.GET(url, params, headers);
 	}
 	
 	static HttpResponse POST(URL url, InputStream postData, String contentType) throws IOException {
-		return new HttpClient().POST(url, postData, contentType);
+		return sharedClient.POST(url, postData, contentType);
 	}
 
 	static HttpResponse POST(URL url, InputStream postData, String contentType, Map<String,String> headers) throws IOException {
-		return new HttpClient().POST(url, postData, contentType, headers);
+		return sharedClient.POST(url, postData, contentType, headers);
 	}
 
 	static public HttpResponse POST(URL url, Map<String,String> params) throws IOException {
-		return new HttpClient().POST(url, params);
+		return sharedClient.POST(url, params);
 	}
 	
 	static public HttpResponse POST(URL url, Map<String,String> params, Map<String,String> headers) throws IOException {
-		return new HttpClient().POST(url, params, headers);
+		return sharedClient.POST(url, params, headers);
 	}
 	
 	public static boolean isHttpError(int statusCode) 
@@ -84,15 +128,9 @@ public class HttpUtils
 	public static InputStream postToURL(URL url, Model data)
 	throws IOException
 	{
-		log.trace(String.format("posting RDF data to %s", url));
-		ContentType rdfXML = ContentType.RDF_XML;
-		PipedInputStream in = new PipedInputStream();
-		PipedOutputStream out = new PipedOutputStream(in);
-		new Thread(new ModelWriter(data, out, rdfXML.getJenaLanguage())).start();
-		HttpResponse response = POST(url, in, rdfXML.getHTTPHeader());
-		int statusCode = response.getStatusLine().getStatusCode();
-		if (isHttpError(statusCode)) 
-			throw new HttpStatusException(statusCode);
+		log.trace(String.format("posting RDF data to %s (%s)", url, connectionManager));
+		HttpResponse response = sharedClient.POST(url, data, ContentType.RDF_XML);
+		checkStatus(response);
 		return response.getEntity().getContent();
 	}
 	
@@ -102,14 +140,16 @@ public class HttpUtils
 		log.trace(String.format("posting form data to %s\n%s", url, params));
 
 		HttpResponse response = POST(url, params);
-		int statusCode = response.getStatusLine().getStatusCode();
-		if (isHttpError(statusCode)) 
-			throw new HttpStatusException(statusCode);
+		checkStatus(response);
 		InputStream is = response.getEntity().getContent();
 		
 		log.trace("reading response");
-		String json = SPARQLStringUtils.readFully(is);
-		is.close();
+		String json;
+		try {
+			json = SPARQLStringUtils.readFully(is);
+		} finally {
+			is.close();
+		}
 
 		log.trace(String.format("converting JSON object\n%s", json));
 		return JsonUtils.read(json);
@@ -118,14 +158,24 @@ public class HttpUtils
 	public static BufferedReader getReader(String url) throws IOException
 	{
 		HttpResponse response = GET(new URL(url));
-		int statusCode = response.getStatusLine().getStatusCode();
-		if (isHttpError(statusCode)) 
-			throw new HttpStatusException(statusCode);
+		checkStatus(response);
 		
 		InputStream is = response.getEntity().getContent();
 		return new BufferedReader(new InputStreamReader(is));
 	}
 
+	/* throw an exception if the response is an error, releasing the
+	 * connection back to the pool first...
+	 */
+	private static void checkStatus(HttpResponse response) throws IOException
+	{
+		int statusCode = response.getStatusLine().getStatusCode();
+		if (isHttpError(statusCode)) {
+			EntityUtils.consume(response.getEntity());
+			throw new HttpStatusException(statusCode);
+		}
+	}
+
 	/* Unused, depends on commons httpclient 3.x 
 	public static String getHeaderValue(HttpMethod method, String headerName)
 	{
@@ -173,7 +223,9 @@ public class HttpUtils
 	
 	/**
 	 * @author Luke McCarthy
+	 * @deprecated post a {@link ModelEntity} instead of piping a model through a separate thread
 	 */
+	@Deprecated
 	public static final class ModelWriter implements Runnable
 	{
 		private static final Logger log = Logger.getLogger(ModelWriter.class);
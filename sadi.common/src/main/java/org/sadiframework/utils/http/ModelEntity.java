@@ -0,0 +1,87 @@
+package org.sadiframework.utils.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.sadiframework.utils.ContentType;
+
+import com.hp.hpl.jena.rdf.model.Model;
+
+/**
+ * An HTTP entity that serializes a Jena model directly onto the
+ * connection as the request is sent.
+ * The length of the serialized model isn't known in advance, so the
+ * entity is sent with chunked transfer encoding.
+ */
+public class ModelEntity extends AbstractHttpEntity
+{
+	private final Model model;
+	private final String lang;
+
+	public ModelEntity(Model model, ContentType contentType)
+	{
+		this.model = model;
+		this.lang = contentType.getJenaLanguage();
+		setContentType(contentType.getHTTPHeader());
+		setChunked(true);
+	}
+
+	/**
+	 * Returns an entity with the model already serialized, for servers
+	 * that can't handle chunked requests.
+	 * @return a buffered copy of this entity
+	 */
+	public AbstractHttpEntity toBufferedEntity()
+	{
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		model.write(buffer, lang);
+		ByteArrayEntity entity = new ByteArrayEntity(buffer.toByteArray());
+		entity.setContentType(getContentType());
+		return entity;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.http.HttpEntity#isRepeatable()
+	 */
+	public boolean isRepeatable()
+	{
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.http.HttpEntity#getContentLength()
+	 */
+	public long getContentLength()
+	{
+		return -1;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.http.HttpEntity#getContent()
+	 */
+	public InputStream getContent() throws IOException
+	{
+		return toBufferedEntity().getContent();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.http.HttpEntity#writeTo(java.io.OutputStream)
+	 */
+	public void writeTo(OutputStream out) throws IOException
+	{
+		model.write(out, lang);
+		out.flush();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.http.HttpEntity#isStreaming()
+	 */
+	public boolean isStreaming()
+	{
+		return false;
+	}
+}
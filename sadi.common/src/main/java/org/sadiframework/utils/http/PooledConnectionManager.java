@@ -0,0 +1,111 @@
+package org.sadiframework.utils.http;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+
+/**
+ * A ThreadSafeClientConnManager that keeps track of how its connections
+ * are being used, so that the state of the pool can be monitored.
+ */
+public class PooledConnectionManager extends ThreadSafeClientConnManager
+{
+	private final AtomicInteger leased;
+	private final AtomicInteger pending;
+
+	public PooledConnectionManager(int maxConnectionsPerRoute, int maxConnectionsTotal)
+	{
+		super();
+		setDefaultMaxPerRoute(maxConnectionsPerRoute);
+		setMaxTotal(maxConnectionsTotal);
+		leased = new AtomicInteger();
+		pending = new AtomicInteger();
+	}
+
+	/**
+	 * Returns the number of connections currently in use.
+	 * @return the number of connections currently in use
+	 */
+	public int getLeasedConnections()
+	{
+		return leased.get();
+	}
+
+	/**
+	 * Returns the number of requests waiting for a connection.
+	 * @return the number of requests waiting for a connection
+	 */
+	public int getPendingRequests()
+	{
+		return pending.get();
+	}
+
+	/**
+	 * Returns the number of open connections that are not in use.
+	 * @return the number of open connections that are not in use
+	 */
+	public int getAvailableConnections()
+	{
+		return Math.max(0, getConnectionsInPool() - getLeasedConnections());
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager#requestConnection(org.apache.http.conn.routing.HttpRoute, java.lang.Object)
+	 */
+	@Override
+	public ClientConnectionRequest requestConnection(HttpRoute route, Object state)
+	{
+		final ClientConnectionRequest request = super.requestConnection(route, state);
+		final AtomicBoolean waiting = new AtomicBoolean(true);
+		pending.incrementAndGet();
+		return new ClientConnectionRequest() {
+			public ManagedClientConnection getConnection(long timeout, TimeUnit unit) throws InterruptedException, ConnectionPoolTimeoutException
+			{
+				try {
+					ManagedClientConnection connection = request.getConnection(timeout, unit);
+					leased.incrementAndGet();
+					return connection;
+				} finally {
+					if (waiting.compareAndSet(true, false))
+						pending.decrementAndGet();
+				}
+			}
+
+			public void abortRequest()
+			{
+				request.abortRequest();
+				if (waiting.compareAndSet(true, false))
+					pending.decrementAndGet();
+			}
+		};
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager#releaseConnection(org.apache.http.conn.ManagedClientConnection, long, java.util.concurrent.TimeUnit)
+	 */
+	@Override
+	public void releaseConnection(ManagedClientConnection conn, long validDuration, TimeUnit timeUnit)
+	{
+		try {
+			super.releaseConnection(conn, validDuration, timeUnit);
+		} finally {
+			leased.decrementAndGet();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString()
+	{
+		return String.format("leased=%d, pending=%d, available=%d, max=%d",
+				getLeasedConnections(), getPendingRequests(), getAvailableConnections(), getMaxTotal());
+	}
+}
@@ -0,0 +1,96 @@
+package org.sadiframework.tasks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TaskManagerTest
+{
+	@Test
+	public void testPoolGrowsBeforeQueueing() throws Exception
+	{
+		ThreadPoolExecutor pool = TaskManager.createExecutor(4, 10);
+		try {
+			BlockingTask[] tasks = new BlockingTask[4];
+			for (int i = 0; i < tasks.length; ++i) {
+				tasks[i] = new BlockingTask();
+				pool.execute(tasks[i]);
+			}
+			for (BlockingTask task: tasks)
+				assertTrue(task.started.await(10, TimeUnit.SECONDS));
+			assertEquals(4, pool.getPoolSize());
+			assertEquals(0, pool.getQueue().size());
+			for (BlockingTask task: tasks)
+				task.release.countDown();
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testCancelTask() throws Exception
+	{
+		TaskManager manager = TaskManager.getInstance();
+		manager.setExecutor(Executors.newSingleThreadExecutor());
+		try {
+			BlockingTask running = new BlockingTask();
+			BlockingTask queued = new BlockingTask();
+			manager.startTask(running);
+			manager.startTask(queued);
+			assertTrue(running.started.await(10, TimeUnit.SECONDS));
+
+			/* a queued task is disposed now and never runs...
+			 */
+			manager.cancelTask(queued.getId());
+			assertTrue(queued.disposed);
+			assertNull(manager.getTask(queued.getId()));
+
+			/* a running task is disposed when it finishes...
+			 */
+			manager.cancelTask(running.getId());
+			assertFalse(running.disposed);
+			running.release.countDown();
+			manager.getExecutor().shutdown();
+			assertTrue(manager.getExecutor().awaitTermination(10, TimeUnit.SECONDS));
+			assertTrue(running.disposed);
+			assertFalse(queued.ran);
+			assertNull(manager.getTask(running.getId()));
+		} finally {
+			manager.setExecutor(Executors.newCachedThreadPool());
+		}
+	}
+
+	private static class BlockingTask extends Task
+	{
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		volatile boolean ran;
+		volatile boolean disposed;
+
+		public void run()
+		{
+			ran = true;
+			started.countDown();
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			success();
+		}
+
+		@Override
+		public void dispose()
+		{
+			disposed = true;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package org.sadiframework.tasks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+public class TaskStoreTest
+{
+	private File directory;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		directory = File.createTempFile("TaskStoreTest", "");
+		directory.delete();
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		FileUtils.deleteQuietly(directory);
+	}
+
+	@Test
+	public void testPutGetRemove() throws Exception
+	{
+		TaskStore store = new TaskStore(directory, 0);
+		Model output = createOutput("a");
+		store.putOutput("1", output);
+		assertTrue(store.containsOutput("1"));
+		assertTrue(store.getOutput("1").isIsomorphicWith(output));
+		store.removeOutput("1");
+		assertFalse(store.containsOutput("1"));
+		assertNull(store.getOutput("1"));
+		assertEquals(0l, store.getSize());
+	}
+
+	@Test
+	public void testSurvivesRestart() throws Exception
+	{
+		Model output = createOutput("a");
+		new TaskStore(directory, 0).putOutput("1", output);
+		TaskStore store = new TaskStore(directory, 0);
+		assertTrue(store.getOutput("1").isIsomorphicWith(output));
+	}
+
+	@Test
+	public void testEvictBySize() throws Exception
+	{
+		TaskStore store = new TaskStore(directory, 0);
+		store.putOutput("1", createOutput("a"));
+		long outputSize = store.getSize();
+
+		store = new TaskStore(directory, outputSize * 2);
+		store.putOutput("2", createOutput("b"));
+		store.getOutput("1"); // touch 1 so that 2 is the least-recently used
+		store.putOutput("3", createOutput("c"));
+		assertTrue(store.containsOutput("1"));
+		assertFalse(store.containsOutput("2"));
+		assertTrue(store.containsOutput("3"));
+		assertTrue(store.getSize() <= outputSize * 2);
+	}
+
+	private static Model createOutput(String label) throws IOException
+	{
+		Model model = ModelFactory.createDefaultModel();
+		model.createResource("http://example.com/" + label).addProperty(RDFS.label, label);
+		return model;
+	}
+}
@@ -0,0 +1,91 @@
+package org.sadiframework.utils;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hp.hpl.jena.ontology.ObjectProperty;
+import com.hp.hpl.jena.ontology.OntClass;
+import com.hp.hpl.jena.ontology.OntModel;
+import com.hp.hpl.jena.ontology.OntModelSpec;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+public class MinimalModelPlanTest
+{
+	private static final String NS = "http://sadiframework.org/test/plan.owl#";
+
+	private OntModel ontModel;
+	private OntClass personClass;
+	private ObjectProperty knows;
+	private Property name;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		/* a Person has a name and knows only other Persons, so extracting
+		 * a Person follows the knows links (including the cycle back)...
+		 */
+		ontModel = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM);
+		personClass = ontModel.createClass(NS + "Person");
+		knows = ontModel.createObjectProperty(NS + "knows");
+		name = ontModel.createDatatypeProperty(NS + "name");
+		personClass.addSuperClass(ontModel.createMinCardinalityRestriction(null, name, 1));
+		personClass.addSuperClass(ontModel.createAllValuesFromRestriction(null, knows, personClass));
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		MinimalModelPlan.clearCache();
+		ontModel.close();
+		ontModel = null;
+	}
+
+	@Test
+	public void testExtract()
+	{
+		Model data = ModelFactory.createDefaultModel();
+		Resource alice = data.createResource(NS + "alice");
+		Resource bob = data.createResource(NS + "bob");
+		alice.addProperty(RDF.type, personClass);
+		alice.addProperty(name, "Alice");
+		alice.addProperty(knows, bob);
+		alice.addProperty(RDFS.comment, "irrelevant");
+		bob.addProperty(name, "Bob");
+		bob.addProperty(knows, alice);
+
+		MinimalModelDecomposer decomposer = new MinimalModelDecomposer(alice, personClass);
+		decomposer.decompose();
+		Model expected = decomposer.getModel();
+
+		/* twice, so that the second extraction uses the cached plan...
+		 */
+		for (int i = 0; i < 2; ++i) {
+			Model minimal = MinimalModelPlan.extract(alice, personClass);
+			assertTrue("extracted model differs from decomposed model", minimal.isIsomorphicWith(expected));
+			assertTrue("missing statement about related individual", minimal.contains(bob, name, "Bob"));
+			assertFalse("extracted irrelevant statement", minimal.contains(alice, RDFS.comment));
+		}
+	}
+
+	@Test
+	public void testOntologyChanged()
+	{
+		Model data = ModelFactory.createDefaultModel();
+		Resource alice = data.createResource(NS + "alice");
+		alice.addProperty(name, "Alice");
+		alice.addProperty(RDFS.label, "alice");
+		assertFalse(MinimalModelPlan.extract(alice, personClass).contains(alice, RDFS.label));
+
+		personClass.addSuperClass(ontModel.createMinCardinalityRestriction(null, ontModel.createAnnotationProperty(RDFS.label.getURI()), 1));
+		assertTrue("cached plan wasn't recompiled when the ontology changed", MinimalModelPlan.extract(alice, personClass).contains(alice, RDFS.label));
+	}
+}
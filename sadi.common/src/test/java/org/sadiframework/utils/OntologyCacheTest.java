@@ -0,0 +1,116 @@
+package org.sadiframework.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sadiframework.utils.http.HttpCacheLocator;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.vocabulary.RDFS;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class OntologyCacheTest
+{
+	private static final String NS = "http://sadiframework.org/test/cache.owl#";
+	private static final String ETAG = "\"v1\"";
+
+	private HttpServer server;
+	private OntologyHandler handler;
+	private String uri;
+	private File directory;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		handler = new OntologyHandler();
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", handler);
+		server.start();
+		uri = String.format("http://localhost:%d/cache.nt", server.getAddress().getPort());
+
+		directory = new File(FileUtils.getTempDirectory(), String.format("%s-%d", getClass().getSimpleName(), System.nanoTime()));
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		server.stop(0);
+		FileUtils.deleteQuietly(directory);
+	}
+
+	@Test
+	public void testGetOntology() throws Exception
+	{
+		OntologyCache cache = new OntologyCache(null, new HttpCacheLocator(directory), 10, 60000);
+		Model ontology = cache.getOntology(uri);
+		assertTrue("missing statement from ontology", ontology.contains(getThing(ontology), RDFS.label, "thing"));
+		assertSame("ontology wasn't cached in memory", ontology, cache.getOntology(uri));
+		assertEquals("ontology was fetched more than once", 1, handler.requests.get());
+
+		Model model = ModelFactory.createDefaultModel();
+		cache.readModel(model, uri);
+		assertTrue("missing statement from model read through cache", model.contains(getThing(model), RDFS.label, "thing"));
+		assertEquals("ontology was fetched more than once", 1, handler.requests.get());
+	}
+
+	@Test
+	public void testRevalidate() throws Exception
+	{
+		new OntologyCache(null, new HttpCacheLocator(directory), 10, 60000).getOntology(uri);
+
+		/* a new cache has nothing in memory, but the document on disk should
+		 * be revalidated rather than fetched again...
+		 */
+		Model ontology = new OntologyCache(null, new HttpCacheLocator(directory), 10, 60000).getOntology(uri);
+		assertTrue("missing statement from revalidated ontology", ontology.contains(getThing(ontology), RDFS.label, "thing"));
+		assertEquals("ontology wasn't revalidated", 2, handler.requests.get());
+		assertEquals("ontology was fetched again instead of revalidated", 1, handler.notModified.get());
+	}
+
+	private static Resource getThing(Model model)
+	{
+		return model.getResource(NS + "thing");
+	}
+
+	/* serves a tiny ontology with an ETag, and honours If-None-Match...
+	 */
+	private static class OntologyHandler implements HttpHandler
+	{
+		final AtomicInteger requests = new AtomicInteger();
+		final AtomicInteger notModified = new AtomicInteger();
+
+		public void handle(HttpExchange exchange) throws IOException
+		{
+			requests.incrementAndGet();
+			exchange.getResponseHeaders().add("ETag", ETAG);
+			if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				notModified.incrementAndGet();
+				exchange.sendResponseHeaders(304, -1);
+			} else {
+				Model ontology = ModelFactory.createDefaultModel();
+				getThing(ontology).addProperty(RDFS.label, "thing");
+				exchange.getResponseHeaders().add("Content-Type", "text/plain");
+				exchange.sendResponseHeaders(200, 0);
+				OutputStream os = exchange.getResponseBody();
+				ontology.write(os, "N-TRIPLE");
+				os.close();
+			}
+			exchange.close();
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package org.sadiframework.utils.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.vocabulary.RDFS;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpUtilsTest
+{
+	private static final String TEST_URI = "http://sadiframework.org/test/http.owl#thing";
+
+	private HttpServer server;
+	private URL url;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", new EchoHandler());
+		server.start();
+		url = new URL(String.format("http://localhost:%d/", server.getAddress().getPort()));
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		server.stop(0);
+	}
+
+	@Test
+	public void testPostToURL() throws Exception
+	{
+		Model model = ModelFactory.createDefaultModel();
+		model.createResource(TEST_URI).addProperty(RDFS.label, "thing");
+
+		for (int i = 0; i < 3; ++i) {
+			InputStream is = HttpUtils.postToURL(url, model);
+			String echo = IOUtils.toString(is, "UTF-8");
+			is.close();
+			assertTrue("posted model was not received", echo.contains(TEST_URI));
+		}
+
+		PooledConnectionManager connectionManager = HttpUtils.getConnectionManager();
+		assertEquals("connections were not released", 0, connectionManager.getLeasedConnections());
+		assertEquals("requests are still waiting for connections", 0, connectionManager.getPendingRequests());
+		assertTrue("connection was not kept alive", connectionManager.getAvailableConnections() > 0);
+	}
+
+	/* echoes the request body, gzipped if the client asks for it...
+	 */
+	private static class EchoHandler implements HttpHandler
+	{
+		public void handle(HttpExchange exchange) throws IOException
+		{
+			byte[] body = IOUtils.toByteArray(exchange.getRequestBody());
+			String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+			boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+			if (gzip)
+				exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+			exchange.getResponseHeaders().add("Content-Type", "application/rdf+xml");
+			exchange.sendResponseHeaders(200, 0);
+			OutputStream os = gzip ? new GZIPOutputStream(exchange.getResponseBody()) : exchange.getResponseBody();
+			os.write(body);
+			os.close();
+			exchange.close();
+		}
+	}
+}
@@ -59,7 +59,7 @@ public class APIServlet extends HttpServlet
 							log.error(String.format("error executing %s %s", path, params), e);
 						} finally {
 							if (registry != null)
-								registry.getModel().close();
+								registry.close();
 						}
 					}
 					output(response, result);
@@ -87,7 +87,7 @@ public class APIServlet extends HttpServlet
 						log.error(String.format("error executing %s %s", path, params), e);
 					} finally {
 						if (registry != null)
-							registry.getModel().close();
+							registry.close();
 					}
 				}
 				output(response, result);
@@ -123,6 +123,8 @@ public class APIServlet extends HttpServlet
 			buf.append("GET /services/connectedClass/${classURI}\treturns services that attach values from ${classURI}\n");
 			buf.append("GET /services/connectedClassLabel/${classLabel}\treturns services that attach values from class with label ${classLabel}\n");
 			buf.append("GET /services/inputClass/${classURI}\treturns services that consume instances of ${classURI}\n");
+			buf.append("GET /services/index\treturns the services indexed by attached property, input class, connected class and label\n");
+			buf.append("GET /services/index/${method}/${argument}\tanswers any of the methods above from the index, returning service beans as /services does\n");
 			return buf.toString();
 		}
 		
@@ -132,6 +134,8 @@ public class APIServlet extends HttpServlet
 			String[] pathElements = StringUtils.split(path, '/');
 			if (pathElements.length == 0) {
 				return registry.getRegisteredServices();
+			} else if (pathElements[0].equals("index")) {
+				return getFromIndex(registry, pathElements);
 			} else if (pathElements.length == 1) {
 				return registry.getServiceBean(pathElements[0]);
 			} else if (pathElements[0].equals("attachedProperty")) {
@@ -168,6 +172,31 @@ public class APIServlet extends HttpServlet
 				throw new IllegalArgumentException(String.format("unknown method %s", path));
 			}
 		}
+		
+		/* the index returns the registry's service beans rather than the
+		 * client Service objects the methods above return, so it has paths
+		 * of its own...
+		 */
+		private Object getFromIndex(Registry registry, String[] pathElements)
+		{
+			RegistryIndex index = registry.getIndex();
+			if (pathElements.length == 1)
+				return index.toMap();
+			else if (pathElements.length < 3)
+				throw new IllegalArgumentException(String.format("expected /services/index/%s/${argument}", pathElements[1]));
+			else if (pathElements[1].equals("attachedProperty"))
+				return index.findServicesByAttachedProperty(pathElements[2]);
+			else if (pathElements[1].equals("attachedPropertyLabel"))
+				return index.findServicesByAttachedPropertyLabel(pathElements[2]);
+			else if (pathElements[1].equals("connectedClass"))
+				return index.findServicesByConnectedClass(pathElements[2]);
+			else if (pathElements[1].equals("connectedClassLabel"))
+				return index.findServicesByConnectedClassLabel(pathElements[2]);
+			else if (pathElements[1].equals("inputClass"))
+				return index.findServicesByInputClass(pathElements[2]);
+			else
+				throw new IllegalArgumentException(String.format("unknown index method %s", pathElements[1]));
+		}
 	}
 	
 	private static class Register implements PostableLocation
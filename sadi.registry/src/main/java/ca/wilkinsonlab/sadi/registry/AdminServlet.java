@@ -74,7 +74,7 @@ public class AdminServlet extends HttpServlet
 					request.setAttribute("error", e.getMessage() != null ? e.getMessage() : e.toString());
 				} finally {
 					if (registry != null)
-						registry.getModel().close();
+						registry.close();
 				}
 			}
 			getServletConfig().getServletContext().getRequestDispatcher("/admin/unregister.jsp").forward(request, response);
@@ -12,6 +12,7 @@ import org.apache.commons.codec.net.URLCodec;
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.PropertiesConfiguration;
+import org.apache.commons.configuration.reloading.FileChangedReloadingStrategy;
 import org.apache.log4j.Logger;
 
 import virtuoso.jena.driver.VirtModel;
@@ -34,6 +35,7 @@ import com.hp.hpl.jena.ontology.OntClass;
 import com.hp.hpl.jena.ontology.OntResource;
 import com.hp.hpl.jena.ontology.Restriction;
 import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryExecution;
 import com.hp.hpl.jena.query.QueryExecutionFactory;
 import com.hp.hpl.jena.query.QueryFactory;
 import com.hp.hpl.jena.query.ResultSet;
@@ -61,6 +63,9 @@ public class Registry
 {
 	private static final Logger log = Logger.getLogger(Registry.class);
 	
+	private static Configuration config;
+	private static RegistryPool pool;
+	
 	/**
 	 * Returns the registry configuration object. 
 	 * Properties are read from a file called sadi.registry.properties; 
@@ -68,43 +73,120 @@ public class Registry
 	 * for details about which locations will be searched for that file.
 	 * @return the registry configuration object
 	 */
-	public static Configuration getConfig()
+	public static synchronized Configuration getConfig()
 	{
-		try {
-			return new PropertiesConfiguration("sadi.registry.properties");
-		} catch (ConfigurationException e) {
-			log.warn( String.format("error reading registry configuration: %s", e) );
-			return new PropertiesConfiguration();
+		/* the file is only parsed once, but is reloaded if it changes;
+		 * note that the backend settings are only read when the default
+		 * registry pool is created...
+		 */
+		if (config == null) {
+			try {
+				PropertiesConfiguration properties = new PropertiesConfiguration("sadi.registry.properties");
+				properties.setReloadingStrategy(new FileChangedReloadingStrategy());
+				config = properties;
+			} catch (ConfigurationException e) {
+				log.warn( String.format("error reading registry configuration: %s", e) );
+				return new PropertiesConfiguration();
+			}
 		}
+		return config;
 	}
 	
 	/**
 	 * Returns the default registry implementation.
 	 * The default  configuration is contained in a file called
 	 * sadi.registry.properties located in the classpath.
+	 * The registry is borrowed from a pool shared by every caller and
+	 * must be returned by calling {@link #close()}.
 	 * @return the default registry implementation
 	 */
 	public static Registry getRegistry() throws SADIException
 	{
-		Configuration config = getConfig();
-		String file = config.getString("file");
-		String driver = config.getString("driver");
-		String graph = config.getString("graph");
-		String dsn = config.getString("dsn");
-		String username = config.getString("username");
-		String password = config.getString("password");
+		return getPool().borrowRegistry();
+	}
+	
+	private static synchronized RegistryPool getPool()
+	{
+		if (pool == null)
+			pool = createPool(getConfig());
+		return pool;
+	}
+	
+	/**
+	 * Close the idle registries in the default pool and discard any cached
+	 * query results.  The next call to {@link #getRegistry()} creates a new
+	 * pool from the current configuration.
+	 */
+	public static synchronized void closePool()
+	{
+		if (pool != null) {
+			pool.clear();
+			pool = null;
+		}
+	}
+	
+	private static RegistryPool createPool(Configuration config)
+	{
+		final String file = config.getString("file");
+		final String driver = config.getString("driver");
+		final String graph = config.getString("graph");
+		final String dsn = config.getString("dsn");
+		final String username = config.getString("username");
+		final String password = config.getString("password");
+		int maxIdle = config.getInt("pool.maxIdle", 8);
+		long maxIdleTime = config.getLong("pool.maxIdleTime", 300000);
+		
+		int queryCacheSize = config.getInt("queryCache.size", 1000);
+		RegistryQueryCache queryCache = queryCacheSize > 0 ?
+				new RegistryQueryCache(queryCacheSize, config.getLong("queryCache.maxAge", 600000)) : null;
+		RegistryIndex index = new RegistryIndex(config.getLong("index.maxAge", 600000));
 		
 		if (driver == null) {
 			if (file == null) {
 				log.warn("no database driver or file specified; creating transient registry model");
-				return new Registry(ModelFactory.createDefaultModel());
+				final Model model = ModelFactory.createDefaultModel();
+				return new RegistryPool(new RegistryPool.ModelSource() {
+					public Model openModel()
+					{
+						return model;
+					}
+					public void closeModel(Model model)
+					{
+					}
+				}, maxIdle, 0, queryCache, index);
 			} else {
-				return getFileRegistry(file);
+				/* file-backed models are only written when they're closed,
+				 * so they can't be kept open in the pool...
+				 */
+				return new RegistryPool(new DefaultModelSource() {
+					public Model openModel() throws SADIException
+					{
+						return getFileRegistry(file).getModel();
+					}
+				}, 0, 0, queryCache, index);
 			}
 		} else if (driver.equals("virtuoso.jdbc3.Driver")) {
-			return getVirtuosoRegistry(graph, dsn, username, password);
+			return new RegistryPool(new DefaultModelSource() {
+				public Model openModel() throws SADIException
+				{
+					return getVirtuosoRegistry(graph, dsn, username, password).getModel();
+				}
+			}, maxIdle, maxIdleTime, queryCache, index);
 		} else {
-			return getJDBCRegistry(driver, dsn, username, password);
+			return new RegistryPool(new DefaultModelSource() {
+				public Model openModel() throws SADIException
+				{
+					return getJDBCRegistry(driver, dsn, username, password).getModel();
+				}
+			}, maxIdle, maxIdleTime, queryCache, index);
+		}
+	}
+	
+	private static abstract class DefaultModelSource implements RegistryPool.ModelSource
+	{
+		public void closeModel(Model model)
+		{
+			model.close();
 		}
 	}
 	
@@ -205,18 +287,43 @@ public class Registry
 	}
 	
 	private Model model;
+	private RegistryQueryCache queryCache;
+	private RegistryIndex index;
 
 	/**
 	 * Constructs a Registry from the specified Jena model.
 	 * @param model
 	 */
 	public Registry(Model model)
+	{
+		this(model, null, null);
+	}
+	
+	/**
+	 * Constructs a Registry from the specified Jena model, caching query
+	 * results in the specified cache and maintaining the specified index.
+	 * @param model
+	 * @param queryCache the query cache, or null to disable caching
+	 * @param index the lookup index, or null to create one when it's needed
+	 */
+	protected Registry(Model model, RegistryQueryCache queryCache, RegistryIndex index)
 	{
 		this.model = model;
+		this.queryCache = queryCache;
+		this.index = index;
 		model.setNsPrefix("sadi", "http://sadiframework.org/ontologies/sadi.owl#");
 		model.setNsPrefix("mygrid", "http://www.mygrid.org.uk/mygrid-moby-service#");
 	}
 	
+	/**
+	 * Release the registry.  Registries returned by {@link #getRegistry()}
+	 * are returned to the pool; others close their model.
+	 */
+	public void close()
+	{
+		model.close();
+	}
+	
 	/**
 	 * Returns the Jena model containing the registry data.
 	 * @return the Jena model containing the registry data
@@ -226,6 +333,19 @@ public class Registry
 		return model;
 	}
 	
+	/**
+	 * Returns the lookup index over the registered services, building it
+	 * from the registry model if necessary.
+	 * @return the lookup index
+	 */
+	public RegistryIndex getIndex()
+	{
+		if (index == null)
+			index = new RegistryIndex(0);
+		index.ensureBuilt(this);
+		return index;
+	}
+	
 	/**
 	 * Returns an iterator over the registered service nodes.
 	 * @return an iterator over the registered service nodes
@@ -362,15 +482,21 @@ public class Registry
 	
 	public ServiceBean registerService(Service service) throws SADIException
 	{
-		getModel().add(((ServiceImpl)service).getServiceModel());
-		
-		/* attach SADI type only after the service definition has been
-		 * successfully fetched...
-		 */
-		Resource serviceNode = getModel().createResource(service.getURI(), SADI.Service);
-		log.info(String.format("registered service %s", service.getURI()));
-		
-		attachMetaData(serviceNode, service);
+		invalidateQueryCache();
+		Resource serviceNode;
+		try {
+			getModel().add(((ServiceImpl)service).getServiceModel());
+			
+			/* attach SADI type only after the service definition has been
+			 * successfully fetched...
+			 */
+			serviceNode = getModel().createResource(service.getURI(), SADI.Service);
+			log.info(String.format("registered service %s", service.getURI()));
+			
+			attachMetaData(serviceNode, service);
+		} finally {
+			invalidateQueryCache();
+		}
 
 		return getServiceBean(serviceNode);
 	}
@@ -385,6 +511,9 @@ public class Registry
 		Resource reg = serviceNode.getModel().createResource();
 		serviceNode.addProperty(SADI.registration, reg);
 		reg.addLiteral(DC.date, Calendar.getInstance().getTime());
+		
+		if (index != null)
+			index.addService(getServiceBean(serviceNode), getModel());
 	}
 	
 	/* TODO in some cases, we're ending up with multiple copies of what is
@@ -466,7 +595,14 @@ public class Registry
 		if (service != null) {
 			Model serviceModel = ResourceUtils.reachableClosure(service);
 			maybeBackupServiceModel(serviceUrl, serviceModel);
-			getModel().remove(serviceModel);
+			invalidateQueryCache();
+			try {
+				getModel().remove(serviceModel);
+			} finally {
+				invalidateQueryCache();
+			}
+			if (index != null)
+				index.removeService(serviceUrl);
 		} else {
 			log.warn("attempt to unregister non-registered service " + serviceUrl);
 		}
@@ -511,10 +647,36 @@ public class Registry
 	 */
 	public ResultSet doSPARQL(String query) throws SADIException
 	{
-		Query q = QueryFactory.create(query);
-		if (q.isSelectType())
-			return QueryExecutionFactory.create(q, getModel()).execSelect();
-		else
+		if (queryCache == null) {
+			Query q = QueryFactory.create(query);
+			if (q.isSelectType())
+				return QueryExecutionFactory.create(q, getModel()).execSelect();
+			else
+				throw new SADIException("only SELECT queries are supported");
+		}
+		
+		ResultSet cached = queryCache.getResults(query);
+		if (cached != null)
+			return cached;
+		
+		Query q = queryCache.getQuery(query);
+		if (!q.isSelectType())
 			throw new SADIException("only SELECT queries are supported");
+		long generation = queryCache.getGeneration();
+		QueryExecution qe = QueryExecutionFactory.create(q, getModel());
+		try {
+			return queryCache.putResults(query, qe.execSelect(), generation);
+		} finally {
+			qe.close();
+		}
+	}
+	
+	/* invalidate before the model changes as well as after, so that a query
+	 * that starts in between can't cache results that are already stale...
+	 */
+	private void invalidateQueryCache()
+	{
+		if (queryCache != null)
+			queryCache.invalidate();
 	}
 }
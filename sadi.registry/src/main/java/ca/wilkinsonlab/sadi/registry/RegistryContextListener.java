@@ -0,0 +1,19 @@
+package ca.wilkinsonlab.sadi.registry;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Closes the pooled registry connections when the webapp is shut down.
+ */
+public class RegistryContextListener implements ServletContextListener
+{
+	public void contextInitialized(ServletContextEvent event)
+	{
+	}
+
+	public void contextDestroyed(ServletContextEvent event)
+	{
+		Registry.closePool();
+	}
+}
@@ -0,0 +1,339 @@
+package ca.wilkinsonlab.sadi.registry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.log4j.Logger;
+
+import ca.wilkinsonlab.sadi.beans.RestrictionBean;
+import ca.wilkinsonlab.sadi.beans.ServiceBean;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+/**
+ * In-memory lookup tables over the registered services, so that the
+ * common lookups (by attached property, input class, connected class
+ * and label) don't have to query the registry model.
+ * The index is built from the model the first time it's used and is then
+ * updated as services are registered and unregistered; it is rebuilt
+ * after a fixed age in case the registry is modified by another process.
+ */
+public class RegistryIndex
+{
+	private static final Logger log = Logger.getLogger(RegistryIndex.class);
+
+	private final long maxAge;
+	private final ReadWriteLock lock;
+	private final Map<String, ServiceBean> services;
+	private final Map<String, Set<String>> servicesByAttachedProperty;
+	private final Map<String, Set<String>> servicesByInputClass;
+	private final Map<String, Set<String>> servicesByConnectedClass;
+	private final Map<String, Set<String>> resourcesByLabel;
+	private long built;
+
+	/**
+	 * Constructs a new, empty index.
+	 * @param maxAge the time (in milliseconds) after which the index is rebuilt; 0 for no limit
+	 */
+	public RegistryIndex(long maxAge)
+	{
+		this.maxAge = maxAge;
+		this.lock = new ReentrantReadWriteLock();
+		this.services = new HashMap<String, ServiceBean>();
+		this.servicesByAttachedProperty = new HashMap<String, Set<String>>();
+		this.servicesByInputClass = new HashMap<String, Set<String>>();
+		this.servicesByConnectedClass = new HashMap<String, Set<String>>();
+		this.resourcesByLabel = new HashMap<String, Set<String>>();
+		this.built = -1;
+	}
+
+	/**
+	 * Build the index from the specified registry if it hasn't been built
+	 * yet or has expired.
+	 * @param registry the registry
+	 */
+	public void ensureBuilt(Registry registry)
+	{
+		if (!needsBuild())
+			return;
+		lock.writeLock().lock();
+		try {
+			if (needsBuild())
+				build(registry);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private boolean needsBuild()
+	{
+		lock.readLock().lock();
+		try {
+			return built < 0 || (maxAge > 0 && System.currentTimeMillis() - built > maxAge);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/* must be called while holding the write lock...
+	 */
+	private void build(Registry registry)
+	{
+		log.debug("building registry index");
+		services.clear();
+		servicesByAttachedProperty.clear();
+		servicesByInputClass.clear();
+		servicesByConnectedClass.clear();
+		resourcesByLabel.clear();
+		for (ServiceBean service: registry.getRegisteredServices())
+			add(service, registry.getModel());
+		built = System.currentTimeMillis();
+		log.debug(String.format("indexed %d services", services.size()));
+	}
+
+	/**
+	 * Add the specified service to the index, replacing any previous
+	 * entry for the same service.  Does nothing if the index hasn't been
+	 * built yet, since it will be built from the model when it's needed.
+	 * @param service the service
+	 * @param model the registry model, from which labels are read
+	 */
+	public void addService(ServiceBean service, Model model)
+	{
+		lock.writeLock().lock();
+		try {
+			if (built < 0)
+				return;
+			remove(service.getURI());
+			add(service, model);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Remove the specified service from the index.
+	 * Labels are left in the index, since other services may still
+	 * refer to the labelled resources.
+	 * @param serviceURI the service URI
+	 */
+	public void removeService(String serviceURI)
+	{
+		lock.writeLock().lock();
+		try {
+			remove(serviceURI);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void add(ServiceBean service, Model model)
+	{
+		String serviceURI = service.getURI();
+		services.put(serviceURI, service);
+		put(servicesByInputClass, service.getInputClassURI(), serviceURI);
+		for (RestrictionBean restriction: service.getRestrictionBeans()) {
+			put(servicesByAttachedProperty, restriction.getOnPropertyURI(), serviceURI);
+			put(servicesByConnectedClass, restriction.getValuesFromURI(), serviceURI);
+			addLabels(model, restriction.getOnPropertyURI());
+			addLabels(model, restriction.getValuesFromURI());
+		}
+	}
+
+	private void addLabels(Model model, String uri)
+	{
+		if (uri == null)
+			return;
+		for (Iterator<Statement> i = model.getResource(uri).listProperties(RDFS.label); i.hasNext(); ) {
+			Statement statement = i.next();
+			if (statement.getObject().isLiteral())
+				put(resourcesByLabel, statement.getLiteral().getLexicalForm(), uri);
+		}
+	}
+
+	private void remove(String serviceURI)
+	{
+		ServiceBean service = services.remove(serviceURI);
+		if (service == null)
+			return;
+		take(servicesByInputClass, service.getInputClassURI(), serviceURI);
+		for (RestrictionBean restriction: service.getRestrictionBeans()) {
+			take(servicesByAttachedProperty, restriction.getOnPropertyURI(), serviceURI);
+			take(servicesByConnectedClass, restriction.getValuesFromURI(), serviceURI);
+		}
+	}
+
+	private static void put(Map<String, Set<String>> map, String key, String value)
+	{
+		if (key == null)
+			return;
+		Set<String> values = map.get(key);
+		if (values == null) {
+			values = new LinkedHashSet<String>();
+			map.put(key, values);
+		}
+		values.add(value);
+	}
+
+	private static void take(Map<String, Set<String>> map, String key, String value)
+	{
+		if (key == null)
+			return;
+		Set<String> values = map.get(key);
+		if (values != null) {
+			values.remove(value);
+			if (values.isEmpty())
+				map.remove(key);
+		}
+	}
+
+	/**
+	 * Returns the services that attach the specified property.
+	 * @param propertyURI the property URI
+	 * @return the matching services
+	 */
+	public Collection<ServiceBean> findServicesByAttachedProperty(String propertyURI)
+	{
+		return lookup(servicesByAttachedProperty, Collections.singleton(propertyURI));
+	}
+
+	/**
+	 * Returns the services that attach a property with a label that
+	 * matches the specified regular expression.
+	 * @param propertyLabel the property label pattern
+	 * @return the matching services
+	 */
+	public Collection<ServiceBean> findServicesByAttachedPropertyLabel(String propertyLabel)
+	{
+		return lookup(servicesByAttachedProperty, getResourcesByLabel(propertyLabel));
+	}
+
+	/**
+	 * Returns the services that consume instances of the specified class.
+	 * @param classURI the class URI
+	 * @return the matching services
+	 */
+	public Collection<ServiceBean> findServicesByInputClass(String classURI)
+	{
+		return lookup(servicesByInputClass, Collections.singleton(classURI));
+	}
+
+	/**
+	 * Returns the services that attach values from the specified class.
+	 * @param classURI the class URI
+	 * @return the matching services
+	 */
+	public Collection<ServiceBean> findServicesByConnectedClass(String classURI)
+	{
+		return lookup(servicesByConnectedClass, Collections.singleton(classURI));
+	}
+
+	/**
+	 * Returns the services that attach values from a class with a label
+	 * that matches the specified regular expression.
+	 * @param classLabel the class label pattern
+	 * @return the matching services
+	 */
+	public Collection<ServiceBean> findServicesByConnectedClassLabel(String classLabel)
+	{
+		return lookup(servicesByConnectedClass, getResourcesByLabel(classLabel));
+	}
+
+	/**
+	 * Returns the URIs of the properties and classes with a label that
+	 * matches the specified regular expression anywhere, as the SPARQL
+	 * regex filter of the registry's label queries does.
+	 * @param label the label pattern
+	 * @return the labelled resources, or none if the pattern is invalid
+	 */
+	public Collection<String> getResourcesByLabel(String label)
+	{
+		Pattern pattern;
+		try {
+			pattern = Pattern.compile(label);
+		} catch (PatternSyntaxException e) {
+			log.debug(String.format("invalid label pattern %s", label), e);
+			return Collections.emptyList();
+		}
+		lock.readLock().lock();
+		try {
+			Set<String> uris = new LinkedHashSet<String>();
+			for (Map.Entry<String, Set<String>> entry: resourcesByLabel.entrySet()) {
+				if (pattern.matcher(entry.getKey()).find())
+					uris.addAll(entry.getValue());
+			}
+			return uris;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private Collection<ServiceBean> lookup(Map<String, Set<String>> map, Collection<String> keys)
+	{
+		lock.readLock().lock();
+		try {
+			Set<String> serviceURIs = new LinkedHashSet<String>();
+			for (String key: keys) {
+				Set<String> values = map.get(key);
+				if (values != null)
+					serviceURIs.addAll(values);
+			}
+			Collection<ServiceBean> matches = new ArrayList<ServiceBean>(serviceURIs.size());
+			for (String serviceURI: serviceURIs)
+				matches.add(services.get(serviceURI));
+			return matches;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the index as nested maps and collections of
+	 * URIs, suitable for serializing as JSON:
+	 * <pre>
+	 * { "services": [ serviceURI, ... ],
+	 *   "attachedProperty": { propertyURI: [ serviceURI, ... ], ... },
+	 *   "inputClass": { classURI: [ serviceURI, ... ], ... },
+	 *   "connectedClass": { classURI: [ serviceURI, ... ], ... },
+	 *   "label": { label: [ resourceURI, ... ], ... } }
+	 * </pre>
+	 * @return a snapshot of the index
+	 */
+	public Map<String, Object> toMap()
+	{
+		lock.readLock().lock();
+		try {
+			Map<String, Object> map = new TreeMap<String, Object>();
+			map.put("services", new TreeSet<String>(services.keySet()));
+			map.put("attachedProperty", copy(servicesByAttachedProperty));
+			map.put("inputClass", copy(servicesByInputClass));
+			map.put("connectedClass", copy(servicesByConnectedClass));
+			map.put("label", copy(resourcesByLabel));
+			return map;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private static Map<String, Collection<String>> copy(Map<String, Set<String>> map)
+	{
+		Map<String, Collection<String>> copy = new TreeMap<String, Collection<String>>();
+		for (Map.Entry<String, Set<String>> entry: map.entrySet())
+			copy.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
+		return copy;
+	}
+}
@@ -0,0 +1,128 @@
+package ca.wilkinsonlab.sadi.registry;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.log4j.Logger;
+
+import ca.wilkinsonlab.sadi.SADIException;
+
+import com.hp.hpl.jena.rdf.model.Model;
+
+/**
+ * A pool of Registry objects sharing one backend, so that requests can
+ * reuse an open database connection instead of making a new one each time.
+ * Registries are borrowed from the pool by {@link Registry#getRegistry()}
+ * and returned to it by {@link Registry#close()}.
+ */
+public class RegistryPool
+{
+	private static final Logger log = Logger.getLogger(RegistryPool.class);
+
+	private final ModelSource source;
+	private final BlockingQueue<PooledRegistry> idle;
+	private final long maxIdleTime;
+	private final RegistryQueryCache queryCache;
+	private final RegistryIndex index;
+
+	/**
+	 * Constructs a new pool.
+	 * @param source opens and closes the models backing the registries
+	 * @param maxIdle the maximum number of registries kept open while not in use
+	 * @param maxIdleTime the time (in milliseconds) after which an unused registry is closed; 0 for no limit
+	 * @param queryCache the cache of query results shared by the registries in this pool, or null
+	 * @param index the lookup index shared by the registries in this pool, or null
+	 */
+	public RegistryPool(ModelSource source, int maxIdle, long maxIdleTime, RegistryQueryCache queryCache, RegistryIndex index)
+	{
+		this.source = source;
+		this.idle = new LinkedBlockingQueue<PooledRegistry>(Math.max(1, maxIdle));
+		this.maxIdleTime = maxIdle > 0 ? maxIdleTime : -1;
+		this.queryCache = queryCache;
+		this.index = index;
+	}
+
+	/**
+	 * Returns a registry from the pool, opening a new one if there are no
+	 * idle registries.
+	 * The registry must be returned by calling its close() method.
+	 * @return a registry
+	 * @throws SADIException if a new registry can't be opened
+	 */
+	public Registry borrowRegistry() throws SADIException
+	{
+		for (PooledRegistry registry = idle.poll(); registry != null; registry = idle.poll()) {
+			if (registry.getModel().isClosed()) {
+				continue;
+			} else if (maxIdleTime > 0 && System.currentTimeMillis() - registry.releasedAt > maxIdleTime) {
+				log.debug("closing idle registry");
+				closeQuietly(registry);
+			} else {
+				registry.pooled = false;
+				return registry;
+			}
+		}
+		return new PooledRegistry(source.openModel());
+	}
+
+	/**
+	 * Return a registry to the pool, closing it if the pool is full.
+	 * @param registry the registry
+	 */
+	void releaseRegistry(PooledRegistry registry)
+	{
+		if (registry.pooled || registry.getModel().isClosed())
+			return;
+		registry.pooled = true;
+		registry.releasedAt = System.currentTimeMillis();
+		if (maxIdleTime < 0 || !idle.offer(registry))
+			closeQuietly(registry);
+	}
+
+	/**
+	 * Close all idle registries and clear the query cache.
+	 */
+	public void clear()
+	{
+		for (PooledRegistry registry = idle.poll(); registry != null; registry = idle.poll())
+			closeQuietly(registry);
+		if (queryCache != null)
+			queryCache.invalidate();
+	}
+
+	private void closeQuietly(PooledRegistry registry)
+	{
+		try {
+			source.closeModel(registry.getModel());
+		} catch (Exception e) {
+			log.warn("error closing registry", e);
+		}
+	}
+
+	/**
+	 * Opens and closes the models that back the registries in a pool.
+	 */
+	public static interface ModelSource
+	{
+		Model openModel() throws SADIException;
+
+		void closeModel(Model model);
+	}
+
+	class PooledRegistry extends Registry
+	{
+		boolean pooled;
+		long releasedAt;
+
+		PooledRegistry(Model model)
+		{
+			super(model, queryCache, index);
+		}
+
+		@Override
+		public void close()
+		{
+			releaseRegistry(this);
+		}
+	}
+}
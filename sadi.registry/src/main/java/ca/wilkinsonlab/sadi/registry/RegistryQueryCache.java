@@ -0,0 +1,144 @@
+package ca.wilkinsonlab.sadi.registry;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryFactory;
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.sparql.resultset.ResultSetMem;
+
+/**
+ * Caches parsed queries and their results, so that the identical queries
+ * clients send over and over are only parsed and executed once for each
+ * version of the registry.
+ * Results are invalidated whenever the registry is modified through
+ * {@link Registry#registerService} or {@link Registry#unregisterService},
+ * and after a fixed age in case the registry is modified by another process.
+ */
+public class RegistryQueryCache
+{
+	private final Map<String, Query> queries;
+	private final Map<String, CachedResults> results;
+	private final long maxAge;
+	private long generation;
+
+	/**
+	 * Constructs a new cache.
+	 * @param maxSize the maximum number of queries (and results) cached
+	 * @param maxAge the time (in milliseconds) after which cached results expire; 0 for no limit
+	 */
+	public RegistryQueryCache(int maxSize, long maxAge)
+	{
+		this.queries = new LRUMap<Query>(maxSize);
+		this.results = new LRUMap<CachedResults>(maxSize);
+		this.maxAge = maxAge;
+		this.generation = 0;
+	}
+
+	/**
+	 * Returns the parsed form of the specified query.
+	 * @param query the SPARQL query
+	 * @return the parsed query
+	 */
+	public Query getQuery(String query)
+	{
+		synchronized (queries) {
+			Query q = queries.get(query);
+			if (q != null)
+				return q;
+		}
+		Query q = QueryFactory.create(query);
+		synchronized (queries) {
+			queries.put(query, q);
+		}
+		return q;
+	}
+
+	/**
+	 * Returns the cached results of the specified query, or null if there
+	 * are none.
+	 * Each call returns a new ResultSet positioned at the first solution.
+	 * @param query the SPARQL query
+	 * @return the cached results, or null
+	 */
+	public synchronized ResultSet getResults(String query)
+	{
+		CachedResults cached = results.get(query);
+		if (cached == null)
+			return null;
+		if (maxAge > 0 && System.currentTimeMillis() - cached.created > maxAge) {
+			results.remove(query);
+			return null;
+		}
+		return new ResultSetMem(cached.results);
+	}
+
+	/**
+	 * Returns the current version of the registry.  Pass this to
+	 * {@link #putResults} so that results computed while the registry was
+	 * being modified are not cached.
+	 * @return the current version of the registry
+	 */
+	public synchronized long getGeneration()
+	{
+		return generation;
+	}
+
+	/**
+	 * Cache the results of the specified query, returning a copy that can
+	 * be read by the caller.
+	 * @param query the SPARQL query
+	 * @param resultSet the results
+	 * @param generation the version of the registry the query was executed against
+	 * @return a ResultSet over the same results
+	 */
+	public ResultSet putResults(String query, ResultSet resultSet, long generation)
+	{
+		ResultSetMem copy = new ResultSetMem(resultSet);
+		synchronized (this) {
+			if (generation == this.generation)
+				results.put(query, new CachedResults(copy));
+		}
+		return new ResultSetMem(copy);
+	}
+
+	/**
+	 * Discard all cached results.
+	 */
+	public synchronized void invalidate()
+	{
+		++generation;
+		results.clear();
+	}
+
+	private static class CachedResults
+	{
+		final ResultSetMem results;
+		final long created;
+
+		CachedResults(ResultSetMem results)
+		{
+			this.results = results;
+			this.created = System.currentTimeMillis();
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static class LRUMap<V> extends LinkedHashMap<String, V>
+	{
+		private final int maxSize;
+
+		LRUMap(int maxSize)
+		{
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, V> eldest)
+		{
+			return size() > maxSize;
+		}
+	}
+}
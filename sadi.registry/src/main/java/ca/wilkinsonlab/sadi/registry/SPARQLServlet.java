@@ -74,7 +74,7 @@ public class SPARQLServlet extends HttpServlet
 				}
 			} finally {
 				if (registry != null)
-					registry.getModel().close();
+					registry.close();
 			}
 		}
 		getServletConfig().getServletContext().getRequestDispatcher("/sparql/index.jsp").forward(request, response);
@@ -84,9 +84,10 @@ public class Twitter
 	
 	public static AccessToken retrieveAccessToken() throws Exception
 	{
-		Model model = null;
+		Registry registry = null;
 		try {
-			model = Registry.getRegistry().getModel();
+			registry = Registry.getRegistry();
+			Model model = registry.getModel();
 			List<Statement> statements = model.listStatements(subject, predicate, (RDFNode)null).toList();
 			if (statements.isEmpty())
 				return null;
@@ -94,16 +95,17 @@ public class Twitter
 			byte[] serialized = new BASE64Decoder().decodeBuffer(encoded);
 			return (AccessToken)SerializationUtils.deserialize(serialized);
 		} finally {
-			if (model != null)
-				model.close();
+			if (registry != null)
+				registry.close();
 		}
 	}
 	
 	public static void storeAccessToken(AccessToken accessToken) throws Exception
 	{
-		Model model = null;
+		Registry registry = null;
 		try {
-			model = Registry.getRegistry().getModel();
+			registry = Registry.getRegistry();
+			Model model = registry.getModel();
 			if (model.contains(subject, predicate)) {
 				model.removeAll(subject, predicate, null);
 			}
@@ -111,12 +113,9 @@ public class Twitter
 			String encoded = new BASE64Encoder().encodeBuffer(serialized);
 			model.add(subject, predicate, encoded);
 		} finally {
-			if (model != null)
-				model.close();
+			if (registry != null)
+				registry.close();
 		}
-		byte[] serialized = SerializationUtils.serialize(accessToken);
-		String encoded = new BASE64Encoder().encodeBuffer(serialized);
-		model.add(subject, predicate, encoded);
 	}
 	
 	public static RequestToken getRequestToken() throws Exception
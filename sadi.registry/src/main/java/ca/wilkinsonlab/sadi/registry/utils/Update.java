@@ -1,11 +1,35 @@
 package ca.wilkinsonlab.sadi.registry.utils;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 
 import com.hp.hpl.jena.rdf.model.Model;
@@ -13,19 +37,41 @@ import com.hp.hpl.jena.rdf.model.RDFWriter;
 import com.hp.hpl.jena.rdf.model.Resource;
 
 import ca.wilkinsonlab.sadi.SADIException;
+import ca.wilkinsonlab.sadi.client.Service;
+import ca.wilkinsonlab.sadi.client.ServiceFactory;
 import ca.wilkinsonlab.sadi.registry.Registry;
 
 /**
  * Update all service definitions in the registry.
+ * Service definitions are fetched in parallel (with a limit on the number
+ * of concurrent requests to each host) and written to the registry in
+ * batches.  The ETag and Last-Modified headers of each definition are
+ * kept in a state file so that definitions that haven't changed since
+ * the last update are skipped; the state file also allows an interrupted
+ * update to be resumed.
+ * <pre>
+ * Update [-threads N] [-perHost N] [-batch N] [-state FILE] [-resume] [-force]
+ * </pre>
  * @author Luke McCarthy
  */
 public class Update
 {
 	private static Logger log = Logger.getLogger(Update.class);
 	private static String BACKUP_PREFIX = "/tmp/registry-backup";
-	
+	private static String DEFAULT_STATE_FILE = "/tmp/registry-update.state";
+	private static final int REPORT_INTERVAL = 50;
+
 	public static void main(String[] args)
 	{
+		Update update = new Update();
+		try {
+			update.parseArgs(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("usage: Update [-threads N] [-perHost N] [-batch N] [-state FILE] [-resume] [-force]");
+			System.exit(1);
+		}
+
 		Registry registry = null;
 		try {
 			registry = Registry.getRegistry();
@@ -34,9 +80,6 @@ public class Update
 			log.error(message, e);
 			System.err.println(message);
 			System.exit(1);
-		} finally {
-			if (registry != null)
-				registry.getModel().close();
 		}
 		String filename = String.format("%s.%s.rdf", BACKUP_PREFIX, new SimpleDateFormat("yyyyMMdd.hhmmss").format(Calendar.getInstance().getTime()));
 		try {
@@ -49,19 +92,452 @@ public class Update
 			System.err.println(message);
 			System.exit(1);
 		}
-		
+
+		try {
+			update.run(registry);
+		} catch (Exception e) {
+			String message = String.format("error updating registry: %s", e.getMessage());
+			log.error(message, e);
+			System.err.println(message);
+			System.exit(1);
+		} finally {
+			registry.getModel().close();
+		}
+	}
+
+	private int threads = 8;
+	private int perHost = 2;
+	private int batchSize = 20;
+	private File stateFile = new File(DEFAULT_STATE_FILE);
+	private boolean resume = false;
+	private boolean force = false;
+
+	private final Map<String, HostQueue> hostQueues = new HashMap<String, HostQueue>();
+	private CompletionService<FetchResult> completionService;
+
+	private int updated;
+	private int unchanged;
+	private int skipped;
+	private Map<String, String> failures;
+
+	void parseArgs(String[] args)
+	{
+		for (int i = 0; i < args.length; ++i) {
+			String arg = args[i];
+			if (arg.equals("-resume")) {
+				resume = true;
+			} else if (arg.equals("-force")) {
+				force = true;
+			} else if (i + 1 < args.length) {
+				String value = args[++i];
+				if (arg.equals("-threads"))
+					threads = parsePositiveInt(arg, value);
+				else if (arg.equals("-perHost"))
+					perHost = parsePositiveInt(arg, value);
+				else if (arg.equals("-batch"))
+					batchSize = parsePositiveInt(arg, value);
+				else if (arg.equals("-state"))
+					stateFile = new File(value);
+				else
+					throw new IllegalArgumentException(String.format("unknown option %s", arg));
+			} else {
+				throw new IllegalArgumentException(String.format("unknown option %s", arg));
+			}
+		}
+	}
+
+	private static int parsePositiveInt(String option, String value)
+	{
+		try {
+			int n = Integer.parseInt(value);
+			if (n > 0)
+				return n;
+		} catch (NumberFormatException e) {
+		}
+		throw new IllegalArgumentException(String.format("%s requires a positive integer", option));
+	}
+
+	/**
+	 * Update every service registered in the specified registry.
+	 * @param registry the registry
+	 * @throws IOException if the state file can't be read or written
+	 * @throws InterruptedException
+	 */
+	void run(Registry registry) throws IOException, InterruptedException
+	{
+		updated = unchanged = skipped = 0;
+		failures = new LinkedHashMap<String, String>();
+
+		UpdateState state = UpdateState.load(stateFile);
+		if (!resume || state.runStart <= 0)
+			state.runStart = System.currentTimeMillis();
+
 		List<Resource> services = registry.getRegisteredServiceNodes().toList();
-		for (Resource service: services) {
-			registry.getModel().begin();
+		log.info(String.format("updating %d services with %d threads (%d per host)", services.size(), threads, perHost));
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new FetchThreadFactory());
+		completionService = new ExecutorCompletionService<FetchResult>(executor);
+		try {
+			int submitted = 0;
+			for (Resource service: services) {
+				String serviceURI = service.getURI();
+				if (serviceURI == null)
+					continue;
+				Validators validators = state.get(serviceURI);
+				if (resume && validators != null && validators.checked >= state.runStart) {
+					++skipped;
+					continue;
+				}
+				HostQueue hostQueue = getHostQueue(serviceURI);
+				Fetch fetch = hostQueue.add(new Fetch(serviceURI, force ? null : validators, hostQueue));
+				if (fetch != null)
+					completionService.submit(fetch);
+				++submitted;
+			}
+			if (skipped > 0)
+				log.info(String.format("resuming; skipped %d services already checked", skipped));
+
+			long start = System.currentTimeMillis();
+			List<FetchResult> batch = new ArrayList<FetchResult>(batchSize);
+			for (int i = 1; i <= submitted; ++i) {
+				FetchResult result;
+				try {
+					result = completionService.take().get();
+				} catch (ExecutionException e) {
+					/* Fetch catches its own exceptions, so this shouldn't happen...
+					 */
+					log.error("unexpected error fetching service definition", e);
+					continue;
+				}
+				if (result.error != null) {
+					log.warn(String.format("error fetching %s: %s", result.serviceURI, result.error));
+					failures.put(result.serviceURI, result.error);
+				} else if (result.service == null) {
+					log.debug(String.format("%s has not changed", result.serviceURI));
+					state.put(result.serviceURI, result.validators);
+					++unchanged;
+				} else {
+					batch.add(result);
+					if (batch.size() >= batchSize)
+						writeBatch(registry, batch, state);
+				}
+				if (i % REPORT_INTERVAL == 0)
+					report(i, submitted, start);
+			}
+			writeBatch(registry, batch, state);
+			report(submitted, submitted, start);
+		} finally {
+			executor.shutdownNow();
+			state.save(stateFile);
+		}
+
+		log.info(String.format("updated %d services, %d unchanged, %d skipped, %d failed", updated, unchanged, skipped, failures.size()));
+		for (Map.Entry<String, String> failure: failures.entrySet())
+			log.warn(String.format("failed to update %s: %s", failure.getKey(), failure.getValue()));
+	}
+
+	private void report(int done, int total, long start)
+	{
+		double seconds = Math.max(1, System.currentTimeMillis() - start) / 1000.0;
+		log.info(String.format("checked %d/%d services (%.1f/s): %d updated, %d unchanged, %d failed",
+				done, total, done / seconds, updated, unchanged, failures.size()));
+	}
+
+	/* write a batch of new service definitions in one transaction; if the
+	 * transaction fails, retry each service on its own so that one bad
+	 * definition doesn't lose the rest of the batch...
+	 */
+	private void writeBatch(Registry registry, List<FetchResult> batch, UpdateState state) throws IOException
+	{
+		if (batch.isEmpty())
+			return;
+
+		Model model = registry.getModel();
+		boolean transactions = model.supportsTransactions();
+		if (transactions)
+			model.begin();
+		try {
+			for (FetchResult result: batch)
+				write(registry, result);
+			if (transactions)
+				model.commit();
+			for (FetchResult result: batch) {
+				state.put(result.serviceURI, result.validators);
+				++updated;
+			}
+		} catch (Exception e) {
+			if (transactions)
+				model.abort();
+			log.warn(String.format("error writing batch of %d services, retrying individually: %s", batch.size(), e));
+			for (FetchResult result: batch) {
+				if (transactions)
+					model.begin();
+				try {
+					write(registry, result);
+					if (transactions)
+						model.commit();
+					state.put(result.serviceURI, result.validators);
+					++updated;
+				} catch (Exception e2) {
+					if (transactions)
+						model.abort();
+					log.error(String.format("error updating service %s: %s", result.serviceURI, e2.getMessage()), e2);
+					failures.put(result.serviceURI, e2.toString());
+				}
+			}
+		}
+		batch.clear();
+		state.save(stateFile);
+	}
+
+	private void write(Registry registry, FetchResult result) throws SADIException
+	{
+		log.info(String.format("updating service %s", result.serviceURI));
+		if (registry.getModel().containsResource(registry.getModel().getResource(result.serviceURI)))
+			registry.unregisterService(result.serviceURI);
+		registry.registerService(result.service);
+	}
+
+	private HostQueue getHostQueue(String serviceURI)
+	{
+		String host;
+		try {
+			host = new URL(serviceURI).getHost();
+		} catch (IOException e) {
+			host = "";
+		}
+		HostQueue hostQueue = hostQueues.get(host);
+		if (hostQueue == null) {
+			hostQueue = new HostQueue();
+			hostQueues.put(host, hostQueue);
+		}
+		return hostQueue;
+	}
+
+	/* pass a finished fetch's place on its host to the next waiting fetch;
+	 * the executor is only shut down once every result has been taken (or
+	 * the update has failed), so a rejection here can be ignored...
+	 */
+	private void submitNext(HostQueue hostQueue)
+	{
+		Fetch next = hostQueue.next();
+		if (next == null)
+			return;
+		try {
+			completionService.submit(next);
+		} catch (RejectedExecutionException e) {
+			log.debug(String.format("not fetching %s after shutdown", next.serviceURI));
+		}
+	}
+
+	/**
+	 * Returns the validators of the current service definition, or null
+	 * if the definition hasn't changed since the specified validators
+	 * were recorded.
+	 */
+	private static Validators checkForChanges(String serviceURI, Validators previous) throws IOException
+	{
+		URLConnection conn = new URL(serviceURI).openConnection();
+		if (!(conn instanceof HttpURLConnection))
+			return new Validators(null, null);
+		HttpURLConnection http = (HttpURLConnection)conn;
+		try {
+			http.setRequestProperty("Accept", "application/rdf+xml");
+			if (previous != null) {
+				if (previous.etag != null)
+					http.setRequestProperty("If-None-Match", previous.etag);
+				if (previous.lastModified != null)
+					http.setRequestProperty("If-Modified-Since", previous.lastModified);
+			}
+			int status = http.getResponseCode();
+			if (status == HttpURLConnection.HTTP_NOT_MODIFIED)
+				return null;
+			if (status >= 400)
+				throw new IOException(String.format("HTTP status %d", status));
+			return new Validators(http.getHeaderField("ETag"), http.getHeaderField("Last-Modified"));
+		} finally {
+			http.disconnect();
+		}
+	}
+
+	private class Fetch implements Callable<FetchResult>
+	{
+		private final String serviceURI;
+		private final Validators previous;
+		private final HostQueue hostQueue;
+
+		public Fetch(String serviceURI, Validators previous, HostQueue hostQueue)
+		{
+			this.serviceURI = serviceURI;
+			this.previous = previous;
+			this.hostQueue = hostQueue;
+		}
+
+		public FetchResult call()
+		{
+			try {
+				Validators validators = checkForChanges(serviceURI, previous);
+				if (validators == null)
+					return new FetchResult(serviceURI, null, previous, null);
+				Service service = ServiceFactory.createService(serviceURI);
+				return new FetchResult(serviceURI, service, validators, null);
+			} catch (Exception e) {
+				return new FetchResult(serviceURI, null, null, e.getMessage() != null ? e.getMessage() : e.toString());
+			} finally {
+				submitNext(hostQueue);
+			}
+		}
+	}
+
+	/* the fetches for one host; at most perHost of them are with the
+	 * executor at a time and the rest wait here, so that a worker thread
+	 * is never tied up waiting for a busy host...
+	 */
+	private class HostQueue
+	{
+		private final LinkedList<Fetch> waiting = new LinkedList<Fetch>();
+		private int active;
+
+		/**
+		 * Returns the fetch if it can be submitted now, or null if it has
+		 * been queued behind the fetches already running for this host.
+		 */
+		synchronized Fetch add(Fetch fetch)
+		{
+			if (active < perHost) {
+				++active;
+				return fetch;
+			}
+			waiting.add(fetch);
+			return null;
+		}
+
+		/**
+		 * Returns the next waiting fetch, which takes the place of one
+		 * that has just finished, or null if none is waiting.
+		 */
+		synchronized Fetch next()
+		{
+			Fetch fetch = waiting.poll();
+			if (fetch == null)
+				--active;
+			return fetch;
+		}
+	}
+
+	private static class FetchResult
+	{
+		final String serviceURI;
+		final Service service;
+		final Validators validators;
+		final String error;
+
+		FetchResult(String serviceURI, Service service, Validators validators, String error)
+		{
+			this.serviceURI = serviceURI;
+			this.service = service;
+			this.validators = validators;
+			this.error = error;
+		}
+	}
+
+	private static class Validators
+	{
+		final String etag;
+		final String lastModified;
+		long checked;
+
+		Validators(String etag, String lastModified)
+		{
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+	}
+
+	/* the validators of each service definition and the time it was last
+	 * checked, stored as "serviceURI = etag \t lastModified \t checked"...
+	 */
+	private static class UpdateState
+	{
+		private static final String RUN_START_KEY = "runStart";
+
+		long runStart;
+		private final Map<String, Validators> validators = new ConcurrentHashMap<String, Validators>();
+
+		static UpdateState load(File file) throws IOException
+		{
+			UpdateState state = new UpdateState();
+			if (!file.exists())
+				return state;
+			Properties properties = new Properties();
+			InputStream in = new FileInputStream(file);
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+			for (String key: properties.stringPropertyNames()) {
+				String value = properties.getProperty(key);
+				if (key.equals(RUN_START_KEY)) {
+					state.runStart = Long.parseLong(value);
+					continue;
+				}
+				String[] fields = StringUtils.splitPreserveAllTokens(value, '\t');
+				if (fields.length != 3)
+					continue;
+				Validators v = new Validators(StringUtils.trimToNull(fields[0]), StringUtils.trimToNull(fields[1]));
+				v.checked = Long.parseLong(fields[2]);
+				state.validators.put(key, v);
+			}
+			return state;
+		}
+
+		Validators get(String serviceURI)
+		{
+			return validators.get(serviceURI);
+		}
+
+		void put(String serviceURI, Validators v)
+		{
+			if (v == null)
+				v = new Validators(null, null);
+			v.checked = System.currentTimeMillis();
+			validators.put(serviceURI, v);
+		}
+
+		synchronized void save(File file) throws IOException
+		{
+			Properties properties = new Properties();
+			properties.setProperty(RUN_START_KEY, String.valueOf(runStart));
+			for (Map.Entry<String, Validators> entry: validators.entrySet()) {
+				Validators v = entry.getValue();
+				properties.setProperty(entry.getKey(), String.format("%s\t%s\t%d",
+						StringUtils.defaultString(v.etag), StringUtils.defaultString(v.lastModified), v.checked));
+			}
+			File temp = new File(file.getPath() + ".tmp");
+			OutputStream out = new FileOutputStream(temp);
 			try {
-				log.info(String.format("updating service %s", service));
-				registry.registerService(service.getURI());
-				registry.getModel().commit();
-			} catch (SADIException e) {
-				log.error(String.format("error updating service %s: %s", service, e.getMessage()), e);
-				registry.getModel().abort();
+				properties.store(out, "registry update state");
+			} finally {
+				out.close();
+			}
+			if (!temp.renameTo(file)) {
+				file.delete();
+				if (!temp.renameTo(file))
+					throw new IOException(String.format("error renaming %s to %s", temp, file));
 			}
 		}
-		registry.getModel().close();
+	}
+
+	private static class FetchThreadFactory implements ThreadFactory
+	{
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		public Thread newThread(Runnable r)
+		{
+			Thread thread = new Thread(r, String.format("registry-update-%d", threadCount.incrementAndGet()));
+			thread.setDaemon(true);
+			return thread;
+		}
 	}
 }
@@ -16,7 +16,7 @@
 				log.error(String.format("error retrieving service definition for %s: %s", serviceURI, e));
 			} finally {
 				if (registry != null)
-					registry.getModel().close();
+					registry.close();
 			}
 		}
 	}
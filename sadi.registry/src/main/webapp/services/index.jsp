@@ -14,7 +14,7 @@
 		request.setAttribute("error", e.getMessage());
 	} finally {
 		if (registry != null)
-			registry.getModel().close();
+			registry.close();
 	}
 %>
 <?xml version='1.0' encoding='UTF-8'?>
@@ -22,7 +22,7 @@
 			request.setAttribute("error", e.getMessage() != null ? e.getMessage() : e.toString());
 		} finally {
 			if (registry != null)
-				registry.getModel().close();
+				registry.close();
 		}
 	}
 %>
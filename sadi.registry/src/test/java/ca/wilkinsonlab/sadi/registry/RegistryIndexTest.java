@@ -0,0 +1,122 @@
+package ca.wilkinsonlab.sadi.registry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.wilkinsonlab.sadi.beans.RestrictionBean;
+import ca.wilkinsonlab.sadi.beans.ServiceBean;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+public class RegistryIndexTest
+{
+	static final String NS = "http://example.com/";
+
+	Model model;
+	RegistryIndex index;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		model = ModelFactory.createDefaultModel();
+		model.add(model.createResource(NS + "hasName"), RDFS.label, "has name");
+		model.add(model.createResource(NS + "hasAge"), RDFS.label, "has age");
+		model.add(model.createResource(NS + "Name"), RDFS.label, "name");
+		index = new Registry(model).getIndex();
+	}
+
+	@Test
+	public void testLabelMatchesAnywhere() throws Exception
+	{
+		index.addService(createService("a", "Person", "hasName", "Name"), model);
+		index.addService(createService("b", "Person", "hasAge", null), model);
+		assertEquals(serviceURIs("a"), serviceURIs(index.findServicesByAttachedPropertyLabel("name")));
+		assertEquals(serviceURIs("a", "b"), serviceURIs(index.findServicesByAttachedPropertyLabel("^has")));
+		assertEquals(serviceURIs("b"), serviceURIs(index.findServicesByAttachedPropertyLabel("age$")));
+		assertTrue(index.findServicesByAttachedPropertyLabel("^name").isEmpty());
+		assertEquals(serviceURIs("a"), serviceURIs(index.findServicesByConnectedClassLabel("^name$")));
+	}
+
+	@Test
+	public void testInvalidLabelPattern() throws Exception
+	{
+		index.addService(createService("a", "Person", "hasName", "Name"), model);
+		assertTrue(index.getResourcesByLabel("(").isEmpty());
+		assertTrue(index.findServicesByAttachedPropertyLabel("(").isEmpty());
+	}
+
+	@Test
+	public void testAddServiceReplacesPreviousEntry() throws Exception
+	{
+		index.addService(createService("a", "Person", "hasName", "Name"), model);
+		index.addService(createService("a", "Animal", "hasAge", null), model);
+		assertTrue(index.findServicesByInputClass(NS + "Person").isEmpty());
+		assertTrue(index.findServicesByAttachedProperty(NS + "hasName").isEmpty());
+		assertTrue(index.findServicesByConnectedClass(NS + "Name").isEmpty());
+		assertEquals(serviceURIs("a"), serviceURIs(index.findServicesByInputClass(NS + "Animal")));
+		assertEquals(serviceURIs("a"), serviceURIs(index.findServicesByAttachedProperty(NS + "hasAge")));
+	}
+
+	@Test
+	public void testRemoveService() throws Exception
+	{
+		index.addService(createService("a", "Person", "hasName", "Name"), model);
+		index.addService(createService("b", "Person", "hasAge", null), model);
+		index.removeService(NS + "a");
+		assertEquals(serviceURIs("b"), serviceURIs(index.findServicesByInputClass(NS + "Person")));
+		assertTrue(index.findServicesByAttachedProperty(NS + "hasName").isEmpty());
+		assertTrue(index.findServicesByConnectedClassLabel("name").isEmpty());
+		assertFalse(((Map<?, ?>)index.toMap().get("attachedProperty")).containsKey(NS + "hasName"));
+
+		/* labels stay, since other services may refer to the resources...
+		 */
+		assertTrue(index.getResourcesByLabel("has name").contains(NS + "hasName"));
+	}
+
+	@Test
+	public void testAddServiceBeforeBuild() throws Exception
+	{
+		RegistryIndex unbuilt = new RegistryIndex(0);
+		unbuilt.addService(createService("a", "Person", "hasName", "Name"), model);
+		assertTrue(unbuilt.findServicesByInputClass(NS + "Person").isEmpty());
+	}
+
+	private static ServiceBean createService(String name, String inputClass, String onProperty, String valuesFrom)
+	{
+		ServiceBean service = new ServiceBean();
+		service.setURI(NS + name);
+		service.setInputClassURI(NS + inputClass);
+		RestrictionBean restriction = new RestrictionBean();
+		restriction.setOnPropertyURI(NS + onProperty);
+		restriction.setValuesFromURI(valuesFrom != null ? NS + valuesFrom : null);
+		service.getRestrictionBeans().add(restriction);
+		return service;
+	}
+
+	private static Set<String> serviceURIs(String... names)
+	{
+		Set<String> uris = new HashSet<String>();
+		for (String name: names)
+			uris.add(NS + name);
+		return uris;
+	}
+
+	private static Set<String> serviceURIs(Collection<ServiceBean> services)
+	{
+		Set<String> uris = new HashSet<String>();
+		for (ServiceBean service: services)
+			uris.add(service.getURI());
+		return uris;
+	}
+}
@@ -0,0 +1,82 @@
+package ca.wilkinsonlab.sadi.registry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hp.hpl.jena.query.QueryExecutionFactory;
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+public class RegistryQueryCacheTest
+{
+	static final String QUERY = "SELECT ?s WHERE { ?s a <http://www.w3.org/2000/01/rdf-schema#Class> }";
+
+	Model model;
+	RegistryQueryCache cache;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		model = ModelFactory.createDefaultModel();
+		model.add(model.createResource("http://example.com/a"), RDF.type, RDFS.Class);
+		model.add(model.createResource("http://example.com/b"), RDF.type, RDFS.Class);
+		cache = new RegistryQueryCache(10, 0);
+	}
+
+	@Test
+	public void testGetQuery() throws Exception
+	{
+		assertSame(cache.getQuery(QUERY), cache.getQuery(QUERY));
+	}
+
+	@Test
+	public void testResultsCanBeReadRepeatedly() throws Exception
+	{
+		assertNull(cache.getResults(QUERY));
+		assertEquals(2, count(cache.putResults(QUERY, execute(), cache.getGeneration())));
+		assertEquals(2, count(cache.getResults(QUERY)));
+		assertEquals(2, count(cache.getResults(QUERY)));
+	}
+
+	@Test
+	public void testInvalidate() throws Exception
+	{
+		cache.putResults(QUERY, execute(), cache.getGeneration());
+		assertNotNull(cache.getResults(QUERY));
+		cache.invalidate();
+		assertNull(cache.getResults(QUERY));
+	}
+
+	@Test
+	public void testStaleResultsNotCached() throws Exception
+	{
+		/* the registry is modified while the query is running...
+		 */
+		long generation = cache.getGeneration();
+		ResultSet resultSet = execute();
+		cache.invalidate();
+		assertEquals(2, count(cache.putResults(QUERY, resultSet, generation)));
+		assertNull(cache.getResults(QUERY));
+	}
+
+	private ResultSet execute()
+	{
+		return QueryExecutionFactory.create(cache.getQuery(QUERY), model).execSelect();
+	}
+
+	private static int count(ResultSet resultSet)
+	{
+		int n = 0;
+		for (; resultSet.hasNext(); resultSet.next())
+			++n;
+		return n;
+	}
+}
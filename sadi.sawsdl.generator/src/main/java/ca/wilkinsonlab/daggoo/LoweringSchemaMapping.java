@@ -1,9 +1,35 @@
 package ca.wilkinsonlab.daggoo;
 
+import java.io.StringReader;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.velocity.Template;
+import org.apache.velocity.app.Velocity;
+import org.apache.velocity.runtime.RuntimeInstance;
+import org.apache.velocity.runtime.parser.ParseException;
+
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryFactory;
+
+/**
+ * A lowering schema mapping; the Velocity template and SPARQL query are
+ * compiled the first time they are used and then shared by every request
+ * that uses the mapping.
+ */
 public class LoweringSchemaMapping extends SchemaMapping {
 
+    private static Logger logger = Logger.getLogger(LoweringSchemaMapping.class
+	    .getName());
+
+    private static RuntimeInstance velocity;
+
     private String sparqlQuery;
 
+    private Query query;
+
+    private Template compiledTemplate;
+
     public LoweringSchemaMapping() {
 	super();
 	setSparqlQuery("");
@@ -15,6 +41,54 @@ public class LoweringSchemaMapping extends SchemaMapping {
 
     public void setSparqlQuery(String sparqlQuery) {
 	this.sparqlQuery = sparqlQuery == null ? "" : sparqlQuery.trim();
+	this.query = null;
     }
 
+    /**
+     * @return the parsed SPARQL query
+     */
+    public synchronized Query getQuery() {
+	if (query == null) {
+	    query = QueryFactory.create(getSparqlQuery());
+	}
+	return query;
+    }
+
+    @Override
+    public void setTemplate(String template) {
+	super.setTemplate(template);
+	compiledTemplate = null;
+    }
+
+    /**
+     * @return the compiled Velocity template, or null if the template
+     *         could not be parsed
+     */
+    public synchronized Template getCompiledTemplate() {
+	if (compiledTemplate == null) {
+	    try {
+		RuntimeInstance rt = getVelocity();
+		Template t = new Template();
+		t.setRuntimeServices(rt);
+		t.setData(rt.parse(new StringReader(getTemplate()), getName()));
+		t.initDocument();
+		compiledTemplate = t;
+	    } catch (ParseException e) {
+		logger.log(Level.SEVERE, String.format(
+			"Could not parse the lowering template %s: %s",
+			getName(), e.getMessage()), e);
+	    }
+	}
+	return compiledTemplate;
+    }
+
+    private static synchronized RuntimeInstance getVelocity() {
+	if (velocity == null) {
+	    RuntimeInstance rt = new RuntimeInstance();
+	    rt.setProperty(Velocity.RUNTIME_LOG_LOGSYSTEM_CLASS, "org.apache.velocity.runtime.log.NullLogChute");
+	    rt.init();
+	    velocity = rt;
+	}
+	return velocity;
+    }
 }
@@ -0,0 +1,356 @@
+package ca.wilkinsonlab.daggoo.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import ca.wilkinsonlab.daggoo.LiftingMap;
+import ca.wilkinsonlab.daggoo.LiftingSchemaMapping;
+import ca.wilkinsonlab.daggoo.LoweringSchemaMapping;
+import ca.wilkinsonlab.daggoo.SAWSDLService;
+import ca.wilkinsonlab.daggoo.utils.IOUtils;
+import ca.wilkinsonlab.daggoo.utils.WSDLConfig;
+
+/**
+ * A shared, bounded cache of parsed WSDLConfigs and compiled lowering and
+ * lifting schema mappings, so that a Daggoo4SadiEngine is cheap to create
+ * for each request.
+ *
+ * Entries are keyed by URL and hold the validator of the document they
+ * were parsed from: the modification time and size of local files (checked
+ * on every lookup) or the ETag/Last-Modified header of remote documents
+ * (checked with a HEAD request at most once per revalidation interval).
+ * Concurrent requests for an entry that is being loaded wait for that load
+ * rather than starting their own.
+ */
+public class Daggoo4SadiCache {
+
+    private static Logger logger = Logger.getLogger(Daggoo4SadiCache.class
+	    .getName());
+
+    public static final int DEFAULT_MAX_ENTRIES = 500;
+
+    public static final long DEFAULT_REVALIDATE_INTERVAL = 60 * 1000;
+
+    private static final int WARM_THREADS = 4;
+
+    private static Daggoo4SadiCache instance = new Daggoo4SadiCache(
+	    DEFAULT_MAX_ENTRIES, DEFAULT_REVALIDATE_INTERVAL);
+
+    private final Map<String, Entry> entries;
+
+    private volatile long revalidateInterval;
+
+    /**
+     *
+     * @param maxEntries
+     *            the maximum number of WSDLConfigs and mappings cached
+     * @param revalidateInterval
+     *            the time (in milliseconds) before a remote document is
+     *            checked for changes
+     */
+    public Daggoo4SadiCache(int maxEntries, long revalidateInterval) {
+	this.entries = new LRUMap(maxEntries);
+	this.revalidateInterval = revalidateInterval;
+    }
+
+    /**
+     *
+     * @return the cache shared by all Daggoo4SadiEngines
+     */
+    public static Daggoo4SadiCache getInstance() {
+	return instance;
+    }
+
+    /**
+     * Replace the shared cache with an empty one with the specified limits.
+     */
+    public static void configure(int maxEntries, long revalidateInterval) {
+	instance = new Daggoo4SadiCache(maxEntries, revalidateInterval);
+    }
+
+    /**
+     *
+     * @param wsdlURL
+     *            the location of the WSDL document
+     * @param serviceName
+     *            the name of the SADI service described in the WSDL
+     * @return a WSDLConfig with serviceName as the current service; callers
+     *         must not change the current service, as the WSDLConfig is
+     *         shared
+     * @throws Exception
+     *             if the WSDL can't be read or parsed
+     */
+    public WSDLConfig getWSDLConfig(final URL wsdlURL, final String serviceName)
+	    throws Exception {
+	return (WSDLConfig) get("wsdl " + serviceName + " " + wsdlURL,
+		wsdlURL, new Loader() {
+		    public Object load() throws Exception {
+			WSDLConfig config = new WSDLConfig(wsdlURL);
+			config.setCurrentService(serviceName);
+			return config;
+		    }
+		});
+    }
+
+    /**
+     *
+     * @param mapUrl
+     *            the location of the lowering schema mapping document
+     * @param name
+     *            the name of the parameter the mapping produces
+     * @return the compiled mapping
+     * @throws Exception
+     *             if the mapping can't be read or parsed
+     */
+    public LoweringSchemaMapping getLoweringMapping(final String mapUrl,
+	    final String name) throws Exception {
+	final URL url = new URL(mapUrl);
+	return (LoweringSchemaMapping) get("lowering " + name + " " + mapUrl,
+		url, new Loader() {
+		    public Object load() throws Exception {
+			String lm = read(url);
+			LoweringSchemaMapping lsm = new LoweringSchemaMapping();
+			lsm.setSparqlQuery(IOUtils.getSPARQLFromXML(lm));
+			lsm.setTemplate(IOUtils.getLoweringOrLiftingTemplateFromXML(lm));
+			lsm.setName(name);
+			// compile now rather than on the first request
+			lsm.getQuery();
+			lsm.getCompiledTemplate();
+			return lsm;
+		    }
+		});
+    }
+
+    /**
+     *
+     * @param mapUrl
+     *            the location of the lifting schema mapping document
+     * @param name
+     *            the name of the output the mapping consumes
+     * @return the compiled mapping
+     * @throws Exception
+     *             if the mapping can't be read or parsed
+     */
+    public LiftingSchemaMapping getLiftingMapping(final String mapUrl,
+	    final String name) throws Exception {
+	final URL url = new URL(mapUrl);
+	return (LiftingSchemaMapping) get("lifting " + name + " " + mapUrl,
+		url, new Loader() {
+		    public Object load() throws Exception {
+			String lm = read(url);
+			List<LiftingMap> mappings = IOUtils.getLiftingMappings(lm);
+			LiftingSchemaMapping lsm = new LiftingSchemaMapping();
+			// this processes inits the paths
+			lsm.setTemplate(IOUtils
+				.getLoweringOrLiftingTemplateFromXML(new ByteArrayInputStream(
+					lm.getBytes())));
+			lsm.setLiftingMap(mappings);
+			lsm.setName(name);
+			return lsm;
+		    }
+		});
+    }
+
+    /**
+     * Parse the WSDL of each of the specified services in the background,
+     * several at a time, so that the first request to each service doesn't
+     * have to. The mappings are left to be loaded on first use, since they
+     * are usually served by this web application and can't be fetched
+     * until it has started.
+     *
+     * @param services
+     *            the services to warm up
+     */
+    public void warm(Collection<SAWSDLService> services) {
+	ExecutorService executor = Executors.newFixedThreadPool(WARM_THREADS,
+		new WarmThreadFactory());
+	for (final SAWSDLService s : new ArrayList<SAWSDLService>(services)) {
+	    executor.execute(new Runnable() {
+		public void run() {
+		    try {
+			getWSDLConfig(new File(s.getWsdlLocation()).toURI()
+				.toURL(), s.getName());
+		    } catch (Exception e) {
+			logger.log(Level.WARNING, String.format(
+				"Could not parse the WSDL for %s: %s", s
+					.getName(), e.getMessage()), e);
+		    }
+		}
+	    });
+	}
+	executor.shutdown();
+    }
+
+    /**
+     * Discard all cached WSDLConfigs and mappings.
+     */
+    public void clear() {
+	synchronized (entries) {
+	    entries.clear();
+	}
+    }
+
+    private Object get(String key, URL url, final Loader loader)
+	    throws Exception {
+	Entry entry;
+	synchronized (entries) {
+	    entry = entries.get(key);
+	}
+	// an entry that is still loading is as fresh as it gets
+	if (entry != null && (!entry.task.isDone() || isValid(entry, url))) {
+	    return getValue(key, entry);
+	}
+	// get the validator before reading, so that a change made while we
+	// are reading is noticed next time
+	String validator = getValidator(url);
+	Entry loading = new Entry(new FutureTask<Object>(new Callable<Object>() {
+	    public Object call() throws Exception {
+		return loader.load();
+	    }
+	}), validator);
+	synchronized (entries) {
+	    Entry current = entries.get(key);
+	    if (current != null && current != entry) {
+		// someone else has started loading it since we looked
+		loading = current;
+	    } else {
+		entries.put(key, loading);
+	    }
+	}
+	loading.task.run();
+	return getValue(key, loading);
+    }
+
+    private Object getValue(String key, Entry entry) throws Exception {
+	try {
+	    return entry.task.get();
+	} catch (ExecutionException e) {
+	    // don't cache the failure; the next request tries again
+	    synchronized (entries) {
+		if (entries.get(key) == entry) {
+		    entries.remove(key);
+		}
+	    }
+	    if (e.getCause() instanceof Exception) {
+		throw (Exception) e.getCause();
+	    }
+	    throw (Error) e.getCause();
+	}
+    }
+
+    private boolean isValid(Entry entry, URL url) {
+	if (entry.validator == null) {
+	    // no way of telling whether it has changed, so just let it expire
+	    return System.currentTimeMillis() - entry.checked < revalidateInterval;
+	}
+	if (!"file".equals(url.getProtocol())
+		&& System.currentTimeMillis() - entry.checked < revalidateInterval) {
+	    return true;
+	}
+	String validator;
+	try {
+	    validator = getValidator(url);
+	} catch (Exception e) {
+	    logger.log(Level.WARNING, String.format(
+		    "Could not check %s for changes: %s", url, e.getMessage()));
+	    return false;
+	}
+	if (entry.validator.equals(validator)) {
+	    entry.checked = System.currentTimeMillis();
+	    return true;
+	}
+	return false;
+    }
+
+    private static String getValidator(URL url) throws Exception {
+	if ("file".equals(url.getProtocol())) {
+	    File f = new File(url.toURI());
+	    return f.exists() ? String.format("%d %d", f.lastModified(), f.length()) : null;
+	}
+	URLConnection conn = url.openConnection();
+	if (!(conn instanceof HttpURLConnection)) {
+	    return null;
+	}
+	HttpURLConnection http = (HttpURLConnection) conn;
+	try {
+	    http.setRequestMethod("HEAD");
+	    if (http.getResponseCode() >= 400) {
+		return null;
+	    }
+	    String etag = http.getHeaderField("ETag");
+	    return etag != null ? etag : http.getHeaderField("Last-Modified");
+	} finally {
+	    http.disconnect();
+	}
+    }
+
+    private static String read(URL url) throws Exception {
+	URLConnection conn = url.openConnection();
+	conn.setUseCaches(false);
+	if (conn instanceof HttpURLConnection) {
+	    return IOUtils.readFromConnection((HttpURLConnection) conn);
+	} else {
+	    return IOUtils.readFromConnection(conn);
+	}
+    }
+
+    private static interface Loader {
+	Object load() throws Exception;
+    }
+
+    private static class Entry {
+	final FutureTask<Object> task;
+	final String validator;
+	volatile long checked;
+
+	Entry(FutureTask<Object> task, String validator) {
+	    this.task = task;
+	    this.validator = validator;
+	    this.checked = System.currentTimeMillis();
+	}
+    }
+
+    @SuppressWarnings("serial")
+    private static class LRUMap extends LinkedHashMap<String, Entry> {
+	private final int maxEntries;
+
+	LRUMap(int maxEntries) {
+	    super(16, 0.75f, true);
+	    this.maxEntries = maxEntries;
+	}
+
+	@Override
+	protected boolean removeEldestEntry(
+		Map.Entry<String, Daggoo4SadiCache.Entry> eldest) {
+	    return size() > maxEntries;
+	}
+    }
+
+    private static class WarmThreadFactory implements ThreadFactory {
+	private final AtomicInteger threadCount = new AtomicInteger();
+
+	public Thread newThread(Runnable r) {
+	    Thread thread = new Thread(r, String.format("daggoo-warm-%d",
+		    threadCount.incrementAndGet()));
+	    thread.setDaemon(true);
+	    return thread;
+	}
+    }
+}
@@ -3,14 +3,11 @@ package ca.wilkinsonlab.daggoo.engine;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.StringWriter;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -20,11 +17,10 @@ import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
 
+import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
 import org.apache.velocity.app.Velocity;
-import org.apache.velocity.app.VelocityEngine;
 import org.apache.velocity.exception.MethodInvocationException;
-import org.apache.velocity.exception.ParseErrorException;
 import org.apache.velocity.exception.ResourceNotFoundException;
 import org.w3c.dom.NodeList;
 import org.xml.sax.InputSource;
@@ -36,7 +32,6 @@ import ca.wilkinsonlab.daggoo.ResultMap;
 import ca.wilkinsonlab.daggoo.servlets.SoapServlet;
 import ca.wilkinsonlab.daggoo.sparql.SparqlQueryEngine;
 import ca.wilkinsonlab.daggoo.sparql.SparqlResult;
-import ca.wilkinsonlab.daggoo.utils.IOUtils;
 import ca.wilkinsonlab.daggoo.utils.WSDLConfig;
 import ca.wilkinsonlab.sadi.rdfpath.RDFPath;
 import ca.wilkinsonlab.sadi.utils.RdfUtils;
@@ -77,8 +72,8 @@ public class Daggoo4SadiEngine {
     }
     
     public Daggoo4SadiEngine(URL wsdlURL, String serviceName, String mapPrefix) throws Exception {
-	wsdlConfig = new WSDLConfig(wsdlURL);
-	wsdlConfig.setCurrentService(serviceName);
+	// the parsed WSDL and mappings are shared with other engines
+	wsdlConfig = Daggoo4SadiCache.getInstance().getWSDLConfig(wsdlURL, serviceName);
 	this.mappingPrefix = mapPrefix;
 	init();
     }
@@ -131,32 +126,9 @@ public class Daggoo4SadiEngine {
 	for (String key : loweringMap.keySet()) {
 	    // key is the parameter name
 	    // value is the url to our lowering schema for constructing our
-	    String mapUrl = loweringMap.get(key);
-	    if (!mappingPrefix.isEmpty()) {
-		try {
-		    new URL(mapUrl);
-		} catch (MalformedURLException m) {
-		    mapUrl = mappingPrefix + "/" + mapUrl;    
-		}
-	    }
-	    URLConnection conn = new URL(mapUrl).openConnection();
-	    conn.setUseCaches(false);
-	    String lm = "";
-	    if (conn instanceof HttpURLConnection) {
-		lm = IOUtils.readFromConnection((HttpURLConnection)conn);
-	    } else {
-		lm = IOUtils.readFromConnection(conn);
-	    }
 	    // input
-	    // get the sparql
-	    String sparql = IOUtils.getSPARQLFromXML(lm);
-	    // get the lowering schema
-	    String lowering = IOUtils.getLoweringOrLiftingTemplateFromXML(lm);
-	    LoweringSchemaMapping lsm = new LoweringSchemaMapping();
-	    lsm.setSparqlQuery(sparql);
-	    lsm.setTemplate(lowering);
-	    lsm.setName(key);
-	    loweringMappings.add(lsm);
+	    loweringMappings.add(Daggoo4SadiCache.getInstance()
+		    .getLoweringMapping(resolveMapUrl(loweringMap.get(key)), key));
 	}
     }
 
@@ -165,33 +137,20 @@ public class Daggoo4SadiEngine {
 	Map<String, String> liftingMap = wsdlConfig.getPrimaryOutputFormats();
 	for (String key : liftingMap.keySet()) {
 	    // get our lifting schema
-	    String mapUrl = liftingMap.get(key);
-	    if (!mappingPrefix.isEmpty()) {
-		try {
-		    new URL(mapUrl);
-		} catch (MalformedURLException m) {
-		    mapUrl = mappingPrefix + "/" + mapUrl;    
-		}
-	    }
-	    URLConnection conn = new URL(mapUrl).openConnection();
-	    conn.setUseCaches(false);
-	    String lm = "";
-	    if (conn instanceof HttpURLConnection) {
-		lm = IOUtils.readFromConnection((HttpURLConnection)conn);
-	    } else {
-		lm = IOUtils.readFromConnection(conn);
+	    liftingMappings.add(Daggoo4SadiCache.getInstance()
+		    .getLiftingMapping(resolveMapUrl(liftingMap.get(key)), key));
+	}
+    }
+
+    private String resolveMapUrl(String mapUrl) {
+	if (!mappingPrefix.isEmpty()) {
+	    try {
+		new URL(mapUrl);
+	    } catch (MalformedURLException m) {
+		mapUrl = mappingPrefix + "/" + mapUrl;    
 	    }
-	    String lifting = IOUtils
-		    .getLoweringOrLiftingTemplateFromXML(new ByteArrayInputStream(
-			    lm.getBytes()));
-	    // get the mappings
-	    List<LiftingMap> mappings = IOUtils.getLiftingMappings(lm);
-	    LiftingSchemaMapping lsm = new LiftingSchemaMapping();
-	    lsm.setTemplate(lifting);// this processes inits the paths
-	    lsm.setLiftingMap(mappings);
-	    lsm.setName(key);
-	    liftingMappings.add(lsm);
 	}
+	return mapUrl;
     }
 
     public Model processRequest(String sadiInput) {
@@ -203,13 +162,12 @@ public class Daggoo4SadiEngine {
 	for (LoweringSchemaMapping l : loweringMappings) {
 	    // apply sparql query to our data
 	    serviceInputs = SparqlQueryEngine.executeSPARQL(sadiInput,
-		    l.getSparqlQuery());
+		    l.getQuery());
+	    Template template = l.getCompiledTemplate();
 	    for (String key : serviceInputs.keySet()) {
 		Map<String, String> soap_inputs = new HashMap<String, String>();
 		Map<String, SparqlResult> m = serviceInputs.get(key);
 		// map the sparql results to inputs for our SOAP service
-		VelocityEngine ve = new VelocityEngine();
-		ve.setProperty(Velocity.RUNTIME_LOG_LOGSYSTEM_CLASS, "org.apache.velocity.runtime.log.NullLogChute");
 		VelocityContext context = new VelocityContext();
 		StringWriter writer = new StringWriter();
 		// remove the entry from m and replace it with the parameter
@@ -226,12 +184,12 @@ public class Daggoo4SadiEngine {
 		context.put(SparqlQueryEngine.INPUT_NODE_URI_KEY, key);
 		try {
 		    // apply velocity tempalte
-		    ve.evaluate(context, writer, "", l.getTemplate());
-		    // save data in our map (to be passed later on to SOAP
-		    // service
-		    soap_inputs.put(l.getName(), writer.toString());
-		} catch (ParseErrorException e) {
-		    e.printStackTrace();
+		    if (template != null) {
+			template.merge(context, writer);
+			// save data in our map (to be passed later on to SOAP
+			// service
+			soap_inputs.put(l.getName(), writer.toString());
+		    }
 		} catch (MethodInvocationException e) {
 		    e.printStackTrace();
 		} catch (ResourceNotFoundException e) {
@@ -244,6 +202,7 @@ public class Daggoo4SadiEngine {
 	  // call SOAP service
 	  // store result in a list
 	ArrayList<ResultMap> resultList = new ArrayList<ResultMap>();
+	SoapServlet soap = new SoapServlet();
 
 	// foreach set of inputs
 	for (Map<String, String> inputs : soap_input_list) {
@@ -253,7 +212,6 @@ public class Daggoo4SadiEngine {
 	    soapInvocationMap.putAll(inputs);
 	    soapInvocationMap.remove(SparqlQueryEngine.INPUT_NODE_URI_KEY);
 	    // call our service
-	    SoapServlet soap = new SoapServlet();
 	    String serviceResult = soap.callService(soapInvocationMap, wsdlConfig.getSpecURL());
 	    // save our result
 	    resultList.add(new ResultMap(serviceResult, inputs));
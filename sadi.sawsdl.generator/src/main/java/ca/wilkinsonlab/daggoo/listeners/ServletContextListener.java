@@ -27,6 +27,7 @@ import org.apache.log4j.PropertyConfigurator;
 import org.xml.sax.SAXException;
 
 import ca.wilkinsonlab.daggoo.SAWSDLService;
+import ca.wilkinsonlab.daggoo.engine.Daggoo4SadiCache;
 import ca.wilkinsonlab.daggoo.utils.IOUtils;
 
 /**
@@ -266,6 +267,8 @@ public class ServletContextListener implements
 	    e.printStackTrace();
 	}
 	log.info(services);
+	// parse the WSDLs now rather than on the first request to each service
+	Daggoo4SadiCache.getInstance().warm(services.values());
     }
 
 }
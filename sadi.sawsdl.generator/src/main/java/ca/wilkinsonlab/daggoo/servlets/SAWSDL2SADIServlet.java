@@ -22,6 +22,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.velocity.app.Velocity;
 
 import ca.wilkinsonlab.daggoo.SAWSDLService;
+import ca.wilkinsonlab.daggoo.engine.Daggoo4SadiCache;
 import ca.wilkinsonlab.daggoo.engine.DaggooTask;
 import ca.wilkinsonlab.daggoo.listeners.ServletContextListener;
 import ca.wilkinsonlab.daggoo.utils.IOUtils;
@@ -274,7 +275,7 @@ public class SAWSDL2SADIServlet extends AsynchronousServiceServlet {
     	Model outputModel = createOutputModel();
     	WSDLConfig wsdl = null;
     	try {
-    		wsdl = new WSDLConfig(new File(s.getWsdlLocation()).toURI().toURL());
+    		wsdl = Daggoo4SadiCache.getInstance().getWSDLConfig(new File(s.getWsdlLocation()).toURI().toURL(), s.getName());
     	} catch (Exception e) {
     		outputErrorResponse(s.getResponse(), e);
     		if (inputModel != null)
@@ -283,7 +284,6 @@ public class SAWSDL2SADIServlet extends AsynchronousServiceServlet {
     			outputModel.close();
     		return;
     	}
-    	wsdl.setCurrentService(s.getName());
 
     	/* process each input batch in it's own task thread...*/
     	DaggooTask task = new DaggooTask(s, mappingPrefix, inputString);
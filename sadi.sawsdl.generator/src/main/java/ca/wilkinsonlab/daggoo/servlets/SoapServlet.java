@@ -1,6 +1,8 @@
 package ca.wilkinsonlab.daggoo.servlets;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.net.URL;
 import java.util.Enumeration;
@@ -17,7 +19,9 @@ import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.ws.Dispatch;
@@ -94,28 +98,104 @@ public class SoapServlet extends WrappingServlet {
 	}
     }
 
+    private static final TransformerFactory transformerFactory = TransformerFactory
+	    .newInstance();
+
+    // the indentation stylesheet, compiled once and shared by all threads
+    private static Templates indentationTemplates;
+
+    // Transformers aren't thread-safe, so each thread gets its own
+    private static final ThreadLocal<Transformer> indentingTransformers = new ThreadLocal<Transformer>();
+
+    private static final ThreadLocal<Transformer> copyingTransformers = new ThreadLocal<Transformer>();
+
     public void init() throws javax.servlet.ServletException {
 	super.init();
 
-	TransformerFactory transformerFactory = TransformerFactory
-		.newInstance();
 	try {
-	    URL u = getClass().getClassLoader().getResource(
-		    INDENTATION_XSL_RESOURCE);
-	    if (u != null) {
-		// for pretty copying of SOAP response XML
-		setResponseTransformer(transformerFactory
-			.newTransformer(new StreamSource(u.openStream())));
-	    } else {
-		// verbatim copy as backup plan
-		setResponseTransformer(transformerFactory.newTransformer());
-	    }
+	    setResponseTransformer(getIndentingTransformer());
 	} catch (Exception e) {
 	    logger.log(Level.SEVERE, "Could not create an XSLT transformer: "
 		    + e, e);
 	}
     }
 
+    // TransformerFactory isn't thread-safe either; its lock also guards
+    // indentationTemplates
+    private static Templates getIndentationTemplates()
+	    throws TransformerConfigurationException {
+	synchronized (transformerFactory) {
+	    if (indentationTemplates == null) {
+		URL u = SoapServlet.class.getClassLoader().getResource(
+			INDENTATION_XSL_RESOURCE);
+		if (u == null) {
+		    return null;
+		}
+		InputStream in = null;
+		try {
+		    in = u.openStream();
+		    indentationTemplates = transformerFactory
+			    .newTemplates(new StreamSource(in, u.toString()));
+		} catch (IOException e) {
+		    throw new TransformerConfigurationException(e);
+		} finally {
+		    if (in != null) {
+			try {
+			    in.close();
+			} catch (IOException e) {
+			    logger.log(Level.WARNING,
+				    "Could not close the indentation stylesheet: "
+					    + e, e);
+			}
+		    }
+		}
+	    }
+	    return indentationTemplates;
+	}
+    }
+
+    /**
+     * Returns this thread's transformer for pretty copying of SOAP response
+     * XML, or a verbatim copying transformer if the indentation stylesheet
+     * isn't available.
+     */
+    protected static Transformer getIndentingTransformer()
+	    throws TransformerConfigurationException {
+	Transformer transformer = indentingTransformers.get();
+	if (transformer == null) {
+	    Templates templates = getIndentationTemplates();
+	    if (templates != null) {
+		transformer = templates.newTransformer();
+	    } else {
+		// verbatim copy as backup plan
+		transformer = newCopyingTransformer();
+	    }
+	    indentingTransformers.set(transformer);
+	}
+	return transformer;
+    }
+
+    /**
+     * Returns this thread's transformer for verbatim copying of SOAP
+     * response XML.
+     */
+    protected static Transformer getCopyingTransformer()
+	    throws TransformerConfigurationException {
+	Transformer transformer = copyingTransformers.get();
+	if (transformer == null) {
+	    transformer = newCopyingTransformer();
+	    copyingTransformers.set(transformer);
+	}
+	return transformer;
+    }
+
+    private static Transformer newCopyingTransformer()
+	    throws TransformerConfigurationException {
+	synchronized (transformerFactory) {
+	    return transformerFactory.newTransformer();
+	}
+    }
+
     /**
      * Post is for service submission (if the wsdl URL is provided)
      */
@@ -338,12 +418,9 @@ public class SoapServlet extends WrappingServlet {
 	    // we can print easily
 	    ByteArrayOutputStream stringResult = new ByteArrayOutputStream();
 	    try {
-		Transformer responseTransformer = getResponseTransformer();
-		synchronized (responseTransformer) {
-		    responseTransformer.transform(resultSource,
-			    new javax.xml.transform.stream.StreamResult(
-				    stringResult));
-		}
+		getIndentingTransformer().transform(resultSource,
+			new javax.xml.transform.stream.StreamResult(
+				stringResult));
 	    } catch (Exception e) {
 		out.print("<html><head><title>Error</title>\n"
 			+ "<link type=\"text/css\" rel=\"stylesheet\" href=\"" + STYLESHEET + "\" />\n"
@@ -1795,13 +1872,6 @@ System.err.println(String.format("TODO handle extension properly ... %s", elemen
      */
     public String callService(HashMap<String, String> request, URL url) {
 
-	TransformerFactory transformerFactory = TransformerFactory.newInstance();
-        try {
-            setResponseTransformer(transformerFactory.newTransformer());
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "Could not create an XSLT transformer: "
-        	    + e, e);
-        }
 	String serviceSpec = request.remove(SERVICE_SPEC_PARAM);
 	if (serviceSpec == null || serviceSpec.trim().length() == 0) {
 	    logger.warning(
@@ -1934,12 +2004,9 @@ System.err.println(String.format("TODO handle extension properly ... %s", elemen
 	// we can print easily
 	ByteArrayOutputStream stringResult = new ByteArrayOutputStream();
 	try {
-	    Transformer responseTransformer = getResponseTransformer();
-	    synchronized (responseTransformer) {
-		responseTransformer.transform(resultSource,
-			new javax.xml.transform.stream.StreamResult(
-				stringResult));
-	    }
+	    getCopyingTransformer().transform(resultSource,
+		    new javax.xml.transform.stream.StreamResult(
+			    stringResult));
 	} catch (Exception e) {
 	    logger.severe(String.format("%s while transforming response from the service %s (probably an internal error):\n%s", e.getClass().getName(), serviceQName, e.getLocalizedMessage()));
 	    return null;
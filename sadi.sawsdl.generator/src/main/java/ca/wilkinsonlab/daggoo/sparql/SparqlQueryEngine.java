@@ -7,6 +7,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
+import com.hp.hpl.jena.query.Query;
 import com.hp.hpl.jena.query.QueryExecution;
 import com.hp.hpl.jena.query.QueryExecutionFactory;
 import com.hp.hpl.jena.query.QueryFactory;
@@ -23,6 +24,10 @@ public class SparqlQueryEngine {
     public static final String INPUT_NODE_URI_KEY = "inputNodeURI";
     
     public static Map<String, Map<String, SparqlResult>> executeSPARQL(String input, String queryString) {
+	return executeSPARQL(input, QueryFactory.create(queryString));
+    }
+
+    public static Map<String, Map<String, SparqlResult>> executeSPARQL(String input, Query query) {
 	// key => inputNodeURI
 	// value => Map<variable, sparqlresults>
 	Map<String, Map<String, SparqlResult>> resultMap = new HashMap<String, Map<String, SparqlResult>>();
@@ -30,7 +35,6 @@ public class SparqlQueryEngine {
 	// Create an empty in-memory model and populate it from the graph
 	Model model = ModelFactory.createMemModelMaker().createDefaultModel();
 	model.read(in,null); // null base URI, since model URIs are absolute
-	com.hp.hpl.jena.query.Query query = QueryFactory.create(queryString);
 	// Execute the query and obtain results
 	QueryExecution qe = QueryExecutionFactory.create(query, model);
 	ResultSet results = qe.execSelect();
@@ -73,9 +73,24 @@ public class WSDLConfig extends SADISpecWrapper {
     // note that the XPath above doesn't work, not sure why at the moment, so we
     // don't support WSDL2.0 yet...
 
-    private static XPath xPath;
-
-    private static DocumentBuilder docBuilder;
+    // XPath evaluators hold the namespace context of their document, and
+    // neither they nor DocumentBuilders are thread-safe, so each WSDLConfig
+    // has its own XPath and each thread its own DocumentBuilder
+    private final XPath xPath;
+
+    private static final ThreadLocal<DocumentBuilder> docBuilder = new ThreadLocal<DocumentBuilder>() {
+	@Override
+	protected DocumentBuilder initialValue() {
+	    DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+	    dbf.setNamespaceAware(true);
+	    try {
+		return dbf.newDocumentBuilder();
+	    } catch (Exception e) {
+		e.printStackTrace();
+		return null;
+	    }
+	}
+    };
 
     private Document wsdlDoc;
 
@@ -108,28 +123,6 @@ public class WSDLConfig extends SADISpecWrapper {
     private static Logger logger = Logger
 	    .getLogger(WSDLConfig.class.toString());
 
-    static {
-
-	DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-	dbf.setNamespaceAware(true);
-	try {
-	    docBuilder = dbf.newDocumentBuilder();
-	} catch (Exception e) {
-	    e.printStackTrace();
-	}
-
-	// Commented out generic factory due to Google App Engine bug
-	// XPathFactory xPathFactory = XPathFactory.newInstance();
-	XPathFactory xPathFactory = new org.apache.xpath.jaxp.XPathFactoryImpl();
-	try {
-	    xPath = xPathFactory.newXPath();
-	    // xPath.setNamespaceContext(new NamespaceContextImpl(new
-	    // HashMap<String, String>()));
-	} catch (Exception e) {
-	    e.printStackTrace();
-	}
-    }
-    
     public static void main(String[] args) throws Exception{
 	WSDLConfig w = new WSDLConfig(new URL("http://wso2.org/repos/wso2/people/jonathan/flickr.wsdl"));
 	System.out.println(w);
@@ -155,6 +148,10 @@ public class WSDLConfig extends SADISpecWrapper {
 	sadiServiceName2TargetNamespaceURI = new HashMap<String, String>();
 	sadiServiceName2SoapAddressLocation = new HashMap<String, URL>();
 
+	// Commented out generic factory due to Google App Engine bug
+	// XPathFactory xPathFactory = XPathFactory.newInstance();
+	XPathFactory xPathFactory = new org.apache.xpath.jaxp.XPathFactoryImpl();
+	xPath = xPathFactory.newXPath();
     }
 
     public WSDLConfig(URL url) throws Exception {
@@ -180,7 +177,7 @@ public class WSDLConfig extends SADISpecWrapper {
      * This procedure lets us blissfully ignore any non-Sadi SASWDL operations.
      */
     protected void parse(InputStream is) throws Exception {
-	wsdlDoc = docBuilder.parse(is);
+	wsdlDoc = docBuilder.get().parse(is);
 	xPath.setNamespaceContext(new CachedNamespaceContextImpl(wsdlDoc, false));
 	// put wsdl imports in-place as pertinent parts of the definition
 	// of the service maybe spread over multiple files.
@@ -782,10 +779,10 @@ public class WSDLConfig extends SADISpecWrapper {
 
 	    Document arrayDoc = null;
 	    if (((StreamSource) source).getInputStream() != null) {
-		arrayDoc = docBuilder.parse(((StreamSource) source)
+		arrayDoc = docBuilder.get().parse(((StreamSource) source)
 			.getInputStream());
 	    } else if (((StreamSource) source).getReader() != null) {
-		arrayDoc = docBuilder.parse(new org.xml.sax.InputSource(
+		arrayDoc = docBuilder.get().parse(new org.xml.sax.InputSource(
 			((StreamSource) source).getReader()));
 	    } else {
 		throw new Exception(
@@ -1427,7 +1424,7 @@ public class WSDLConfig extends SADISpecWrapper {
 			  // for us
 	    }
 	    URL importURL = new URL(baseURL, schemaLocation);
-	    Document importDoc = docBuilder.parse(importURL.openStream());
+	    Document importDoc = docBuilder.get().parse(importURL.openStream());
 	    // recurse as imports may have imports, etc.
 	    doImports(importDoc, importURL);
 	    // maybe we should have checked for circular references somehow?
@@ -1480,7 +1477,7 @@ public class WSDLConfig extends SADISpecWrapper {
 			      // informative for us anyway
 		}
 		URL inclURL = new URL(baseURL, schemaLocation);
-		Document inclDoc = docBuilder.parse(inclURL.openStream());
+		Document inclDoc = docBuilder.get().parse(inclURL.openStream());
 		// recurse as imports may have imports, etc.
 		doImports(inclDoc, inclURL);
 		// maybe we should have checked for circular references somehow?
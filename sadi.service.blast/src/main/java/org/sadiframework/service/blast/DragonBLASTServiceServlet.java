@@ -7,6 +7,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.http.HttpResponse;
+import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 import org.sadiframework.service.AsynchronousServiceServlet;
 import org.sadiframework.service.ServiceCall;
@@ -116,7 +117,12 @@ public class DragonBLASTServiceServlet extends AsynchronousServiceServlet
 			params.put("EXPECT", "10e-10");
 			params.put("ALIGNMENT_VIEW", "7");
 			HttpResponse response = HttpUtils.POST(new URL("http://antirrhinum.net/BLAST/blast.cgi"), params);
-			parser.parseBLAST(call.getOutputModel(), response.getEntity().getContent());
+			try {
+				parser.parseBLAST(call.getOutputModel(), response.getEntity().getContent());
+			} finally {
+				// release the connection back to the pool
+				EntityUtils.consume(response.getEntity());
+			}
 		} catch (Exception e) {
 			// TODO change the hierarchy so I can throw a real exception here...
 			log.error(e.toString(), e);
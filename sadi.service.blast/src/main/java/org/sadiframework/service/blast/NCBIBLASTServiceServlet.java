@@ -140,7 +140,11 @@ public class NCBIBLASTServiceServlet extends AsynchronousServiceServlet
 
 		try {
 			InputStream result = client.doBLAST("blastn", getDB(), buildQuery(call.getInputNodes()));
-			parser.parseBLAST(call.getOutputModel(), result);
+			try {
+				parser.parseBLAST(call.getOutputModel(), result);
+			} finally {
+				result.close();
+			}
 		} catch(Exception e) {
 			throw new RuntimeException(e);
 		}
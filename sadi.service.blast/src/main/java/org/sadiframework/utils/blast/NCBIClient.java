@@ -7,7 +7,9 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 import org.sadiframework.utils.http.HttpUtils;
 
@@ -29,6 +31,10 @@ public abstract class NCBIClient
 		return params;
 	}
 	
+	/**
+	 * Returns the content of the response; the caller must close it
+	 * to release the connection.
+	 */
 	protected static synchronized InputStream makeRequest(String method, String url, String... params)
 	throws IOException
 	{
@@ -47,6 +53,15 @@ public abstract class NCBIClient
 		HttpResponse response = method.equalsIgnoreCase("POST") ?
 				HttpUtils.POST(new URL(url), params(params)) :
 				HttpUtils.GET(new URL(url), params(params));
-		return response.getEntity().getContent();
+		HttpEntity entity = response.getEntity();
+		try {
+			return entity.getContent();
+		} catch (IOException e) {
+			EntityUtils.consume(entity);
+			throw e;
+		} catch (RuntimeException e) {
+			EntityUtils.consume(entity);
+			throw e;
+		}
 	}
 }
\ No newline at end of file
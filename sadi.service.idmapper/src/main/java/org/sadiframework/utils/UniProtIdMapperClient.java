@@ -14,6 +14,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.http.Header;
 import org.apache.http.HttpException;
 import org.apache.http.HttpResponse;
+import org.apache.http.util.EntityUtils;
 
 import org.sadiframework.utils.http.HttpUtils;
 
@@ -52,39 +53,49 @@ public class UniProtIdMapperClient {
 
 		// 302 redirect to result URL
 
-		int statusCode = response.getStatusLine().getStatusCode();
-		if (statusCode != 302)
-			throw new RuntimeException(String.format("unexpected response from UniProt ID mapping service: %s", response.getStatusLine()));
-		Header locationHeader = response.getFirstHeader("Location");
-		if (locationHeader == null)
-			throw new RuntimeException(new HttpException("no Location header in HTTP 302 redirect!"));
-		URL url = new URL(locationHeader.getValue());
+		URL url;
+		try {
+			int statusCode = response.getStatusLine().getStatusCode();
+			if (statusCode != 302)
+				throw new RuntimeException(String.format("unexpected response from UniProt ID mapping service: %s", response.getStatusLine()));
+			Header locationHeader = response.getFirstHeader("Location");
+			if (locationHeader == null)
+				throw new RuntimeException(new HttpException("no Location header in HTTP 302 redirect!"));
+			url = new URL(locationHeader.getValue());
+		} finally {
+			// release the connection back to the pool
+			EntityUtils.consume(response.getEntity());
+		}
 		log.info(String.format("retrieving result from %s", url));
 		response = HttpUtils.GET(url);
-		statusCode = response.getStatusLine().getStatusCode();
-		if (HttpUtils.isHttpError(statusCode) || statusCode != 200)
-			throw new RuntimeException(String.format("unexpected response from UniProt ID mapping service: %s", response.getStatusLine()));
+		try {
+			int statusCode = response.getStatusLine().getStatusCode();
+			if (HttpUtils.isHttpError(statusCode) || statusCode != 200)
+				throw new RuntimeException(String.format("unexpected response from UniProt ID mapping service: %s", response.getStatusLine()));
 
-		// parse result document (tab-separated table with 2 cols)
+			// parse result document (tab-separated table with 2 cols)
 
-		log.info("parsing response");
-		Header encodingHeader = response.getEntity().getContentEncoding();
-		String encoding = (encodingHeader == null) ? "ISO-8859-1" : encodingHeader.getValue();
-		BufferedReader mapping = new BufferedReader(new InputStreamReader(response.getEntity().getContent(), encoding));
-		String line;
-		boolean seenHeaderLine = false;
-		while ((line = mapping.readLine()) != null) {
-			line = line.trim();
-			if (line.isEmpty()) // skip blank lines
-				continue;
-			String cols[] = StringUtils.split(line);
-			if (cols.length != 2)
-				throw new RuntimeException(String.format("error parsing output from UniProt ID mapping service, line does not have 2 columns!: %s", line));
-			if (!seenHeaderLine) {
-				seenHeaderLine = true;
-				continue;
+			log.info("parsing response");
+			Header encodingHeader = response.getEntity().getContentEncoding();
+			String encoding = (encodingHeader == null) ? "ISO-8859-1" : encodingHeader.getValue();
+			BufferedReader mapping = new BufferedReader(new InputStreamReader(response.getEntity().getContent(), encoding));
+			String line;
+			boolean seenHeaderLine = false;
+			while ((line = mapping.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty()) // skip blank lines
+					continue;
+				String cols[] = StringUtils.split(line);
+				if (cols.length != 2)
+					throw new RuntimeException(String.format("error parsing output from UniProt ID mapping service, line does not have 2 columns!: %s", line));
+				if (!seenHeaderLine) {
+					seenHeaderLine = true;
+					continue;
+				}
+				mappings.put(cols[0], cols[1]);
 			}
-			mappings.put(cols[0], cols[1]);
+		} finally {
+			EntityUtils.consume(response.getEntity());
 		}
 
 		return mappings;
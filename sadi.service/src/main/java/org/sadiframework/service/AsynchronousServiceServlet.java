@@ -13,6 +13,8 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.log4j.Logger;
 import org.sadiframework.tasks.Task;
 import org.sadiframework.tasks.TaskManager;
+import org.sadiframework.tasks.TaskRejectedException;
+import org.sadiframework.tasks.TaskStore;
 import org.sadiframework.vocab.SADI;
 
 import ca.elmonline.util.BatchIterator;
@@ -55,11 +57,18 @@ public abstract class AsynchronousServiceServlet extends ServiceServlet
 			
 			InputProcessingTask task = (InputProcessingTask)TaskManager.getInstance().getTask(taskId);
 			if (task == null) {
-				outputErrorResponse(response, new Exception(String.format("no such task ID %s", taskId)));
+				/* the task may have finished before a restart, in which case
+				 * its output might still be in the task store...
+				 */
+				if (!outputStoredResponse(response, taskId))
+					outputErrorResponse(response, new Exception(String.format("no such task ID %s", taskId)));
 			} else if (task.isFinished()) {
 				Throwable error = task.getError();
 				if (error != null) {
 					outputErrorResponse(response, error);
+				} else if (task.isStored()) {
+					if (!outputStoredResponse(response, taskId))
+						outputErrorResponse(response, new Exception(String.format("output of task ID %s is no longer available", taskId)));
 				} else {
 					super.outputSuccessResponse(response, task.getOutputModel());
 					TaskManager.getInstance().disposeTask(taskId);
@@ -84,6 +93,28 @@ public abstract class AsynchronousServiceServlet extends ServiceServlet
 		super.outputSuccessResponse(response, outputModel);
 	}
 
+	/* output the result of a task from the task store and dispose of the
+	 * task; returns false if there is no stored output for the task...
+	 */
+	private boolean outputStoredResponse(HttpServletResponse response, String taskId) throws IOException
+	{
+		TaskStore store = TaskManager.getInstance().getTaskStore();
+		if (store == null)
+			return false;
+
+		Model outputModel = store.getOutput(taskId);
+		if (outputModel == null)
+			return false;
+
+		try {
+			super.outputSuccessResponse(response, outputModel);
+		} finally {
+			outputModel.close();
+		}
+		TaskManager.getInstance().disposeTask(taskId);
+		return true;
+	}
+
 	private void outputInterimResponse(HttpServletResponse response, String redirectUrl, long waitTime) throws IOException
 	{
 		/* according to spec, "response SHOULD contain a short hypertext note with a hyperlink to the new URI(s)",
@@ -104,6 +135,7 @@ public abstract class AsynchronousServiceServlet extends ServiceServlet
 	@Override
 	protected void processInput(ServiceCall call)
 	{
+		Collection<String> startedTaskIds = new ArrayList<String>();
 		for (Iterator<Collection<Resource>> batches = getInputBatches(call); batches.hasNext(); ) {
 			Collection<Resource> batch = batches.next();
 			
@@ -132,7 +164,18 @@ public abstract class AsynchronousServiceServlet extends ServiceServlet
 			batchCall.setOutputModel(createOutputModel());
 			batchCall.setParameters(parameters);
 			InputProcessingTask task = getInputProcessingTask(batchCall);
-			TaskManager.getInstance().startTask(task);
+			try {
+				TaskManager.getInstance().startTask(task);
+			} catch (TaskRejectedException e) {
+				/* the client won't get the poll URLs of the batches we've
+				 * already started, so there's no point finishing them...
+				 */
+				task.dispose();
+				for (String taskId: startedTaskIds)
+					TaskManager.getInstance().cancelTask(taskId);
+				throw e;
+			}
+			startedTaskIds.add(task.getId());
 			
 			/* add the poll location data to the output that will be returned immediately...
 			 */
@@ -235,23 +278,61 @@ public abstract class AsynchronousServiceServlet extends ServiceServlet
 	protected class InputProcessingTask extends Task
 	{
 		protected ServiceCall call;
+		protected boolean stored;
 		
 		public InputProcessingTask(ServiceCall call)
 		{
 			this.call = call;
+			this.stored = false;
 		}
 
 		public void dispose()
 		{
 			call.getInputNodes().clear();
-			closeInputModel(call.getInputModel());
-			closeOutputModel(call.getOutputModel());
+			if (!stored) {
+				closeInputModel(call.getInputModel());
+				closeOutputModel(call.getOutputModel());
+			}
 		}
 		
 		public Model getOutputModel()
 		{
 			return call.getOutputModel();
 		}
+		
+		/**
+		 * Returns true if the output of this task has been moved to the
+		 * task store, in which case {@link #getOutputModel()} is no longer
+		 * valid.
+		 * @return true if the output of this task is in the task store
+		 */
+		public boolean isStored()
+		{
+			return stored;
+		}
+		
+		/**
+		 * Move the output of this task to the task store, if one is
+		 * configured, so that it survives a restart and doesn't occupy the
+		 * heap while it waits to be polled.
+		 */
+		protected void storeOutput()
+		{
+			TaskStore store = TaskManager.getInstance().getTaskStore();
+			if (store == null)
+				return;
+			
+			try {
+				store.putOutput(getId(), call.getOutputModel());
+			} catch (IOException e) {
+				log.warn(String.format("failed to store output of task %s; keeping it in memory", getId()), e);
+				return;
+			}
+			stored = true;
+			call.getInputNodes().clear();
+			closeInputModel(call.getInputModel());
+			closeOutputModel(call.getOutputModel());
+		}
 
 		/* (non-Javadoc)
 		 * @see java.lang.Runnable#run()
@@ -261,6 +342,7 @@ public abstract class AsynchronousServiceServlet extends ServiceServlet
 		{
 			try {
 				processInputBatch(call);
+				storeOutput();
 				success();
 			} catch (Exception e) {
 				fatalError(e);
@@ -44,6 +44,7 @@ import org.sadiframework.service.annotations.URI;
 import org.sadiframework.service.ontology.AbstractServiceOntologyHelper;
 import org.sadiframework.service.ontology.MyGridServiceOntologyHelper;
 import org.sadiframework.service.ontology.ServiceOntologyHelper;
+import org.sadiframework.tasks.TaskRejectedException;
 import org.sadiframework.utils.ContentType;
 import org.sadiframework.utils.QueryableErrorHandler;
 import org.sadiframework.utils.RdfUtils;
@@ -320,8 +321,22 @@ public abstract class ServiceServlet extends HttpServlet
 	
 	protected void outputErrorResponse(HttpServletResponse response, Throwable error) throws IOException
 	{
-		log.error("error during service call", error);
+		/* the service is too busy to accept this request right now; ask the
+		 * client to try again later...
+		 */
+		if (error instanceof TaskRejectedException) {
+			log.warn(String.format("refusing service call: %s", error.getMessage()));
+			response.setHeader("Retry-After", String.valueOf(((TaskRejectedException)error).getRetryAfter()));
+			outputErrorResponse(response, error, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			return;
+		}
 		
+		log.error("error during service call", error);
+		outputErrorResponse(response, error, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+	}
+	
+	private void outputErrorResponse(HttpServletResponse response, Throwable error, int status) throws IOException
+	{
 		/* we can't just write to the response because Jena calls flush() on
 		 * the writer or stream, which commits the response...
 		 */
@@ -329,7 +344,7 @@ public abstract class ServiceServlet extends HttpServlet
 		Model errorModel = ModelFactory.createDefaultModel();
 		errorModel.add(errorModel.createResource(), SADI.error, error.toString());
 		
-		response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		response.setStatus(status);
 		ContentType contentType = ContentType.getContentType(response.getContentType());
 		contentType.writeModel(errorModel, response.getWriter(), "");
 	}
@@ -1,17 +1,110 @@
 package org.sadiframework.service;
 
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.sadiframework.service.annotations.ParallelInputs;
+import org.sadiframework.service.annotations.StreamingWindowSize;
+import org.sadiframework.utils.ContentType;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.n3.turtle.TurtleEventHandler;
+import com.hp.hpl.jena.n3.turtle.TurtleParseException;
+import com.hp.hpl.jena.n3.turtle.parser.ParseException;
+import com.hp.hpl.jena.n3.turtle.parser.TokenMgrError;
+import com.hp.hpl.jena.n3.turtle.parser.TurtleParser;
+import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.Resource;
 import com.hp.hpl.jena.vocabulary.OWL;
 import com.hp.hpl.jena.vocabulary.RDF;
 
 /**
  * This is the base class extended by synchronous SADI services.
+ *
+ * Services whose input instances can be processed independently of each
+ * other can opt in to streaming by specifying a window size (see
+ * {@link #getStreamingWindowSize()}). Streaming services read N-Triples or
+ * Turtle input incrementally and process it a window of input instances at
+ * a time, writing the output of each window to the response as N-Triples
+ * (which is also valid Turtle and N3) before reading the next, so that
+ * memory use depends on the window size rather than the size of the
+ * request. Input is only split between subjects, so the description of
+ * each input instance (including any blank nodes it refers to) must be
+ * contiguous in the request. Requests in other formats, requests for
+ * RDF/XML output and services with a parameter class are not streamed.
+ *
+ * Services whose input instances are independent can also have them
+ * processed concurrently (see {@link #getParallelInputThreads()}).
  * @author Luke McCarthy
  */
 public abstract class SynchronousServiceServlet extends ServiceServlet
 {
+	private static final Logger log = Logger.getLogger(SynchronousServiceServlet.class);
 	private static final long serialVersionUID = 1L;
 	
+	/* N-Triples is a subset of Turtle and N3, so we can write it no matter
+	 * which of the streamable content types was requested...
+	 */
+	private static final String STREAMING_OUTPUT_LANGUAGE = "N-TRIPLE";
+	
+	protected static final String MAX_PARALLEL_INPUT_THREADS_CONFIG_KEY = "sadi.service.parallelInputs.maxThreads";
+	
+	/* shared by all synchronous services; the number of threads working on
+	 * a single request is limited by getParallelInputThreads(), and when
+	 * every pool thread is busy a slice runs on the request thread...
+	 */
+	private static final ExecutorService inputExecutor = new ThreadPoolExecutor(
+			0, Config.getConfiguration().getInt(MAX_PARALLEL_INPUT_THREADS_CONFIG_KEY, 4 * Runtime.getRuntime().availableProcessors()),
+			60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+			new InputThreadFactory(), new ThreadPoolExecutor.CallerRunsPolicy());
+	
+	/* (non-Javadoc)
+	 * @see org.sadiframework.service.ServiceServlet#doPost(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+	 */
+	@Override
+	public void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+	{
+		ContentType inputType = ContentType.getContentType(request.getContentType());
+		ContentType outputType = getContentType(request);
+		if (getStreamingWindowSize() <= 0 || parameterClass != null ||
+				!isStreamable(inputType) || !isStreamable(outputType)) {
+			super.doPost(request, response);
+			return;
+		}
+	
+		response.setContentType(outputType.getHTTPHeader());
+		try {
+			processStreamingInput(new InputStreamReader(request.getInputStream(), "UTF-8"), response.getWriter());
+		} catch (Exception e) {
+			/* if some output has already been flushed, the error status
+			 * won't make it to the client, but the error message will...
+			 */
+			outputErrorResponse(response, e);
+		}
+	}
+	
 	/* (non-Javadoc)
 	 * @see org.sadiframework.service.ServiceServlet#processInput(org.sadiframework.service.ServiceCall)
 	 */
@@ -20,13 +113,7 @@ public abstract class SynchronousServiceServlet extends ServiceServlet
 	{
 		Resource parameters = call.getParameters();
 		boolean needsParameters = !parameters.hasProperty(RDF.type, OWL.Nothing);
-		for (Resource inputNode: call.getInputNodes()) {
-			Resource outputNode = call.getOutputModel().getResource(inputNode.getURI());
-			if (needsParameters)
-				processInput(inputNode, outputNode, parameters);
-			else
-				processInput(inputNode, outputNode);
-		}
+		processInputs(call.getInputNodes(), call.getOutputModel(), needsParameters ? parameters : null);
 	}
 	
 	/**
@@ -49,4 +136,359 @@ public abstract class SynchronousServiceServlet extends ServiceServlet
 	public void processInput(Resource input, Resource output, Resource parameters) throws Exception
 	{
 	}
+	
+	/**
+	 * Returns the number of threads that will process input instances
+	 * concurrently.
+	 * If -1 is returned, input instances will be processed one at a time
+	 * on the request thread.
+	 * Services that return a number greater than one must be prepared for
+	 * processInput to be called from several threads at once; each thread
+	 * reads from the shared input model and writes to its own output model.
+	 * @return the number of threads, or -1
+	 */
+	public int getParallelInputThreads()
+	{
+		ParallelInputs annotation = getClass().getAnnotation(ParallelInputs.class);
+		if (annotation == null) {
+			return -1;
+		} else if (annotation.threads() > 0) {
+			return annotation.threads();
+		} else {
+			return Runtime.getRuntime().availableProcessors();
+		}
+	}
+	
+	/**
+	 * Returns the number of input instances processed at a time when the
+	 * service streams its input and output.
+	 * If -1 is returned, the input will not be streamed.
+	 * @return the streaming window size, or -1
+	 */
+	public int getStreamingWindowSize()
+	{
+		StreamingWindowSize annotation = getClass().getAnnotation(StreamingWindowSize.class);
+		if (annotation != null) {
+			return annotation.value();
+		} else {
+			return -1;
+		}
+	}
+	
+	/**
+	 * Read Turtle (or N-Triples) input from the specified reader and write
+	 * N-Triples output to the specified writer, processing a window of
+	 * input instances at a time.
+	 * @param in the input
+	 * @param out the output
+	 * @throws Exception if there is an error reading or processing the input
+	 */
+	protected void processStreamingInput(Reader in, Writer out) throws Exception
+	{
+		StreamingWindow window = new StreamingWindow(out);
+		TurtleParser parser = new TurtleParser(in);
+		parser.setEventHandler(window);
+		parser.setBaseURI("");
+		try {
+			parser.parse();
+		} catch (ParseException e) {
+			throw new TurtleParseException(e.getMessage());
+		} catch (TokenMgrError e) {
+			throw new TurtleParseException(e.getMessage());
+		} catch (StreamingException e) {
+			throw e.getCause();
+		}
+		window.flush();
+	}
+	
+	/* process each input node, attaching properties to the output node
+	 * with the same URI in the output model...
+	 */
+	private void processInputs(Collection<Resource> inputNodes, Model outputModel, Resource parameters) throws Exception
+	{
+		int threads = Math.min(getParallelInputThreads(), inputNodes.size());
+		if (threads > 1) {
+			processInputsInParallel(new ArrayList<Resource>(inputNodes), outputModel, parameters, threads);
+		} else {
+			for (Resource inputNode: inputNodes)
+				processInput(inputNode, outputModel, parameters);
+		}
+	}
+	
+	private void processInput(Resource inputNode, Model outputModel, Resource parameters) throws Exception
+	{
+		Resource outputNode = outputModel.getResource(inputNode.getURI());
+		if (parameters != null)
+			processInput(inputNode, outputNode, parameters);
+		else
+			processInput(inputNode, outputNode);
+	}
+	
+	/* Jena models aren't safe for concurrent writes, so the input nodes are
+	 * split into one slice per thread, each slice writes into its own output
+	 * model, and those are merged into the real output model at the end...
+	 */
+	private void processInputsInParallel(List<Resource> inputNodes, Model outputModel, Resource parameters, int threads) throws Exception
+	{
+		log.debug(String.format("processing %d input instances on %d threads", inputNodes.size(), threads));
+		List<InputSlice> slices = new ArrayList<InputSlice>(threads);
+		List<Future<Model>> futures = new ArrayList<Future<Model>>(threads);
+		int merged = 0;
+		try {
+			for (int i = 0; i < threads; ++i) {
+				InputSlice slice = new InputSlice(inputNodes.subList(i * inputNodes.size() / threads, (i + 1) * inputNodes.size() / threads), createOutputModel(), parameters);
+				slices.add(slice);
+				futures.add(inputExecutor.submit(slice));
+			}
+			while (merged < futures.size()) {
+				Model sliceOutputModel = futures.get(merged).get();
+				try {
+					outputModel.add(sliceOutputModel);
+				} finally {
+					++merged;
+					closeOutputModel(sliceOutputModel);
+				}
+			}
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception)
+				throw (Exception)cause;
+			else if (cause instanceof Error)
+				throw (Error)cause;
+			else
+				throw e;
+		} finally {
+			/* if a slice failed, stop the others and close the output
+			 * models that won't be merged...
+			 */
+			for (int i = merged; i < slices.size(); ++i) {
+				if (i < futures.size())
+					futures.get(i).cancel(true);
+				slices.get(i).abandon();
+			}
+		}
+	}
+	
+	private static boolean isStreamable(ContentType contentType)
+	{
+		return contentType != null &&
+			(contentType.equals(ContentType.N_TRIPLES) || contentType.getJenaLanguage().equals("N3"));
+	}
+	
+	/* collects triples from the parser until it has a full window of input
+	 * instances, then processes them and writes the output...
+	 */
+	private class StreamingWindow implements TurtleEventHandler
+	{
+		private final Writer out;
+		private final int windowSize;
+		private final Node typeNode;
+		private final Node inputClassNode;
+	
+		private Model inputModel;
+		private int inputCount;
+	
+		/* the triples of the current subject are held back until the
+		 * subject changes, so that the window is only ever cut in front of
+		 * a subject that is a new input instance; anything else, such as a
+		 * URI node that describes the previous input, stays with it...
+		 */
+		private Node blockSubject;
+		private List<Triple> block;
+		private boolean blockIsInput;
+	
+		/* the window can only be cut when every blank node that appears as
+		 * a subject has been attached to something; the Turtle parser emits
+		 * the contents of nested blank nodes and collections before the
+		 * triple that refers to them...
+		 */
+		private Set<Node> referencedBlankNodes;
+		private Set<Node> danglingBlankNodes;
+	
+		public StreamingWindow(Writer out)
+		{
+			this.out = out;
+			windowSize = getStreamingWindowSize();
+			typeNode = RDF.type.asNode();
+			inputClassNode = getInputClass().asNode();
+			referencedBlankNodes = new HashSet<Node>();
+			danglingBlankNodes = new HashSet<Node>();
+		}
+	
+		public void triple(int line, int col, Triple triple)
+		{
+			Node subject = triple.getSubject();
+			if (block != null && !subject.equals(blockSubject)) {
+				try {
+					endBlock();
+				} catch (Exception e) {
+					throw new StreamingException(e);
+				}
+			}
+	
+			if (block == null) {
+				blockSubject = subject;
+				block = new ArrayList<Triple>();
+				blockIsInput = false;
+			}
+			block.add(triple);
+			if (triple.getPredicate().equals(typeNode) && triple.getObject().equals(inputClassNode))
+				blockIsInput = true;
+		}
+	
+		/* add the held-back triples to the window, first processing the
+		 * window if it's full and they start a new input instance...
+		 */
+		private void endBlock() throws Exception
+		{
+			if (block == null)
+				return;
+	
+			boolean newInput = blockIsInput &&
+				(inputModel == null || !inputModel.getGraph().contains(blockSubject, typeNode, inputClassNode));
+			if (newInput && inputCount >= windowSize && danglingBlankNodes.isEmpty())
+				processWindow();
+	
+			if (inputModel == null)
+				inputModel = createInputModel();
+			for (Triple triple: block) {
+				inputModel.getGraph().add(triple);
+				Node subject = triple.getSubject();
+				if (subject.isBlank() && !referencedBlankNodes.contains(subject))
+					danglingBlankNodes.add(subject);
+				Node object = triple.getObject();
+				if (object.isBlank()) {
+					referencedBlankNodes.add(object);
+					danglingBlankNodes.remove(object);
+				}
+			}
+			if (newInput)
+				++inputCount;
+	
+			block = null;
+			blockSubject = null;
+		}
+	
+		public void prefix(int line, int col, String prefix, String iri)
+		{
+			// prefixes are resolved by the parser and the output is N-Triples...
+		}
+	
+		public void startFormula(int line, int col)
+		{
+		}
+	
+		public void endFormula(int line, int col)
+		{
+		}
+	
+		public void flush() throws Exception
+		{
+			endBlock();
+			processWindow();
+		}
+	
+		private void processWindow() throws Exception
+		{
+			if (inputModel == null)
+				return;
+	
+			log.debug(String.format("processing window of %d input instances", inputCount));
+			Model outputModel = null;
+			try {
+				outputModel = prepareOutputModel(inputModel);
+				processInputs(inputModel.listResourcesWithProperty(RDF.type, getInputClass()).toList(), outputModel, null);
+				outputModel.write(out, STREAMING_OUTPUT_LANGUAGE);
+				out.flush();
+			} finally {
+				closeInputModel(inputModel);
+				if (outputModel != null)
+					closeOutputModel(outputModel);
+				inputModel = null;
+				inputCount = 0;
+				referencedBlankNodes.clear();
+				danglingBlankNodes.clear();
+			}
+		}
+	}
+	
+	private class InputSlice implements Callable<Model>
+	{
+		private final List<Resource> inputNodes;
+		private final Model outputModel;
+		private final Resource parameters;
+		private boolean started;
+		private boolean finished;
+		private boolean abandoned;
+		
+		public InputSlice(List<Resource> inputNodes, Model outputModel, Resource parameters)
+		{
+			this.inputNodes = inputNodes;
+			this.outputModel = outputModel;
+			this.parameters = parameters;
+		}
+		
+		public Model call() throws Exception
+		{
+			synchronized (this) {
+				if (abandoned)
+					return null;
+				started = true;
+			}
+			try {
+				for (Resource inputNode: inputNodes)
+					processInput(inputNode, outputModel, parameters);
+				return outputModel;
+			} finally {
+				synchronized (this) {
+					finished = true;
+					if (abandoned)
+						closeOutputModel(outputModel);
+				}
+			}
+		}
+		
+		/* the output of this slice won't be merged; close its output model
+		 * now, or when the slice finishes if it is still running...
+		 */
+		public synchronized void abandon()
+		{
+			if (abandoned)
+				return;
+			abandoned = true;
+			if (!started || finished)
+				closeOutputModel(outputModel);
+		}
+	}
+	
+	private static class InputThreadFactory implements ThreadFactory
+	{
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+		
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, String.format("%s-%d", SynchronousServiceServlet.class.getSimpleName(), threadNumber.getAndIncrement()));
+			t.setDaemon(true);
+			return t;
+		}
+	}
+	
+	/* carries an exception thrown while processing a window out through
+	 * the parser...
+	 */
+	private static class StreamingException extends RuntimeException
+	{
+		private static final long serialVersionUID = 1L;
+	
+		public StreamingException(Exception cause)
+		{
+			super(cause);
+		}
+	
+		@Override
+		public Exception getCause()
+		{
+			return (Exception)super.getCause();
+		}
+	}
 }
@@ -0,0 +1,14 @@
+package org.sadiframework.service.annotations;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Annotation indicating that a synchronous service can process its input
+ * instances concurrently.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ParallelInputs
+{
+	int threads() default 0; // so just @ParallelInputs means one per processor
+}
@@ -0,0 +1,14 @@
+package org.sadiframework.service.annotations;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Annotation holding the number of input instances a synchronous service
+ * processes at a time when it streams its input and output.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+public @interface StreamingWindowSize
+{
+	int value();
+}
@@ -0,0 +1,154 @@
+package org.sadiframework.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sadiframework.service.annotations.InputClass;
+import org.sadiframework.service.annotations.OutputClass;
+import org.sadiframework.service.annotations.ParallelInputs;
+import org.sadiframework.service.annotations.StreamingWindowSize;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+import com.hp.hpl.jena.vocabulary.OWL;
+import com.hp.hpl.jena.vocabulary.RDF;
+
+public class SynchronousServiceServletTest
+{
+	private static final String NS = "http://sadiframework.org/examples/streaming.owl#";
+	private static final Resource INPUT_CLASS = ResourceFactory.createResource(NS + "Input");
+	private static final Resource OUTPUT_CLASS = ResourceFactory.createResource(NS + "Output");
+	private static final Property NAME = ResourceFactory.createProperty(NS + "name");
+	private static final Property VALUE = ResourceFactory.createProperty(NS + "value");
+	private static final Property GREETING = ResourceFactory.createProperty(NS + "greeting");
+
+	private StreamingServiceServlet servlet;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		servlet = new StreamingServiceServlet();
+		servlet.init();
+	}
+
+	@Test
+	public void testStreamingWindows() throws Exception
+	{
+		String input =
+			"@prefix ex: <" + NS + "> .\n" +
+			"<" + NS + "a> a ex:Input ; ex:name [ ex:value \"a\" ] .\n" +
+			"<" + NS + "b> a ex:Input ; ex:name [ ex:value \"b\" ] .\n" +
+			"<" + NS + "c> a ex:Input ; ex:name [ ex:value \"c\" ] .\n" +
+			"<" + NS + "d> a ex:Input ; ex:name _:d .\n" +
+			"_:d ex:value \"d\" .\n" +
+			"<" + NS + "e> a ex:Input ; ex:name [ ex:value \"e\" ] .\n";
+		StringWriter output = new StringWriter();
+		servlet.processStreamingInput(new StringReader(input), output);
+
+		Model outputModel = ModelFactory.createDefaultModel();
+		outputModel.read(new StringReader(output.toString()), "", "N-TRIPLE");
+		for (String name: new String[]{ "a", "b", "c", "d", "e" }) {
+			Resource outputNode = outputModel.getResource(NS + name);
+			assertTrue(String.format("missing output for %s", name), outputNode.hasProperty(RDF.type, OUTPUT_CLASS));
+			assertTrue(String.format("wrong output for %s", name), outputNode.hasProperty(GREETING, "hello, " + name));
+		}
+		assertEquals("wrong number of windows", 3, servlet.windowSizes.size());
+		for (int windowSize: servlet.windowSizes)
+			assertTrue("window larger than window size", windowSize <= 2);
+	}
+
+	@Test
+	public void testStreamingWindowsWithNamedNodes() throws Exception
+	{
+		/* the named nodes follow the input that refers to them, so the
+		 * window must not be cut in front of them...
+		 */
+		StringBuilder input = new StringBuilder("@prefix ex: <" + NS + "> .\n");
+		for (String name: new String[]{ "a", "b", "c", "d", "e" }) {
+			input.append("<" + NS + name + "> a ex:Input ; ex:name <" + NS + name + "-name> .\n");
+			input.append("<" + NS + name + "-name> ex:value \"" + name + "\" .\n");
+		}
+		StringWriter output = new StringWriter();
+		servlet.processStreamingInput(new StringReader(input.toString()), output);
+
+		Model outputModel = ModelFactory.createDefaultModel();
+		outputModel.read(new StringReader(output.toString()), "", "N-TRIPLE");
+		for (String name: new String[]{ "a", "b", "c", "d", "e" })
+			assertTrue(String.format("wrong output for %s", name), outputModel.getResource(NS + name).hasProperty(GREETING, "hello, " + name));
+		assertEquals("wrong number of windows", 3, servlet.windowSizes.size());
+	}
+
+		@Test
+	public void testParallelInputs() throws Exception
+	{
+		ParallelServiceServlet servlet = new ParallelServiceServlet();
+		servlet.init();
+
+		Model inputModel = ModelFactory.createDefaultModel();
+		for (int i = 0; i < 20; ++i)
+			inputModel.createResource(NS + i, INPUT_CLASS).addProperty(NAME, inputModel.createResource().addProperty(VALUE, String.valueOf(i)));
+		ServiceCall call = new ServiceCall();
+		call.setInputModel(inputModel);
+		call.setInputNodes(inputModel.listResourcesWithProperty(RDF.type, INPUT_CLASS).toList());
+		call.setOutputModel(servlet.prepareOutputModel(inputModel));
+		call.setParameters(inputModel.createResource(OWL.Nothing));
+		servlet.processInput(call);
+
+		for (int i = 0; i < 20; ++i)
+			assertTrue(String.format("wrong output for %d", i), call.getOutputModel().getResource(NS + i).hasProperty(GREETING, "hello, " + i));
+		assertTrue("input was not processed in parallel", servlet.threads.size() > 1);
+	}
+
+	@InputClass(NS + "Input")
+	@OutputClass(NS + "Output")
+	@ParallelInputs(threads = 4)
+	private static class ParallelServiceServlet extends SynchronousServiceServlet
+	{
+		private static final long serialVersionUID = 1L;
+
+		Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+
+		@Override
+		public void processInput(Resource input, Resource output) throws Exception
+		{
+			threads.add(Thread.currentThread());
+			String name = input.getRequiredProperty(NAME).getResource().getRequiredProperty(VALUE).getString();
+			output.addProperty(GREETING, "hello, " + name);
+		}
+	}
+
+	@InputClass(NS + "Input")
+	@OutputClass(NS + "Output")
+	@StreamingWindowSize(2)
+	private static class StreamingServiceServlet extends SynchronousServiceServlet
+	{
+		private static final long serialVersionUID = 1L;
+
+		List<Integer> windowSizes = new ArrayList<Integer>();
+		Model lastWindow;
+
+		@Override
+		public void processInput(Resource input, Resource output) throws Exception
+		{
+			if (input.getModel() != lastWindow) {
+				lastWindow = input.getModel();
+				windowSizes.add(lastWindow.listSubjectsWithProperty(RDF.type, INPUT_CLASS).toList().size());
+			}
+			String name = input.getRequiredProperty(NAME).getResource().getRequiredProperty(VALUE).getString();
+			output.addProperty(GREETING, "hello, " + name);
+		}
+	}
+}
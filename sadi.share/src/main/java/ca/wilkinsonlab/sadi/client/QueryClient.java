@@ -1,53 +1,410 @@
 package ca.wilkinsonlab.sadi.client;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.configuration.Configuration;
 import org.apache.log4j.Logger;
 
+import ca.wilkinsonlab.sadi.share.Config;
+import ca.wilkinsonlab.sadi.utils.RdfUtils;
+
+import com.hp.hpl.jena.rdf.model.RDFNode;
+
 public abstract class QueryClient
 {
 	protected final static Logger LOGGER = Logger.getLogger(QueryClient.class);
-	
+
+	/** the maximum number of asynchronous queries that will run at once */
+	protected final static String MAX_CONCURRENT_QUERIES_CONFIG_KEY = "share.query.maxConcurrentQueries";
+	/** the maximum number of asynchronous queries that will wait for a free thread */
+	protected final static String MAX_QUEUED_QUERIES_CONFIG_KEY = "share.query.maxQueuedQueries";
+	/** the number of solutions buffered by a result iterator before the query waits for the consumer */
+	protected final static int ITERATOR_BUFFER_SIZE = 1000;
+
+	/* asynchronous queries from every client share one bounded pool, so a
+	 * burst of queries waits in the queue (or is rejected) instead of
+	 * starting an unbounded number of threads...
+	 */
+	private static final ThreadPoolExecutor queryExecutor = createQueryExecutor();
+
+	private static ThreadPoolExecutor createQueryExecutor()
+	{
+		Configuration config = Config.getConfiguration();
+		int maxConcurrentQueries = config.getInt(MAX_CONCURRENT_QUERIES_CONFIG_KEY, 4);
+		int maxQueuedQueries = config.getInt(MAX_QUEUED_QUERIES_CONFIG_KEY, 100);
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(
+				maxConcurrentQueries, maxConcurrentQueries, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(1, maxQueuedQueries)),
+				new QueryThreadFactory());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Returns the number of asynchronous queries waiting for a free thread.
+	 * @return the number of queued queries
+	 */
+	public static int getQueuedQueryCount()
+	{
+		return queryExecutor.getQueue().size();
+	}
+
+	/**
+	 * Returns the number of asynchronous queries currently running.
+	 * @return the number of running queries
+	 */
+	public static int getActiveQueryCount()
+	{
+		return queryExecutor.getActiveCount();
+	}
+
 	public List<Map<String, String>> synchronousQuery(String query)
 	{
-		QueryRunner queryRunner = getQueryRunner(query, null);
-		queryRunner.run();
-		return queryRunner.results;
+		ResultCollector collector = new ResultCollector();
+		getQueryRunner(query, collector).execute();
+		return collector.results;
 	}
 
-	/* TODO use java.util.concurrent to return Future objects...
+	/**
+	 * Execute the specified query in the calling thread, passing each
+	 * solution to the specified handler as soon as it is found.
+	 * Errors are reported to the handler instead of being thrown.
+	 * @param query the query
+	 * @param handler the handler that will receive the solutions
 	 */
-	public void asynchronousQuery(String query, QueryClientCallback callback)
+	public void streamingQuery(String query, QueryResultHandler handler)
 	{
-		new Thread(getQueryRunner(query, callback)).start();
+		getQueryRunner(query, handler).run();
 	}
-	
-	protected abstract QueryRunner getQueryRunner(String query, QueryClientCallback callback);
-	
+
+	/**
+	 * Execute the specified query in the background, passing each solution
+	 * to the specified handler as soon as it is found.
+	 * If too many queries are already waiting to run, the handler's
+	 * onFailure method is called immediately and null is returned.
+	 * @param query the query
+	 * @param handler the handler that will receive the solutions
+	 * @return a Future that completes when the query is finished, or null
+	 */
+	public Future<?> asynchronousQuery(String query, QueryResultHandler handler)
+	{
+		try {
+			Future<?> future = queryExecutor.submit(getQueryRunner(query, handler));
+			if (LOGGER.isDebugEnabled())
+				LOGGER.debug(String.format("submitted query; %d running, %d queued", getActiveQueryCount(), getQueuedQueryCount()));
+			return future;
+		} catch (RejectedExecutionException e) {
+			LOGGER.warn(String.format("rejected query; %d queries already queued", getQueuedQueryCount()));
+			handler.onFailure(String.format("too many queries waiting to run (%d queued)", getQueuedQueryCount()));
+			return null;
+		}
+	}
+
+	/**
+	 * Execute the specified query in the background, passing the complete
+	 * list of solutions to the specified callback when the query is finished.
+	 * @param query the query
+	 * @param callback the callback
+	 * @return a Future that completes when the query is finished, or null
+	 */
+	public Future<?> asynchronousQuery(String query, QueryClientCallback callback)
+	{
+		return asynchronousQuery(query, new CallbackAdapter(callback));
+	}
+
+	/**
+	 * Execute the specified query in the background, returning an iterator
+	 * over the solutions as they are found.
+	 * The query waits whenever the iterator falls too far behind, so
+	 * abandoned iterators should be closed to release the query thread.
+	 * @param query the query
+	 * @return an iterator over the solutions
+	 * @throws RejectedExecutionException if too many queries are already waiting to run
+	 */
+	public ResultIterator iteratorQuery(String query)
+	{
+		ResultIterator iterator = new ResultIterator();
+		try {
+			queryExecutor.execute(getQueryRunner(query, iterator));
+		} catch (RejectedExecutionException e) {
+			LOGGER.warn(String.format("rejected query; %d queries already queued", getQueuedQueryCount()));
+			throw e;
+		}
+		return iterator;
+	}
+
+	protected abstract QueryRunner getQueryRunner(String query, QueryResultHandler handler);
+
 	/* TODO provide methods that return RDF; query into a Jena Model? return RDF text?
 	 */
-	
+
 	public static interface QueryClientCallback
 	{
 		public abstract void onFailure(String errorMessage);
-		
+
 		public abstract void onSuccess(List<Map<String, String>> results);
 	}
-	
+
+	/**
+	 * Receives the solutions of a query one at a time, as they are found.
+	 */
+	public static interface QueryResultHandler
+	{
+		/**
+		 * Called before the first solution.
+		 * @param variables the names of the result variables
+		 */
+		public abstract void onStart(List<String> variables);
+
+		/**
+		 * Called for each solution.
+		 * Unbound variables are mapped to null.
+		 * @param binding the solution
+		 * @return true to continue, false to stop the query
+		 */
+		public abstract boolean onResult(Map<String, RDFNode> binding);
+
+		/**
+		 * Called after the last solution.
+		 */
+		public abstract void onFinish();
+
+		/**
+		 * Called instead of onFinish if the query fails.
+		 * @param errorMessage a description of the failure
+		 */
+		public abstract void onFailure(String errorMessage);
+	}
+
 	protected static abstract class QueryRunner implements Runnable
 	{
 		protected String query;
-		protected QueryClientCallback callback;
-		protected List<Map<String, String>> results;
-		
-		public QueryRunner(String query, QueryClientCallback callback)
+		protected QueryResultHandler handler;
+
+		public QueryRunner(String query, QueryResultHandler handler)
 		{
 			this.query = query;
+			this.handler = handler;
+		}
+
+		public void run()
+		{
+			try {
+				execute();
+			} catch (RuntimeException e) {
+				LOGGER.error(String.format("error executing query %s", query), e);
+				handler.onFailure(e.toString());
+				return;
+			}
+			handler.onFinish();
+		}
+
+		/**
+		 * Execute the query, passing the solutions to the handler.
+		 * Errors are thrown to the caller.
+		 */
+		protected abstract void execute();
+	}
+
+	/**
+	 * Converts each solution to plain strings and collects them in a list.
+	 */
+	protected static class ResultCollector implements QueryResultHandler
+	{
+		protected List<Map<String, String>> results;
+
+		public ResultCollector()
+		{
+			results = new ArrayList<Map<String, String>>();
+		}
+
+		public void onStart(List<String> variables)
+		{
+		}
+
+		public boolean onResult(Map<String, RDFNode> binding)
+		{
+			Map<String, String> bindingAsMap = new HashMap<String, String>();
+			for (Map.Entry<String, RDFNode> entry: binding.entrySet()) {
+				RDFNode varValue = entry.getValue();
+				bindingAsMap.put(entry.getKey(), varValue != null ? RdfUtils.getPlainString(varValue.asNode()) : null);
+			}
+			results.add(bindingAsMap);
+			return true;
+		}
+
+		public void onFinish()
+		{
+		}
+
+		public void onFailure(String errorMessage)
+		{
+		}
+	}
+
+	private static class CallbackAdapter extends ResultCollector
+	{
+		private QueryClientCallback callback;
+
+		public CallbackAdapter(QueryClientCallback callback)
+		{
 			this.callback = callback;
-			
-			results = new ArrayList<Map<String, String>>(0);
+		}
+
+		@Override
+		public void onFinish()
+		{
+			callback.onSuccess(results);
+		}
+
+		@Override
+		public void onFailure(String errorMessage)
+		{
+			callback.onFailure(errorMessage);
+		}
+	}
+
+	/**
+	 * An iterator over the solutions of a query running in the background.
+	 * If the query fails, hasNext() and next() throw a RuntimeException
+	 * with the failure message.
+	 */
+	public static class ResultIterator implements Iterator<Map<String, RDFNode>>, QueryResultHandler
+	{
+		private static final Object END = new Object();
+
+		private final BlockingQueue<Object> buffer;
+		private volatile List<String> variables;
+		private volatile boolean closed;
+		private Object next;
+
+		ResultIterator()
+		{
+			buffer = new ArrayBlockingQueue<Object>(ITERATOR_BUFFER_SIZE);
+			closed = false;
+		}
+
+		/**
+		 * Returns the names of the result variables, waiting for the query
+		 * to start if necessary.
+		 * @return the names of the result variables
+		 */
+		public List<String> getResultVars()
+		{
+			hasNext();
+			return variables;
+		}
+
+		public boolean hasNext()
+		{
+			if (next == null) {
+				if (closed)
+					return false;
+				try {
+					next = buffer.take();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("interrupted while waiting for query results", e);
+				}
+			}
+			if (next instanceof QueryFailure)
+				throw new RuntimeException(((QueryFailure)next).errorMessage);
+			return next != END;
+		}
+
+		@SuppressWarnings("unchecked")
+		public Map<String, RDFNode> next()
+		{
+			if (!hasNext())
+				throw new NoSuchElementException();
+			Map<String, RDFNode> binding = (Map<String, RDFNode>)next;
+			next = null;
+			return binding;
+		}
+
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		/**
+		 * Stop the query; any solutions not yet consumed are discarded.
+		 */
+		public void close()
+		{
+			closed = true;
+			next = END;
+			buffer.clear();
+		}
+
+		public void onStart(List<String> variables)
+		{
+			this.variables = variables;
+		}
+
+		public boolean onResult(Map<String, RDFNode> binding)
+		{
+			return put(binding);
+		}
+
+		public void onFinish()
+		{
+			put(END);
+		}
+
+		public void onFailure(String errorMessage)
+		{
+			put(new QueryFailure(errorMessage));
+		}
+
+		private boolean put(Object o)
+		{
+			try {
+				/* poll so that the query notices if the consumer goes away...
+				 */
+				while (!closed) {
+					if (buffer.offer(o, 1, TimeUnit.SECONDS))
+						return true;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return false;
+		}
+	}
+
+	private static class QueryFailure
+	{
+		final String errorMessage;
+
+		QueryFailure(String errorMessage)
+		{
+			this.errorMessage = errorMessage;
+		}
+	}
+
+	private static class QueryThreadFactory implements ThreadFactory
+	{
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		public Thread newThread(Runnable r)
+		{
+			Thread thread = new Thread(r, String.format("share-query-%d", threadCount.incrementAndGet()));
+			thread.setDaemon(true);
+			return thread;
 		}
 	}
 }
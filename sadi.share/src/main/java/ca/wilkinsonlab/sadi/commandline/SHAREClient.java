@@ -74,6 +74,9 @@ public class SHAREClient
 		@Option(name="-O", aliases={"--optimize"}, usage="enable adaptive query optimization (order of triple patterns is decided as query runs)")
 		boolean optimize = false;
 		
+		@Option(name="-x", aliases={"--explain"}, usage="with -O, print the executed query plan with the estimated and actual cost of each pattern")
+		boolean explain = false;
+		
 		/* options output files generated by query */
 		
 		@Option(name="-l", metaVar="<FILENAME>", aliases={"--log-file"}, usage="output log messages to this file")
@@ -341,6 +344,10 @@ public class SHAREClient
 
 			System.err.println(String.format("query finished in %d milliseconds", stopWatch.getTime()));
 
+			if(options.explain && kb.getExecutedQueryPlan() != null) {
+				System.err.println(kb.getExecutedQueryPlan().explain());
+			}
+
 			/*
 			 * Write the query results to the output file.
 			 */
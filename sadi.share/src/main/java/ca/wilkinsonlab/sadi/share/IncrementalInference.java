@@ -0,0 +1,170 @@
+package ca.wilkinsonlab.sadi.share;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.ontology.OntModel;
+import com.hp.hpl.jena.rdf.listeners.StatementListener;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.reasoner.InfGraph;
+import com.hp.hpl.jena.vocabulary.OWL;
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+/**
+ * Keeps the inferences in a reasoning model up to date as statements are
+ * added to one of its sub-models.
+ * Statements added to the data model are recorded as they arrive; when
+ * {@link #update()} is called, they are pushed through the reasoner one at
+ * a time, so that a forward-chaining reasoner only computes the
+ * consequences of the new statements instead of recomputing the closure
+ * of the whole model. The reasoner is only rebound if schema statements
+ * (class or property definitions) were added or if any statements were
+ * removed, since those can invalidate inferences that were already made.
+ */
+public class IncrementalInference
+{
+	private static final Logger log = Logger.getLogger(IncrementalInference.class);
+
+	/* properties in the RDF, RDFS and OWL namespaces that don't describe
+	 * classes or properties...
+	 */
+	private static final Set<Node> NON_SCHEMA_PROPERTIES = new HashSet<Node>(Arrays.asList(
+			RDFS.label.asNode(),
+			RDFS.comment.asNode(),
+			RDFS.seeAlso.asNode(),
+			RDFS.isDefinedBy.asNode(),
+			OWL.sameAs.asNode(),
+			OWL.differentFrom.asNode(),
+			OWL.versionInfo.asNode()
+	));
+
+	private final OntModel reasoningModel;
+	private final Model dataModel;
+	private final boolean incremental;
+	private final StatementListener listener;
+
+	private List<Triple> pending;
+	private boolean rebindRequired;
+
+	/**
+	 * Start recording statements added to the specified data model.
+	 * @param reasoningModel the reasoning model
+	 * @param dataModel the data model, which should be a sub-model of the reasoning model
+	 * @param incremental if false, the reasoner is always rebound on update
+	 */
+	public IncrementalInference(OntModel reasoningModel, Model dataModel, boolean incremental)
+	{
+		this.reasoningModel = reasoningModel;
+		this.dataModel = dataModel;
+		this.incremental = incremental;
+
+		pending = new ArrayList<Triple>();
+		rebindRequired = false;
+
+		listener = new StatementListener() {
+			@Override
+			public void addedStatement(Statement s)
+			{
+				synchronized (IncrementalInference.this) {
+					pending.add(s.asTriple());
+				}
+			}
+
+			@Override
+			public void removedStatement(Statement s)
+			{
+				synchronized (IncrementalInference.this) {
+					rebindRequired = true;
+				}
+			}
+		};
+		dataModel.register(listener);
+	}
+
+	/**
+	 * Make the reasoner aware of the statements that were added to the
+	 * data model since the last update.
+	 */
+	public void update()
+	{
+		List<Triple> added;
+		boolean rebind;
+		synchronized (this) {
+			added = pending;
+			rebind = rebindRequired;
+			pending = new ArrayList<Triple>();
+			rebindRequired = false;
+		}
+		if (added.isEmpty() && !rebind)
+			return;
+
+		Graph graph = reasoningModel.getGraph();
+		if (!incremental || !(graph instanceof InfGraph) || rebind || containsSchemaTriple(added)) {
+			log.debug("rebinding reasoning model");
+			reasoningModel.rebind();
+			return;
+		}
+
+		log.debug(String.format("adding %d triple%s to reasoning model", added.size(), added.size() == 1 ? "" : "s"));
+		Graph baseGraph = reasoningModel.getBaseModel().getGraph();
+		for (Triple triple: added) {
+			/* the inference graph runs the triple through the rules, but it
+			 * also stores the triple in the base model; it's already in the
+			 * data model, so take it out again...
+			 */
+			boolean inBaseGraph = baseGraph.contains(triple);
+			graph.add(triple);
+			if (!inBaseGraph)
+				baseGraph.delete(triple);
+		}
+	}
+
+	/**
+	 * Stop recording statements added to the data model.
+	 */
+	public void close()
+	{
+		dataModel.unregister(listener);
+	}
+
+	/**
+	 * Returns true if the specified triple describes a class or property
+	 * rather than an individual.
+	 * @param triple the triple
+	 * @return true if the specified triple describes a class or property
+	 */
+	public static boolean isSchemaTriple(Triple triple)
+	{
+		Node p = triple.getPredicate();
+		if (p.equals(RDF.type.asNode())) {
+			Node o = triple.getObject();
+			return o.isURI() && !o.equals(OWL.Thing.asNode()) && isSchemaURI(o.getURI());
+		} else {
+			return p.isURI() && isSchemaURI(p.getURI()) && !NON_SCHEMA_PROPERTIES.contains(p);
+		}
+	}
+
+	private static boolean containsSchemaTriple(List<Triple> triples)
+	{
+		for (Triple triple: triples) {
+			if (isSchemaTriple(triple))
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean isSchemaURI(String uri)
+	{
+		return uri.startsWith(RDF.getURI()) || uri.startsWith(RDFS.getURI()) || uri.startsWith(OWL.getURI());
+	}
+}
@@ -0,0 +1,179 @@
+package ca.wilkinsonlab.sadi.share;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import ca.wilkinsonlab.sadi.owl2sparql.QueryGeneratingDecomposer;
+
+import com.hp.hpl.jena.ontology.OntClass;
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryExecution;
+import com.hp.hpl.jena.query.QueryExecutionFactory;
+import com.hp.hpl.jena.query.QueryFactory;
+import com.hp.hpl.jena.query.QuerySolutionMap;
+import com.hp.hpl.jena.query.Syntax;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.vocabulary.OWL;
+
+/**
+ * Tests membership in service input classes without a reasoner.
+ * Each input class is compiled once by QueryGeneratingDecomposer into a
+ * SPARQL ASK query that matches instances of the class; the query is then
+ * evaluated against each candidate subject in turn. Compiled queries are
+ * cached by class URI, least-recently used first out. Classes the
+ * decomposer can't translate are remembered too, so that the caller can
+ * fall back to the reasoner without trying to compile them again.
+ */
+public class InputClassClassifier
+{
+	private static final Logger log = Logger.getLogger(InputClassClassifier.class);
+
+	public static final int DEFAULT_CACHE_SIZE = 1000;
+
+	/* the variable QueryGeneratingDecomposer uses for the instance...
+	 */
+	private static final String INPUT_VARIABLE = "input";
+
+	private final Map<String, CompiledClass> compiledClasses;
+
+	public InputClassClassifier()
+	{
+		this(DEFAULT_CACHE_SIZE);
+	}
+
+	public InputClassClassifier(final int cacheSize)
+	{
+		compiledClasses = new LinkedHashMap<String, CompiledClass>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CompiledClass> eldest)
+			{
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	/**
+	 * Returns true if the specified class can be tested without a reasoner.
+	 * @param inputClass the class
+	 * @return true if the class can be tested without a reasoner
+	 */
+	public boolean canClassify(OntClass inputClass)
+	{
+		return getCompiledClass(inputClass).query != null;
+	}
+
+	/**
+	 * Returns the subset of the specified subjects that are instances of
+	 * the specified class according to the statements in the specified
+	 * model. If the model is an inference model, inferred statements are
+	 * used as well.
+	 * @param inputClass the class
+	 * @param model the model that describes the subjects
+	 * @param subjects the candidate subjects
+	 * @return the subjects that are instances of the class
+	 * @throws UnsupportedOperationException if the class can't be compiled;
+	 *         call {@link #canClassify(OntClass)} first
+	 */
+	public Set<RDFNode> classify(OntClass inputClass, Model model, Set<? extends RDFNode> subjects)
+	{
+		Query query = getCompiledClass(inputClass).query;
+		if (query == null)
+			throw new UnsupportedOperationException(String.format("can't compile %s into a query", inputClass));
+
+		Set<RDFNode> instances = new HashSet<RDFNode>();
+		for (RDFNode subject: subjects) {
+			if (!subject.isResource())
+				continue;
+			if (matches(query, subject.inModel(model)))
+				instances.add(subject);
+		}
+		return instances;
+	}
+
+	/**
+	 * Forget all compiled classes.
+	 */
+	public void clear()
+	{
+		synchronized (compiledClasses) {
+			compiledClasses.clear();
+		}
+	}
+
+	private CompiledClass getCompiledClass(OntClass inputClass)
+	{
+		String key = inputClass.isURIResource() ? inputClass.getURI() : inputClass.getId().toString();
+		synchronized (compiledClasses) {
+			CompiledClass compiled = compiledClasses.get(key);
+			if (compiled != null)
+				return compiled;
+		}
+
+		/* two threads might compile the same class at the same time, but the
+		 * result is the same either way...
+		 */
+		CompiledClass compiled = new CompiledClass(compile(inputClass));
+		synchronized (compiledClasses) {
+			compiledClasses.put(key, compiled);
+		}
+		return compiled;
+	}
+
+	private static Query compile(OntClass inputClass)
+	{
+		try {
+			QueryGeneratingDecomposer decomposer = new QueryGeneratingDecomposer();
+			decomposer.decompose(inputClass);
+			/* replace the CONSTRUCT template with ASK; the WHERE clause is
+			 * what tests membership...
+			 */
+			String construct = decomposer.getQuery();
+			String where = construct.substring(construct.indexOf("} WHERE {") + 2);
+			Query query = QueryFactory.create(String.format("ASK %s", where), Syntax.syntaxARQ);
+
+			/* a class with no sufficient conditions compiles to a query that
+			 * matches anything; only the reasoner can answer for those...
+			 */
+			if (!inputClass.equals(OWL.Thing) && matches(query, ModelFactory.createDefaultModel().createResource())) {
+				log.debug(String.format("%s has no sufficient conditions; falling back to the reasoner", inputClass));
+				return null;
+			}
+			if (log.isTraceEnabled())
+				log.trace(String.format("compiled %s into query\n%s", inputClass, query));
+			return query;
+		} catch (Exception e) {
+			log.debug(String.format("can't compile %s into a query; falling back to the reasoner", inputClass), e);
+			return null;
+		}
+	}
+
+	private static boolean matches(Query query, RDFNode subject)
+	{
+		QuerySolutionMap binding = new QuerySolutionMap();
+		binding.add(INPUT_VARIABLE, subject);
+		QueryExecution qe = QueryExecutionFactory.create(query, subject.getModel(), binding);
+		try {
+			return qe.execAsk();
+		} finally {
+			qe.close();
+		}
+	}
+
+	private static class CompiledClass
+	{
+		final Query query;
+
+		CompiledClass(Query query)
+		{
+			this.query = query;
+		}
+	}
+}
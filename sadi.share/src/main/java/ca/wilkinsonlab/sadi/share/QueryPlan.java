@@ -0,0 +1,215 @@
+package ca.wilkinsonlab.sadi.share;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+
+/**
+ * An ordering of the patterns of a query, as chosen by a {@link QueryPlanner},
+ * with the estimated (and, once the patterns have been resolved, actual)
+ * cost of each step.
+ */
+public class QueryPlan
+{
+	/**
+	 * How a query pattern is expected to be resolved.
+	 */
+	public enum Resolution
+	{
+		/** by services, with a bound subject or object and a bound predicate */
+		SERVICE,
+		/** by services, but with an unbound predicate, so every matching service is called */
+		EXPENSIVE,
+		/** only against the data already in the knowledge base */
+		UNRESOLVABLE
+	}
+
+	private final List<Step> steps;
+
+	public QueryPlan()
+	{
+		steps = new ArrayList<Step>();
+	}
+
+	public QueryPlan(List<Step> steps)
+	{
+		this.steps = new ArrayList<Step>(steps);
+	}
+
+	/**
+	 * Returns the steps of the plan, in the order they are (or were) resolved.
+	 */
+	public List<Step> getSteps()
+	{
+		return Collections.unmodifiableList(steps);
+	}
+
+	public void addStep(Step step)
+	{
+		steps.add(step);
+	}
+
+	public boolean isEmpty()
+	{
+		return steps.isEmpty();
+	}
+
+	/**
+	 * Returns the estimated time (in milliseconds) to resolve every step of the plan.
+	 */
+	public double getEstimatedTime()
+	{
+		double time = 0;
+		for (Step step: steps)
+			time += step.getEstimatedTime();
+		return time;
+	}
+
+	/**
+	 * Returns the time (in milliseconds) it took to resolve the steps of the
+	 * plan that have been resolved.
+	 */
+	public long getActualTime()
+	{
+		long time = 0;
+		for (Step step: steps) {
+			if (step.isResolved())
+				time += step.getActualTime();
+		}
+		return time;
+	}
+
+	/**
+	 * Returns a description of the plan, with the estimated and actual
+	 * cost of each step.
+	 */
+	public String explain()
+	{
+		StringBuilder buf = new StringBuilder();
+		buf.append(String.format("%3s %-12s %-7s %10s %12s %12s %12s %12s  %s\n",
+				"#", "resolution", "dir", "est. inputs", "est. results", "act. results", "est. ms", "act. ms", "pattern"));
+		int i = 0;
+		for (Step step: steps) {
+			buf.append(String.format("%3d %-12s %-7s %10.0f %12.0f %12s %12.0f %12s  %s\n",
+					++i,
+					step.getResolution(),
+					step.isDirectionForward() ? "forward" : "reverse",
+					step.getEstimatedInputs(),
+					step.getEstimatedResults(),
+					step.isResolved() && step.getActualResults() >= 0 ? String.valueOf(step.getActualResults()) : "-",
+					step.getEstimatedTime(),
+					step.isResolved() ? String.valueOf(step.getActualTime()) : "-",
+					step.getPattern()));
+		}
+		buf.append(String.format("total estimated time %.0fms, actual time %dms", getEstimatedTime(), getActualTime()));
+		return buf.toString();
+	}
+
+	@Override
+	public String toString()
+	{
+		return explain();
+	}
+
+	/**
+	 * One query pattern in a plan.
+	 */
+	public static class Step
+	{
+		private final Triple pattern;
+		private final Resolution resolution;
+		private final boolean directionIsForward;
+		private final double estimatedInputs;
+		private final double estimatedResults;
+		private final double estimatedTime;
+		private boolean resolved;
+		private long actualTime;
+		private int actualResults;
+
+		public Step(Triple pattern, Resolution resolution, boolean directionIsForward, double estimatedInputs, double estimatedResults, double estimatedTime)
+		{
+			this.pattern = pattern;
+			this.resolution = resolution;
+			this.directionIsForward = directionIsForward;
+			this.estimatedInputs = estimatedInputs;
+			this.estimatedResults = estimatedResults;
+			this.estimatedTime = estimatedTime;
+			this.resolved = false;
+			this.actualTime = -1;
+			this.actualResults = -1;
+		}
+
+		public Triple getPattern()
+		{
+			return pattern;
+		}
+
+		public Resolution getResolution()
+		{
+			return resolution;
+		}
+
+		public boolean isDirectionForward()
+		{
+			return directionIsForward;
+		}
+
+		/**
+		 * Returns the query node whose bindings this step produces: the object
+		 * if the pattern is resolved in the forward direction, the subject otherwise.
+		 */
+		public Node getOutputNode()
+		{
+			return directionIsForward ? pattern.getObject() : pattern.getSubject();
+		}
+
+		public double getEstimatedInputs()
+		{
+			return estimatedInputs;
+		}
+
+		public double getEstimatedResults()
+		{
+			return estimatedResults;
+		}
+
+		public double getEstimatedTime()
+		{
+			return estimatedTime;
+		}
+
+		public boolean isResolved()
+		{
+			return resolved;
+		}
+
+		public long getActualTime()
+		{
+			return actualTime;
+		}
+
+		/**
+		 * Returns the number of bindings the output node had after the step
+		 * was resolved, or -1 if the output node isn't a variable.
+		 */
+		public int getActualResults()
+		{
+			return actualResults;
+		}
+
+		/**
+		 * Record the actual cost of resolving this step.
+		 * @param actualTime the time (in milliseconds) it took to resolve the step
+		 * @param actualResults the number of bindings for the output node, or -1
+		 */
+		public void setActual(long actualTime, int actualResults)
+		{
+			this.resolved = true;
+			this.actualTime = actualTime;
+			this.actualResults = actualResults;
+		}
+	}
+}
@@ -0,0 +1,425 @@
+package ca.wilkinsonlab.sadi.share;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import ca.wilkinsonlab.sadi.share.QueryPlan.Resolution;
+import ca.wilkinsonlab.sadi.share.QueryPlan.Step;
+import ca.wilkinsonlab.sadi.stats.PredicateStatsDB;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+
+/**
+ * <p>Chooses the order in which to resolve the patterns of a query.</p>
+ *
+ * <p>The planner finds the cheapest left-deep plan by dynamic programming
+ * over sets of resolved patterns: the cheapest plan for each set is extended
+ * by each pattern that is connected to it (i.e. that has a bound subject or
+ * object once the set has been resolved).  The cost of a step is the
+ * estimated time to resolve its predicate for the estimated number of
+ * inputs; the number of inputs is the current number of bindings of the
+ * input variable, or the number of bindings an earlier step in the plan is
+ * estimated to produce, using the observed fan-out of its predicate.
+ * As with the greedy ordering this replaces, patterns that can be resolved
+ * by services always come before patterns with unbound predicates, which
+ * come before patterns that can't be resolved by services at all.</p>
+ *
+ * <p>The planner is meant to be called again each time a pattern has been
+ * resolved, so that the rest of the plan is based on the actual bindings
+ * rather than the estimates.  Queries with more than
+ * {@link #MAX_OPTIMAL_PATTERNS} patterns are planned greedily.</p>
+ */
+public class QueryPlanner
+{
+	/**
+	 * The largest number of patterns that are planned exhaustively;
+	 * the planner considers 2^n sets of patterns.
+	 */
+	public static final int MAX_OPTIMAL_PATTERNS = 12;
+
+	/* estimates used when there are no stats for a predicate...
+	 */
+	protected static final double DEFAULT_BASE_TIME = 1000;
+	protected static final double DEFAULT_TIME_PER_INPUT = 100;
+	protected static final double DEFAULT_FAN_OUT = 1;
+
+	/**
+	 * The source of the information the planner uses to estimate costs.
+	 */
+	public interface CostModel
+	{
+		/**
+		 * Returns the number of values currently bound to the specified
+		 * variable, or 0 if it is unbound.
+		 */
+		public int getNumBindings(Node variable);
+
+		/**
+		 * Returns true if the predicate of the specified pattern is a URI or
+		 * a variable with bindings.
+		 */
+		public boolean isPredicateBound(Triple pattern);
+
+		/**
+		 * Returns true if at least one service can resolve the predicate of
+		 * the specified pattern in the specified direction.
+		 */
+		public boolean isResolvable(Triple pattern, boolean directionIsForward);
+
+		/**
+		 * Returns the estimated time (in milliseconds) to resolve the specified
+		 * pattern in the specified direction for the specified number of inputs,
+		 * or {@link PredicateStatsDB#NO_STATS_AVAILABLE}.
+		 */
+		public int getEstimatedTime(Triple pattern, boolean directionIsForward, int numInputs);
+
+		/**
+		 * Returns the observed number of outputs per input when the specified
+		 * pattern is resolved in the specified direction, or NaN if there are
+		 * no observations.
+		 */
+		public double getFanOut(Triple pattern, boolean directionIsForward);
+	}
+
+	private final CostModel costModel;
+
+	public QueryPlanner(CostModel costModel)
+	{
+		this.costModel = costModel;
+	}
+
+	/**
+	 * Returns the cheapest plan for resolving the specified patterns,
+	 * given the current variable bindings.
+	 * @param patterns the unresolved query patterns
+	 * @return the cheapest plan
+	 */
+	public QueryPlan plan(List<Triple> patterns)
+	{
+		if (patterns.isEmpty())
+			return new QueryPlan();
+
+		/* the same estimates are needed many times while planning, and the
+		 * bindings don't change until the plan is executed...
+		 */
+		CostModel costs = new MemoizingCostModel(costModel);
+		PartialPlan initial = new PartialPlan(getInitialCardinalities(patterns, costs));
+		PartialPlan plan;
+		if (patterns.size() <= MAX_OPTIMAL_PATTERNS)
+			plan = planOptimal(patterns, initial, costs);
+		else
+			plan = planGreedy(patterns, initial, costs);
+		return plan.toQueryPlan();
+	}
+
+	private PartialPlan planOptimal(List<Triple> patterns, PartialPlan initial, CostModel costs)
+	{
+		int n = patterns.size();
+		PartialPlan[] best = new PartialPlan[1 << n];
+		best[0] = initial;
+
+		/* every set of patterns is numbered higher than its subsets, so the
+		 * best plan for each set is final by the time it is extended...
+		 */
+		for (int set = 0; set < best.length; ++set) {
+			PartialPlan plan = best[set];
+			if (plan == null)
+				continue;
+
+			List<Integer> remaining = new ArrayList<Integer>(n);
+			for (int i = 0; i < n; ++i) {
+				if ((set & (1 << i)) == 0)
+					remaining.add(i);
+			}
+
+			for (Candidate candidate: getCandidates(patterns, remaining, plan, costs)) {
+				int next = set | (1 << candidate.index);
+				PartialPlan extended = plan.extend(candidate.step, candidate.cardinalities);
+				if (best[next] == null || extended.cost < best[next].cost)
+					best[next] = extended;
+			}
+		}
+		return best[best.length - 1];
+	}
+
+	private PartialPlan planGreedy(List<Triple> patterns, PartialPlan plan, CostModel costs)
+	{
+		List<Integer> remaining = new LinkedList<Integer>();
+		for (int i = 0; i < patterns.size(); ++i)
+			remaining.add(i);
+
+		while (!remaining.isEmpty()) {
+			Candidate best = null;
+			for (Candidate candidate: getCandidates(patterns, remaining, plan, costs)) {
+				if (best == null || candidate.step.getEstimatedTime() < best.step.getEstimatedTime())
+					best = candidate;
+			}
+			plan = plan.extend(best.step, best.cardinalities);
+			remaining.remove(Integer.valueOf(best.index));
+		}
+		return plan;
+	}
+
+	/* returns the steps that can follow the specified plan; these are the
+	 * remaining patterns with the best resolution available...
+	 */
+	private List<Candidate> getCandidates(List<Triple> patterns, List<Integer> remaining, PartialPlan plan, CostModel costs)
+	{
+		List<Candidate> candidates = new ArrayList<Candidate>(remaining.size());
+		Resolution bestResolution = null;
+		for (Integer index: remaining) {
+			Map<Node, Double> cardinalities = new HashMap<Node, Double>(plan.cardinalities);
+			Step step = estimateStep(patterns.get(index), cardinalities, costs);
+			if (bestResolution == null || step.getResolution().compareTo(bestResolution) < 0) {
+				bestResolution = step.getResolution();
+				candidates.clear();
+			}
+			if (step.getResolution() == bestResolution)
+				candidates.add(new Candidate(index, step, cardinalities));
+		}
+		return candidates;
+	}
+
+	/**
+	 * Estimate the cost of resolving the specified pattern, given the
+	 * specified cardinalities, and update the cardinalities to reflect
+	 * the bindings the pattern is estimated to produce.
+	 */
+	protected static Step estimateStep(Triple pattern, Map<Node, Double> cardinalities, CostModel costModel)
+	{
+		double subjects = getCardinality(pattern.getSubject(), cardinalities);
+		double objects = getCardinality(pattern.getObject(), cardinalities);
+
+		if (subjects == 0 && objects == 0)
+			return new Step(pattern, Resolution.UNRESOLVABLE, true, 0, 0, 0);
+
+		boolean forward = subjects > 0 && (objects == 0 || subjects <= objects);
+		Resolution resolution;
+		double time;
+		if (!costModel.isPredicateBound(pattern)) {
+			resolution = Resolution.EXPENSIVE;
+			time = getDefaultTime(forward ? subjects : objects);
+		} else {
+			double forwardTime = subjects > 0 && costModel.isResolvable(pattern, true) ?
+					getEstimatedTime(pattern, true, subjects, costModel) : Double.NaN;
+			double reverseTime = objects > 0 && costModel.isResolvable(pattern, false) ?
+					getEstimatedTime(pattern, false, objects, costModel) : Double.NaN;
+			if (Double.isNaN(forwardTime) && Double.isNaN(reverseTime)) {
+				resolution = Resolution.UNRESOLVABLE;
+				time = 0;
+			} else {
+				resolution = Resolution.SERVICE;
+				forward = Double.isNaN(reverseTime) || (!Double.isNaN(forwardTime) && forwardTime <= reverseTime);
+				time = forward ? forwardTime : reverseTime;
+			}
+		}
+
+		double inputs = forward ? subjects : objects;
+		double fanOut = resolution == Resolution.SERVICE ? costModel.getFanOut(pattern, forward) : Double.NaN;
+		if (Double.isNaN(fanOut))
+			fanOut = DEFAULT_FAN_OUT;
+		double results = Math.max(1, inputs * fanOut);
+
+		Node output = forward ? pattern.getObject() : pattern.getSubject();
+		if (output.isVariable()) {
+			Double existing = cardinalities.get(output);
+			if (existing != null)
+				results = Math.min(existing, results); // the pattern is a filter on existing bindings
+			cardinalities.put(output, results);
+		}
+		return new Step(pattern, resolution, forward, inputs, results, time);
+	}
+
+	private static double getEstimatedTime(Triple pattern, boolean directionIsForward, double numInputs, CostModel costModel)
+	{
+		int time = costModel.getEstimatedTime(pattern, directionIsForward, (int)Math.ceil(numInputs));
+		if (time == PredicateStatsDB.NO_STATS_AVAILABLE || time < 0)
+			return getDefaultTime(numInputs);
+		else
+			return time;
+	}
+
+	private static double getDefaultTime(double numInputs)
+	{
+		return DEFAULT_BASE_TIME + numInputs * DEFAULT_TIME_PER_INPUT;
+	}
+
+	private static double getCardinality(Node node, Map<Node, Double> cardinalities)
+	{
+		if (!node.isVariable())
+			return 1;
+		Double cardinality = cardinalities.get(node);
+		return cardinality != null ? cardinality : 0;
+	}
+
+	private static Map<Node, Double> getInitialCardinalities(List<Triple> patterns, CostModel costModel)
+	{
+		Map<Node, Double> cardinalities = new HashMap<Node, Double>();
+		for (Triple pattern: patterns) {
+			for (Node node: new Node[] { pattern.getSubject(), pattern.getObject() }) {
+				if (node.isVariable() && !cardinalities.containsKey(node)) {
+					int bindings = costModel.getNumBindings(node);
+					if (bindings > 0)
+						cardinalities.put(node, (double)bindings);
+				}
+			}
+		}
+		return cardinalities;
+	}
+
+	/* remembers the answers of another cost model...
+	 */
+	private static class MemoizingCostModel implements CostModel
+	{
+		private final CostModel costModel;
+		private final Map<Node, Integer> numBindings;
+		private final Map<Key, Object> answers;
+
+		MemoizingCostModel(CostModel costModel)
+		{
+			this.costModel = costModel;
+			this.numBindings = new HashMap<Node, Integer>();
+			this.answers = new HashMap<Key, Object>();
+		}
+
+		public int getNumBindings(Node variable)
+		{
+			Integer n = numBindings.get(variable);
+			if (n == null) {
+				n = costModel.getNumBindings(variable);
+				numBindings.put(variable, n);
+			}
+			return n;
+		}
+
+		public boolean isPredicateBound(Triple pattern)
+		{
+			Key key = new Key("bound", pattern, true, 0);
+			Boolean answer = (Boolean)answers.get(key);
+			if (answer == null) {
+				answer = costModel.isPredicateBound(pattern);
+				answers.put(key, answer);
+			}
+			return answer;
+		}
+
+		public boolean isResolvable(Triple pattern, boolean directionIsForward)
+		{
+			Key key = new Key("resolvable", pattern, directionIsForward, 0);
+			Boolean answer = (Boolean)answers.get(key);
+			if (answer == null) {
+				answer = costModel.isResolvable(pattern, directionIsForward);
+				answers.put(key, answer);
+			}
+			return answer;
+		}
+
+		public int getEstimatedTime(Triple pattern, boolean directionIsForward, int numInputs)
+		{
+			Key key = new Key("time", pattern, directionIsForward, numInputs);
+			Integer answer = (Integer)answers.get(key);
+			if (answer == null) {
+				answer = costModel.getEstimatedTime(pattern, directionIsForward, numInputs);
+				answers.put(key, answer);
+			}
+			return answer;
+		}
+
+		public double getFanOut(Triple pattern, boolean directionIsForward)
+		{
+			Key key = new Key("fanOut", pattern, directionIsForward, 0);
+			Double answer = (Double)answers.get(key);
+			if (answer == null) {
+				answer = costModel.getFanOut(pattern, directionIsForward);
+				answers.put(key, answer);
+			}
+			return answer;
+		}
+
+		private static class Key
+		{
+			final String question;
+			final Triple pattern;
+			final boolean directionIsForward;
+			final int numInputs;
+
+			Key(String question, Triple pattern, boolean directionIsForward, int numInputs)
+			{
+				this.question = question;
+				this.pattern = pattern;
+				this.directionIsForward = directionIsForward;
+				this.numInputs = numInputs;
+			}
+
+			@Override
+			public boolean equals(Object o)
+			{
+				if (!(o instanceof Key))
+					return false;
+				Key other = (Key)o;
+				return question.equals(other.question) && pattern.equals(other.pattern) &&
+						directionIsForward == other.directionIsForward && numInputs == other.numInputs;
+			}
+
+			@Override
+			public int hashCode()
+			{
+				return ((question.hashCode() * 31 + pattern.hashCode()) * 31 + (directionIsForward ? 1 : 0)) * 31 + numInputs;
+			}
+		}
+	}
+
+	private static class Candidate
+	{
+		final int index;
+		final Step step;
+		final Map<Node, Double> cardinalities;
+
+		Candidate(int index, Step step, Map<Node, Double> cardinalities)
+		{
+			this.index = index;
+			this.step = step;
+			this.cardinalities = cardinalities;
+		}
+	}
+
+	/* a plan for some of the patterns, linked back to its first step...
+	 */
+	private static class PartialPlan
+	{
+		final PartialPlan previous;
+		final Step step;
+		final double cost;
+		final Map<Node, Double> cardinalities;
+
+		PartialPlan(Map<Node, Double> cardinalities)
+		{
+			this(null, null, 0, cardinalities);
+		}
+
+		PartialPlan(PartialPlan previous, Step step, double cost, Map<Node, Double> cardinalities)
+		{
+			this.previous = previous;
+			this.step = step;
+			this.cost = cost;
+			this.cardinalities = cardinalities;
+		}
+
+		PartialPlan extend(Step step, Map<Node, Double> cardinalities)
+		{
+			return new PartialPlan(this, step, cost + step.getEstimatedTime(), cardinalities);
+		}
+
+		QueryPlan toQueryPlan()
+		{
+			LinkedList<Step> steps = new LinkedList<Step>();
+			for (PartialPlan plan = this; plan.step != null; plan = plan.previous)
+				steps.addFirst(plan.step);
+			return new QueryPlan(steps);
+		}
+	}
+}
@@ -9,9 +9,19 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.lang.time.StopWatch;
@@ -26,7 +36,10 @@ import ca.wilkinsonlab.sadi.client.ServiceInvocationException;
 import ca.wilkinsonlab.sadi.client.virtual.sparql.SPARQLServiceWrapper;
 import ca.wilkinsonlab.sadi.decompose.RestrictionAdapter;
 import ca.wilkinsonlab.sadi.decompose.VisitingDecomposer;
+import ca.wilkinsonlab.sadi.stats.LocalPredicateStatsDB;
+import ca.wilkinsonlab.sadi.stats.PredicateFanOutStats;
 import ca.wilkinsonlab.sadi.stats.PredicateStatsDB;
+import ca.wilkinsonlab.sadi.stats.PredicateStatsStore;
 import ca.wilkinsonlab.sadi.utils.LabelUtils;
 import ca.wilkinsonlab.sadi.utils.OwlUtils;
 import ca.wilkinsonlab.sadi.utils.PropertyResolvabilityCache;
@@ -52,6 +65,7 @@ import com.hp.hpl.jena.rdf.model.Property;
 import com.hp.hpl.jena.rdf.model.RDFNode;
 import com.hp.hpl.jena.rdf.model.Resource;
 import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.shared.Lock;
 import com.hp.hpl.jena.sparql.core.TriplePath;
 import com.hp.hpl.jena.sparql.syntax.ElementPathBlock;
 import com.hp.hpl.jena.sparql.syntax.ElementTriplesBlock;
@@ -69,7 +83,17 @@ public class SHAREKnowledgeBase
 
 	private MultiRegistry registry;
 
-	private PredicateStatsDB statsDB;
+	private PredicateStatsStore statsDB;
+
+	/* the fan-out of each predicate, as observed by every knowledge base
+	 * in this JVM...
+	 */
+	private static final PredicateFanOutStats fanOutStats = new PredicateFanOutStats();
+
+	/* the patterns resolved by the last adaptive query, with their
+	 * estimated and actual costs...
+	 */
+	private QueryPlan executedQueryPlan;
 
 	private OntModel reasoningModel;
 	private Model dataModel;
@@ -80,6 +104,15 @@ public class SHAREKnowledgeBase
 	private Tracker tracker;
 	private Set<String> deadServices;
 
+	private ThreadPoolExecutor serviceCallExecutor;
+	private ThreadPoolExecutor branchExecutor;
+
+	/* held by a branch of the query while it touches the models or the
+	 * variable bindings, and released while it waits for services, so that
+	 * independent branches can call services at the same time...
+	 */
+	private final ReentrantLock modelLock = new ReentrantLock();
+
 	public static final OntModelSpec DEFAULT_REASONER = OntModelSpec.OWL_MEM_MICRO_RULE_INF;
         public static final String DEFAULT_REASONER_STRING = "com.hp.hpl.jena.ontology.OntModelSpec.OWL_MEM_MICRO_RULE_INF";
 
@@ -93,6 +126,14 @@ public class SHAREKnowledgeBase
 	public static final String RESOLVE_UNBOUND_PATTERNS_CONFIG_KEY = "resolveUnboundPatterns";
 	public static final String STORE_INFERRED_TRIPLES_CONFIG_KEY = "storeInferredTriples";
 	public static final String DYNAMIC_INPUT_CLASSIFICATION_CONFIG_KEY = "dynamicInputInstanceClassification";
+	public static final String MAX_CONCURRENT_SERVICE_CALLS_CONFIG_KEY = "maxConcurrentServiceCalls";
+	public static final String COMPILE_INPUT_CLASSES_CONFIG_KEY = "compileInputClasses";
+	public static final String INCREMENTAL_REASONING_CONFIG_KEY = "incrementalReasoning";
+	public static final String CONCURRENT_BRANCHES_CONFIG_KEY = "concurrentBranches";
+	public static final String MAX_CONCURRENT_BRANCHES_CONFIG_KEY = "maxConcurrentBranches";
+
+	public static final int DEFAULT_MAX_CONCURRENT_SERVICE_CALLS = 10;
+	public static final int DEFAULT_MAX_CONCURRENT_BRANCHES = 4;
 
 	/** allow ARQ-specific extensions to SPARQL query syntax (e.g. GROUP BY, HAVING, arithmetic expressions) */
 	private boolean allowARQSyntax;
@@ -133,6 +174,32 @@ public class SHAREKnowledgeBase
 	// TODO rename to something less unwieldy?
 	private boolean dynamicInputInstanceClassification;
 
+	/**
+	 * Test candidate inputs against a query compiled from the service input
+	 * class instead of classifying them with the reasoner, where the input
+	 * class can be compiled.  This option is on by default.
+	 */
+	private boolean compileInputClasses;
+
+	/**
+	 * Push data added to the data model through the reasoner as it arrives
+	 * instead of rebinding the reasoner after every service call; the
+	 * reasoner is still rebound if the new data includes class or property
+	 * definitions.  This option is on by default.
+	 */
+	private IncrementalInference inference;
+
+	/**
+	 * Resolve parts of a query that share no variables concurrently, so that
+	 * one branch can call services while another is waiting for them.
+	 * This option is on by default.
+	 */
+	private boolean concurrentBranches;
+
+	/* compiled input classes are shared by every knowledge base...
+	 */
+	private static final InputClassClassifier inputClassClassifier = new InputClassClassifier();
+
 	public SHAREKnowledgeBase()
 	{
 		this(ModelFactory.createOntologyModel(DEFAULT_REASONER), false);
@@ -184,7 +251,14 @@ public class SHAREKnowledgeBase
 			deadServices.add((String)serviceUri);
 
 		try {
-			this.statsDB = new PredicateStatsDB(config.subset(PredicateStatsDB.ROOT_CONFIG_KEY));
+			/* use the embedded stats store if a stats file is configured,
+			 * otherwise the stats endpoint...
+			 */
+			Configuration statsConfig = config.subset(PredicateStatsDB.ROOT_CONFIG_KEY);
+			if (statsConfig.containsKey(LocalPredicateStatsDB.FILE_CONFIG_KEY))
+				this.statsDB = LocalPredicateStatsDB.getInstance(statsConfig);
+			else
+				this.statsDB = new PredicateStatsDB(statsConfig);
 		} catch(IOException e) {
 			log.error("unable to initialize predicate stats db", e);
 		}
@@ -203,6 +277,28 @@ public class SHAREKnowledgeBase
 
 		this.resolveUnboundPatterns = kbConfig.getBoolean(RESOLVE_UNBOUND_PATTERNS_CONFIG_KEY, true);
 		this.storeInferredTriples = kbConfig.getBoolean(STORE_INFERRED_TRIPLES_CONFIG_KEY, false);
+		this.compileInputClasses = kbConfig.getBoolean(COMPILE_INPUT_CLASSES_CONFIG_KEY, true);
+		this.inference = new IncrementalInference(reasoningModel, dataModel, kbConfig.getBoolean(INCREMENTAL_REASONING_CONFIG_KEY, true));
+
+		/* service calls for a single query pattern are dispatched to this
+		 * pool all at once; idle threads are allowed to time out so that a
+		 * knowledge base that is never disposed doesn't leak threads...
+		 */
+		int maxConcurrentServiceCalls = Math.max(1, kbConfig.getInt(MAX_CONCURRENT_SERVICE_CALLS_CONFIG_KEY, DEFAULT_MAX_CONCURRENT_SERVICE_CALLS));
+		this.serviceCallExecutor = new ThreadPoolExecutor(maxConcurrentServiceCalls, maxConcurrentServiceCalls,
+				60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new KnowledgeBaseThreadFactory("service-call"));
+		this.serviceCallExecutor.allowCoreThreadTimeOut(true);
+
+		/* the first branch of a query is resolved on the calling thread;
+		 * the others share a bounded pool and wait in its queue if there
+		 * are more of them than threads (branch threads never wait for
+		 * other branches, so the queue always drains)...
+		 */
+		this.concurrentBranches = kbConfig.getBoolean(CONCURRENT_BRANCHES_CONFIG_KEY, true);
+		int maxConcurrentBranches = Math.max(1, kbConfig.getInt(MAX_CONCURRENT_BRANCHES_CONFIG_KEY, DEFAULT_MAX_CONCURRENT_BRANCHES));
+		this.branchExecutor = new ThreadPoolExecutor(maxConcurrentBranches, maxConcurrentBranches,
+				60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new KnowledgeBaseThreadFactory("branch"));
+		this.branchExecutor.allowCoreThreadTimeOut(true);
 	}
 
 	protected void setAllowARQSyntax(boolean allowARQSyntax) {
@@ -252,7 +348,7 @@ public class SHAREKnowledgeBase
 		return registry;
 	}
 
-	protected PredicateStatsDB getStatsDB()
+	protected PredicateStatsStore getStatsDB()
 	{
 		return this.statsDB;
 	}
@@ -274,6 +370,13 @@ public class SHAREKnowledgeBase
 //		}
 //		reasoningModel.close();
 
+		serviceCallExecutor.shutdownNow();
+		branchExecutor.shutdownNow();
+
+		if (statsDB != null)
+			statsDB.close();
+
+		inference.close();
 		dataModel.close();
 
 		/* this shouldn't actually be necessary, as closing the models should
@@ -293,6 +396,15 @@ public class SHAREKnowledgeBase
 		return reasoningModel;
 	}
 
+	/**
+	 * Make the reasoning model aware of the data that has been added to the
+	 * data model since it was last updated.
+	 */
+	public void updateReasoningModel()
+	{
+		inference.update();
+	}
+
 	public void executeQuery(String query)
 	{
 		executeQuery(QueryFactory.create(query, getQuerySyntax()));
@@ -325,9 +437,14 @@ public class SHAREKnowledgeBase
 
 		computeConstraints(queryPatterns);
 
-		for (Triple pattern: queryPatterns) {
-			processPattern(pattern);
-		}
+		resolveBranches(queryPatterns, new BranchResolver() {
+			public void resolve(List<Triple> patterns)
+			{
+				for (Triple pattern: patterns) {
+					processPattern(pattern);
+				}
+			}
+		});
 	}
 
 	protected void executeQueryAdaptive(Query query)
@@ -337,32 +454,274 @@ public class SHAREKnowledgeBase
 		log.trace("running query with adaptive query planning");
 
 		List<Triple> queryPatterns = new QueryPatternEnumerator(query).getQueryPatterns();
-		Set<Triple> visitedPatterns = new HashSet<Triple>();
-		QueryPatternComparator comparator = new QueryPatternComparator();
+		executedQueryPlan = new QueryPlan();
 
 		computeConstraints(queryPatterns);
 
-		while (visitedPatterns.size() < queryPatterns.size()) {
+		resolveBranches(queryPatterns, new BranchResolver() {
+			public void resolve(List<Triple> patterns)
+			{
+				List<Triple> remainingPatterns = new ArrayList<Triple>(patterns);
+				PlannerCostModel costModel = new PlannerCostModel();
+				QueryPlanner planner = new QueryPlanner(costModel);
 
-			StopWatch stopWatch = new StopWatch();
-			stopWatch.start();
+				/* plan the rest of the branch again after each pattern is
+				 * resolved, so that the plan reflects the actual bindings...
+				 */
+				while (!remainingPatterns.isEmpty()) {
 
-			Triple bestPattern = null;
-			for (Triple pattern : queryPatterns) {
-				if (visitedPatterns.contains(pattern)) {
-					continue;
+					StopWatch stopWatch = new StopWatch();
+					stopWatch.start();
+
+					QueryPlan plan = planner.plan(remainingPatterns);
+					QueryPlan.Step step = plan.getSteps().get(0);
+
+					stopWatch.stop();
+					log.trace(String.format("optimizer planned %d remaining patterns in %dms:\n%s", remainingPatterns.size(), stopWatch.getTime(), plan.explain()));
+
+					stopWatch.reset();
+					stopWatch.start();
+					processPattern(step.getPattern());
+					stopWatch.stop();
+
+					Node output = step.getOutputNode();
+					step.setActual(stopWatch.getTime(), output.isVariable() ? costModel.getNumBindings(output) : -1);
+					executedQueryPlan.addStep(step);
+					remainingPatterns.remove(step.getPattern());
+				}
+			}
+		});
+
+		if (log.isDebugEnabled())
+			log.debug(String.format("executed query plan:\n%s", executedQueryPlan.explain()));
+	}
+
+	/**
+	 * Returns the patterns resolved by the last query executed with adaptive
+	 * query planning, in the order they were resolved, with the estimated
+	 * and actual cost of each.
+	 * @return the executed query plan, or null if no query has been executed with adaptive query planning
+	 */
+	public QueryPlan getExecutedQueryPlan()
+	{
+		return executedQueryPlan;
+	}
+
+	/* resolves a list of query patterns...
+	 */
+	private interface BranchResolver
+	{
+		public void resolve(List<Triple> patterns);
+	}
+
+	/* resolve the independent branches of a query concurrently, or all of
+	 * the patterns in order if there's only one branch; each branch holds
+	 * the model lock except while it's waiting for services...
+	 */
+	private void resolveBranches(List<Triple> queryPatterns, final BranchResolver resolver)
+	{
+		List<List<Triple>> branches = getIndependentBranches(queryPatterns);
+		if (!concurrentBranches || branches.size() < 2) {
+			resolveBranch(queryPatterns, resolver);
+			return;
+		}
+
+		/* a branch without a constant to start from finds its subjects
+		 * among the data the other branches retrieve, so it isn't really
+		 * independent...
+		 */
+		for (List<Triple> branch: branches) {
+			if (!isGrounded(branch)) {
+				log.debug(String.format("branch %s has no constant subject or object, resolving branches in sequence", branch));
+				resolveBranch(queryPatterns, resolver);
+				return;
+			}
+		}
+
+		log.debug(String.format("resolving %d independent branches concurrently", branches.size()));
+		List<BranchTask> tasks = new ArrayList<BranchTask>(branches.size() - 1);
+		List<Future<?>> futures = new ArrayList<Future<?>>(branches.size() - 1);
+		for (List<Triple> branch: branches.subList(1, branches.size())) {
+			BranchTask task = new BranchTask(branch, resolver);
+			tasks.add(task);
+			futures.add(branchExecutor.submit(task));
+		}
+		/* wait for every branch before reporting a failure, so that none of
+		 * them is still writing to the model when the query is abandoned;
+		 * if we're interrupted, the remaining branches are cancelled, but
+		 * we still wait for the ones that have started to stop...
+		 */
+		Throwable failure = null;
+		try {
+			resolveBranch(branches.get(0), resolver);
+		} finally {
+			for (int i = 0; i < futures.size(); ++i) {
+				try {
+					futures.get(i).get();
+				} catch (InterruptedException e) {
+					log.warn("interrupted while waiting for query branches to complete");
+					for (int j = i; j < futures.size(); ++j)
+						tasks.get(j).cancel(futures.get(j));
+					Thread.currentThread().interrupt();
+					break;
+				} catch (ExecutionException e) {
+					log.error(String.format("error resolving query branch %s", branches.get(i + 1)), e.getCause());
+					if (failure == null)
+						failure = e.getCause();
 				}
-				if (bestPattern == null || comparator.compare(pattern, bestPattern) < 0) {
-					bestPattern = pattern;
+			}
+		}
+		if (failure instanceof RuntimeException)
+			throw (RuntimeException)failure;
+		else if (failure instanceof Error)
+			throw (Error)failure;
+		else if (failure != null)
+			throw new RuntimeException(failure);
+	}
+
+	private void resolveBranch(List<Triple> patterns, BranchResolver resolver)
+	{
+		modelLock.lock();
+		try {
+			resolver.resolve(patterns);
+		} finally {
+			modelLock.unlock();
+		}
+	}
+
+	/* a branch resolved on the branch pool; it remembers whether it has
+	 * started so that a cancelled branch can be waited for...
+	 */
+	private class BranchTask implements Runnable
+	{
+		private final List<Triple> patterns;
+		private final BranchResolver resolver;
+		private boolean started;
+		private boolean finished;
+		private boolean cancelled;
+
+		public BranchTask(List<Triple> patterns, BranchResolver resolver)
+		{
+			this.patterns = patterns;
+			this.resolver = resolver;
+		}
+
+		public void run()
+		{
+			synchronized (this) {
+				if (cancelled)
+					return;
+				started = true;
+			}
+			try {
+				resolveBranch(patterns, resolver);
+			} finally {
+				synchronized (this) {
+					finished = true;
+					notifyAll();
 				}
 			}
+		}
 
-			stopWatch.stop();
-			log.trace(String.format("optimizer selected next pattern for resolution in %dms", stopWatch.getTime()));
+		/* cancel the branch and, if it has already started, wait for it to
+		 * finish; Future.get() returns as soon as a future is cancelled,
+		 * even though the branch may still be running...
+		 */
+		public void cancel(Future<?> future)
+		{
+			synchronized (this) {
+				cancelled = true;
+			}
+			future.cancel(true);
+			synchronized (this) {
+				while (started && !finished) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						// the caller restores the interrupt status
+					}
+				}
+			}
+		}
+	}
 
-			processPattern(bestPattern);
-			visitedPatterns.add(bestPattern);
+	/**
+	 * Split a list of query patterns into groups that share no variables,
+	 * keeping the patterns of each group in their original order.
+	 * Groups are ordered by their first pattern.
+	 * @param queryPatterns the query patterns
+	 * @return the independent groups of query patterns
+	 */
+	protected static List<List<Triple>> getIndependentBranches(List<Triple> queryPatterns)
+	{
+		/* union-find over the patterns, joining each pattern to the first
+		 * pattern that mentioned each of its variables...
+		 */
+		int[] parent = new int[queryPatterns.size()];
+		Map<Node, Integer> firstPattern = new HashMap<Node, Integer>();
+		for (int i = 0; i < parent.length; ++i) {
+			parent[i] = i;
+			Triple pattern = queryPatterns.get(i);
+			for (Node node: new Node[] { pattern.getSubject(), pattern.getPredicate(), pattern.getObject() }) {
+				if (!node.isVariable())
+					continue;
+				Integer j = firstPattern.get(node);
+				if (j == null) {
+					firstPattern.put(node, i);
+				} else {
+					int a = findRoot(parent, i);
+					int b = findRoot(parent, j);
+					parent[Math.max(a, b)] = Math.min(a, b);
+				}
+			}
 		}
+
+		Map<Integer, List<Triple>> branches = new LinkedHashMap<Integer, List<Triple>>();
+		for (int i = 0; i < parent.length; ++i) {
+			int root = findRoot(parent, i);
+			List<Triple> branch = branches.get(root);
+			if (branch == null) {
+				branch = new ArrayList<Triple>();
+				branches.put(root, branch);
+			}
+			branch.add(queryPatterns.get(i));
+		}
+		return new ArrayList<List<Triple>>(branches.values());
+	}
+
+	private static boolean isGrounded(List<Triple> branch)
+	{
+		for (Triple pattern: branch) {
+			if (pattern.getSubject().isConcrete() || pattern.getObject().isConcrete())
+				return true;
+		}
+		return false;
+	}
+
+	private static int findRoot(int[] parent, int i)
+	{
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	/* release the model lock, if this thread holds it, so that other
+	 * branches can proceed; returns the number of holds released...
+	 */
+	private int releaseModelLock()
+	{
+		int holds = modelLock.getHoldCount();
+		for (int i = 0; i < holds; ++i)
+			modelLock.unlock();
+		return holds;
+	}
+
+	private void reacquireModelLock(int holds)
+	{
+		for (int i = 0; i < holds; ++i)
+			modelLock.lock();
 	}
 
 	protected void loadFromClauses(Query query)
@@ -442,6 +801,13 @@ public class SHAREKnowledgeBase
 			return;
 		}
 
+		/* note the bindings before resolving the pattern, to measure its
+		 * fan-out afterwards...
+		 */
+		int numSubjects = subjects.values.size();
+		int numObjects = objects.values.size();
+		Boolean resolvedDirectionIsForward = null;
+
 		for (ResolutionDirection direction: computeResolutionDirectionPreference(pattern, subjects, objects)) {
 			boolean directionIsForward = direction.equals(ResolutionDirection.FORWARD);
 			log.trace(String.format("resolving pattern %s in %s direction", pattern, directionIsForward ? "forward" : "reverse"));
@@ -450,6 +816,7 @@ public class SHAREKnowledgeBase
 				if (recordQueryStats()) {
 					recordStats(subjects, predicates, objects, directionIsForward, (int)stopWatch.getTime());
 				}
+				resolvedDirectionIsForward = directionIsForward;
 				break;
 			}
 		}
@@ -469,6 +836,13 @@ public class SHAREKnowledgeBase
 			populateVariableBinding(subjects, predicates, objects);
 		}
 
+		if (resolvedDirectionIsForward != null && properties.size() == 1) {
+			if (resolvedDirectionIsForward && numSubjects > 0 && numObjects == 0)
+				fanOutStats.recordSample(properties.iterator().next().getURI(), true, numSubjects, objects.values.size());
+			else if (!resolvedDirectionIsForward && numObjects > 0 && numSubjects == 0)
+				fanOutStats.recordSample(properties.iterator().next().getURI(), false, numObjects, subjects.values.size());
+		}
+
 		stopWatch.stop();
 		log.trace(String.format("resolved pattern %s in %dms", pattern, stopWatch.getTime()));
 	}
@@ -856,34 +1230,52 @@ public class SHAREKnowledgeBase
 
 		log.debug(String.format("found %d service%s total", services.size(), services.size() == 1 ? "" : "s"));
 
-		boolean retrievedData = false;
-
+		/* filtering inputs and extracting their minimal models touches the
+		 * reasoning model, so that has to happen here; only the remote calls
+		 * themselves are run concurrently...
+		 */
+		List<ServiceCall> calls = new ArrayList<ServiceCall>(services.size());
 		for (Service service : services) {
 			/* copy the collection of potential inputs as they'll be filtered
 			 * for each service...
 			 */
 			Set<RDFNode> inputs = new HashSet<RDFNode>(subjects.values);
-			Model output = maybeCallService(service, inputs);
-//			if (!output.isEmpty())
-//				skipInputClasses.clear();
+			ServiceCall call = maybeCallService(service, inputs);
+			if (call != null)
+				calls.add(call);
+		}
 
-			/* add the service output to the data model */
-			for (Triple triple: RdfUtils.modelToTriples(output)) {
-				if (this.storeInferredTriples) {
-					addTripleWithInferences(triple);
-				} else {
-					log.trace(String.format("adding triple to data model %s", triple));
-					RdfUtils.addTripleToModel(dataModel, triple);
-				}
-				if (!retrievedData && !isOutputClassTypeTriple(triple, service)) {
-					retrievedData = true;
+		List<Model> outputs = invokeServices(calls);
+
+		boolean retrievedData = false;
+
+		/* add the service output to the data model */
+		dataModel.enterCriticalSection(Lock.WRITE);
+		try {
+			for (int i = 0; i < calls.size(); ++i) {
+				Service service = calls.get(i).service;
+				for (Triple triple: RdfUtils.modelToTriples(outputs.get(i))) {
+					if (this.storeInferredTriples) {
+						addTripleWithInferences(triple);
+					} else {
+						log.trace(String.format("adding triple to data model %s", triple));
+						RdfUtils.addTripleToModel(dataModel, triple);
+					}
+					if (!retrievedData && !isOutputClassTypeTriple(triple, service)) {
+						retrievedData = true;
+					}
 				}
 			}
-			reasoningModel.rebind();
+		} finally {
+			dataModel.leaveCriticalSection();
+		}
+		if (!calls.isEmpty())
+			updateReasoningModel();
 
-			/* load minimal ontologies for any undefined properties
-			 * that appear in the output data
-			 */
+		/* load minimal ontologies for any undefined properties
+		 * that appear in the output data
+		 */
+		for (Model output: outputs) {
 			for (Triple triple: RdfUtils.modelToTriples(output)) {
 				if (triple.getPredicate().isURI()) {
 					getOntProperty(triple.getPredicate().getURI());
@@ -1296,14 +1688,67 @@ public class SHAREKnowledgeBase
 		return statements;
 	}
 
+	/* invoke each of the prepared service calls on the service call pool
+	 * and wait for them all to complete; the returned list of output models
+	 * is in the same order as the calls...
+	 */
+	private List<Model> invokeServices(List<ServiceCall> calls)
+	{
+		/* other branches of the query can use the models while this one
+		 * waits for its services...
+		 */
+		int holds = releaseModelLock();
+		try {
+			return dispatchServiceCalls(calls);
+		} finally {
+			reacquireModelLock(holds);
+		}
+	}
+
+	private List<Model> dispatchServiceCalls(List<ServiceCall> calls)
+	{
+		List<Model> outputs = new ArrayList<Model>(calls.size());
+		if (calls.size() == 1) {
+			/* no point handing a single call off to another thread...
+			 */
+			outputs.add(calls.get(0).call());
+			return outputs;
+		}
+
+		List<Future<Model>> futures = new ArrayList<Future<Model>>(calls.size());
+		for (ServiceCall call: calls) {
+			futures.add(serviceCallExecutor.submit(call));
+		}
+		log.debug(String.format("dispatched %d service call%s", calls.size(), calls.size() == 1 ? "" : "s"));
+
+		for (int i = 0; i < futures.size(); ++i) {
+			Future<Model> future = futures.get(i);
+			try {
+				outputs.add(future.get());
+			} catch (InterruptedException e) {
+				log.warn("interrupted while waiting for service calls to complete");
+				for (Future<Model> f: futures.subList(i, futures.size()))
+					f.cancel(true);
+				Thread.currentThread().interrupt();
+				while (outputs.size() < calls.size())
+					outputs.add(ModelFactory.createDefaultModel());
+				return outputs;
+			} catch (ExecutionException e) {
+				log.error(String.format("error calling service %s", calls.get(i).service), e.getCause());
+				outputs.add(ModelFactory.createDefaultModel());
+			}
+		}
+		return outputs;
+	}
+
 //	Set<String> skipInputClasses = new HashSet<String>();
-	private Model maybeCallService(Service service, Set<RDFNode> subjects)
+	private ServiceCall maybeCallService(Service service, Set<RDFNode> subjects)
 	{
 		log.trace(String.format("found service %s", service));
 
 		if (deadServices.contains(service.getURI())) {
 			log.debug(String.format("skipping dead service %s", service));
-			return ModelFactory.createDefaultModel();
+			return null;
 		}
 
 		log.trace(String.format("filtering inputs previously sent to service %s", service));
@@ -1316,7 +1761,7 @@ public class SHAREKnowledgeBase
 		}
 		if (subjects.isEmpty()) {
 			log.trace("nothing left to do");
-			return ModelFactory.createDefaultModel();
+			return null;
 		}
 
 //		String inputClassURI = service.getInputClassURI();
@@ -1328,7 +1773,7 @@ public class SHAREKnowledgeBase
 		if (subjects.isEmpty()) {
 			log.trace("nothing left to do");
 //			skipInputClasses.add(inputClassURI);
-			return ModelFactory.createDefaultModel();
+			return null;
 		}
 
 		/* TODO filter by output class, too:
@@ -1340,7 +1785,7 @@ public class SHAREKnowledgeBase
 		 *  	remove service if there's a conflicting value constraint
 		 */
 
-		return invokeService(service, subjects);
+		return prepareServiceCall(service, subjects);
 	}
 
 	/* TODO make this less clunky; probably the service interface should take
@@ -1454,6 +1899,37 @@ public class SHAREKnowledgeBase
 			return;
 		}
 
+		/* if the input class compiles into a query, test each candidate
+		 * with it; that's much cheaper than adding the input class to the
+		 * reasoner and listing all of its instances. The query still runs
+		 * against reasoningModel, so that inferred types and properties
+		 * count...
+		 */
+		if (compileInputClasses) {
+			OntClass inputClass;
+			try {
+				inputClass = service.getInputClass();
+			} catch (SADIException e) {
+				log.error(String.format("error loading input class for service %s; skipping service", service), e);
+				subjects.clear();
+				return;
+			}
+			if (inputClassClassifier.canClassify(inputClass)) {
+				log.trace(String.format("testing candidates against compiled input class %s", inputClass));
+				Set<RDFNode> instances = inputClassClassifier.classify(inputClass, reasoningModel, subjects);
+				for (Iterator<? extends RDFNode> i = subjects.iterator(); i.hasNext(); ) {
+					RDFNode node = i.next();
+					if (instances.contains(node)) {
+						log.trace(String.format("%s is a valid input to %s", node, service));
+					} else {
+						log.trace(String.format("%s is an invalid input to %s", node, service));
+						i.remove();
+					}
+				}
+				return;
+			}
+		}
+
 		log.trace(String.format("finding instances of %s", service.getInputClassURI()));
 		OntClass inputClass = reasoningModel.getOntClass(service.getInputClassURI());
 		Set<String> instanceURIs = new HashSet<String>();
@@ -1537,7 +2013,57 @@ public class SHAREKnowledgeBase
 		}
 	}
 
-	private Model invokeService(Service service, Set<? extends RDFNode> inputs)
+	/* bind the inputs to a service call; for regular services, this extracts
+	 * the minimal model of each input from the reasoning model into a model
+	 * that belongs to the call, so that the call can safely be made from
+	 * another thread...
+	 */
+	private ServiceCall prepareServiceCall(Service service, Set<? extends RDFNode> inputs)
+	{
+		/* see above about special-case coding...
+		 */
+		if (service instanceof SPARQLServiceWrapper) {
+			return new ServiceCall(service, new ArrayList<RDFNode>(inputs));
+		}
+
+		OntClass inputClass;
+		try {
+			inputClass = service.getInputClass();
+		} catch (SADIException e) {
+			log.error(String.format("error loading input class for service %s; skipping service", service), e);
+			return null;
+		}
+
+		/* generate a list of the OntModel views of each resource
+		 * so that the minimal model extractor can used inferred
+		 * properties...
+		 */
+		Model inputModel = ModelFactory.createDefaultModel();
+		Collection<RDFNode> inputResources = new ArrayList<RDFNode>(inputs.size());
+		for (RDFNode input: inputs) {
+			/* only resources should be in the collection by now, but
+			 * let's be safe...
+			 */
+			if (!input.isResource())
+				continue;
+
+			Resource inputResource = input.inModel(reasoningModel).as(Resource.class);
+
+			/* explicitly attach the input type of the service, since
+			 * we know it's been dynamically classified as such...
+			 * TODO this shouldn't be necessary and is probably a bug
+			 */
+			inputResource.addProperty(RDF.type, inputClass);
+			inputModel.add(OwlUtils.getMinimalModel(inputResource, inputClass));
+			inputResources.add(inputResource.inModel(inputModel));
+		}
+		for (RDFNode inputResource: inputResources) {
+			tracker.beenThere(service, inputResource);
+		}
+		return new ServiceCall(service, inputResources);
+	}
+
+	private Model invokeService(Service service, Collection<RDFNode> inputs)
 	{
 		log.info(getServiceCallString(service, inputs));
 		try {
@@ -1551,35 +2077,7 @@ public class SHAREKnowledgeBase
 			if (service instanceof SPARQLServiceWrapper) {
 				output = ((SPARQLServiceWrapper)service).invokeServiceOnRDFNodes(inputs.iterator(), output);
 			} else {
-				/* generate a list of the OntModel views of each resource
-				 * so that the minimal model extractor can used inferred
-				 * properties...
-				 */
-				Collection<Resource> inputResources = new ArrayList<Resource>(inputs.size());
-				for (RDFNode input: inputs) {
-					/* only resources should be in the collection by now, but
-					 * let's be safe...
-					 */
-					if (!input.isResource())
-						continue;
-
-					Resource inputResource = input.inModel(reasoningModel).as(Resource.class);
-					inputResources.add(inputResource);
-
-					/* explicitly attach the input type of the service, since
-					 * we know it's been dynamically classified as such...
-					 * TODO this shouldn't be necessary and is probably a bug
-					 */
-					try {
-						inputResource.addProperty(RDF.type, service.getInputClass());
-					} catch (SADIException e) {
-						log.error(String.format("error loading input class for service %s", service), e);
-					}
-				}
-				for (Resource inputResource: inputResources) {
-					tracker.beenThere(service, inputResource);
-				}
-				output = service.invokeService(inputResources);
+				output = service.invokeService(RdfUtils.extractResources(inputs));
 			}
 
 			stopWatch.stop();
@@ -1718,6 +2216,50 @@ public class SHAREKnowledgeBase
 		}
 	}
 
+	/* a service and the inputs it will be called with; the inputs of a
+	 * regular service live in their own model, so a call only touches
+	 * state that is either private to it or synchronized...
+	 */
+	private class ServiceCall implements Callable<Model>
+	{
+		Service service;
+		Collection<RDFNode> inputs;
+
+		public ServiceCall(Service service, Collection<RDFNode> inputs)
+		{
+			this.service = service;
+			this.inputs = inputs;
+		}
+
+		public Model call()
+		{
+			return invokeService(service, inputs);
+		}
+	}
+
+	private static class KnowledgeBaseThreadFactory implements ThreadFactory
+	{
+		private static final AtomicInteger poolNumber = new AtomicInteger(1);
+
+		private final String name;
+		private final int pool;
+		private final AtomicInteger threadNumber;
+
+		public KnowledgeBaseThreadFactory(String name)
+		{
+			this.name = name;
+			pool = poolNumber.getAndIncrement();
+			threadNumber = new AtomicInteger(1);
+		}
+
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, String.format("share-%s-%d-%d", name, pool, threadNumber.getAndIncrement()));
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
 	private static class Tracker
 	{
 		private Set<String> visited;
@@ -2148,5 +2690,67 @@ public class SHAREKnowledgeBase
 
 	}
 
+	/**
+	 * Provides the query planner with the current variable bindings and
+	 * with cost estimates from the predicate stats and observed fan-outs.
+	 */
+	protected class PlannerCostModel implements QueryPlanner.CostModel
+	{
+		private QueryPatternComparator comparator = new QueryPatternComparator();
+		private PropertyResolvabilityCache resolvabilityCache = new PropertyResolvabilityCache(getRegistry());
+
+		public int getNumBindings(Node variable)
+		{
+			return variable.isVariable() ? getVariableBinding(variable).values.size() : 1;
+		}
+
+		public boolean isPredicateBound(Triple pattern)
+		{
+			return !expandQueryNode(pattern.getPredicate()).isEmpty();
+		}
+
+		public boolean isResolvable(Triple pattern, boolean directionIsForward)
+		{
+			Set<OntProperty> properties = getProperties(pattern);
+
+			/* the predicate has no bindings that are URIs, so the pattern
+			 * has no solutions and costs nothing to resolve...
+			 */
+			if (properties.isEmpty())
+				return true;
 
+			if (directionIsForward)
+				return resolvabilityCache.isResolvable(properties);
+			else
+				return resolvabilityCache.isResolvable(getInverseProperties(properties));
+		}
+
+		public int getEstimatedTime(Triple pattern, boolean directionIsForward, int numInputs)
+		{
+			return comparator.costByStats(getProperties(pattern), directionIsForward, numInputs);
+		}
+
+		public double getFanOut(Triple pattern, boolean directionIsForward)
+		{
+			Set<OntProperty> properties = getProperties(pattern);
+			if (properties.isEmpty())
+				return 0;
+
+			/* each predicate contributes its own outputs...
+			 */
+			double fanOut = 0;
+			for (OntProperty property: properties) {
+				double propertyFanOut = fanOutStats.getFanOut(property.getURI(), directionIsForward);
+				if (Double.isNaN(propertyFanOut))
+					return Double.NaN;
+				fanOut += propertyFanOut;
+			}
+			return fanOut;
+		}
+
+		private Set<OntProperty> getProperties(Triple pattern)
+		{
+			return getOntProperties(RdfUtils.extractResources(expandQueryNode(pattern.getPredicate()).values));
+		}
+	}
 }
@@ -1,5 +1,6 @@
 package ca.wilkinsonlab.sadi.share;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -8,8 +9,6 @@ import org.apache.commons.lang.time.StopWatch;
 import org.apache.log4j.Logger;
 
 import ca.wilkinsonlab.sadi.client.QueryClient;
-import ca.wilkinsonlab.sadi.utils.RdfUtils;
-
 import com.hp.hpl.jena.query.Query;
 import com.hp.hpl.jena.query.QueryExecution;
 import com.hp.hpl.jena.query.QueryExecutionFactory;
@@ -19,6 +18,7 @@ import com.hp.hpl.jena.query.ResultSet;
 import com.hp.hpl.jena.query.Syntax;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
 
 public class SHAREQueryClient extends QueryClient
 {
@@ -26,6 +26,8 @@ public class SHAREQueryClient extends QueryClient
 		
 	/** allow/disallow use of ARQ extensions to the SPARQL query language (e.g. GROUP BY, HAVING, arithmetic expressions) */
 	protected final static String ALLOW_ARQ_SYNTAX_CONFIG_KEY = "share.sparql.allowARQSyntax";
+	/** the variable that holds the result of an ASK query */
+	public final static String ASK_RESULT_VAR = "result";
 	protected Syntax querySyntax;
 	protected SHAREKnowledgeBase kb;
 	
@@ -50,16 +52,16 @@ public class SHAREQueryClient extends QueryClient
 	}
 	
 	@Override
-	protected QueryRunner getQueryRunner(String query, QueryClientCallback callback)
+	protected QueryRunner getQueryRunner(String query, QueryResultHandler handler)
 	{
-		return new SHAREQueryRunner(query, callback);
+		return new SHAREQueryRunner(query, handler);
 	}
 	
 	public class SHAREQueryRunner extends QueryRunner
 	{
-		public SHAREQueryRunner(String query, QueryClientCallback callback)
+		public SHAREQueryRunner(String query, QueryResultHandler handler)
 		{
-			super(query, callback);
+			super(query, handler);
 		}
 		
 		protected QueryExecution getQueryExecution(String query, Model model)
@@ -67,7 +69,7 @@ public class SHAREQueryClient extends QueryClient
 			return QueryExecutionFactory.create(query, kb.getQuerySyntax(), model);
 		}
 		
-		public void run()
+		protected void execute()
 		{
 			StopWatch stopWatch = new StopWatch();
 			
@@ -82,39 +84,49 @@ public class SHAREQueryClient extends QueryClient
 			stopWatch.stop();
 			log.debug(String.format("populated SHARE knowledge base in %dms", stopWatch.getTime()));
 			
-			kb.getReasoningModel().rebind();
+			kb.updateReasoningModel();
 			log.debug("using populated SHARE knowledge base to solve query");
 
 			stopWatch.reset();
 			stopWatch.start();			
-			execQuery(results, query, kb.getReasoningModel());
+			execQuery(query, kb.getReasoningModel());
 
 			stopWatch.stop();
 			log.debug(String.format("solved query against populated SHARE knowledge base in %dms", stopWatch.getTime()));
 		}
 		
-		private void execQuery(List<Map<String, String>> results, String query, Model model)
+		private void execQuery(String query, Model model)
 		{
-			QueryExecution qe = getQueryExecution(query, kb.getReasoningModel());
-			Query q = QueryFactory.create(query, kb.getQuerySyntax());
-			if (q.isSelectType()) {
-				ResultSet resultSet = qe.execSelect();
-				while (resultSet.hasNext()) {
-					QuerySolution binding = resultSet.nextSolution();
-					Map<String, String> bindingAsMap = new HashMap<String, String>();
-					for (String var: resultSet.getResultVars()) {
-						RDFNode varValue = binding.get(var);
-						bindingAsMap.put(var, varValue != null ? RdfUtils.getPlainString(varValue.asNode()) : null);
+			QueryExecution qe = getQueryExecution(query, model);
+			try {
+				Query q = QueryFactory.create(query, kb.getQuerySyntax());
+				if (q.isSelectType()) {
+					/* pass each solution on as soon as it is found, rather than
+					 * collecting them all first...
+					 */
+					ResultSet resultSet = qe.execSelect();
+					List<String> vars = resultSet.getResultVars();
+					handler.onStart(vars);
+					while (resultSet.hasNext()) {
+						QuerySolution binding = resultSet.nextSolution();
+						Map<String, RDFNode> bindingAsMap = new HashMap<String, RDFNode>();
+						for (String var: vars)
+							bindingAsMap.put(var, binding.get(var));
+						if (!handler.onResult(bindingAsMap)) {
+							log.debug("query stopped by result handler");
+							break;
+						}
 					}
-					results.add(bindingAsMap);
+				} else if (q.isAskType()) {
+					boolean result = qe.execAsk();
+					handler.onStart(Collections.singletonList(ASK_RESULT_VAR));
+					Map<String, RDFNode> binding = new HashMap<String, RDFNode>();
+					binding.put(ASK_RESULT_VAR, ResourceFactory.createTypedLiteral(result));
+					handler.onResult(binding);
 				}
-			} else if (q.isAskType()) {
-				boolean result = qe.execAsk();
-				Map<String, String> binding = new HashMap<String, String>();
-				binding.put("result", String.valueOf(result));
-				results.add(binding);
+			} finally {
+				qe.close();
 			}
-			qe.close();		
 		}
 	}
 }
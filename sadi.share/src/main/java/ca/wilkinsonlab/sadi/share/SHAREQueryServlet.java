@@ -0,0 +1,122 @@
+package ca.wilkinsonlab.sadi.share;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+
+import ca.wilkinsonlab.sadi.client.QueryClient;
+import ca.wilkinsonlab.sadi.client.QueryClient.ResultIterator;
+
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryException;
+import com.hp.hpl.jena.query.QueryFactory;
+import com.hp.hpl.jena.query.Syntax;
+import com.hp.hpl.jena.rdf.model.Literal;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+
+/**
+ * Answers SPARQL SELECT and ASK queries with SHARE, writing each solution
+ * to the response in the SPARQL results JSON format as soon as it is found.
+ * Queries run on the shared {@link QueryClient} executor; when too many
+ * queries are already waiting, the request fails with 503 (Service Unavailable).
+ */
+public class SHAREQueryServlet extends HttpServlet
+{
+	private static final Logger log = Logger.getLogger(SHAREQueryServlet.class);
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	public void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+	{
+		doQuery(request, response);
+	}
+
+	@Override
+	public void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+	{
+		doQuery(request, response);
+	}
+
+	protected void doQuery(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+	{
+		String queryString = request.getParameter("query");
+		if (StringUtils.isEmpty(queryString)) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "no query specified");
+			return;
+		}
+
+		Query query;
+		try {
+			query = QueryFactory.create(queryString, Syntax.syntaxARQ);
+		} catch (QueryException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+		if (!query.isSelectType() && !query.isAskType()) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "only SELECT and ASK queries are supported");
+			return;
+		}
+
+		ResultIterator results;
+		try {
+			results = new SHAREQueryClient().iteratorQuery(queryString);
+		} catch (RejectedExecutionException e) {
+			response.setHeader("Retry-After", "60");
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+					String.format("too many queries waiting to run (%d queued)", QueryClient.getQueuedQueryCount()));
+			return;
+		}
+
+		try {
+			/* wait for the query to start before committing the response,
+			 * so that a query that fails immediately can still return an error...
+			 */
+			List<String> variables;
+			try {
+				variables = results.getResultVars();
+			} catch (RuntimeException e) {
+				log.error(String.format("error executing query %s", queryString), e);
+				response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+				return;
+			}
+
+			response.setContentType(String.format("%s; charset=UTF-8", SPARQLResultsJSONWriter.CONTENT_TYPE));
+			SPARQLResultsJSONWriter writer = new SPARQLResultsJSONWriter(response.getWriter());
+			boolean complete = false;
+			try {
+				if (query.isAskType()) {
+					RDFNode result = results.next().get(SHAREQueryClient.ASK_RESULT_VAR);
+					writer.writeBoolean(((Literal)result).getBoolean());
+				} else {
+					writer.writeStart(variables);
+					while (results.hasNext()) {
+						Map<String, RDFNode> binding = results.next();
+						writer.writeBinding(binding);
+					}
+				}
+				complete = true;
+			} catch (RuntimeException e) {
+				/* the response is already committed, so all we can do is
+				 * end it early, without terminating the document...
+				 */
+				log.error(String.format("error executing query %s", queryString), e);
+			} finally {
+				if (complete)
+					writer.close();
+				else
+					writer.abort();
+			}
+		} finally {
+			results.close();
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package ca.wilkinsonlab.sadi.share;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+import com.hp.hpl.jena.rdf.model.Literal;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+
+/**
+ * Writes query results in the SPARQL results JSON format one solution at
+ * a time, so that a client can start reading the results before the
+ * query is finished. A result that can't be completed is ended with
+ * {@link #abort()} rather than {@link #close()}, so that the client sees a
+ * truncated document instead of a short but well-formed one.
+ */
+public class SPARQLResultsJSONWriter
+{
+	public static final String CONTENT_TYPE = "application/sparql-results+json";
+
+	/** the number of solutions written between flushes */
+	protected static final int FLUSH_INTERVAL = 100;
+
+	private static final JsonFactory jsonFactory = new JsonFactory();
+
+	private final Writer writer;
+	private final JsonGenerator generator;
+	private boolean inBindings;
+	private int unflushed;
+
+	public SPARQLResultsJSONWriter(Writer writer) throws IOException
+	{
+		this.writer = writer;
+		generator = jsonFactory.createJsonGenerator(writer);
+		inBindings = false;
+		unflushed = 0;
+	}
+
+	/**
+	 * Write the head of a SELECT result and open the list of solutions.
+	 * @param variables the names of the result variables
+	 * @throws IOException
+	 */
+	public void writeStart(List<String> variables) throws IOException
+	{
+		generator.writeStartObject();
+		generator.writeObjectFieldStart("head");
+		generator.writeArrayFieldStart("vars");
+		for (String var: variables)
+			generator.writeString(var);
+		generator.writeEndArray();
+		generator.writeEndObject();
+		generator.writeObjectFieldStart("results");
+		generator.writeArrayFieldStart("bindings");
+		inBindings = true;
+		generator.flush();
+	}
+
+	/**
+	 * Write one solution, flushing the output every {@link #FLUSH_INTERVAL}
+	 * solutions.
+	 * @param binding the solution; unbound variables map to null
+	 * @throws IOException
+	 */
+	public void writeBinding(Map<String, RDFNode> binding) throws IOException
+	{
+		generator.writeStartObject();
+		for (Map.Entry<String, RDFNode> entry: binding.entrySet()) {
+			if (entry.getValue() == null)
+				continue;
+			generator.writeObjectFieldStart(entry.getKey());
+			writeNode(entry.getValue());
+			generator.writeEndObject();
+		}
+		generator.writeEndObject();
+		if (++unflushed >= FLUSH_INTERVAL) {
+			generator.flush();
+			unflushed = 0;
+		}
+	}
+
+	/**
+	 * Write the complete result of an ASK query.
+	 * @param result the result
+	 * @throws IOException
+	 */
+	public void writeBoolean(boolean result) throws IOException
+	{
+		generator.writeStartObject();
+		generator.writeObjectFieldStart("head");
+		generator.writeEndObject();
+		generator.writeBooleanField("boolean", result);
+		generator.writeEndObject();
+	}
+
+	/**
+	 * Close the list of solutions, if one is open, and flush the output.
+	 * @throws IOException
+	 */
+	public void close() throws IOException
+	{
+		if (inBindings) {
+			generator.writeEndArray();
+			generator.writeEndObject();
+			generator.writeEndObject();
+			inBindings = false;
+		}
+		generator.close();
+	}
+
+	/**
+	 * Flush what has been written and close the output without closing
+	 * the list of solutions or the document, so that the client can't
+	 * mistake a failed query for a complete result.
+	 * @throws IOException
+	 */
+	public void abort() throws IOException
+	{
+		generator.flush();
+		inBindings = false;
+		writer.close();
+	}
+
+	private void writeNode(RDFNode node) throws IOException
+	{
+		if (node.isURIResource()) {
+			generator.writeStringField("type", "uri");
+			generator.writeStringField("value", ((Resource)node).getURI());
+		} else if (node.isAnon()) {
+			generator.writeStringField("type", "bnode");
+			generator.writeStringField("value", ((Resource)node).getId().getLabelString());
+		} else {
+			Literal literal = (Literal)node;
+			if (literal.getDatatypeURI() != null) {
+				generator.writeStringField("type", "typed-literal");
+				generator.writeStringField("datatype", literal.getDatatypeURI());
+			} else {
+				generator.writeStringField("type", "literal");
+				if (!StringUtils.isEmpty(literal.getLanguage()))
+					generator.writeStringField("xml:lang", literal.getLanguage());
+			}
+			generator.writeStringField("value", literal.getLexicalForm());
+		}
+	}
+}
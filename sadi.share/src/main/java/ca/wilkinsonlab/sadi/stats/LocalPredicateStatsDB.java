@@ -0,0 +1,414 @@
+package ca.wilkinsonlab.sadi.stats;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.log4j.Logger;
+
+import ca.wilkinsonlab.sadi.stats.PredicateStatsDB.SampleStats;
+
+import com.hp.hpl.jena.rdf.model.Property;
+
+/**
+ * <p>An embedded predicate stats store, kept in memory and saved to a local
+ * file, for SHARE nodes that don't have a stats endpoint.</p>
+ *
+ * <p>Each predicate and direction has a running mean and regression line of
+ * response time against number of inputs, which is updated as each sample
+ * is recorded, so estimates are always current and never require a query.
+ * The estimates follow the same rules as {@link PredicateStatsDB}: the
+ * regression line if there is one, the mean response time if all of the
+ * samples were for the requested number of inputs, or else the average
+ * base time and time-per-input over all predicates.</p>
+ *
+ * <p>The running totals are written to the file periodically and when the
+ * store is closed, and are read back when the store is created; samples
+ * themselves aren't kept.</p>
+ *
+ * <p>Knowledge bases should get their store from {@link #getInstance(Configuration)},
+ * which shares one store between everyone using the same file, so that the
+ * file is read once and one store's saves don't overwrite another's.
+ * The shared store is saved and released when the last user closes it.</p>
+ */
+public class LocalPredicateStatsDB implements PredicateStatsStore
+{
+	protected final static Logger log = Logger.getLogger(LocalPredicateStatsDB.class);
+
+	public final static String FILE_CONFIG_KEY = "file";
+	public final static String SAVE_INTERVAL_CONFIG_KEY = "saveInterval";
+	public final static long DEFAULT_SAVE_INTERVAL = 60000; // one minute
+
+	private final static int FILE_MAGIC = 0x53414449; // "SADI"
+	private final static int FILE_VERSION = 1;
+
+	/* saves every store periodically; saving is quick, so one thread will do...
+	 */
+	private final static ScheduledExecutorService saveExecutor = Executors.newSingleThreadScheduledExecutor(new SaveThreadFactory());
+
+	/* the shared stores, by canonical file; guards references too...
+	 */
+	private final static Map<File, LocalPredicateStatsDB> instances = new HashMap<File, LocalPredicateStatsDB>();
+
+	private final File file;
+	private final ConcurrentMap<String, SampleStats> stats;
+	private final ScheduledFuture<?> saveTask;
+	private File sharedKey;
+	private int references;
+	private volatile boolean modified;
+	private volatile boolean closed;
+
+	/* average base time and time-per-input over all predicates, recomputed
+	 * when they're needed after a sample is recorded...
+	 */
+	private volatile Averages averages;
+
+	public LocalPredicateStatsDB(Configuration config)
+	{
+		this(new File(config.getString(FILE_CONFIG_KEY)), config.getLong(SAVE_INTERVAL_CONFIG_KEY, DEFAULT_SAVE_INTERVAL));
+	}
+
+	/**
+	 * Returns the stats store shared by everyone using the file named in the
+	 * specified configuration, creating it if necessary.
+	 * Each call must be matched by a call to {@link #close()}.
+	 * @param config the stats configuration
+	 * @return the shared stats store
+	 */
+	public static LocalPredicateStatsDB getInstance(Configuration config)
+	{
+		return getInstance(new File(config.getString(FILE_CONFIG_KEY)), config.getLong(SAVE_INTERVAL_CONFIG_KEY, DEFAULT_SAVE_INTERVAL));
+	}
+
+	/**
+	 * Returns the stats store shared by everyone using the specified file,
+	 * creating it if necessary; the save interval is that of the first caller.
+	 * Each call must be matched by a call to {@link #close()}.
+	 * @param file the file
+	 * @param saveInterval how often (in milliseconds) to save the stats, or 0 to save them only on close
+	 * @return the shared stats store
+	 */
+	public static LocalPredicateStatsDB getInstance(File file, long saveInterval)
+	{
+		File key;
+		try {
+			key = file.getCanonicalFile();
+		} catch(IOException e) {
+			key = file.getAbsoluteFile();
+		}
+		synchronized(instances) {
+			LocalPredicateStatsDB instance = instances.get(key);
+			if(instance == null) {
+				instance = new LocalPredicateStatsDB(file, saveInterval);
+				instance.sharedKey = key;
+				instances.put(key, instance);
+			} else {
+				++instance.references;
+			}
+			return instance;
+		}
+	}
+
+	/**
+	 * Create a stats store backed by the specified file, loading any stats
+	 * already saved there.
+	 * @param file the file
+	 * @param saveInterval how often (in milliseconds) to save the stats, or 0 to save them only on close
+	 */
+	public LocalPredicateStatsDB(File file, long saveInterval)
+	{
+		this.file = file;
+		this.stats = new ConcurrentHashMap<String, SampleStats>();
+		this.modified = false;
+		this.closed = false;
+		this.averages = null;
+		this.references = 1;
+
+		if(file.exists()) {
+			try {
+				load();
+			} catch(IOException e) {
+				log.warn(String.format("error reading predicate stats from %s, starting with no stats", file), e);
+				stats.clear();
+			}
+		}
+
+		if(saveInterval > 0) {
+			saveTask = saveExecutor.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					if(!closed)
+						saveQuietly();
+				}
+			}, saveInterval, saveInterval, TimeUnit.MILLISECONDS);
+		} else {
+			saveTask = null;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see ca.wilkinsonlab.sadi.stats.PredicateStatsStore#getEstimatedTime(com.hp.hpl.jena.rdf.model.Property, boolean, int)
+	 */
+	public int getEstimatedTime(Property predicate, boolean directionIsForward, int numInputs)
+	{
+		SampleStats entry = stats.get(getKey(predicate.getURI(), directionIsForward));
+		if(entry != null) {
+			synchronized(entry) {
+				double intercept = entry.getIntercept();
+				if(!Double.isNaN(intercept))
+					return estimate(intercept, entry.getSlope(), numInputs);
+				/* all of the samples are for the same number of inputs...
+				 */
+				if((int)entry.getMeanNumInputs() == numInputs)
+					return (int)entry.getMeanResponseTime();
+			}
+		}
+
+		Averages averages = getAverages();
+		if(averages == null)
+			return PredicateStatsDB.NO_STATS_AVAILABLE;
+		else
+			return averages.averageBaseTime + (numInputs * averages.averageTimePerInput);
+	}
+
+	/* (non-Javadoc)
+	 * @see ca.wilkinsonlab.sadi.stats.PredicateStatsStore#recordSample(com.hp.hpl.jena.rdf.model.Property, boolean, int, int)
+	 */
+	public void recordSample(Property predicate, boolean directionIsForward, int numInputs, int responseTime)
+	{
+		if(closed) {
+			log.warn("predicate stats store is closed, dropping sample");
+			return;
+		}
+
+		String key = getKey(predicate.getURI(), directionIsForward);
+		SampleStats entry = stats.get(key);
+		if(entry == null) {
+			SampleStats newEntry = new SampleStats(predicate.getURI(), directionIsForward);
+			entry = stats.putIfAbsent(key, newEntry);
+			if(entry == null)
+				entry = newEntry;
+		}
+		synchronized(entry) {
+			entry.addSample(numInputs, responseTime);
+		}
+		averages = null;
+		modified = true;
+	}
+
+	/* (non-Javadoc)
+	 * @see ca.wilkinsonlab.sadi.stats.PredicateStatsStore#close()
+	 */
+	public void close()
+	{
+		/* a shared store stays open until its last user closes it...
+		 */
+		synchronized(instances) {
+			if(closed || --references > 0)
+				return;
+			if(sharedKey != null && instances.get(sharedKey) == this)
+				instances.remove(sharedKey);
+			closed = true;
+		}
+		if(saveTask != null)
+			saveTask.cancel(false);
+		saveQuietly();
+	}
+
+	/**
+	 * Returns the number of predicate/direction pairs with stats.
+	 */
+	public int size()
+	{
+		return stats.size();
+	}
+
+	/**
+	 * Forget all stats.
+	 */
+	public void clear()
+	{
+		stats.clear();
+		averages = null;
+		modified = true;
+	}
+
+	/**
+	 * Write the stats to the file, if they have changed since they were last written.
+	 * The stats are written to a temporary file that then replaces the file, so
+	 * the file is never left half-written.
+	 */
+	public synchronized void save() throws IOException
+	{
+		if(!modified)
+			return;
+		modified = false;
+
+		List<SampleStats> snapshot = new ArrayList<SampleStats>(stats.size());
+		for(SampleStats entry: stats.values()) {
+			synchronized(entry) {
+				snapshot.add(new SampleStats(entry));
+			}
+		}
+
+		File parent = file.getAbsoluteFile().getParentFile();
+		if(parent != null && !parent.exists())
+			parent.mkdirs();
+		/* a temporary file of our own in the same directory, so that the
+		 * rename doesn't cross filesystems and another process saving the
+		 * same stats can't write into it...
+		 */
+		File tmp = null;
+		boolean saved = false;
+		try {
+			tmp = File.createTempFile(String.format(".%s.", file.getName()), ".tmp", parent);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				out.writeInt(FILE_MAGIC);
+				out.writeInt(FILE_VERSION);
+				out.writeInt(snapshot.size());
+				for(SampleStats entry: snapshot) {
+					out.writeUTF(entry.predicate);
+					out.writeBoolean(entry.directionIsForward);
+					out.writeInt(entry.numSamples);
+					out.writeDouble(entry.meanNumInputs);
+					out.writeDouble(entry.meanResponseTime);
+					out.writeDouble(entry.sumSquaresNumInputs);
+					out.writeDouble(entry.sumProductsDeviations);
+				}
+			} finally {
+				out.close();
+			}
+
+			/* File.renameTo won't replace an existing file on some platforms...
+			 */
+			if(!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file)))
+				throw new IOException(String.format("unable to replace %s with %s", file, tmp));
+			saved = true;
+		} finally {
+			if(!saved) {
+				modified = true;
+				if(tmp != null)
+					tmp.delete();
+			}
+		}
+		log.debug(String.format("saved stats for %d predicates to %s", snapshot.size(), file));
+	}
+
+	protected void load() throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if(in.readInt() != FILE_MAGIC)
+				throw new IOException(String.format("%s is not a predicate stats file", file));
+			int version = in.readInt();
+			if(version != FILE_VERSION)
+				throw new IOException(String.format("unsupported predicate stats file version %d", version));
+			int size = in.readInt();
+			for(int i = 0; i < size; ++i) {
+				SampleStats entry = new SampleStats(in.readUTF(), in.readBoolean());
+				entry.numSamples = in.readInt();
+				entry.meanNumInputs = in.readDouble();
+				entry.meanResponseTime = in.readDouble();
+				entry.sumSquaresNumInputs = in.readDouble();
+				entry.sumProductsDeviations = in.readDouble();
+				stats.put(getKey(entry.predicate, entry.directionIsForward), entry);
+			}
+		} catch(EOFException e) {
+			throw new IOException(String.format("%s is truncated", file));
+		} finally {
+			in.close();
+		}
+		log.debug(String.format("loaded stats for %d predicates from %s", stats.size(), file));
+	}
+
+	private void saveQuietly()
+	{
+		try {
+			save();
+		} catch(IOException e) {
+			log.error(String.format("error saving predicate stats to %s", file), e);
+		}
+	}
+
+	private Averages getAverages()
+	{
+		Averages averages = this.averages;
+		if(averages == null) {
+			long baseTimeSum = 0;
+			long timePerInputSum = 0;
+			int n = 0;
+			for(SampleStats entry: stats.values()) {
+				synchronized(entry) {
+					double intercept = entry.getIntercept();
+					if(Double.isNaN(intercept))
+						continue;
+					baseTimeSum += estimate(intercept, entry.getSlope(), 0);
+					timePerInputSum += (int)Math.round(Math.max(0, entry.getSlope()));
+					++n;
+				}
+			}
+			averages = n > 0 ? new Averages((int)(baseTimeSum / n), (int)(timePerInputSum / n)) : Averages.NONE;
+			this.averages = averages;
+		}
+		return averages == Averages.NONE ? null : averages;
+	}
+
+	/* the same rounding as the summary stats in PredicateStatsDB...
+	 */
+	private static int estimate(double intercept, double slope, int numInputs)
+	{
+		int baseTime = (int)Math.round(Math.max(0, intercept));
+		int timePerInput = (int)Math.round(Math.max(0, slope));
+		return baseTime + (numInputs * timePerInput);
+	}
+
+	private static String getKey(String predicate, boolean directionIsForward)
+	{
+		return String.format("%s:%s", predicate, directionIsForward);
+	}
+
+	private static class Averages
+	{
+		static final Averages NONE = new Averages(PredicateStatsDB.NO_STATS_AVAILABLE, PredicateStatsDB.NO_STATS_AVAILABLE);
+
+		final int averageBaseTime;
+		final int averageTimePerInput;
+
+		Averages(int averageBaseTime, int averageTimePerInput)
+		{
+			this.averageBaseTime = averageBaseTime;
+			this.averageTimePerInput = averageTimePerInput;
+		}
+	}
+
+	private static class SaveThreadFactory implements ThreadFactory
+	{
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, String.format("%s-%d", LocalPredicateStatsDB.class.getSimpleName(), threadNumber.getAndIncrement()));
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
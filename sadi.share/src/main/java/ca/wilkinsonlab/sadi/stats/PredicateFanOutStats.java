@@ -0,0 +1,84 @@
+package ca.wilkinsonlab.sadi.stats;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Records the observed fan-out of predicates (the number of values
+ * produced for each input value) so that the query planner can estimate
+ * how many bindings a query pattern will produce.
+ */
+public class PredicateFanOutStats
+{
+	private final ConcurrentMap<String, Totals> totals;
+
+	public PredicateFanOutStats()
+	{
+		totals = new ConcurrentHashMap<String, Totals>();
+	}
+
+	/**
+	 * Record that resolving the specified predicate in the specified
+	 * direction produced the specified number of outputs for the specified
+	 * number of inputs.
+	 * @param predicate the predicate URI
+	 * @param directionIsForward true if the predicate was resolved from subject to object
+	 * @param numInputs the number of input values
+	 * @param numOutputs the number of output values
+	 */
+	public void recordSample(String predicate, boolean directionIsForward, int numInputs, int numOutputs)
+	{
+		if(numInputs <= 0)
+			return;
+
+		String key = getKey(predicate, directionIsForward);
+		Totals entry = totals.get(key);
+		if(entry == null) {
+			Totals newEntry = new Totals();
+			entry = totals.putIfAbsent(key, newEntry);
+			if(entry == null)
+				entry = newEntry;
+		}
+		synchronized(entry) {
+			entry.numInputs += numInputs;
+			entry.numOutputs += numOutputs;
+		}
+	}
+
+	/**
+	 * Returns the average number of outputs per input for the specified
+	 * predicate in the specified direction, or NaN if the predicate hasn't
+	 * been resolved in that direction.
+	 * @param predicate the predicate URI
+	 * @param directionIsForward true if the predicate is resolved from subject to object
+	 * @return the average number of outputs per input
+	 */
+	public double getFanOut(String predicate, boolean directionIsForward)
+	{
+		Totals entry = totals.get(getKey(predicate, directionIsForward));
+		if(entry == null)
+			return Double.NaN;
+		synchronized(entry) {
+			return (double)entry.numOutputs / entry.numInputs;
+		}
+	}
+
+	/**
+	 * Forget all recorded fan-outs.
+	 */
+	public void clear()
+	{
+		totals.clear();
+	}
+
+	private static String getKey(String predicate, boolean directionIsForward)
+	{
+		return String.format("%s:%s", predicate, directionIsForward);
+	}
+
+	private static class Totals
+	{
+		long numInputs;
+		long numOutputs;
+	}
+}
@@ -3,9 +3,17 @@ package ca.wilkinsonlab.sadi.stats;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.Element;
@@ -13,7 +21,6 @@ import net.sf.ehcache.config.CacheConfiguration;
 import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
 
 import org.apache.commons.lang.time.StopWatch;
-import org.apache.commons.math.stat.regression.SimpleRegression;
 import org.apache.commons.configuration.Configuration;
 import org.apache.log4j.Logger;
 
@@ -21,12 +28,13 @@ import com.hp.hpl.jena.rdf.model.Property;
 import com.hp.hpl.jena.rdf.model.ResourceFactory;
 
 import ca.wilkinsonlab.sadi.client.virtual.sparql.SPARQLEndpoint;
+import ca.wilkinsonlab.sadi.client.virtual.sparql.SPARQLEndpoint.BindingIterator;
 import ca.wilkinsonlab.sadi.client.virtual.sparql.VirtuosoSPARQLEndpoint;
 import ca.wilkinsonlab.sadi.share.Config;
 import ca.wilkinsonlab.sadi.utils.SPARQLStringUtils;
 import ca.wilkinsonlab.sadi.vocab.PredicateStats;
 
-public class PredicateStatsDB 
+public class PredicateStatsDB implements PredicateStatsStore
 {
 	protected final static Logger log = Logger.getLogger(PredicateStatsDB.class);
 
@@ -42,12 +50,22 @@ public class PredicateStatsDB
 	public final static String SAMPLES_GRAPH_CONFIG_KEY = "samplesGraph";
 	public final static String STATS_GRAPH_CONFIG_KEY = "statsGraph";
 	public final static String SAMPLE_CACHE_SIZE_CONFIG_KEY = "sampleCacheSize";
+	public final static String SAMPLE_QUEUE_SIZE_CONFIG_KEY = "sampleQueueSize";
+	public final static String SAMPLE_BATCH_SIZE_CONFIG_KEY = "sampleBatchSize";
 	
 	public final static String DEFAULT_SAMPLES_GRAPH = "http://sadiframework.org/predicateStats/samples";
 	public final static String DEFAULT_STATS_GRAPH = "http://sadiframework.org/predicateStats/summaryStats";
 
+	public final static int DEFAULT_SAMPLE_QUEUE_SIZE = 10000;
+	public final static int DEFAULT_SAMPLE_BATCH_SIZE = 100;
+
 	protected final static int INTERNAL_STATS_CACHE_SIZE = 5000;
 	protected final static int UNINITIALIZED = -1; 
+	
+	/* the SPARQL templates, read from the classpath the first time they're used...
+	 */
+	private final static ConcurrentMap<String, String> templates = new ConcurrentHashMap<String, String>();
+	private final static AtomicInteger writerThreadNumber = new AtomicInteger(1);
 
 	/*
 	 * This value is placed in the statsCache to indicate that we have already queried the
@@ -59,13 +77,37 @@ public class PredicateStatsDB
 	protected String samplesGraph;
 	protected String statsGraph;
 	
+	/*
+	 * Samples are queued here and written to the samples graph in batches by
+	 * a background thread, so that recording a sample never waits on the
+	 * endpoint.  If the queue is full, the oldest sample is dropped.
+	 */
+	protected BlockingQueue<Sample> sampleQueue;
+	protected int sampleBatchSize;
+	protected Thread sampleWriter;
+	protected Thread shutdownHook;
+	protected volatile boolean closed;
+	protected final AtomicLong droppedSamples = new AtomicLong();
+	protected final AtomicLong failedSamples = new AtomicLong();
+	
+	/*
+	 * Running totals of the samples for each predicate and direction, so that
+	 * the summary stats can be recomputed without re-reading every sample.
+	 * These are loaded from the samples graph the first time the stats are
+	 * recomputed incrementally, and are kept up to date as samples are written.
+	 */
+	protected final Map<String, SampleStats> sampleStats = new HashMap<String, SampleStats>();
+	protected boolean sampleStatsLoaded = false;
+	
 	public PredicateStatsDB(Configuration config) throws IOException
 	{
 		this(config.getString(ENDPOINT_URL_CONFIG_KEY), 
 			config.getString(USERNAME_CONFIG_KEY),
 			config.getString(PASSWORD_CONFIG_KEY),
 			config.getString(SAMPLES_GRAPH_CONFIG_KEY, DEFAULT_SAMPLES_GRAPH),
-			config.getString(STATS_GRAPH_CONFIG_KEY, DEFAULT_STATS_GRAPH));
+			config.getString(STATS_GRAPH_CONFIG_KEY, DEFAULT_STATS_GRAPH),
+			config.getInt(SAMPLE_QUEUE_SIZE_CONFIG_KEY, DEFAULT_SAMPLE_QUEUE_SIZE),
+			config.getInt(SAMPLE_BATCH_SIZE_CONFIG_KEY, DEFAULT_SAMPLE_BATCH_SIZE));
 	}
 	
 	public PredicateStatsDB(String endpointURL, String username, String password) throws IOException 
@@ -84,6 +126,26 @@ public class PredicateStatsDB
 			String samplesGraph,
 			String statsGraph) 
 	
+	throws IOException
+	{
+		this(endpointURL,
+			username,
+			password,
+			samplesGraph,
+			statsGraph,
+			DEFAULT_SAMPLE_QUEUE_SIZE,
+			DEFAULT_SAMPLE_BATCH_SIZE);
+	}
+	
+	public PredicateStatsDB(
+			String endpointURL,
+			String username,
+			String password,
+			String samplesGraph,
+			String statsGraph,
+			int sampleQueueSize,
+			int sampleBatchSize) 
+	
 	throws IOException
 	{
 		StopWatch stopWatch = new StopWatch();
@@ -95,6 +157,10 @@ public class PredicateStatsDB
 		
 		this.samplesGraph = samplesGraph;
 		this.statsGraph = statsGraph;
+		
+		this.sampleQueue = new ArrayBlockingQueue<Sample>(Math.max(1, sampleQueueSize));
+		this.sampleBatchSize = Math.max(1, sampleBatchSize);
+		this.closed = false;
 
 		stopWatch.stop();
 		log.debug(String.format("initialized predicate stats db in %dms", stopWatch.getTime()));
@@ -122,7 +188,7 @@ public class PredicateStatsDB
 	
 	public int getNumSamples() throws IOException 
 	{
-		String queryTemplate = SPARQLStringUtils.readFully(PredicateStatsDB.class.getResource("count.samples.sparql.template"));
+		String queryTemplate = getTemplate("count.samples.sparql.template");
 		String countQuery = SPARQLStringUtils.strFromTemplate(queryTemplate, this.samplesGraph);
 		List<Map<String,String>> results = endpoint.selectQuery(countQuery);
 
@@ -140,35 +206,196 @@ public class PredicateStatsDB
 		return Integer.valueOf(firstRow.get(firstColumn));	
 	}
 	
-	public synchronized void recordSample(Property predicate, boolean directionIsForward, int numInputs, int responseTime)
+	/**
+	 * Queue a sample to be written to the samples graph.  This method doesn't
+	 * wait for the sample to be written; samples are written in batches by a
+	 * background thread.  If the queue is full, the oldest queued sample is
+	 * dropped.
+	 */
+	public void recordSample(Property predicate, boolean directionIsForward, int numInputs, int responseTime)
 	{
+		log.debug(String.format("recording sample for predicate stats (predicate = %s, direction = %s, numInputs = %d, responseTime = %d ms)", 
+				predicate.getURI(),	directionIsForward ? "forward" : "reverse",	numInputs, responseTime));
 		
-		try {
-
-			log.debug(String.format("recording sample for predicate stats (predicate = %s, direction = %s, numInputs = %d, responseTime = %d ms)", 
-					predicate.getURI(),	directionIsForward ? "forward" : "reverse",	numInputs, responseTime));
+		if(closed) {
+			log.warn("predicate stats db is closed, dropping sample");
+			droppedSamples.incrementAndGet();
+			return;
+		}
+		
+		Sample sample = new Sample(predicate.getURI(), directionIsForward, numInputs, responseTime, System.currentTimeMillis());
+		while(!sampleQueue.offer(sample)) {
+			if(sampleQueue.poll() != null) {
+				long dropped = droppedSamples.incrementAndGet();
+				// don't flood the log if the endpoint can't keep up...
+				if((dropped & (dropped - 1)) == 0)
+					log.warn(String.format("predicate stats sample queue is full, %d samples dropped so far", dropped));
+			}
+		}
+		
+		startSampleWriter();
+	}
+	
+	/**
+	 * Write all of the queued samples to the samples graph before returning.
+	 */
+	public void flush()
+	{
+		List<Sample> batch = new ArrayList<Sample>(sampleBatchSize);
+		while(sampleQueue.drainTo(batch, sampleBatchSize) > 0) {
+			writeSamples(batch);
+			batch.clear();
+		}
+	}
+	
+	/**
+	 * Stop accepting samples and write the samples that are already queued
+	 * before returning.  This is also done when the JVM exits, so that
+	 * queued samples aren't lost if the stats db is never closed.
+	 */
+	public void close()
+	{
+		closed = true;
+		
+		Thread writer;
+		Thread hook;
+		synchronized(this) {
+			writer = sampleWriter;
+			hook = shutdownHook;
+			shutdownHook = null;
+		}
+		
+		/* the writer thread exits once the queue is empty; anything it 
+		 * leaves behind (e.g. if it was interrupted) is written here...
+		 */
+		if(writer != null && writer != Thread.currentThread()) {
+			try {
+				writer.join();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		flush();
+		
+		if(hook != null && hook != Thread.currentThread()) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(hook);
+			} catch(IllegalStateException e) {
+				// the JVM is already shutting down
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of samples that were dropped because the queue was full
+	 * (or the stats db was closed).
+	 */
+	public long getNumDroppedSamples()
+	{
+		return droppedSamples.get();
+	}
+	
+	/**
+	 * Returns the number of samples that couldn't be written to the samples graph.
+	 */
+	public long getNumFailedSamples()
+	{
+		return failedSamples.get();
+	}
+	
+	protected synchronized void startSampleWriter()
+	{
+		if(sampleWriter != null)
+			return;
+		
+		sampleWriter = new Thread(new Runnable() {
+			public void run() {
+				List<Sample> batch = new ArrayList<Sample>(sampleBatchSize);
+				while(!(closed && sampleQueue.isEmpty())) {
+					try {
+						Sample sample = sampleQueue.poll(1, TimeUnit.SECONDS);
+						if(sample == null)
+							continue;
+						batch.add(sample);
+						sampleQueue.drainTo(batch, sampleBatchSize - 1);
+						writeSamples(batch);
+						batch.clear();
+					} catch(InterruptedException e) {
+						break;
+					} catch(RuntimeException e) {
+						log.error("error writing predicate stats samples: ", e);
+						batch.clear();
+					}
+				}
+			}
+		}, String.format("%s-%d", PredicateStatsDB.class.getSimpleName(), writerThreadNumber.getAndIncrement()));
+		sampleWriter.setDaemon(true);
+		sampleWriter.start();
+		
+		shutdownHook = new Thread(new Runnable() {
+			public void run() {
+				close();
+			}
+		}, String.format("%s-shutdown", sampleWriter.getName()));
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+	
+	/**
+	 * Write a batch of samples to the samples graph with a single INSERT.
+	 * The INSERT and the update of the running totals are done under the
+	 * same lock that loadSampleStats() holds, so that a batch can't be read
+	 * back from the samples graph and then counted a second time.
+	 */
+	protected void writeSamples(List<Sample> batch)
+	{
+		if(batch.isEmpty())
+			return;
+		
+		synchronized(sampleStats) {
+			try {
+
+				String sampleTemplate = getTemplate("sample.sparql.template");
+				StringBuilder triples = new StringBuilder();
+				int i = 0;
+				for(Sample sample : batch) {
+					String node = "_:sample" + i++;
+					triples.append(SPARQLStringUtils.strFromTemplate(
+							sampleTemplate, 
+							node,
+							node,
+							PredicateStats.PREDICATE, 
+							sample.predicate,
+							node,
+							PredicateStats.DIRECTION_IS_FORWARD,
+							Boolean.toString(sample.directionIsForward),
+							node,
+							PredicateStats.NUM_INPUTS,
+							String.valueOf(sample.numInputs),
+							node,
+							PredicateStats.RESPONSE_TIME,
+							String.valueOf(sample.responseTime),
+							node,
+							PredicateStats.TIMESTAMP,
+							String.valueOf(sample.timestamp)));
+					triples.append("\n");
+				}
 			
-			String queryTemplate = SPARQLStringUtils.readFully(PredicateStatsDB.class.getResource("record.sample.sparql.template"));
+				String query = SPARQLStringUtils.strFromTemplate(getTemplate("record.samples.sparql.template"), this.samplesGraph, triples.toString());
 			
-			String query = SPARQLStringUtils.strFromTemplate(
-					queryTemplate, 
-					this.samplesGraph, 
-					PredicateStats.PREDICATE, 
-					predicate.getURI(),
-					PredicateStats.DIRECTION_IS_FORWARD,
-					Boolean.toString(directionIsForward),
-					PredicateStats.NUM_INPUTS,
-					String.valueOf(numInputs),
-					PredicateStats.RESPONSE_TIME,
-					String.valueOf(responseTime),
-					PredicateStats.TIMESTAMP,
-					String.valueOf(System.currentTimeMillis()));
+				log.debug(String.format("writing %d predicate stats samples", batch.size()));
+				endpoint.updateQuery(query);
 			
-			endpoint.updateQuery(query);
-
-		} catch(IOException e) {
+			} catch(IOException e) {
 			
-			log.error("error updating predicate stats db: ", e);
+				failedSamples.addAndGet(batch.size());
+				log.error("error updating predicate stats db: ", e);
+				return;
+			}
+
+			if(sampleStatsLoaded) {
+				for(Sample sample : batch)
+					addToSampleStats(sample.predicate, sample.directionIsForward, sample.numInputs, sample.responseTime);
+			}
 		}
 	}
 	
@@ -186,13 +413,56 @@ public class PredicateStatsDB
 		recomputeAverageStats();
 	}
 	
+	/**
+	 * Recompute the summary stats.  If incremental is true, only the stats for
+	 * predicates/directions with new samples since the last incremental 
+	 * recomputation are updated, from running totals instead of re-reading 
+	 * every sample; the running totals are loaded from the samples graph the 
+	 * first time.  Samples written to the samples graph by other clients 
+	 * after that aren't included until the next full recomputation.
+	 */
+	public synchronized void recomputeStats(boolean incremental)
+	{
+		if(!incremental) {
+			recomputeStats();
+			return;
+		}
+		
+		log.debug("recomputing summary stats incrementally");
+		
+		flush();
+		
+		List<SampleStats> updated = new ArrayList<SampleStats>();
+		synchronized(sampleStats) {
+			try {
+				if(!sampleStatsLoaded)
+					loadSampleStats();
+			} catch(IOException e) {
+				log.error("error querying predicate stats db: ", e);
+				return;
+			}
+			for(SampleStats stats : sampleStats.values()) {
+				if(stats.isModified()) {
+					updated.add(new SampleStats(stats));
+					stats.setModified(false);
+				}
+			}
+		}
+		
+		for(SampleStats stats : updated)
+			recordStats(ResourceFactory.createProperty(stats.getPredicate()), stats.directionIsForward(), stats);
+		
+		if(!updated.isEmpty())
+			recomputeAverageStats();
+	}
+	
 	public synchronized boolean recomputeStats(Property p, boolean directionIsForward)
 	{
 		try {
 
 			String direction = directionIsForward ? "forward" : "reverse";
 
-			String queryTemplate = SPARQLStringUtils.readFully(PredicateStatsDB.class.getResource("get.samples.by.predicate.sparql.template"));
+			String queryTemplate = getTemplate("get.samples.by.predicate.sparql.template");
 			String query = SPARQLStringUtils.strFromTemplate(queryTemplate, this.samplesGraph, p.getURI(), String.valueOf(directionIsForward));
 			List<Map<String,String>> results = endpoint.selectQuery(query);
 			
@@ -201,48 +471,12 @@ public class PredicateStatsDB
 				return false;
 			}
 			
-			log.debug(String.format("computing summary statistics for %s in %s direction", p.getURI(), direction));
-			
-			SimpleRegression regressionModel = new SimpleRegression();
-
+			SampleStats stats = new SampleStats(p.getURI(), directionIsForward);
 			for(Map<String,String> binding : results) {
-				int numInputs = Integer.valueOf(binding.get("numInputs"));
-				int responseTime = Integer.valueOf(binding.get("responseTime"));
-				regressionModel.addData(numInputs, responseTime);
+				stats.addSample(Integer.valueOf(binding.get("numInputs")), Integer.valueOf(binding.get("responseTime")));
 			}
-
-			/* 
-			 * NaN indicates that the regression line could not be computed.
-			 * This happens if there aren't at least two data points with
-			 * distinct x values.
-			 */
-
-			if(Double.isNaN(regressionModel.getIntercept())) {
-
-				/* 
-				 * The number of inputs must be the same for all samples, 
-				 * otherwise we would have been able to compute a
-				 * regression line. 
-				 */
-				int numInputs = Integer.valueOf(results.iterator().next().get("numInputs"));
-				long responseTimeSum = 0;
-
-				log.debug(String.format("unable to compute regression line, all time samples for %s are for the same number of inputs (%d)", p.getURI(), numInputs));
-				
-				for(Map<String,String> binding : results) {
-					responseTimeSum += Integer.valueOf(binding.get("responseTime"));
-				}
-				
-				int averageResponseTime = (int)(responseTimeSum / results.size());
-				recordAverageResponseTime(p, directionIsForward, numInputs, averageResponseTime);
-
-			} else {
 			
-				int estimatedBaseTime = (int)Math.round(Math.max(0, regressionModel.getIntercept()));
-				int estimatedTimePerInput = (int)Math.round(Math.max(0, regressionModel.getSlope()));
-				recordSummaryStats(p, directionIsForward, estimatedBaseTime, estimatedTimePerInput, results.size());
-
-			}
+			recordStats(p, directionIsForward, stats);
 			
 		} catch(IOException e) {
 			
@@ -254,6 +488,84 @@ public class PredicateStatsDB
 		return true;
 	}
 	
+	protected void recordStats(Property p, boolean directionIsForward, SampleStats stats)
+	{
+		log.debug(String.format("computing summary statistics for %s in %s direction", p.getURI(), directionIsForward ? "forward" : "reverse"));
+		
+		/* 
+		 * NaN indicates that the regression line could not be computed.
+		 * This happens if there aren't at least two data points with
+		 * distinct x values.
+		 */
+
+		if(Double.isNaN(stats.getIntercept())) {
+
+			/* 
+			 * The number of inputs must be the same for all samples, 
+			 * otherwise we would have been able to compute a
+			 * regression line. 
+			 */
+			int numInputs = (int)stats.getMeanNumInputs();
+
+			log.debug(String.format("unable to compute regression line, all time samples for %s are for the same number of inputs (%d)", p.getURI(), numInputs));
+			
+			int averageResponseTime = (int)stats.getMeanResponseTime();
+			recordAverageResponseTime(p, directionIsForward, numInputs, averageResponseTime);
+
+		} else {
+		
+			int estimatedBaseTime = (int)Math.round(Math.max(0, stats.getIntercept()));
+			int estimatedTimePerInput = (int)Math.round(Math.max(0, stats.getSlope()));
+			recordSummaryStats(p, directionIsForward, estimatedBaseTime, estimatedTimePerInput, stats.getNumSamples());
+
+		}
+	}
+	
+	/**
+	 * Read every sample in the samples graph into the running totals.
+	 */
+	protected void loadSampleStats() throws IOException
+	{
+		log.debug("loading running totals for predicate stats samples");
+		
+		sampleStats.clear();
+		
+		String query = SPARQLStringUtils.strFromTemplate(getTemplate("get.all.samples.sparql.template"), this.samplesGraph);
+		BindingIterator i = endpoint.selectQueryIterator(query);
+		try {
+			while(i.hasNext()) {
+				Map<String,String> binding = i.next();
+				addToSampleStats(binding.get("predicate"), 
+						Boolean.valueOf(binding.get("directionIsForward")), 
+						Integer.valueOf(binding.get("numInputs")), 
+						Integer.valueOf(binding.get("responseTime")));
+			}
+		} finally {
+			i.close();
+		}
+		
+		sampleStatsLoaded = true;
+	}
+	
+	protected void addToSampleStats(String predicate, boolean directionIsForward, int numInputs, int responseTime)
+	{
+		String key = getCacheKeyForSummaryStats(predicate, directionIsForward);
+		SampleStats stats = sampleStats.get(key);
+		if(stats == null) {
+			stats = new SampleStats(predicate, directionIsForward);
+			sampleStats.put(key, stats);
+		}
+		stats.addSample(numInputs, responseTime);
+	}
+	
+	protected void resetSampleStats()
+	{
+		synchronized(sampleStats) {
+			sampleStats.clear();
+			sampleStatsLoaded = false;
+		}
+	}
+	
 	protected void recomputeAverageStats() 
 	{
 		
@@ -267,7 +579,7 @@ public class PredicateStatsDB
 			
 			/* update averageBaseTime */
 			
-			queryTemplate = SPARQLStringUtils.readFully(PredicateStatsDB.class.getResource("get.all.base.times.sparql.template"));
+			queryTemplate = getTemplate("get.all.base.times.sparql.template");
 			query = SPARQLStringUtils.strFromTemplate(queryTemplate, this.statsGraph);
 			results = endpoint.selectQuery(query);
 			
@@ -286,7 +598,7 @@ public class PredicateStatsDB
 
 	            log.debug(String.format("recording average base time: %d", averageBaseTime));
 	            
-				queryTemplate = SPARQLStringUtils.readFully(PredicateStatsDB.class.getResource("update.avg.base.time.sparql.template"));
+				queryTemplate = getTemplate("update.avg.base.time.sparql.template");
 				query = SPARQLStringUtils.strFromTemplate(queryTemplate, this.statsGraph, this.statsGraph, String.valueOf(averageBaseTime), this.statsGraph, String.valueOf(averageBaseTime));
 
 				endpoint.updateQuery(query);
@@ -295,7 +607,7 @@ public class PredicateStatsDB
 
 			/* update averageTimePerInput */
 			
-			queryTemplate = SPARQLStringUtils.readFully(PredicateStatsDB.class.getResource("get.all.time.per.inputs.sparql.template"));
+			queryTemplate = getTemplate("get.all.time.per.inputs.sparql.template");
 			query = SPARQLStringUtils.strFromTemplate(queryTemplate, this.statsGraph);
 			results = endpoint.selectQuery(query);
 			
@@ -314,7 +626,7 @@ public class PredicateStatsDB
 				
 	            log.debug(String.format("recording average time-per-input: %d", averageTimePerInput));
 	            
-				queryTemplate = SPARQLStringUtils.readFully(PredicateStatsDB.class.getResource("update.avg.time.per.input.sparql.template"));
+				queryTemplate = getTemplate("update.avg.time.per.input.sparql.template");
 				query = SPARQLStringUtils.strFromTemplate(queryTemplate, this.statsGraph, this.statsGraph, String.valueOf(averageTimePerInput), this.statsGraph, String.valueOf(averageTimePerInput));
 				
 				endpoint.updateQuery(query);
@@ -340,7 +652,7 @@ public class PredicateStatsDB
 
 		} else {
 
-			String queryTemplate = SPARQLStringUtils.readFully(PredicateStatsDB.class.getResource("get.avg.base.time.sparql.template"));
+			String queryTemplate = getTemplate("get.avg.base.time.sparql.template");
 			String query = SPARQLStringUtils.strFromTemplate(queryTemplate, this.statsGraph, this.statsGraph);
 			List<Map<String,String>> results = endpoint.selectQuery(query);
 
@@ -378,7 +690,7 @@ public class PredicateStatsDB
 		
 		} else {
 		
-			String queryTemplate = SPARQLStringUtils.readFully(PredicateStatsDB.class.getResource("get.avg.time.per.input.sparql.template"));
+			String queryTemplate = getTemplate("get.avg.time.per.input.sparql.template");
 			String query = SPARQLStringUtils.strFromTemplate(queryTemplate, this.statsGraph, this.statsGraph);
 			List<Map<String,String>> results = endpoint.selectQuery(query);
 
@@ -435,7 +747,7 @@ public class PredicateStatsDB
 
 			/* delete any existing stats, before inserting the new values */
 			
-			String deleteTemplate = SPARQLStringUtils.readFully(PredicateStatsDB.class.getResource("delete.summary.stats.sparql.template"));
+			String deleteTemplate = getTemplate("delete.summary.stats.sparql.template");
 			
 			String deleteQuery = SPARQLStringUtils.strFromTemplate(
 					deleteTemplate, 
@@ -458,7 +770,7 @@ public class PredicateStatsDB
 			
 			/* insert new stats */
 			
-			String insertTemplate = SPARQLStringUtils.readFully(PredicateStatsDB.class.getResource("record.summary.stats.sparql.template"));
+			String insertTemplate = getTemplate("record.summary.stats.sparql.template");
 			
 			String insertQuery = SPARQLStringUtils.strFromTemplate(
 					insertTemplate, 
@@ -494,7 +806,24 @@ public class PredicateStatsDB
 					p.getURI(),
 					directionIsForward ? "forward" : "reverse"));
 
-			String insertTemplate = SPARQLStringUtils.readFully(PredicateStatsDB.class.getResource("record.average.response.time.sparql.template"));
+			/* delete any existing average, before inserting the new value */
+			
+			String deleteTemplate = getTemplate("delete.average.response.time.sparql.template");
+			
+			String deleteQuery = SPARQLStringUtils.strFromTemplate(
+					deleteTemplate,
+					this.statsGraph,
+					p.getURI(),
+					String.valueOf(numInputs),
+					responseTimePredicate,
+					this.statsGraph,
+					p.getURI(),
+					String.valueOf(numInputs),
+					responseTimePredicate);
+			
+			endpoint.updateQuery(deleteQuery);
+			
+			String insertTemplate = getTemplate("record.average.response.time.sparql.template");
 			
 			String insertQuery = SPARQLStringUtils.strFromTemplate(
 					insertTemplate, 
@@ -519,7 +848,7 @@ public class PredicateStatsDB
 		
 		try {
 
-			String queryTemplate = SPARQLStringUtils.readFully(PredicateStatsDB.class.getResource("get.predicates.with.samples.sparql"));
+			String queryTemplate = getTemplate("get.predicates.with.samples.sparql");
 			String query = SPARQLStringUtils.strFromTemplate(queryTemplate, this.samplesGraph);
 			List<Map<String,String>> results = endpoint.selectQuery(query);
 			
@@ -555,6 +884,7 @@ public class PredicateStatsDB
 	
 	public synchronized void clearSamplesGraph()
 	{
+		resetSampleStats();
 		try {
 			endpoint.updateQuery(SPARQLStringUtils.strFromTemplate("CLEAR GRAPH %u%", this.samplesGraph));
 		} catch (IOException e) {
@@ -618,6 +948,7 @@ public class PredicateStatsDB
 	
 	public synchronized void purgeSamples(int numSamplesToPurge)
 	{
+		resetSampleStats();
 		try {
 			purgeSamplesByTimestamp(getTimestampCutoffForPurge(numSamplesToPurge));
 		} catch(IOException e) {
@@ -627,14 +958,14 @@ public class PredicateStatsDB
 	
 	protected void purgeSamplesByTimestamp(long cutoffTimestamp) throws IOException
 	{
-		String queryTemplate = SPARQLStringUtils.readFully(PredicateStatsDB.class.getResource("purge.samples.by.timestamp.sparql.template"));
+		String queryTemplate = getTemplate("purge.samples.by.timestamp.sparql.template");
 		String query = SPARQLStringUtils.strFromTemplate(queryTemplate, this.samplesGraph, this.samplesGraph, String.valueOf(cutoffTimestamp));
 		endpoint.updateQuery(query);
 	}
 	
 	protected long getTimestampCutoffForPurge(int numSamplesToPurge) throws IOException
 	{
-		String queryTemplate = SPARQLStringUtils.readFully(PredicateStatsDB.class.getResource("get.timestamp.cutoff.sparql.template"));
+		String queryTemplate = getTemplate("get.timestamp.cutoff.sparql.template");
 		String query = SPARQLStringUtils.strFromTemplate(queryTemplate, this.samplesGraph, String.valueOf(numSamplesToPurge - 1));
 		List<Map<String,String>> results = endpoint.selectQuery(query);
 
@@ -651,9 +982,14 @@ public class PredicateStatsDB
 	}
 	
 	protected String getCacheKeyForSummaryStats(Property p, boolean directionIsForward) 
+	{
+		return getCacheKeyForSummaryStats(p.getURI(), directionIsForward);
+	}
+	
+	protected String getCacheKeyForSummaryStats(String predicate, boolean directionIsForward) 
 	{
 		StringBuilder builder = new StringBuilder();
-		builder.append(p.getURI());
+		builder.append(predicate);
 		builder.append(":");
 		builder.append(String.valueOf(directionIsForward));
 
@@ -710,7 +1046,7 @@ public class PredicateStatsDB
 
 			}
 
-			String queryTemplate = SPARQLStringUtils.readFully(PredicateStatsDB.class.getResource("get.summary.stats.sparql.template"));
+			String queryTemplate = getTemplate("get.summary.stats.sparql.template");
 			
 			String query = SPARQLStringUtils.strFromTemplate(
 					queryTemplate, 
@@ -773,7 +1109,7 @@ public class PredicateStatsDB
 			String responseTimePredicate = directionIsForward ? PredicateStats.AVERAGE_RESPONSE_TIME_FORWARD : PredicateStats.AVERAGE_RESPONSE_TIME_REVERSE;
 			String direction = directionIsForward ? "forward" : "reverse";
 			
-			String queryTemplate = SPARQLStringUtils.readFully(PredicateStatsDB.class.getResource("get.average.response.time.sparql.template"));
+			String queryTemplate = getTemplate("get.average.response.time.sparql.template");
 			
 			String query = SPARQLStringUtils.strFromTemplate(
 					queryTemplate, 
@@ -860,4 +1196,123 @@ public class PredicateStatsDB
 		
 	}
 	
+	protected static String getTemplate(String name) throws IOException
+	{
+		String template = templates.get(name);
+		if(template == null) {
+			template = SPARQLStringUtils.readFully(PredicateStatsDB.class.getResource(name));
+			templates.putIfAbsent(name, template);
+		}
+		return template;
+	}
+	
+	protected static class Sample
+	{
+		protected final String predicate;
+		protected final boolean directionIsForward;
+		protected final int numInputs;
+		protected final int responseTime;
+		protected final long timestamp;
+		
+		public Sample(String predicate, boolean directionIsForward, int numInputs, int responseTime, long timestamp)
+		{
+			this.predicate = predicate;
+			this.directionIsForward = directionIsForward;
+			this.numInputs = numInputs;
+			this.responseTime = responseTime;
+			this.timestamp = timestamp;
+		}
+	}
+	
+	/**
+	 * Running mean and least-squares regression of response time against
+	 * number of inputs, updated one sample at a time (Welford's method).
+	 */
+	protected static class SampleStats
+	{
+		protected String predicate;
+		protected boolean directionIsForward;
+		protected int numSamples;
+		protected double meanNumInputs;
+		protected double meanResponseTime;
+		protected double sumSquaresNumInputs;
+		protected double sumProductsDeviations;
+		protected boolean modified;
+		
+		public SampleStats(String predicate, boolean directionIsForward)
+		{
+			this.predicate = predicate;
+			this.directionIsForward = directionIsForward;
+		}
+		
+		public SampleStats(SampleStats other)
+		{
+			this.predicate = other.predicate;
+			this.directionIsForward = other.directionIsForward;
+			this.numSamples = other.numSamples;
+			this.meanNumInputs = other.meanNumInputs;
+			this.meanResponseTime = other.meanResponseTime;
+			this.sumSquaresNumInputs = other.sumSquaresNumInputs;
+			this.sumProductsDeviations = other.sumProductsDeviations;
+			this.modified = other.modified;
+		}
+		
+		public void addSample(int numInputs, int responseTime)
+		{
+			numSamples++;
+			double dx = numInputs - meanNumInputs;
+			double dy = responseTime - meanResponseTime;
+			meanNumInputs += dx / numSamples;
+			meanResponseTime += dy / numSamples;
+			sumSquaresNumInputs += dx * (numInputs - meanNumInputs);
+			sumProductsDeviations += dx * (responseTime - meanResponseTime);
+			modified = true;
+		}
+		
+		public String getPredicate() {
+			return predicate;
+		}
+		
+		public boolean directionIsForward() {
+			return directionIsForward;
+		}
+		
+		public int getNumSamples() {
+			return numSamples;
+		}
+		
+		public double getMeanNumInputs() {
+			return meanNumInputs;
+		}
+		
+		public double getMeanResponseTime() {
+			return meanResponseTime;
+		}
+		
+		/**
+		 * Returns the slope of the regression line, or NaN if there aren't 
+		 * samples for at least two different numbers of inputs.
+		 */
+		public double getSlope() {
+			if(numSamples < 2 || sumSquaresNumInputs == 0)
+				return Double.NaN;
+			return sumProductsDeviations / sumSquaresNumInputs;
+		}
+		
+		/**
+		 * Returns the intercept of the regression line, or NaN if there aren't 
+		 * samples for at least two different numbers of inputs.
+		 */
+		public double getIntercept() {
+			return meanResponseTime - getSlope() * meanNumInputs;
+		}
+		
+		public boolean isModified() {
+			return modified;
+		}
+		
+		public void setModified(boolean modified) {
+			this.modified = modified;
+		}
+	}
 }
@@ -0,0 +1,29 @@
+package ca.wilkinsonlab.sadi.stats;
+
+import com.hp.hpl.jena.rdf.model.Property;
+
+/**
+ * Response time statistics for predicates, used by the adaptive query
+ * planner to estimate the cost of resolving a query pattern.
+ */
+public interface PredicateStatsStore
+{
+	/**
+	 * Returns the estimated time (in milliseconds) to resolve the specified
+	 * predicate in the specified direction for the specified number of inputs,
+	 * or {@link PredicateStatsDB#NO_STATS_AVAILABLE} if there isn't enough
+	 * information to make an estimate.
+	 */
+	public int getEstimatedTime(Property predicate, boolean directionIsForward, int numInputs);
+
+	/**
+	 * Record the time (in milliseconds) it took to resolve the specified
+	 * predicate in the specified direction for the specified number of inputs.
+	 */
+	public void recordSample(Property predicate, boolean directionIsForward, int numInputs, int responseTime);
+
+	/**
+	 * Stop recording samples and release any resources held by the store.
+	 */
+	public void close();
+}
@@ -0,0 +1,120 @@
+package ca.wilkinsonlab.sadi.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+
+public class QueryClientStreamingTest
+{
+	@Test
+	public void testSynchronousQuery() throws Exception
+	{
+		List<Map<String, String>> results = new CountingQueryClient(3).synchronousQuery("3");
+		assertEquals(3, results.size());
+		assertEquals("2", results.get(2).get("n"));
+	}
+
+	@Test
+	public void testIteratorQuery() throws Exception
+	{
+		QueryClient.ResultIterator results = new CountingQueryClient(2500).iteratorQuery("2500");
+		assertEquals(Collections.singletonList("n"), results.getResultVars());
+		int n = 0;
+		while (results.hasNext())
+			assertEquals(String.valueOf(n++), results.next().get("n").asNode().getLiteralLexicalForm());
+		assertEquals(2500, n);
+	}
+
+	@Test
+	public void testCloseStopsQuery() throws Exception
+	{
+		CountingQueryClient client = new CountingQueryClient(Integer.MAX_VALUE);
+		QueryClient.ResultIterator results = client.iteratorQuery("forever");
+		results.next();
+		results.close();
+		assertFalse(results.hasNext());
+		assertTrue(client.finished.await(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testFailure() throws Exception
+	{
+		QueryClient.ResultIterator results = new CountingQueryClient(-1).iteratorQuery("fail");
+		try {
+			results.hasNext();
+			fail("query failure was not reported");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("bad query"));
+		}
+	}
+
+	@Test
+	public void testCallback() throws Exception
+	{
+		final CountDownLatch done = new CountDownLatch(1);
+		final int[] size = new int[] { -1 };
+		new CountingQueryClient(5).asynchronousQuery("5", new QueryClient.QueryClientCallback() {
+			public void onSuccess(List<Map<String, String>> results)
+			{
+				size[0] = results.size();
+				done.countDown();
+			}
+			public void onFailure(String errorMessage)
+			{
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(5, size[0]);
+	}
+
+	/* a client whose queries produce the numbers 0..n-1, or fail if n < 0...
+	 */
+	private static class CountingQueryClient extends QueryClient
+	{
+		private final int n;
+		final CountDownLatch finished = new CountDownLatch(1);
+
+		CountingQueryClient(int n)
+		{
+			this.n = n;
+		}
+
+		@Override
+		protected QueryRunner getQueryRunner(String query, QueryResultHandler handler)
+		{
+			return new QueryRunner(query, handler) {
+				@Override
+				protected void execute()
+				{
+					try {
+						if (n < 0)
+							throw new IllegalArgumentException("bad query");
+						handler.onStart(Collections.singletonList("n"));
+						for (int i = 0; i < n; ++i) {
+							Map<String, RDFNode> binding = new HashMap<String, RDFNode>();
+							binding.put("n", ResourceFactory.createPlainLiteral(String.valueOf(i)));
+							if (!handler.onResult(binding))
+								break;
+						}
+					} finally {
+						finished.countDown();
+					}
+				}
+			};
+		}
+	}
+}
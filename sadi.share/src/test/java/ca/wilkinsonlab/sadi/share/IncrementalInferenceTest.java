@@ -0,0 +1,91 @@
+package ca.wilkinsonlab.sadi.share;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.ontology.OntClass;
+import com.hp.hpl.jena.ontology.OntModel;
+import com.hp.hpl.jena.ontology.OntModelSpec;
+import com.hp.hpl.jena.ontology.OntProperty;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.vocabulary.OWL;
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+public class IncrementalInferenceTest
+{
+	private static final String NS = "http://sadiframework.org/test/incremental.owl#";
+
+	private OntModel reasoningModel;
+	private Model dataModel;
+	private IncrementalInference inference;
+	private OntClass gene;
+	private OntProperty encodes;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		reasoningModel = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM_MICRO_RULE_INF);
+		gene = reasoningModel.createClass(NS + "Gene");
+		encodes = reasoningModel.createObjectProperty(NS + "encodes");
+		encodes.addDomain(gene);
+
+		dataModel = ModelFactory.createDefaultModel();
+		reasoningModel.addSubModel(dataModel);
+		inference = new IncrementalInference(reasoningModel, dataModel, true);
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		inference.close();
+	}
+
+	@Test
+	public void testUpdate() throws Exception
+	{
+		/* make sure the reasoner has computed its closure, so that the next
+		 * statement is added incrementally...
+		 */
+		assertFalse(reasoningModel.contains(dataModel.createResource(NS + "g1"), RDF.type, gene));
+
+		for (int i = 1; i <= 3; ++i) {
+			Resource g = dataModel.createResource(NS + "g" + i);
+			dataModel.add(g, encodes, dataModel.createResource(NS + "p" + i));
+			inference.update();
+			assertTrue("missing inference from added statement", reasoningModel.contains(g, RDF.type, gene));
+		}
+		assertTrue("added statement was copied into the base model", reasoningModel.getBaseModel().listStatements(null, encodes, (Resource)null).toList().isEmpty());
+	}
+
+	@Test
+	public void testSchemaChange() throws Exception
+	{
+		Resource g = dataModel.createResource(NS + "g1");
+		dataModel.add(g, encodes, dataModel.createResource(NS + "p1"));
+		inference.update();
+
+		Resource sequence = dataModel.createResource(NS + "Sequence");
+		dataModel.add(sequence, RDF.type, OWL.Class);
+		dataModel.add(gene, RDFS.subClassOf, sequence);
+		inference.update();
+		assertTrue("missing inference from added schema", reasoningModel.contains(g, RDF.type, sequence));
+	}
+
+	@Test
+	public void testIsSchemaTriple() throws Exception
+	{
+		assertTrue(IncrementalInference.isSchemaTriple(Triple.create(gene.asNode(), RDFS.subClassOf.asNode(), OWL.Thing.asNode())));
+		assertTrue(IncrementalInference.isSchemaTriple(Triple.create(encodes.asNode(), RDF.type.asNode(), OWL.TransitiveProperty.asNode())));
+		assertFalse(IncrementalInference.isSchemaTriple(Triple.create(encodes.asNode(), RDFS.label.asNode(), gene.asNode())));
+		assertFalse(IncrementalInference.isSchemaTriple(Triple.create(encodes.asNode(), RDF.type.asNode(), gene.asNode())));
+		assertFalse(IncrementalInference.isSchemaTriple(Triple.create(encodes.asNode(), RDF.type.asNode(), OWL.Thing.asNode())));
+	}
+}
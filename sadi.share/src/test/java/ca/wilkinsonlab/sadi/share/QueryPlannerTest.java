@@ -0,0 +1,205 @@
+package ca.wilkinsonlab.sadi.share;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.wilkinsonlab.sadi.share.QueryPlan.Resolution;
+import ca.wilkinsonlab.sadi.stats.PredicateStatsDB;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.test.NodeCreateUtils;
+
+public class QueryPlannerTest
+{
+	private MockCostModel costModel;
+	private QueryPlanner planner;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		costModel = new MockCostModel();
+		planner = new QueryPlanner(costModel);
+	}
+
+	@Test
+	public void testFanOutDecidesOrder() throws Exception
+	{
+		/* both patterns start from ?gene; resolving ?gene first through the
+		 * cheap, selective predicate means the expensive predicate is called
+		 * for fewer inputs...
+		 */
+		Triple encodes = NodeCreateUtils.createTriple("?gene ex:encodes ?protein");
+		Triple hasName = NodeCreateUtils.createTriple("ex:g ex:hasGene ?gene");
+		Triple hasMotif = NodeCreateUtils.createTriple("?protein ex:hasMotif ?motif");
+
+		costModel.setTime("ex:hasGene", 10, 0);
+		costModel.setFanOut("ex:hasGene", 10);
+		costModel.setTime("ex:encodes", 100, 10);
+		costModel.setFanOut("ex:encodes", 2);
+		costModel.setTime("ex:hasMotif", 100, 100);
+
+		QueryPlan plan = planner.plan(Arrays.asList(hasMotif, encodes, hasName));
+		assertEquals(Arrays.asList(hasName, encodes, hasMotif), getPatterns(plan));
+		assertEquals(10, plan.getSteps().get(1).getEstimatedInputs(), 0);
+		assertEquals(20, plan.getSteps().get(2).getEstimatedInputs(), 0);
+		assertEquals(10 + 200 + 2100, plan.getEstimatedTime(), 0);
+	}
+
+	@Test
+	public void testCheapestFirstStepIsNotBest() throws Exception
+	{
+		/* a greedy planner would resolve the cheapest pattern first, but it
+		 * produces many inputs for the next pattern; starting with the more
+		 * expensive pattern lets the next pattern be resolved in reverse
+		 * from a single input...
+		 */
+		Triple cheap = NodeCreateUtils.createTriple("ex:x ex:cheap ?a");
+		Triple join = NodeCreateUtils.createTriple("?a ex:join ?b");
+		Triple pricey = NodeCreateUtils.createTriple("ex:x ex:pricey ?b");
+
+		costModel.setTime("ex:cheap", 10, 0);
+		costModel.setFanOut("ex:cheap", 100);
+		costModel.setTime("ex:join", 10, 10);
+		costModel.setReverseTime("ex:join", 100, 1);
+		costModel.setTime("ex:pricey", 50, 0);
+
+		QueryPlan plan = planner.plan(Arrays.asList(cheap, join, pricey));
+		assertEquals(10 + 50 + 101, plan.getEstimatedTime(), 0);
+		for (QueryPlan.Step step: plan.getSteps()) {
+			if (step.getPattern().equals(join))
+				assertFalse(step.isDirectionForward());
+		}
+	}
+
+	@Test
+	public void testUnresolvablePatternsLast() throws Exception
+	{
+		Triple unbound = NodeCreateUtils.createTriple("?x ex:p ?y");
+		Triple predicateVariable = NodeCreateUtils.createTriple("ex:x ?p ?z");
+		Triple bound = NodeCreateUtils.createTriple("ex:x ex:q ?w");
+
+		QueryPlan plan = planner.plan(Arrays.asList(unbound, predicateVariable, bound));
+		assertEquals(Arrays.asList(bound, predicateVariable, unbound), getPatterns(plan));
+		assertEquals(Resolution.SERVICE, plan.getSteps().get(0).getResolution());
+		assertEquals(Resolution.EXPENSIVE, plan.getSteps().get(1).getResolution());
+		assertEquals(Resolution.UNRESOLVABLE, plan.getSteps().get(2).getResolution());
+	}
+
+	@Test
+	public void testCurrentBindings() throws Exception
+	{
+		Triple a = NodeCreateUtils.createTriple("?a ex:p ?x");
+		Triple b = NodeCreateUtils.createTriple("?b ex:p ?x");
+		costModel.setTime("ex:p", 0, 10);
+		costModel.setReverseTime("ex:p", 0, 1);
+		costModel.bindings.put(Node.createVariable("a"), 100);
+		costModel.bindings.put(Node.createVariable("b"), 5);
+
+		QueryPlan plan = planner.plan(Arrays.asList(a, b));
+		assertEquals(b, plan.getSteps().get(0).getPattern());
+		assertEquals(50, plan.getSteps().get(0).getEstimatedTime(), 0);
+	}
+
+	@Test
+	public void testGreedyForLargeQueries() throws Exception
+	{
+		List<Triple> patterns = new ArrayList<Triple>();
+		patterns.add(NodeCreateUtils.createTriple("ex:x ex:p ?v0"));
+		for (int i = 0; i < QueryPlanner.MAX_OPTIMAL_PATTERNS + 2; ++i)
+			patterns.add(NodeCreateUtils.createTriple(String.format("?v%d ex:p ?v%d", i, i + 1)));
+		QueryPlan plan = planner.plan(patterns);
+		assertEquals(patterns, getPatterns(plan));
+	}
+
+	@Test
+	public void testExplain() throws Exception
+	{
+		Triple pattern = NodeCreateUtils.createTriple("ex:x ex:p ?y");
+		QueryPlan plan = planner.plan(Arrays.asList(pattern));
+		plan.getSteps().get(0).setActual(42, 3);
+		String explanation = plan.explain();
+		assertTrue(explanation, explanation.contains("42"));
+		assertEquals(42L, plan.getActualTime());
+	}
+
+	private static List<Triple> getPatterns(QueryPlan plan)
+	{
+		List<Triple> patterns = new ArrayList<Triple>();
+		for (QueryPlan.Step step: plan.getSteps())
+			patterns.add(step.getPattern());
+		return patterns;
+	}
+
+	private static class MockCostModel implements QueryPlanner.CostModel
+	{
+		Map<Node, Integer> bindings = new HashMap<Node, Integer>();
+		Map<String, int[]> times = new HashMap<String, int[]>();
+		Map<String, Double> fanOuts = new HashMap<String, Double>();
+
+		void setTime(String predicate, int baseTime, int timePerInput)
+		{
+			times.put(getKey(predicate, true), new int[] { baseTime, timePerInput });
+		}
+
+		void setReverseTime(String predicate, int baseTime, int timePerInput)
+		{
+			times.put(getKey(predicate, false), new int[] { baseTime, timePerInput });
+		}
+
+		void setFanOut(String predicate, double fanOut)
+		{
+			fanOuts.put(getKey(predicate, true), fanOut);
+		}
+
+		public int getNumBindings(Node variable)
+		{
+			Integer n = bindings.get(variable);
+			return n != null ? n : 0;
+		}
+
+		public boolean isPredicateBound(Triple pattern)
+		{
+			return !pattern.getPredicate().isVariable();
+		}
+
+		public boolean isResolvable(Triple pattern, boolean directionIsForward)
+		{
+			return directionIsForward || times.containsKey(getKey(pattern, false));
+		}
+
+		public int getEstimatedTime(Triple pattern, boolean directionIsForward, int numInputs)
+		{
+			int[] time = times.get(getKey(pattern, directionIsForward));
+			if (time == null)
+				return PredicateStatsDB.NO_STATS_AVAILABLE;
+			return time[0] + numInputs * time[1];
+		}
+
+		public double getFanOut(Triple pattern, boolean directionIsForward)
+		{
+			Double fanOut = fanOuts.get(getKey(pattern, directionIsForward));
+			return fanOut != null ? fanOut : Double.NaN;
+		}
+
+		private static String getKey(Triple pattern, boolean directionIsForward)
+		{
+			return String.format("%s %s", pattern.getPredicate(), directionIsForward);
+		}
+
+		private static String getKey(String predicate, boolean directionIsForward)
+		{
+			return String.format("%s %s", NodeCreateUtils.create(predicate), directionIsForward);
+		}
+	}
+}
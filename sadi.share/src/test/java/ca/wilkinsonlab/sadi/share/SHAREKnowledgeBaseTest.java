@@ -2,6 +2,9 @@ package ca.wilkinsonlab.sadi.share;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.Arrays;
+import java.util.List;
+
 import org.apache.commons.configuration.BaseConfiguration;
 import org.apache.commons.configuration.Configuration;
 import org.junit.After;
@@ -10,6 +13,9 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.test.NodeCreateUtils;
+
 public class SHAREKnowledgeBaseTest
 {
     @BeforeClass
@@ -40,4 +46,20 @@ public class SHAREKnowledgeBaseTest
         SHAREKnowledgeBase kb = new SHAREKnowledgeBase(config);
         assertEquals(kb.getReasoningModel().getSpecification(), com.hp.hpl.jena.ontology.OntModelSpec.OWL_MEM);
     }
+
+    @Test
+    public void testGetIndependentBranches() throws Exception
+    {
+        Triple a1 = NodeCreateUtils.createTriple("ex:x ex:p ?a");
+        Triple b1 = NodeCreateUtils.createTriple("ex:y ex:p ?b");
+        Triple a2 = NodeCreateUtils.createTriple("?a ex:q ?c");
+        Triple join = NodeCreateUtils.createTriple("?d ex:r ?c");
+        Triple b2 = NodeCreateUtils.createTriple("?b ex:q ex:z");
+        Triple a3 = NodeCreateUtils.createTriple("?d ex:s ?e");
+
+        List<List<Triple>> branches = SHAREKnowledgeBase.getIndependentBranches(Arrays.asList(a1, b1, a2, join, b2, a3));
+        assertEquals(2, branches.size());
+        assertEquals(Arrays.asList(a1, a2, join, a3), branches.get(0));
+        assertEquals(Arrays.asList(b1, b2), branches.get(1));
+    }
 }
@@ -0,0 +1,125 @@
+package ca.wilkinsonlab.sadi.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+
+public class LocalPredicateStatsDBTest
+{
+	private static final Property P = ResourceFactory.createProperty("http://sadiframework.org/test/stats.owl#p");
+	private static final Property Q = ResourceFactory.createProperty("http://sadiframework.org/test/stats.owl#q");
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		file = File.createTempFile("predicate-stats", ".db");
+		file.delete();
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		file.delete();
+	}
+
+	@Test
+	public void testEstimatedTime() throws Exception
+	{
+		LocalPredicateStatsDB statsDB = new LocalPredicateStatsDB(file, 0);
+		assertEquals(PredicateStatsDB.NO_STATS_AVAILABLE, statsDB.getEstimatedTime(P, true, 1));
+
+		/* one number of inputs, so no regression line yet...
+		 */
+		statsDB.recordSample(P, true, 1, 100);
+		statsDB.recordSample(P, true, 1, 200);
+		assertEquals(150, statsDB.getEstimatedTime(P, true, 1));
+		assertEquals(PredicateStatsDB.NO_STATS_AVAILABLE, statsDB.getEstimatedTime(P, true, 2));
+
+		/* response time = 100 + 50 * inputs...
+		 */
+		statsDB.recordSample(Q, true, 1, 150);
+		statsDB.recordSample(Q, true, 3, 250);
+		assertEquals(600, statsDB.getEstimatedTime(Q, true, 10));
+
+		/* no stats for this direction, so use the averages...
+		 */
+		assertEquals(350, statsDB.getEstimatedTime(Q, false, 5));
+		statsDB.close();
+	}
+
+	@Test
+	public void testSaveAndLoad() throws Exception
+	{
+		LocalPredicateStatsDB statsDB = new LocalPredicateStatsDB(file, 0);
+		statsDB.recordSample(P, true, 1, 150);
+		statsDB.recordSample(P, true, 3, 250);
+		statsDB.recordSample(P, false, 2, 400);
+		statsDB.close();
+
+		statsDB = new LocalPredicateStatsDB(file, 0);
+		assertEquals(2, statsDB.size());
+		assertEquals(600, statsDB.getEstimatedTime(P, true, 10));
+		assertEquals(400, statsDB.getEstimatedTime(P, false, 2));
+
+		/* running totals survive the round trip, so new samples extend them...
+		 */
+		statsDB.recordSample(P, true, 5, 350);
+		assertEquals(600, statsDB.getEstimatedTime(P, true, 10));
+		statsDB.close();
+	}
+
+	@Test
+	public void testCorruptFile() throws Exception
+	{
+		FileWriter writer = new FileWriter(file);
+		writer.write("not a stats file");
+		writer.close();
+
+		LocalPredicateStatsDB statsDB = new LocalPredicateStatsDB(file, 0);
+		assertEquals(0, statsDB.size());
+		statsDB.recordSample(P, true, 1, 100);
+		statsDB.close();
+
+		statsDB = new LocalPredicateStatsDB(file, 0);
+		assertEquals(1, statsDB.size());
+		statsDB.close();
+	}
+
+	@Test
+	public void testSharedInstance() throws Exception
+	{
+		LocalPredicateStatsDB first = LocalPredicateStatsDB.getInstance(file, 0);
+		LocalPredicateStatsDB second = LocalPredicateStatsDB.getInstance(new File(file.getParentFile(), file.getName()), 0);
+		assertSame(first, second);
+		first.recordSample(P, true, 1, 100);
+		first.close();
+
+		/* still open for the second user...
+		 */
+		second.recordSample(Q, true, 3, 200);
+		assertEquals(2, second.size());
+		second.close();
+
+		LocalPredicateStatsDB third = LocalPredicateStatsDB.getInstance(file, 0);
+		assertNotSame(first, third);
+		assertEquals(2, third.size());
+		assertEquals(1, file.getParentFile().list(new java.io.FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.contains(file.getName());
+			}
+		}).length);
+		third.close();
+	}
+}
@@ -0,0 +1,88 @@
+package ca.wilkinsonlab.sadi.test;
+
+import org.apache.commons.lang.time.StopWatch;
+
+import ca.wilkinsonlab.sadi.share.IncrementalInference;
+
+import com.hp.hpl.jena.ontology.OntClass;
+import com.hp.hpl.jena.ontology.OntModel;
+import com.hp.hpl.jena.ontology.OntModelSpec;
+import com.hp.hpl.jena.ontology.OntProperty;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.vocabulary.RDF;
+
+/**
+ * This class compares rebinding the reasoner after every service response
+ * with pushing each response through the reasoner incrementally, the way
+ * SHAREKnowledgeBase does with share.incrementalReasoning on and off.
+ * Each simulated response describes a handful of new individuals using a
+ * small schema with domains, ranges, sub-classes and inverse properties;
+ * the reasoning model is queried after each response, as the next query
+ * pattern would.
+ */
+public class IncrementalInferenceBenchmark
+{
+	private static final String NS = "http://sadiframework.org/test/benchmark.owl#";
+	private static final int INDIVIDUALS_PER_RESPONSE = 5;
+
+	public static void main(String[] args)
+	{
+		int[] sizes = args.length > 0 ? parseSizes(args) : new int[] { 10, 100, 1000 };
+
+		System.out.println(String.format("%10s %12s %12s", "responses", "rebind (ms)", "incr. (ms)"));
+		for (int responses: sizes) {
+			long rebind = run(responses, false);
+			long incremental = run(responses, true);
+			System.out.println(String.format("%10d %12d %12d", responses, rebind, incremental));
+		}
+	}
+
+	private static long run(int responses, boolean incremental)
+	{
+		OntModel reasoningModel = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM_MICRO_RULE_INF);
+		OntClass record = reasoningModel.createClass(NS + "Record");
+		OntClass gene = reasoningModel.createClass(NS + "Gene");
+		OntClass protein = reasoningModel.createClass(NS + "Protein");
+		gene.addSuperClass(record);
+		protein.addSuperClass(record);
+		OntProperty encodes = reasoningModel.createObjectProperty(NS + "encodes");
+		OntProperty isEncodedBy = reasoningModel.createObjectProperty(NS + "isEncodedBy");
+		encodes.addDomain(gene);
+		encodes.addRange(protein);
+		encodes.addInverseOf(isEncodedBy);
+
+		Model dataModel = ModelFactory.createDefaultModel();
+		reasoningModel.addSubModel(dataModel);
+		IncrementalInference inference = new IncrementalInference(reasoningModel, dataModel, incremental);
+
+		StopWatch stopWatch = new StopWatch();
+		stopWatch.start();
+		for (int i = 0; i < responses; ++i) {
+			for (int j = 0; j < INDIVIDUALS_PER_RESPONSE; ++j) {
+				Resource g = dataModel.createResource(String.format("%sgene%d_%d", NS, i, j));
+				Resource p = dataModel.createResource(String.format("%sprotein%d_%d", NS, i, j));
+				dataModel.add(g, encodes, p);
+			}
+			inference.update();
+			reasoningModel.listStatements(null, RDF.type, record).toList();
+		}
+		stopWatch.stop();
+
+		int records = reasoningModel.listStatements(null, RDF.type, record).toList().size();
+		if (records != 2 * INDIVIDUALS_PER_RESPONSE * responses)
+			throw new IllegalStateException(String.format("expected %d records, found %d", 2 * INDIVIDUALS_PER_RESPONSE * responses, records));
+
+		inference.close();
+		return stopWatch.getTime();
+	}
+
+	private static int[] parseSizes(String[] args)
+	{
+		int[] sizes = new int[args.length];
+		for (int i = 0; i < args.length; ++i)
+			sizes[i] = Integer.parseInt(args[i]);
+		return sizes;
+	}
+}